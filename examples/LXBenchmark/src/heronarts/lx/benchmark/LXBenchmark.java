@@ -0,0 +1,287 @@
+/**
+ * Copyright 2017- Mark C. Slee, Heron Arts LLC
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+package heronarts.lx.benchmark;
+
+import java.net.InetAddress;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import heronarts.lx.LX;
+import heronarts.lx.LXChannel;
+import heronarts.lx.LXLayeredComponent;
+import heronarts.lx.LXPattern;
+import heronarts.lx.blend.LXBlend;
+import heronarts.lx.blend.NormalBlend;
+import heronarts.lx.color.LXColor;
+import heronarts.lx.color.LXColor16;
+import heronarts.lx.model.GridModel;
+import heronarts.lx.model.LXPoint;
+import heronarts.lx.output.ArtNetDatagram;
+import heronarts.lx.output.LXDatagram;
+import heronarts.lx.output.LXDatagramChannelOutput;
+import heronarts.lx.output.LXDatagramOutput;
+import heronarts.lx.output.LXLoopbackReceiver;
+import heronarts.lx.output.LXOutput;
+
+/**
+ * Compares the regular 8-bit engine path with the 16-bit wide color path.
+ * Two channels of dim gradients are crossfaded and sent through an output
+ * with brightness correction three times: with the engine mixing at 8-bit,
+ * with it mixing 8-bit patterns at 16-bit, and with it mixing patterns that
+ * render 16-bit color themselves. The frame time of each is printed, along
+ * with the number of distinct red levels that reach the output, which shows
+ * how much of the gradient survives the fader and brightness scaling.
+ *
+ * The output path is then measured by sending the grid as one Art-Net
+ * universe per row into an LXLoopbackReceiver, through an LXDatagramOutput
+ * and through an LXDatagramChannelOutput with one and with several threads.
+ * The time spent sending each frame is printed, along with the packets the
+ * receiver got, the packets it saw go missing and the latency from the
+ * start of the frame. Frames are sent back to back rather than at a frame
+ * rate, so losses mostly show how well the receiver keeps up on this machine.
+ *
+ * Usage: LXBenchmark [grid size]
+ */
+public class LXBenchmark {
+
+  private static final int WARMUP_FRAMES = 200;
+  private static final int FRAMES = 1000;
+  private static final int BLEND_ITERATIONS = 2000;
+  private static final int OUTPUT_FRAMES = 500;
+  private static final int OUTPUT_THREADS = 4;
+  private static final int OUTPUT_PORT = 16454;
+
+  public static class GradientPattern extends LXPattern {
+
+    private final float offset;
+
+    public GradientPattern(LX lx, float offset) {
+      super(lx);
+      this.offset = offset;
+    }
+
+    @Override
+    public void run(double deltaMs) {
+      // Ramp over every point, so the gradient has more than 8 bits of steps
+      int n = model.points.length;
+      for (int i = 0; i < n; ++i) {
+        this.colors[model.points[i].index] = LXColor.gray(100 * (((float) i / n + this.offset) % 1));
+      }
+    }
+  }
+
+  public static class WideGradientPattern extends LXPattern implements LXLayeredComponent.Wide {
+
+    private final float offset;
+
+    public WideGradientPattern(LX lx, float offset) {
+      super(lx);
+      this.offset = offset;
+    }
+
+    @Override
+    public void run(double deltaMs) {
+      long[] colors16 = getBuffer16().getArray16();
+      int n = model.points.length;
+      for (int i = 0; i < n; ++i) {
+        int level = (int) (LXColor16.MAX * (((float) i / n + this.offset) % 1));
+        colors16[model.points[i].index] = LXColor16.rgb(level, level, level);
+      }
+    }
+  }
+
+  /**
+   * Output that just records the distinct levels it is sent
+   */
+  public static class LevelOutput extends LXOutput {
+
+    private final Set<Integer> levels = new HashSet<Integer>();
+
+    public LevelOutput(LX lx) {
+      super(lx);
+    }
+
+    public void reset() {
+      this.levels.clear();
+    }
+
+    public int getLevels() {
+      return this.levels.size();
+    }
+
+    @Override
+    protected void onSend(int[] colors) {
+      for (int i = 0; i < colors.length; ++i) {
+        // Scale to the 16-bit range so the counts are comparable
+        int red = LXColor.red(colors[i]) & 0xff;
+        this.levels.add((red << 8) | red);
+      }
+    }
+
+    @Override
+    protected void onSend(long[] colors16, int[] colors) {
+      for (int i = 0; i < colors16.length; ++i) {
+        this.levels.add(LXColor16.red(colors16[i]));
+      }
+    }
+  }
+
+  public static void main(String[] args) {
+    int size = (args.length > 0) ? Integer.parseInt(args[0]) : 100;
+    LX lx = new LX(new GridModel(size, size));
+    System.out.println("LXBenchmark: " + lx.total + " points");
+
+    lx.engine.getChannel(0).setPatterns(new LXPattern[] { new GradientPattern(lx, 0), new WideGradientPattern(lx, 0) });
+    LXChannel channel = lx.engine.addChannel(new LXPattern[] { new GradientPattern(lx, .5f), new WideGradientPattern(lx, .5f) });
+    lx.engine.getChannel(0).crossfadeGroup.setValue(LXChannel.CrossfadeGroup.A);
+    channel.crossfadeGroup.setValue(LXChannel.CrossfadeGroup.B);
+    lx.engine.getChannel(0).fader.setValue(.3);
+    channel.fader.setValue(.3);
+    lx.engine.crossfader.setValue(.3);
+
+    LevelOutput output = new LevelOutput(lx);
+    output.brightness.setValue(.25);
+    lx.engine.addOutput(output);
+
+    runEngine(lx, output, false, " 8-bit engine");
+    runEngine(lx, output, true, "16-bit mixing");
+    lx.engine.getChannel(0).goIndex(1);
+    channel.goIndex(1);
+    runEngine(lx, output, true, "16-bit render");
+    runBlend(lx);
+    lx.engine.stop();
+
+    try {
+      runOutput(size, 0, "      socket output");
+      runOutput(size, 1, "     channel output");
+      runOutput(size, OUTPUT_THREADS, "  " + OUTPUT_THREADS + "-thread channel");
+    } catch (Exception x) {
+      System.err.println("Output benchmark failed: " + x.getLocalizedMessage());
+      x.printStackTrace();
+    }
+    System.exit(0);
+  }
+
+  /**
+   * Sends the grid as one Art-Net universe per row into a loopback receiver,
+   * through a socket output if threads is 0, or a channel output otherwise
+   */
+  private static void runOutput(int size, int threads, String label) throws Exception {
+    GridModel model = new GridModel(size, size);
+    LX lx = new LX(model);
+    lx.engine.getChannel(0).setPatterns(new LXPattern[] { new GradientPattern(lx, 0) });
+
+    int port = OUTPUT_PORT + threads;
+    LXLoopbackReceiver receiver = new LXLoopbackReceiver(lx.engine)
+      .listen(LXLoopbackReceiver.Protocol.ARTNET, port);
+    LXDatagram[] datagrams = new LXDatagram[size];
+    for (int row = 0; row < size; ++row) {
+      datagrams[row] = new ArtNetDatagram(model.rows.get(row), row)
+        .setSequenceEnabled(true)
+        .setAddress(InetAddress.getLoopbackAddress())
+        .setPort(port);
+    }
+    if (threads == 0) {
+      lx.engine.addOutput(new LXDatagramOutput(lx).addDatagrams(datagrams));
+    } else {
+      lx.engine.addOutput(new LXDatagramChannelOutput(lx, threads).addDatagrams(datagrams));
+    }
+
+    long now = System.currentTimeMillis();
+    for (int i = 0; i < WARMUP_FRAMES; ++i) {
+      lx.engine.run(now += 16);
+    }
+    long outputNanos = 0;
+    for (int i = 0; i < OUTPUT_FRAMES; ++i) {
+      lx.engine.run(now += 16);
+      outputNanos += lx.engine.timer.outputNanos;
+    }
+
+    // Give the receiver a moment to drain its socket
+    Thread.sleep(200);
+    receiver.stop();
+
+    long lost = 0;
+    double latency = 0, latencyMax = 0;
+    List<LXLoopbackReceiver.Stream> streams = receiver.getStreams();
+    for (LXLoopbackReceiver.Stream stream : streams) {
+      lost += stream.getLost();
+      latency += stream.getLatencyMeanMillis();
+      latencyMax = Math.max(latencyMax, stream.getLatencyMaxMillis());
+    }
+    if (!streams.isEmpty()) {
+      latency /= streams.size();
+    }
+    long sent = (long) size * (WARMUP_FRAMES + OUTPUT_FRAMES);
+    System.out.println(label + ": " + format(outputNanos / (double) OUTPUT_FRAMES) + "ms/frame, "
+      + receiver.getPackets() + "/" + sent + " packets received, " + lost + " lost, latency "
+      + String.format("%.3f", latency) + "ms mean " + String.format("%.3f", latencyMax) + "ms max");
+    lx.dispose();
+  }
+
+  private static void runEngine(LX lx, LevelOutput output, boolean wide, String label) {
+    lx.engine.wideColor.setValue(wide);
+    long now = System.currentTimeMillis();
+    for (int i = 0; i < WARMUP_FRAMES; ++i) {
+      lx.engine.run(now += 16);
+    }
+    output.reset();
+    long start = System.nanoTime();
+    for (int i = 0; i < FRAMES; ++i) {
+      lx.engine.run(now += 16);
+    }
+    long nanos = System.nanoTime() - start;
+    System.out.println(label + ": " + format(nanos / (double) FRAMES) + "ms/frame, " + output.getLevels() + " distinct output levels");
+  }
+
+  private static void runBlend(LX lx) {
+    LXBlend blend = new NormalBlend(lx);
+    int[] dst = new int[lx.total];
+    int[] src = new int[lx.total];
+    long[] dst16 = new long[lx.total];
+    long[] src16 = new long[lx.total];
+    for (int i = 0; i < lx.total; ++i) {
+      src[i] = LXColor.gray(100f * i / lx.total);
+      dst[i] = LXColor.BLACK;
+    }
+    LXColor16.widen(src, src16);
+    LXColor16.widen(dst, dst16);
+
+    long start = System.nanoTime();
+    for (int i = 0; i < BLEND_ITERATIONS; ++i) {
+      blend.blend(dst, src, .5, dst);
+    }
+    long nanos8 = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    for (int i = 0; i < BLEND_ITERATIONS; ++i) {
+      blend.blend(dst16, src16, .5, dst16);
+    }
+    long nanos16 = System.nanoTime() - start;
+
+    System.out.println(" 8-bit normal blend: " + format(nanos8 / (double) BLEND_ITERATIONS) + "ms");
+    System.out.println("16-bit normal blend: " + format(nanos16 / (double) BLEND_ITERATIONS) + "ms");
+  }
+
+  private static String format(double nanos) {
+    return String.format("%.3f", nanos / 1000000.);
+  }
+}
@@ -0,0 +1,257 @@
+/**
+ * Copyright 2017- Mark C. Slee, Heron Arts LLC
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+package heronarts.lx.loopback;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import heronarts.lx.LX;
+import heronarts.lx.LXChannel;
+import heronarts.lx.LXPattern;
+import heronarts.lx.cluster.LXClusterFollower;
+import heronarts.lx.cluster.LXClusterLeader;
+import heronarts.lx.color.LXColor;
+import heronarts.lx.effect.DesaturationEffect;
+import heronarts.lx.model.GridModel;
+import heronarts.lx.model.LXFixture;
+import heronarts.lx.model.LXPoint;
+import heronarts.lx.output.LXOutput;
+import heronarts.lx.parameter.CompoundParameter;
+
+/**
+ * Runs a rendering cluster on localhost inside a single JVM. A leader and a
+ * number of followers each build the same grid and project, and every
+ * follower renders a band of rows of the grid. The leader is clocked by hand
+ * and waits for every follower to send each frame, then the colors each
+ * follower sent for its shard are compared with what the leader rendered
+ * for the whole grid.
+ *
+ * Halfway through, a parameter is changed and the pattern switched on the
+ * leader, which the followers should pick up on the next frame. The number of
+ * mismatched points, dropped frames and the average render time of the
+ * leader and of each follower are printed at the end.
+ *
+ * Usage: LXClusterLoopback [followers] [frames] [grid size]
+ */
+public class LXClusterLoopback {
+
+  private static final int LEADER_REQUEST_PORT = 3049;
+  private static final int FOLLOWER_PORT = 3050;
+  private static final long FRAME_TIMEOUT_MS = 1000;
+
+  public static class WavePattern extends LXPattern {
+
+    public final CompoundParameter hue = new CompoundParameter("Hue", 0, 0, 360);
+
+    private double basis = 0;
+
+    public WavePattern(LX lx) {
+      super(lx);
+      addParameter("hue", this.hue);
+    }
+
+    @Override
+    public void run(double deltaMs) {
+      this.basis = (this.basis + deltaMs / 2000.) % 1;
+      float[] xn = model.getXn();
+      float[] yn = model.getYn();
+      for (int i = 0; i < model.points.length; ++i) {
+        double wave = .5 + .5 * Math.sin(2 * Math.PI * (xn[i] + this.basis));
+        this.colors[model.points[i].index] = LXColor.hsb(this.hue.getValue() + 120 * yn[i], 100, 100 * wave);
+      }
+    }
+  }
+
+  public static class RadialPattern extends LXPattern {
+
+    public RadialPattern(LX lx) {
+      super(lx);
+    }
+
+    @Override
+    public void run(double deltaMs) {
+      for (LXPoint p : model.points) {
+        float dist = (float) Math.hypot(p.x - model.cx, p.y - model.cy) / model.rMax;
+        this.colors[p.index] = LXColor.gray(100 * (1 - Math.min(1, dist)));
+      }
+    }
+  }
+
+  /**
+   * Output that keeps the colors of the points it addresses, and counts the
+   * frames it has been sent
+   */
+  public static class CaptureOutput extends LXOutput {
+
+    private final int[] indices;
+    private final int[] captured;
+    private int frames = 0;
+
+    public CaptureOutput(LX lx, int[] indices) {
+      super(lx);
+      this.indices = indices;
+      this.captured = new int[indices.length];
+    }
+
+    @Override
+    protected synchronized void onSend(int[] colors) {
+      for (int i = 0; i < this.indices.length; ++i) {
+        this.captured[i] = colors[this.indices[i]];
+      }
+      ++this.frames;
+      notifyAll();
+    }
+
+    synchronized boolean await(int frames, long timeoutMs) throws InterruptedException {
+      long deadline = System.currentTimeMillis() + timeoutMs;
+      while (this.frames < frames) {
+        long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0) {
+          return false;
+        }
+        wait(remaining);
+      }
+      return true;
+    }
+
+    synchronized int countMismatches(int[] expected) {
+      int mismatches = 0;
+      for (int i = 0; i < this.indices.length; ++i) {
+        if (this.captured[i] != expected[this.indices[i]]) {
+          ++mismatches;
+        }
+      }
+      return mismatches;
+    }
+  }
+
+  private static class Node {
+    final LX lx;
+    final GridModel model;
+    final CaptureOutput output;
+    LXClusterFollower follower = null;
+    long renderNanos = 0;
+    int mismatches = 0;
+    int timeouts = 0;
+
+    Node(int size, int rowStart, int rowEnd) {
+      this.model = new GridModel(size, size);
+      this.lx = new LX(this.model);
+      buildProject(this.lx);
+      int[] indices = new int[(rowEnd - rowStart) * size];
+      int i = 0;
+      for (int row = rowStart; row < rowEnd; ++row) {
+        for (LXPoint p : this.model.rows.get(row).points) {
+          indices[i++] = p.index;
+        }
+      }
+      this.output = new CaptureOutput(this.lx, indices);
+      this.lx.engine.addOutput(this.output);
+    }
+
+    LXFixture[] getShard(int rowStart, int rowEnd) {
+      List<LXFixture> shard = new ArrayList<LXFixture>();
+      for (int row = rowStart; row < rowEnd; ++row) {
+        shard.add(this.model.rows.get(row));
+      }
+      return shard.toArray(new LXFixture[0]);
+    }
+  }
+
+  /**
+   * Every node of a cluster must build an identical project
+   */
+  private static void buildProject(LX lx) {
+    LXChannel channel = lx.engine.getChannel(0);
+    channel.setPatterns(new LXPattern[] { new WavePattern(lx), new RadialPattern(lx) });
+    DesaturationEffect desaturation = new DesaturationEffect(lx);
+    desaturation.getParameter("amount").setValue(.25);
+    lx.engine.masterChannel.addEffect(desaturation);
+    desaturation.enable();
+  }
+
+  public static void main(String[] args) {
+    int numFollowers = (args.length > 0) ? Integer.parseInt(args[0]) : 3;
+    int frames = (args.length > 1) ? Integer.parseInt(args[1]) : 300;
+    int size = (args.length > 2) ? Integer.parseInt(args[2]) : 60;
+    if (numFollowers < 1 || numFollowers > size) {
+      System.err.println("Number of followers must be between 1 and the grid size");
+      System.exit(1);
+    }
+
+    try {
+      Node leader = new Node(size, 0, size);
+      LXClusterLeader clusterLeader = new LXClusterLeader(leader.lx).listen(LEADER_REQUEST_PORT);
+
+      Node[] followers = new Node[numFollowers];
+      for (int f = 0; f < numFollowers; ++f) {
+        int rowStart = f * size / numFollowers;
+        int rowEnd = (f + 1) * size / numFollowers;
+        Node node = followers[f] = new Node(size, rowStart, rowEnd);
+        node.follower = new LXClusterFollower(node.lx, FOLLOWER_PORT + f, node.getShard(rowStart, rowEnd))
+          .setLeaderPort(LEADER_REQUEST_PORT)
+          .start();
+        clusterLeader.addFollower("localhost", FOLLOWER_PORT + f);
+        System.out.println("Follower " + f + " on port " + (FOLLOWER_PORT + f) + ": rows " + rowStart + "-" + (rowEnd - 1) + ", " + node.output.indices.length + " points");
+      }
+
+      long now = System.currentTimeMillis();
+      for (int frame = 1; frame <= frames; ++frame) {
+        if (frame == frames / 2) {
+          LXChannel channel = leader.lx.engine.getChannel(0);
+          ((WavePattern) channel.getPatterns().get(0)).hue.setValue(200);
+          channel.goIndex(1);
+        }
+        leader.lx.engine.run(now += 16);
+        leader.renderNanos += leader.lx.engine.timer.runNanos;
+        for (Node node : followers) {
+          if (node.output.await(frame, FRAME_TIMEOUT_MS)) {
+            node.renderNanos += node.lx.engine.timer.runNanos;
+            node.mismatches += node.output.countMismatches(leader.output.captured);
+          } else {
+            ++node.timeouts;
+          }
+        }
+      }
+
+      System.out.println("Leader: " + leader.lx.total + " points, " + format(leader.renderNanos / (double) frames) + "ms/frame");
+      for (int f = 0; f < numFollowers; ++f) {
+        Node node = followers[f];
+        int rendered = frames - node.timeouts;
+        System.out.println("Follower " + f + ": " +
+          format(node.renderNanos / (double) Math.max(1, rendered)) + "ms/frame, " +
+          node.mismatches + " mismatched points, " +
+          node.timeouts + " timeouts, " +
+          node.follower.getDroppedFrames() + " dropped frames, " +
+          node.follower.getMissedStates() + " missed states");
+        node.follower.stop();
+      }
+      clusterLeader.dispose();
+    } catch (Exception x) {
+      System.err.println("LXClusterLoopback failed: " + x.getLocalizedMessage());
+      x.printStackTrace();
+    }
+    System.exit(0);
+  }
+
+  private static String format(double nanos) {
+    return String.format("%.3f", nanos / 1000000.);
+  }
+}
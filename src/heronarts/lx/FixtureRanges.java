@@ -0,0 +1,76 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * @author Mark C. Slee <mark@heronarts.com>
+ */
+
+
+package heronarts.lx;
+
+import heronarts.lx.model.LXFixture;
+import heronarts.lx.model.LXIndexRanges;
+import heronarts.lx.model.LXModel;
+
+/**
+ * Holds a set of fixtures, and the index ranges and view model of their
+ * points, which are rebuilt whenever the model has been swapped since they
+ * were computed.
+ */
+class FixtureRanges {
+
+  private final LX lx;
+
+  private LXFixture[] fixtures = null;
+  private LXIndexRanges ranges = null;
+  private LXModel rangesModel = null;
+  private LXModel view = null;
+  private LXModel viewParent = null;
+
+  FixtureRanges(LX lx) {
+    this.lx = lx;
+  }
+
+  void set(LXFixture[] fixtures) {
+    this.fixtures = ((fixtures == null) || (fixtures.length == 0)) ? null : fixtures.clone();
+    this.ranges = null;
+    this.rangesModel = null;
+    this.view = null;
+    this.viewParent = null;
+  }
+
+  LXIndexRanges get() {
+    if (this.fixtures == null) {
+      return null;
+    }
+    if (this.rangesModel != this.lx.model) {
+      this.ranges = LXIndexRanges.fromFixtures(this.fixtures);
+      this.rangesModel = this.lx.model;
+    }
+    return this.ranges;
+  }
+
+  LXModel getView(LXModel parent) {
+    if (this.fixtures == null) {
+      return parent;
+    }
+    if (this.viewParent != parent) {
+      this.view = new LXModel(parent, this.fixtures);
+      this.viewParent = parent;
+    }
+    return this.view;
+  }
+}
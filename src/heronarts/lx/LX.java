@@ -24,6 +24,7 @@ import heronarts.lx.color.LXColor;
 import heronarts.lx.color.LXPalette;
 import heronarts.lx.model.GridModel;
 import heronarts.lx.model.LXModel;
+import heronarts.lx.model.LXModelRemap;
 import heronarts.lx.output.LXOutput;
 import heronarts.lx.pattern.IteratorTestPattern;
 import java.io.File;
@@ -104,6 +105,26 @@ public class LX {
 
   private final List<Listener> listeners = new ArrayList<Listener>();
 
+  /**
+   * Listener for changes of the model, used by components that hold state
+   * indexed by point. A swap happens in two phases. First, every listener
+   * is asked to prepare on a background thread while the engine continues
+   * rendering the old model, which is where new buffers and index maps
+   * should be built. Then, between frames on the engine thread, every
+   * listener is told to swap, which should do no more than switch over to
+   * the prepared state and carry forward values for persisting points.
+   * Listeners must tolerate a swap without a preceding prepare, which may
+   * happen if they are registered while a swap is in progress.
+   */
+  public interface ModelSwapListener {
+    public void prepareModel(LX lx, LXModelRemap remap);
+    public void swapModel(LX lx, LXModelRemap remap);
+  }
+
+  private final List<ModelSwapListener> modelSwapListeners = new ArrayList<ModelSwapListener>();
+
+  private boolean modelSwapPending = false;
+
   public interface ProjectListener {
 
     enum Change {
@@ -120,34 +141,36 @@ public class LX {
   final LXComponent.Registry componentRegistry = new LXComponent.Registry();
 
   /**
-   * The width of the grid, immutable.
+   * The width of the grid, changes only when the model is swapped.
    */
-  public final int width;
+  public int width;
 
   /**
-   * The height of the grid, immutable.
+   * The height of the grid, changes only when the model is swapped.
    */
-  public final int height;
+  public int height;
 
   /**
    * The midpoint of the x-space.
    */
-  public final float cx;
+  public float cx;
 
   /**
    * This midpoint of the y-space.
    */
-  public final float cy;
+  public float cy;
 
   /**
-   * The pixel model.
+   * The pixel model. This changes only on the engine thread, when a model
+   * passed to setModel() is swapped in.
    */
-  public final LXModel model;
+  public LXModel model;
 
   /**
-   * The total number of pixels in the grid, immutable.
+   * The total number of pixels in the grid, changes only when the model is
+   * swapped.
    */
-  public final int total;
+  public int total;
 
   /**
    * The default palette.
@@ -211,23 +234,8 @@ public class LX {
    */
   public LX(LXModel model) {
     LX.initTimer.init();
-    this.model = model;
-    if (model == null) {
-      this.total = this.width = this.height = 0;
-      this.cx = this.cy = 0;
-    } else {
-      this.total = model.points.length;
-      this.cx = model.cx;
-      this.cy = model.cy;
-      if (model instanceof GridModel) {
-        GridModel grid = (GridModel) model;
-        this.width = grid.width;
-        this.height = grid.height;
-      } else {
-        this.width = this.height = 0;
-      }
-    }
-    model.computeNormals();
+    model.reindex();
+    initModel(model);
     LX.initTimer.log("Model");
 
     // Color palette
@@ -251,6 +259,116 @@ public class LX {
 
   }
 
+  private void initModel(LXModel model) {
+    this.model = model;
+    if (model == null) {
+      this.total = this.width = this.height = 0;
+      this.cx = this.cy = 0;
+    } else {
+      this.total = model.points.length;
+      this.cx = model.cx;
+      this.cy = model.cy;
+      if (model instanceof GridModel) {
+        GridModel grid = (GridModel) model;
+        this.width = grid.width;
+        this.height = grid.height;
+      } else {
+        this.width = this.height = 0;
+      }
+    }
+  }
+
+  /**
+   * Replaces the model while the engine is running. Buffers and index maps
+   * for the new model are prepared on a background thread, then the swap is
+   * made between two frames on the engine thread, so rendering is not
+   * interrupted. Colors of points that appear in both models are carried
+   * forward. Points of the new model are reindexed when the swap is made,
+   * so outputs should not be built from their indices before then.
+   *
+   * @param model New model
+   * @return this
+   */
+  public LX setModel(final LXModel model) {
+    if (model == null) {
+      throw new IllegalArgumentException("May not set null model");
+    }
+    synchronized (this.modelSwapListeners) {
+      if (this.modelSwapPending) {
+        throw new IllegalStateException("Cannot set model while another model swap is in progress");
+      }
+      this.modelSwapPending = true;
+    }
+    new Thread("LX Model Swap") {
+      @Override
+      public void run() {
+        final LXModelRemap remap;
+        try {
+          remap = new LXModelRemap(LX.this.model, model);
+          for (ModelSwapListener listener : getModelSwapListeners()) {
+            listener.prepareModel(LX.this, remap);
+          }
+        } catch (Exception x) {
+          System.err.println("Could not prepare model swap: " + x.getLocalizedMessage());
+          x.printStackTrace();
+          synchronized (modelSwapListeners) {
+            modelSwapPending = false;
+          }
+          return;
+        }
+        engine.addTask(new Runnable() {
+          public void run() {
+            engine.swapModel(new Runnable() {
+              public void run() {
+                swapModel(remap);
+              }
+            });
+          }
+        });
+      }
+    }.start();
+    return this;
+  }
+
+  /**
+   * Makes a prepared model swap, invoked on the engine thread
+   */
+  private void swapModel(LXModelRemap remap) {
+    LXModel model = remap.model;
+    model.reindex();
+    initModel(model);
+    for (ModelSwapListener listener : getModelSwapListeners()) {
+      listener.swapModel(this, remap);
+    }
+    this.palette.setModel(model);
+    synchronized (this.modelSwapListeners) {
+      this.modelSwapPending = false;
+    }
+    for (Listener listener : this.listeners) {
+      listener.modelChanged(this, model);
+    }
+  }
+
+  private ModelSwapListener[] getModelSwapListeners() {
+    synchronized (this.modelSwapListeners) {
+      return this.modelSwapListeners.toArray(new ModelSwapListener[0]);
+    }
+  }
+
+  public LX addModelSwapListener(ModelSwapListener listener) {
+    synchronized (this.modelSwapListeners) {
+      this.modelSwapListeners.add(listener);
+    }
+    return this;
+  }
+
+  public LX removeModelSwapListener(ModelSwapListener listener) {
+    synchronized (this.modelSwapListeners) {
+      this.modelSwapListeners.remove(listener);
+    }
+    return this;
+  }
+
   public LX addListener(Listener listener) {
     this.listeners.add(listener);
     return this;
@@ -280,6 +398,7 @@ public class LX {
    */
   public void dispose() {
     this.engine.audio.dispose();
+    this.engine.dispose();
   }
 
   /**
@@ -21,6 +21,8 @@
 package heronarts.lx;
 
 import heronarts.lx.clip.LXClip;
+import heronarts.lx.model.LXFixture;
+import heronarts.lx.model.LXIndexRanges;
 import heronarts.lx.model.LXModel;
 import heronarts.lx.osc.LXOscComponent;
 import heronarts.lx.parameter.BooleanParameter;
@@ -73,6 +75,11 @@ public abstract class LXBus extends LXModelComponent implements LXOscComponent {
   private final List<Listener> listeners = new ArrayList<Listener>();
   private final List<ClipListener> clipListeners = new ArrayList<ClipListener>();
 
+  /**
+   * Fixtures this bus is focused on, if any
+   */
+  private final FixtureRanges focus;
+
   LXBus(LX lx) {
     this(lx, null);
   }
@@ -80,16 +87,88 @@ public abstract class LXBus extends LXModelComponent implements LXOscComponent {
   LXBus(LX lx, String label) {
     super(lx, label);
     this.lx = lx;
+    this.focus = new FixtureRanges(lx);
     addParameter("arm", this.arm);
   }
 
   @Override
   protected void onModelChanged(LXModel model) {
+    updateRenderModel(getRenderModel());
+  }
+
+  /**
+   * Focuses this bus on a subset of fixtures. Its devices are given a view
+   * model of just their points, which keeps the bounds of the whole model, so
+   * anything iterating model.points renders only the focus and produces the
+   * same colors there as it would unfocused. Loops over the whole colors
+   * array still touch every point. Channels also only blend the focused
+   * points into the mix.
+   *
+   * @param fixtures Fixtures to focus on, or none to clear the focus
+   * @return this
+   */
+  public LXBus setFocus(LXFixture ... fixtures) {
+    this.focus.set(fixtures);
+    return this;
+  }
+
+  /**
+   * Clears any fixture focus, so the bus covers the whole model
+   *
+   * @return this
+   */
+  public LXBus clearFocus() {
+    this.focus.set(null);
+    return this;
+  }
+
+  /**
+   * Gets the index ranges of the fixtures this bus is focused on
+   *
+   * @return Focus index ranges, or null if not focused
+   */
+  public LXIndexRanges getFocus() {
+    return this.focus.get();
+  }
+
+  /**
+   * Gets the model the devices of this bus render, which is a view of the
+   * focused fixtures, or the whole model if there is no focus
+   *
+   * @return Model rendered by this bus
+   */
+  public LXModel getRenderModel() {
+    return this.focus.getView(this.model);
+  }
+
+  /**
+   * Points the devices of this bus at the model they render. Devices already
+   * on that model are left alone.
+   *
+   * @param renderModel Model to render
+   */
+  void updateRenderModel(LXModel renderModel) {
     for (LXEffect effect : this.mutableEffects) {
-      effect.setModel(model);
+      effect.setModel(renderModel);
     }
   }
 
+  /**
+   * Whether every effect on this bus that is running, or fading out, renders
+   * wide color, so that the bus can be processed at 16 bits
+   *
+   * @return true if no running effect is limited to 8-bit
+   */
+  boolean hasWideEffects() {
+    for (LXEffect effect : this.mutableEffects) {
+      if (!(effect instanceof LXLayeredComponent.Wide) &&
+          (effect.isEnabled() || (effect.enabledDamped.getValue() > 0))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   public final void addListener(Listener listener) {
     this.listeners.add(listener);
   }
@@ -236,6 +315,9 @@ public abstract class LXBus extends LXModelComponent implements LXOscComponent {
       }
     }
 
+    // Devices follow any change of focus
+    updateRenderModel(getRenderModel());
+
     // Run modulators and components
     super.loop(deltaMs);
 
@@ -25,6 +25,8 @@ import heronarts.lx.clip.LXChannelClip;
 import heronarts.lx.clip.LXClip;
 import heronarts.lx.midi.LXMidiEngine;
 import heronarts.lx.midi.LXShortMessage;
+import heronarts.lx.model.LXFixture;
+import heronarts.lx.model.LXIndexRanges;
 import heronarts.lx.model.LXModel;
 import heronarts.lx.parameter.BoundedParameter;
 import heronarts.lx.parameter.CompoundParameter;
@@ -210,10 +212,26 @@ public class LXChannel extends LXBus implements LXComponent.Renamable {
   /**
    * This is a local buffer used for transition blending on this channel
    */
-  private final ModelBuffer blendBuffer;
+  private final PlanarBuffer blendBuffer;
+
+  /**
+   * Wide buffer for running effects on a wide pattern, allocated on first use
+   */
+  private ModelBuffer16 blendBuffer16 = null;
 
   private int[] colors;
 
+  /**
+   * Wide colors rendered on the current frame, or null if only 8-bit
+   */
+  private long[] colors16 = null;
+
+  /**
+   * Index ranges rendered by this channel on the current frame, or null if
+   * it covers the whole model
+   */
+  private LXIndexRanges renderRanges = null;
+
   private double autoCycleProgress = 0;
   private double transitionProgress = 0;
   private int activePatternIndex = 0;
@@ -271,7 +289,7 @@ public class LXChannel extends LXBus implements LXComponent.Renamable {
     super(lx, "Channel-" + (index+1));
     this.index = index;
     this.label.setDescription("The name of this channel");
-    this.blendBuffer = new ModelBuffer(lx);
+    this.blendBuffer = new PlanarBuffer(lx);
 
     this.focusedPattern =
       new DiscreteParameter("Focused Pattern", 0, patterns.length)
@@ -320,10 +338,10 @@ public class LXChannel extends LXBus implements LXComponent.Renamable {
   }
 
   @Override
-  protected void onModelChanged(LXModel model) {
-    super.onModelChanged(model);
+  void updateRenderModel(LXModel renderModel) {
+    super.updateRenderModel(renderModel);
     for (LXPattern pattern : this.mutablePatterns) {
-      pattern.setModel(model);
+      pattern.setModel(renderModel);
     }
   }
 
@@ -423,7 +441,7 @@ public class LXChannel extends LXBus implements LXComponent.Renamable {
 
   public final LXChannel addPattern(LXPattern pattern) {
     pattern.setChannel(this);
-    pattern.setModel(this.model);
+    pattern.setModel(getRenderModel());
     pattern.setIndex(this.mutablePatterns.size());
     this.mutablePatterns.add(pattern);
     this.focusedPattern.setRange(this.mutablePatterns.size());
@@ -715,6 +733,49 @@ public class LXChannel extends LXBus implements LXComponent.Renamable {
     activePattern.loop(deltaMs);
     int[] colors = activePattern.getColors();
 
+    // Determine which points this channel covers
+    LXIndexRanges ranges = getFocus();
+    if (ranges == null) {
+      ranges = activePattern.getRanges();
+      if ((ranges != null) && (this.transition != null)) {
+        LXIndexRanges nextRanges = getNextPattern().getRanges();
+        ranges = (nextRanges == null) ? null : ranges.union(nextRanges);
+      }
+    }
+
+    // Patterns and effects that all render wide color are kept at 16 bits
+    // when the engine mixes wide, transitions are only blended at 8-bit
+    ModelBuffer16 patternBuffer16 = activePattern.getBuffer16();
+    if (this.lx.engine.wideColor.isOn() && (this.transition == null) &&
+        (patternBuffer16 != null) && hasWideEffects()) {
+      this.transitionProgress = 0;
+      long[] colors16 = patternBuffer16.getArray16();
+      if (this.mutableEffects.size() > 0) {
+        if (this.blendBuffer16 == null) {
+          this.blendBuffer16 = new ModelBuffer16(this.lx);
+        }
+        long[] array16 = this.blendBuffer16.getArray16();
+        if (ranges != null) {
+          for (int r = 0; r < ranges.getNumRanges(); ++r) {
+            System.arraycopy(colors16, ranges.start(r), array16, ranges.start(r), ranges.end(r) - ranges.start(r));
+          }
+        } else {
+          System.arraycopy(colors16, 0, array16, 0, colors16.length);
+        }
+        for (LXEffect effect : this.mutableEffects) {
+          effect.setBuffer(this.blendBuffer16);
+          effect.loop(deltaMs);
+        }
+        colors16 = array16;
+        colors = this.blendBuffer16.narrow().getArray();
+      }
+      this.colors = colors;
+      this.colors16 = colors16;
+      this.renderRanges = ranges;
+      this.timer.loopNanos = System.nanoTime() - loopStart;
+      return;
+    }
+
     // Run transition!
     if (this.transition != null) {
       this.autoCycleProgress = 1.;
@@ -724,23 +785,12 @@ public class LXChannel extends LXBus implements LXComponent.Renamable {
       // channels. either they need to be per-channel instances, or they are not loopable with modulators etc.
       this.transition.loop(deltaMs);
       colors = this.blendBuffer.getArray();
-      if (this.transitionProgress < .5) {
-        double alpha = Math.min(1, this.transitionProgress*2.);
-        this.transition.blend(
-          getActivePattern().getColors(),
-          getNextPattern().getColors(),
-          alpha,
-          colors
-        );
-      } else {
-        double alpha = Math.max(0, (1-this.transitionProgress)*2.);
-        this.transition.blend(
-          getNextPattern().getColors(),
-          getActivePattern().getColors(),
-          alpha,
-          colors
-        );
-      }
+      this.transition.transition(
+        getActivePattern().getColors(),
+        getNextPattern().getColors(),
+        this.transitionProgress,
+        colors
+      );
     } else {
       this.transitionProgress = 0;
     }
@@ -749,16 +799,26 @@ public class LXChannel extends LXBus implements LXComponent.Renamable {
     if (this.mutableEffects.size() > 0) {
       int[] array = this.blendBuffer.getArray();
       if (colors != array) {
-        System.arraycopy(colors, 0, array, 0, colors.length);
+        if (ranges != null) {
+          for (int r = 0; r < ranges.getNumRanges(); ++r) {
+            System.arraycopy(colors, ranges.start(r), array, ranges.start(r), ranges.end(r) - ranges.start(r));
+          }
+        } else {
+          System.arraycopy(colors, 0, array, 0, colors.length);
+        }
       }
       colors = array;
       for (LXEffect effect : this.mutableEffects) {
         effect.setBuffer(this.blendBuffer);
         effect.loop(deltaMs);
       }
+      // Planar effects may have left the buffer in planar form
+      colors = this.blendBuffer.getArray();
     }
 
     this.colors = colors;
+    this.colors16 = null;
+    this.renderRanges = ranges;
     this.timer.loopNanos = System.nanoTime() - loopStart;
   }
 
@@ -766,6 +826,38 @@ public class LXChannel extends LXBus implements LXComponent.Renamable {
     return this.colors;
   }
 
+  /**
+   * Wide colors of this channel on the last frame, if its pattern and
+   * effects all rendered wide color
+   *
+   * @return Wide colors, or null if only 8-bit colors were rendered
+   */
+  long[] getColors16() {
+    return this.colors16;
+  }
+
+  @Override
+  public LXChannel setFocus(LXFixture ... fixtures) {
+    super.setFocus(fixtures);
+    return this;
+  }
+
+  @Override
+  public LXChannel clearFocus() {
+    super.clearFocus();
+    return this;
+  }
+
+  /**
+   * Index ranges that this channel rendered on its last frame, which is its
+   * focus if set, otherwise the fixtures declared by its patterns
+   *
+   * @return Rendered index ranges, or null for the whole model
+   */
+  LXIndexRanges getRenderRanges() {
+    return this.renderRanges;
+  }
+
   @Override
   public void dispose() {
     for (LXPattern pattern : this.mutablePatterns) {
@@ -775,6 +867,10 @@ public class LXChannel extends LXBus implements LXComponent.Renamable {
     if (this.thread.hasStarted) {
       this.thread.interrupt();
     }
+    this.blendBuffer.dispose();
+    if (this.blendBuffer16 != null) {
+      this.blendBuffer16.dispose();
+    }
     super.dispose();
   }
 
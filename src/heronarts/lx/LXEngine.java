@@ -25,14 +25,20 @@ import heronarts.lx.blend.AddBlend;
 import heronarts.lx.blend.DarkestBlend;
 import heronarts.lx.blend.DifferenceBlend;
 import heronarts.lx.blend.DissolveBlend;
+import heronarts.lx.blend.FixtureWipeBlend;
 import heronarts.lx.blend.LXBlend;
 import heronarts.lx.blend.LightestBlend;
+import heronarts.lx.blend.LinearWipeBlend;
 import heronarts.lx.blend.MultiplyBlend;
 import heronarts.lx.blend.NormalBlend;
+import heronarts.lx.blend.RadialWipeBlend;
 import heronarts.lx.blend.SubtractBlend;
 import heronarts.lx.clip.LXClip;
 import heronarts.lx.color.LXColor;
+import heronarts.lx.color.LXColor16;
 import heronarts.lx.midi.LXMidiEngine;
+import heronarts.lx.model.LXIndexRanges;
+import heronarts.lx.model.LXModelRemap;
 import heronarts.lx.model.LXPoint;
 import heronarts.lx.osc.LXOscComponent;
 import heronarts.lx.osc.LXOscEngine;
@@ -243,12 +249,17 @@ public class LXEngine extends LXComponent implements LXOscComponent, LXModulatio
   class EngineBuffer {
 
     boolean cueOn;
+    boolean wideOn;
     DoubleBuffer main;
     DoubleBuffer cue;
 
+    // Copy of the wide main mix, for the network thread
+    final ModelBuffer16 wide;
+
     EngineBuffer(LX lx) {
       this.main = new DoubleBuffer(lx);
       this.cue = new DoubleBuffer(lx);
+      this.wide = new ModelBuffer16(lx);
     }
 
     void sync() {
@@ -261,6 +272,12 @@ public class LXEngine extends LXComponent implements LXOscComponent, LXModulatio
       this.cue.flip();
     }
 
+    void dispose() {
+      this.main.dispose();
+      this.cue.dispose();
+      this.wide.dispose();
+    }
+
     class DoubleBuffer {
 
       ModelBuffer render;
@@ -271,6 +288,11 @@ public class LXEngine extends LXComponent implements LXOscComponent, LXModulatio
         this.copy = new ModelBuffer(lx);
       }
 
+      void dispose() {
+        this.render.dispose();
+        this.copy.dispose();
+      }
+
       void flip() {
         ModelBuffer tmp = this.copy;
         this.copy = this.render;
@@ -278,7 +300,8 @@ public class LXEngine extends LXComponent implements LXOscComponent, LXModulatio
       }
 
       void copy(int[] destination) {
-        System.arraycopy(this.copy.getArray(), 0, destination, 0, destination.length);
+        int[] source = this.copy.getArray();
+        System.arraycopy(source, 0, destination, 0, Math.min(source.length, destination.length));
       }
     }
   }
@@ -289,6 +312,17 @@ public class LXEngine extends LXComponent implements LXOscComponent, LXModulatio
   private final ModelBuffer blendBufferLeft;
   private final ModelBuffer blendBufferRight;
 
+  private final ModelBuffer16 background16;
+  private final ModelBuffer16 blendBufferMain16;
+  private final ModelBuffer16 blendBufferLeft16;
+  private final ModelBuffer16 blendBufferRight16;
+  private final ModelBuffer16 channelBuffer16;
+
+  private final LX.ModelSwapListener modelSwapListener;
+
+  public final BooleanParameter wideColor = new BooleanParameter("16-Bit", false)
+    .setDescription("Whether channels are mixed and sent to outputs at 16 bits per color channel");
+
   public final BooleanParameter isMultithreaded = new BooleanParameter("Threaded", false)
     .setDescription("Whether the engine and UI are on separate threads");
 
@@ -311,6 +345,7 @@ public class LXEngine extends LXComponent implements LXOscComponent, LXModulatio
 
   private static final long INIT_RUN = -1;
   private long lastMillis = INIT_RUN;
+  private volatile long frameStartNanos = 0;
   long nowMillis = System.currentTimeMillis();
 
   LXEngine(final LX lx) {
@@ -323,15 +358,28 @@ public class LXEngine extends LXComponent implements LXOscComponent, LXModulatio
     this.background = new ModelBuffer(lx);
     this.blendBufferLeft = new ModelBuffer(lx);
     this.blendBufferRight = new ModelBuffer(lx);
+    this.background16 = new ModelBuffer16(lx);
+    this.blendBufferMain16 = new ModelBuffer16(lx);
+    this.blendBufferLeft16 = new ModelBuffer16(lx);
+    this.blendBufferRight16 = new ModelBuffer16(lx);
+    this.channelBuffer16 = new ModelBuffer16(lx);
 
     // Initialize network thread (don't start it yet)
     this.network = new NetworkThread(lx);
 
     // Initialize UI and background to black
-    int[] backgroundArray = this.background.getArray();
-    for (int i = 0; i < backgroundArray.length; ++i) {
-      backgroundArray[i] = LXColor.BLACK;
-    }
+    fillBackground();
+    lx.addModelSwapListener(this.modelSwapListener = new LX.ModelSwapListener() {
+      public void prepareModel(LX lx, LXModelRemap remap) {}
+
+      public void swapModel(LX lx, LXModelRemap remap) {
+        fillBackground();
+        for (LXChannel channel : mutableChannels) {
+          channel.setModel(remap.model);
+        }
+        masterChannel.setModel(remap.model);
+      }
+    });
     LX.initTimer.log("Engine: Buffers");
 
     // Channel blend modes
@@ -349,7 +397,10 @@ public class LXEngine extends LXComponent implements LXOscComponent, LXModulatio
       new MultiplyBlend(lx),
       new LightestBlend(lx),
       new DarkestBlend(lx),
-      new DifferenceBlend(lx)
+      new DifferenceBlend(lx),
+      new LinearWipeBlend(lx),
+      new RadialWipeBlend(lx),
+      new FixtureWipeBlend(lx)
     };
     this.crossfaderBlendMode =
       new DiscreteParameter("Crossfader Blend", this.crossfaderBlends)
@@ -456,6 +507,7 @@ public class LXEngine extends LXComponent implements LXOscComponent, LXModulatio
     addParameter("multithreaded", this.isMultithreaded);
     addParameter("channelMultithreaded", this.isChannelMultithreaded);
     addParameter("networkMultithreaded", this.isNetworkMultithreaded);
+    addParameter("wideColor", this.wideColor);
   }
 
   public void logTimers() {
@@ -514,6 +566,25 @@ public class LXEngine extends LXComponent implements LXOscComponent, LXModulatio
     return this.frameRate;
   }
 
+  /**
+   * Gets the time of the most recently run frame
+   *
+   * @return Frame time in milliseconds
+   */
+  public long getNowMillis() {
+    return this.nowMillis;
+  }
+
+  /**
+   * Gets the System.nanoTime() at which the most recent frame started
+   * running, for measuring latency through to the outputs
+   *
+   * @return Frame start time in nanoseconds
+   */
+  public long getFrameStartNanos() {
+    return this.frameStartNanos;
+  }
+
   /**
    * Whether the engine is threaded. Generally, this should only be called
    * from the Processing animation thread.
@@ -538,6 +609,22 @@ public class LXEngine extends LXComponent implements LXOscComponent, LXModulatio
     setThreaded(false);
   }
 
+  @Override
+  public void dispose() {
+    this.lx.removeModelSwapListener(this.modelSwapListener);
+    this.buffer.dispose();
+    this.background.dispose();
+    this.blendBufferLeft.dispose();
+    this.blendBufferRight.dispose();
+    this.background16.dispose();
+    this.blendBufferMain16.dispose();
+    this.blendBufferLeft16.dispose();
+    this.blendBufferRight16.dispose();
+    this.channelBuffer16.dispose();
+    this.network.dispose();
+    super.dispose();
+  }
+
   /**
    * Sets the engine to threaded or non-threaded mode. Should only be called
    * from the Processing animation thread.
@@ -676,6 +763,30 @@ public class LXEngine extends LXComponent implements LXOscComponent, LXModulatio
     return this;
   }
 
+  /**
+   * Runs a model swap on the engine thread, holding the double-buffer lock so
+   * that the network and UI threads never see a partially swapped set of
+   * buffers.
+   *
+   * @param swap Swap to run
+   */
+  void swapModel(Runnable swap) {
+    synchronized (this.buffer) {
+      swap.run();
+    }
+  }
+
+  private void fillBackground() {
+    int[] backgroundArray = this.background.getArray();
+    for (int i = 0; i < backgroundArray.length; ++i) {
+      backgroundArray[i] = LXColor.BLACK;
+    }
+    long[] backgroundArray16 = this.background16.getArray16();
+    for (int i = 0; i < backgroundArray16.length; ++i) {
+      backgroundArray16[i] = LXColor16.BLACK;
+    }
+  }
+
   /**
    * Add a task to be run on every loop of the engine thread.
    *
@@ -892,12 +1003,25 @@ public class LXEngine extends LXComponent implements LXOscComponent, LXModulatio
   }
 
   public void run() {
+    run(System.currentTimeMillis());
+  }
+
+  /**
+   * Runs a single frame of the engine at the given time, rather than the
+   * current system time. This is used when frames are clocked by an external
+   * source, such as a cluster leader, in which case the engine thread must
+   * not be started.
+   *
+   * @param nowMillis Frame time in milliseconds
+   */
+  public void run(long nowMillis) {
     this.hasStarted = true;
 
     long runStart = System.nanoTime();
+    this.frameStartNanos = runStart;
 
     // Compute elapsed time
-    this.nowMillis = System.currentTimeMillis();
+    this.nowMillis = nowMillis;
     if (this.lastMillis == INIT_RUN) {
       // Initial frame is arbitrarily 16 milliseconds (~60 fps)
       this.lastMillis = this.nowMillis - 16;
@@ -967,6 +1091,15 @@ public class LXEngine extends LXComponent implements LXOscComponent, LXModulatio
     int[] blendOutputRight = this.blendBufferRight.getArray();
     int[] blendDestinationCue = backgroundArray;
 
+    // In wide mode, channel colors are widened and all of the channel,
+    // crossfader and output blending happens at 16 bits per channel
+    boolean wide = this.wideColor.isOn();
+    long[] backgroundArray16 = this.background16.getArray16();
+    long[] blendOutputMain16 = this.blendBufferMain16.getArray16();
+    long[] blendOutputLeft16 = this.blendBufferLeft16.getArray16();
+    long[] blendOutputRight16 = this.blendBufferRight16.getArray16();
+    long[] channelColors16 = this.channelBuffer16.getArray16();
+
     double crossfadeValue = this.crossfader.getValue();
 
     boolean leftOn = crossfadeValue < 1.;
@@ -1028,21 +1161,32 @@ public class LXEngine extends LXComponent implements LXOscComponent, LXModulatio
           boolean doBlend = false;
           int[] blendDestination;
           int[] blendOutput;
+          long[] blendDestination16;
+          long[] blendOutput16;
           switch (channel.crossfadeGroup.getEnum()) {
           case A:
-            blendDestination = (leftChannelCount++ > 0) ? blendOutputLeft : backgroundArray;
+            boolean firstLeft = (leftChannelCount++ == 0);
+            blendDestination = firstLeft ? backgroundArray : blendOutputLeft;
             blendOutput = blendOutputLeft;
+            blendDestination16 = firstLeft ? backgroundArray16 : blendOutputLeft16;
+            blendOutput16 = blendOutputLeft16;
             doBlend = leftOn || this.cueA.isOn();
             break;
           case B:
-            blendDestination = (rightChannelCount++ > 0) ? blendOutputRight: backgroundArray;
+            boolean firstRight = (rightChannelCount++ == 0);
+            blendDestination = firstRight ? backgroundArray : blendOutputRight;
             blendOutput = blendOutputRight;
+            blendDestination16 = firstRight ? backgroundArray16 : blendOutputRight16;
+            blendOutput16 = blendOutputRight16;
             doBlend = rightOn || this.cueB.isOn();
             break;
           default:
           case BYPASS:
-            blendDestination = (mainChannelCount++ > 0) ? blendOutputMain : backgroundArray;
+            boolean firstMain = (mainChannelCount++ == 0);
+            blendDestination = firstMain ? backgroundArray : blendOutputMain;
             blendOutput = blendOutputMain;
+            blendDestination16 = firstMain ? backgroundArray16 : blendOutputMain16;
+            blendOutput16 = blendOutputMain16;
             doBlend = channelIsEnabled;
             break;
           }
@@ -1050,18 +1194,43 @@ public class LXEngine extends LXComponent implements LXOscComponent, LXModulatio
             double alpha = channel.fader.getValue();
             if (alpha > 0) {
               LXBlend blend = (LXBlend) channel.blendMode.getObject();
-              blend.blend(blendDestination, channel.getColors(), alpha, blendOutput);
+              LXIndexRanges ranges = channel.getRenderRanges();
+              if (wide) {
+                long[] colors16 = channel.getColors16();
+                if (colors16 == null) {
+                  LXColor16.widen(channel.getColors(), channelColors16);
+                  colors16 = channelColors16;
+                }
+                if (ranges != null) {
+                  blend.blend(blendDestination16, colors16, alpha, blendOutput16, ranges);
+                } else {
+                  blend.blend(blendDestination16, colors16, alpha, blendOutput16);
+                }
+              } else if (ranges != null) {
+                blend.blend(blendDestination, channel.getColors(), alpha, blendOutput, ranges);
+              } else {
+                blend.blend(blendDestination, channel.getColors(), alpha, blendOutput);
+              }
             } else if (blendDestination != blendOutput) {
               // Edge-case: copy the blank buffer into the destination blend buffer when
               // the channel fader is set to 0
-              System.arraycopy(blendDestination, 0, blendOutput, 0, blendDestination.length);
+              if (wide) {
+                System.arraycopy(blendDestination16, 0, blendOutput16, 0, blendDestination16.length);
+              } else {
+                System.arraycopy(blendDestination, 0, blendOutput, 0, blendDestination.length);
+              }
             }
           }
         }
 
         if (channelIsCue) {
           cueOn = true;
-          this.addBlend.blend(blendDestinationCue, channel.getColors(), 1, blendOutputCue);
+          LXIndexRanges ranges = channel.getRenderRanges();
+          if (ranges != null) {
+            this.addBlend.blend(blendDestinationCue, channel.getColors(), 1, blendOutputCue, ranges);
+          } else {
+            this.addBlend.blend(blendDestinationCue, channel.getColors(), 1, blendOutputCue);
+          }
           blendDestinationCue = blendOutputCue;
         }
 
@@ -1074,11 +1243,17 @@ public class LXEngine extends LXComponent implements LXOscComponent, LXModulatio
 
     if (this.cueA.isOn()) {
       if (leftChannelCount > 0) {
+        if (wide) {
+          LXColor16.narrow(blendOutputLeft16, blendOutputLeft);
+        }
         blendDestinationCue = blendOutputLeft;
       }
       cueOn = true;
     } else if (this.cueB.isOn()) {
       if (rightChannelCount > 0) {
+        if (wide) {
+          LXColor16.narrow(blendOutputRight16, blendOutputRight);
+        }
         blendDestinationCue = blendOutputRight;
       }
       cueOn = true;
@@ -1089,56 +1264,85 @@ public class LXEngine extends LXComponent implements LXOscComponent, LXModulatio
 
     if (leftContent && rightContent) {
       // There are left and right channels assigned!
-      int[] crossfadeSource, crossfadeDestination;
-      double crossfadeAlpha;
-      if (crossfadeValue <= 0.5) {
-        crossfadeDestination = blendOutputLeft;
-        crossfadeSource = blendOutputRight;
-        crossfadeAlpha = Math.min(1, 2. * crossfadeValue);
-      } else {
-        crossfadeDestination = blendOutputRight;
-        crossfadeSource = blendOutputLeft;
-        crossfadeAlpha = Math.min(1, 2. * (1-crossfadeValue));
-      }
-
       // Compute the crossfade mix
       LXBlend blend = (LXBlend) this.crossfaderBlendMode.getObject();
-      blend.blend(crossfadeDestination, crossfadeSource, crossfadeAlpha, crossfadeDestination);
-
-      // Add the crossfaded groups to the main buffer
-      int[] blendDestination = (mainChannelCount > 0) ? blendOutputMain : backgroundArray;
-      addBlend.blend(blendDestination, crossfadeDestination, 1., blendOutputMain);
+      if (wide) {
+        long[] crossfadeDestination16 = (crossfadeValue <= 0.5) ? blendOutputLeft16 : blendOutputRight16;
+        blend.transition(blendOutputLeft16, blendOutputRight16, crossfadeValue, crossfadeDestination16);
+        long[] blendDestination16 = (mainChannelCount > 0) ? blendOutputMain16 : backgroundArray16;
+        addBlend.blend(blendDestination16, crossfadeDestination16, 1., blendOutputMain16);
+      } else {
+        int[] crossfadeDestination = (crossfadeValue <= 0.5) ? blendOutputLeft : blendOutputRight;
+        blend.transition(blendOutputLeft, blendOutputRight, crossfadeValue, crossfadeDestination);
 
+        // Add the crossfaded groups to the main buffer
+        int[] blendDestination = (mainChannelCount > 0) ? blendOutputMain : backgroundArray;
+        addBlend.blend(blendDestination, crossfadeDestination, 1., blendOutputMain);
+      }
     } else if (leftContent) {
       // Add the left group to the main buffer
-      int[] blendDestination = (mainChannelCount > 0) ? blendOutputMain : backgroundArray;
       double blendAlpha = Math.min(1, 2. * (1-crossfadeValue));
-      addBlend.blend(blendDestination, blendOutputLeft, blendAlpha, blendOutputMain);
+      if (wide) {
+        long[] blendDestination16 = (mainChannelCount > 0) ? blendOutputMain16 : backgroundArray16;
+        addBlend.blend(blendDestination16, blendOutputLeft16, blendAlpha, blendOutputMain16);
+      } else {
+        int[] blendDestination = (mainChannelCount > 0) ? blendOutputMain : backgroundArray;
+        addBlend.blend(blendDestination, blendOutputLeft, blendAlpha, blendOutputMain);
+      }
     } else if (rightContent) {
       // Add the right group to the main buffer
-      int[] blendDestination = (mainChannelCount > 0) ? blendOutputMain : backgroundArray;
       double blendAlpha = Math.min(1, 2. * crossfadeValue);
-      addBlend.blend(blendDestination, blendOutputRight, blendAlpha, blendOutputMain);
+      if (wide) {
+        long[] blendDestination16 = (mainChannelCount > 0) ? blendOutputMain16 : backgroundArray16;
+        addBlend.blend(blendDestination16, blendOutputRight16, blendAlpha, blendOutputMain16);
+      } else {
+        int[] blendDestination = (mainChannelCount > 0) ? blendOutputMain : backgroundArray;
+        addBlend.blend(blendDestination, blendOutputRight, blendAlpha, blendOutputMain);
+      }
     }
-    this.timer.channelNanos = System.nanoTime() - channelStart;
 
     // Check for edge case of all channels being off, don't leave stale data in blend buffer
     if ((leftChannelCount + rightChannelCount + mainChannelCount) == 0) {
-      System.arraycopy(backgroundArray, 0, blendOutputMain, 0, backgroundArray.length);
+      if (wide) {
+        System.arraycopy(backgroundArray16, 0, blendOutputMain16, 0, backgroundArray16.length);
+      } else {
+        System.arraycopy(backgroundArray, 0, blendOutputMain, 0, backgroundArray.length);
+      }
     }
 
-    // Time to apply master FX to the main blended output
+    // The UI, cue and master effects all work on the narrowed mix
+    if (wide) {
+      LXColor16.narrow(blendOutputMain16, blendOutputMain);
+    }
+    this.timer.channelNanos = System.nanoTime() - channelStart;
+
+    // Time to apply master FX to the main blended output. If they are all
+    // wide, they run on the wide mix, otherwise the narrowed output is sent
+    // whenever any of them are active.
+    boolean wideOutput = wide;
+    boolean wideEffects = wide && this.masterChannel.hasWideEffects();
     long fxStart = System.nanoTime();
     for (LXEffect effect : this.masterChannel.getEffects()) {
-      effect.setBuffer(this.buffer.main.render);
+      if (wideEffects) {
+        effect.setBuffer(this.blendBufferMain16);
+      } else {
+        effect.setBuffer(this.buffer.main.render);
+      }
       effect.loop(deltaMs);
+      if (!wideEffects && (effect.enabledDamped.getValue() > 0)) {
+        wideOutput = false;
+      }
+    }
+    if (wideEffects && !this.masterChannel.getEffects().isEmpty()) {
+      LXColor16.narrow(blendOutputMain16, blendOutputMain);
     }
     this.timer.fxNanos = System.nanoTime() - fxStart;
 
     // If cue-ing the palette!
     if (lx.palette.cue.isOn()) {
+      int[] paletteColors = lx.palette.getColors();
       for (LXPoint p : this.lx.model.points) {
-        blendOutputCue[p.index] = lx.palette.getColor(p);
+        blendOutputCue[p.index] = paletteColors[p.index];
       }
       blendDestinationCue = blendOutputCue;
       cueOn = true;
@@ -1152,7 +1356,12 @@ public class LXEngine extends LXComponent implements LXOscComponent, LXModulatio
       // If multi-threading UI, lock the double buffer and clip it
       synchronized (this.buffer) {
         this.buffer.cueOn = cueOn;
+        this.buffer.wideOn = wideOutput;
         this.buffer.flip();
+        if (wideOutput && isNetworkMultithreaded) {
+          long[] wideCopy = this.buffer.wide.getArray16();
+          System.arraycopy(blendOutputMain16, 0, wideCopy, 0, wideCopy.length);
+        }
       }
     } else {
       // Otherwise lock-free!
@@ -1168,7 +1377,11 @@ public class LXEngine extends LXComponent implements LXOscComponent, LXModulatio
     } else {
       // Otherwise do it ourself here
       long outputStart = System.nanoTime();
-      this.output.send(blendOutputMain);
+      if (wideOutput) {
+        this.output.send(blendOutputMain16);
+      } else {
+        this.output.send(blendOutputMain);
+      }
       long outputEnd = System.nanoTime();
       this.timer.outputNanos = outputEnd - outputStart;
       this.timer.runNanos = outputEnd - runStart;
@@ -1199,10 +1412,17 @@ public class LXEngine extends LXComponent implements LXOscComponent, LXModulatio
     public final Timer timer = new Timer();
 
     private final ModelBuffer networkBuffer;
+    private final ModelBuffer16 networkBuffer16;
 
     NetworkThread(LX lx) {
       super("LXEngine Network Thread");
       this.networkBuffer = new ModelBuffer(lx);
+      this.networkBuffer16 = new ModelBuffer16(lx);
+    }
+
+    void dispose() {
+      this.networkBuffer.dispose();
+      this.networkBuffer16.dispose();
     }
 
     @Override
@@ -1221,13 +1441,24 @@ public class LXEngine extends LXComponent implements LXOscComponent, LXModulatio
         if (output.enabled.isOn()) {
           // Copy from the double-buffer into our local storage and send from here
           long copyStart = System.nanoTime();
-          int[] networkArray = networkBuffer.getArray();
+          int[] networkArray;
+          long[] networkArray16 = null;
           synchronized (buffer) {
+            // Arrays are only reallocated by a model swap, which holds this lock
+            if (buffer.wideOn) {
+              networkArray16 = networkBuffer16.getArray16();
+              System.arraycopy(buffer.wide.getArray16(), 0, networkArray16, 0, networkArray16.length);
+            }
+            networkArray = networkBuffer.getArray();
             System.arraycopy(buffer.main.copy.getArray(), 0, networkArray, 0, networkArray.length);
           }
           long copyEnd = System.nanoTime();
           this.timer.copyNanos = copyEnd- copyStart;
-          output.send(networkArray);
+          if (networkArray16 != null) {
+            output.send(networkArray16);
+          } else {
+            output.send(networkArray);
+          }
           this.timer.sendNanos = System.nanoTime() - copyEnd;
         }
       }
@@ -23,6 +23,7 @@ package heronarts.lx;
 import heronarts.lx.color.LXColor;
 import heronarts.lx.color.LXPalette;
 import heronarts.lx.model.LXFixture;
+import heronarts.lx.model.LXIndexRanges;
 import heronarts.lx.model.LXPoint;
 
 import java.util.ArrayList;
@@ -41,6 +42,28 @@ public abstract class LXLayeredComponent extends LXModelComponent implements LXL
    */
   public interface Buffered {}
 
+  /**
+   * Marker interface for instances which operate on the planes of a
+   * PlanarBuffer directly. When such a component runs on a planar buffer, the
+   * packed colors array is not fetched for it, so that the buffer is not
+   * needlessly converted. It should use getPlanarBuffer() instead.
+   */
+  public interface Planar {}
+
+  /**
+   * Marker interface for instances which render 16-bit color. A Buffered
+   * component of this kind owns a ModelBuffer16 and writes its wide array,
+   * from getBuffer16(), and its 8-bit colors are narrowed from that after
+   * each loop. An effect of this kind may be run on either a wide or a packed
+   * buffer, and should use getBuffer16() when it is not null, or the packed
+   * colors array otherwise. Layers of a wide component must also be Wide.
+   *
+   * When the engine mixes in wide color, the wide values of a channel whose
+   * pattern and running effects are all Wide are mixed directly, rather than
+   * being widened from 8-bit.
+   */
+  public interface Wide {}
+
   protected final LX lx;
 
   private LXBuffer buffer = null;
@@ -52,6 +75,18 @@ public abstract class LXLayeredComponent extends LXModelComponent implements LXL
 
   protected final LXPalette palette;
 
+  private final FixtureRanges fixtures;
+
+  /**
+   * Buffer allocated by this component, if it is Buffered
+   */
+  private final ModelBuffer ownBuffer;
+
+  /**
+   * Wide buffer allocated by this component, if it is Buffered and Wide
+   */
+  private final ModelBuffer16 ownBuffer16;
+
   protected LXLayeredComponent(LX lx) {
     this(lx, (LXBuffer) null);
   }
@@ -66,16 +101,53 @@ public abstract class LXLayeredComponent extends LXModelComponent implements LXL
       if (buffer != null) {
         throw new IllegalArgumentException("Cannot pass existing buffer to LXLayeredComponent.Buffered, has its own");
       }
-      buffer = new ModelBuffer(lx);
+      if (this instanceof Wide) {
+        buffer = this.ownBuffer16 = new ModelBuffer16(lx);
+        this.ownBuffer = null;
+      } else {
+        buffer = this.ownBuffer = new ModelBuffer(lx);
+        this.ownBuffer16 = null;
+      }
+    } else {
+      this.ownBuffer = null;
+      this.ownBuffer16 = null;
     }
     this.lx = lx;
     this.palette = lx.palette;
+    this.fixtures = new FixtureRanges(lx);
     if (buffer != null) {
       this.buffer = buffer;
       this.colors = buffer.getArray();
     }
   }
 
+  /**
+   * Declares the fixtures that this component renders to. Points of other
+   * fixtures are left alone, and the engine may skip them when blending.
+   * By default a component covers the whole model.
+   *
+   * This is only a declaration, the component is still given the model of
+   * its channel, so it should iterate the points of these fixtures itself
+   * rather than model.points. To restrict everything a channel renders,
+   * including its effects, focus the channel with LXBus.setFocus() instead.
+   *
+   * @param fixtures Fixtures to render to, or none for the whole model
+   * @return this
+   */
+  public LXLayeredComponent setFixtures(LXFixture ... fixtures) {
+    this.fixtures.set(fixtures);
+    return this;
+  }
+
+  /**
+   * Gets the index ranges of the points this component renders to
+   *
+   * @return Index ranges of the declared fixtures, or null for the whole model
+   */
+  public LXIndexRanges getRanges() {
+    return this.fixtures.get();
+  }
+
   protected LXBuffer getBuffer() {
     return this.buffer;
   }
@@ -93,10 +165,40 @@ public abstract class LXLayeredComponent extends LXModelComponent implements LXL
 
   protected LXLayeredComponent setBuffer(LXBuffer buffer) {
     this.buffer = buffer;
-    this.colors = buffer.getArray();
+    this.colors = getColorsArray();
     return this;
   }
 
+  /**
+   * Returns the buffer as a PlanarBuffer, if it is one and this component
+   * operates on planar data.
+   *
+   * @return Planar buffer, or null if packed colors should be used
+   */
+  protected final PlanarBuffer getPlanarBuffer() {
+    if ((this instanceof Planar) && (this.buffer instanceof PlanarBuffer)) {
+      return (PlanarBuffer) this.buffer;
+    }
+    return null;
+  }
+
+  /**
+   * Returns the buffer as a ModelBuffer16, if it is one and this component
+   * renders wide color.
+   *
+   * @return Wide buffer, or null if packed colors should be used
+   */
+  protected final ModelBuffer16 getBuffer16() {
+    if ((this instanceof Wide) && (this.buffer instanceof ModelBuffer16)) {
+      return (ModelBuffer16) this.buffer;
+    }
+    return null;
+  }
+
+  private int[] getColorsArray() {
+    return (getPlanarBuffer() != null) ? null : this.buffer.getArray();
+  }
+
   @Override
   public void loop(double deltaMs) {
     long loopStart = System.nanoTime();
@@ -105,7 +207,7 @@ public abstract class LXLayeredComponent extends LXModelComponent implements LXL
     // reference. Even if a doofus assigns colors to something else, we'll reset it
     // here on each pass of the loop. Better than subclasses having to call getColors()
     // all the time.
-    this.colors = this.buffer.getArray();
+    this.colors = getColorsArray();
 
     super.loop(deltaMs);
     onLoop(deltaMs);
@@ -118,6 +220,9 @@ public abstract class LXLayeredComponent extends LXModelComponent implements LXL
       layer.loop(deltaMs);
     }
     afterLayers(deltaMs);
+    if (this.ownBuffer16 != null) {
+      this.ownBuffer16.narrow();
+    }
 
     this.timer.loopNanos = System.nanoTime() - loopStart;
   }
@@ -151,6 +256,12 @@ public abstract class LXLayeredComponent extends LXModelComponent implements LXL
       layer.dispose();
     }
     this.mutableLayers.clear();
+    if (this.ownBuffer != null) {
+      this.ownBuffer.dispose();
+    }
+    if (this.ownBuffer16 != null) {
+      this.ownBuffer16.dispose();
+    }
     super.dispose();
   }
 
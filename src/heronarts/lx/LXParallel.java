@@ -0,0 +1,215 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * @author Mark C. Slee <mark@heronarts.com>
+ */
+
+package heronarts.lx;
+
+/**
+ * A small pool of worker threads for splitting per-point loops across
+ * processors. A task is given a range of indices to process, and the range
+ * of the whole loop is divided amongst the workers and the calling thread.
+ * Dispatching a loop performs no allocation.
+ *
+ * The pool runs one loop at a time. If it is already busy, for instance
+ * because effects on multiple channel threads are using it, or if the loop
+ * is too small to be worth splitting, the loop simply runs serially on the
+ * calling thread.
+ */
+public class LXParallel {
+
+  /**
+   * A loop body which processes a range of indices
+   */
+  public interface Task {
+    /**
+     * Processes indices from start, inclusive, to end, exclusive
+     *
+     * @param start First index
+     * @param end Index after last
+     */
+    public void run(int start, int end);
+  }
+
+  /**
+   * Loops smaller than this are always run serially
+   */
+  public static final int MIN_PARALLEL_SIZE = 4096;
+
+  private static LXParallel instance = null;
+
+  /**
+   * Returns the shared pool, creating it on first use with a worker for each
+   * available processor after the first.
+   *
+   * @return Shared pool
+   */
+  public static synchronized LXParallel get() {
+    if (instance == null) {
+      instance = new LXParallel(Runtime.getRuntime().availableProcessors() - 1);
+    }
+    return instance;
+  }
+
+  private class Worker extends Thread {
+
+    private final int chunk;
+
+    private int generation = 0;
+
+    Worker(int chunk) {
+      super("LXParallel worker #" + chunk);
+      this.chunk = chunk;
+      setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+      while (!isInterrupted()) {
+        synchronized (LXParallel.this) {
+          try {
+            while (this.generation == LXParallel.this.generation) {
+              LXParallel.this.wait();
+            }
+          } catch (InterruptedException ix) {
+            break;
+          }
+          this.generation = LXParallel.this.generation;
+        }
+        try {
+          runChunk(this.chunk);
+        } catch (Throwable x) {
+          synchronized (LXParallel.this) {
+            if (LXParallel.this.failure == null) {
+              LXParallel.this.failure = x;
+            }
+          }
+        } finally {
+          // The caller is waiting on every worker, whether or not it failed
+          synchronized (LXParallel.this) {
+            if (--LXParallel.this.remaining == 0) {
+              LXParallel.this.notifyAll();
+            }
+          }
+        }
+      }
+    }
+  }
+
+  private final Worker[] workers;
+
+  private boolean busy = false;
+
+  private int generation = 0;
+
+  private int remaining = 0;
+
+  // First exception thrown by a worker during the current loop
+  private Throwable failure = null;
+
+  private Task task;
+
+  private int size;
+
+  private LXParallel(int numWorkers) {
+    this.workers = new Worker[Math.max(0, numWorkers)];
+    for (int i = 0; i < this.workers.length; ++i) {
+      this.workers[i] = new Worker(i + 1);
+      this.workers[i].start();
+    }
+  }
+
+  /**
+   * Number of threads that loops are divided amongst, including the caller
+   *
+   * @return Number of threads
+   */
+  public int getNumThreads() {
+    return this.workers.length + 1;
+  }
+
+  private void runChunk(int chunk) {
+    int numChunks = this.workers.length + 1;
+    int start = (int) ((long) this.size * chunk / numChunks);
+    int end = (int) ((long) this.size * (chunk + 1) / numChunks);
+    if (end > start) {
+      this.task.run(start, end);
+    }
+  }
+
+  /**
+   * Runs the task over indices from 0 to size, returning once all of them
+   * have been processed. If the task throws on any thread, the pool still
+   * waits for the other threads and is released, then the first exception
+   * is rethrown on the calling thread.
+   *
+   * @param task Loop body
+   * @param size Number of indices
+   */
+  public void run(Task task, int size) {
+    if ((this.workers.length == 0) || (size < MIN_PARALLEL_SIZE) || !acquire()) {
+      task.run(0, size);
+      return;
+    }
+    synchronized (this) {
+      this.task = task;
+      this.size = size;
+      this.remaining = this.workers.length;
+      ++this.generation;
+      notifyAll();
+    }
+    boolean interrupted = false;
+    Throwable failure = null;
+    try {
+      runChunk(0);
+    } finally {
+      synchronized (this) {
+        // Workers must finish with the task before the pool is released
+        while (this.remaining > 0) {
+          try {
+            wait();
+          } catch (InterruptedException ix) {
+            interrupted = true;
+          }
+        }
+        failure = this.failure;
+        this.failure = null;
+        this.task = null;
+        this.busy = false;
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    // Tasks cannot throw checked exceptions
+    if (failure instanceof Error) {
+      throw (Error) failure;
+    } else if (failure != null) {
+      throw (RuntimeException) failure;
+    }
+  }
+
+  private synchronized boolean acquire() {
+    if (this.busy) {
+      return false;
+    }
+    this.busy = true;
+    return true;
+  }
+
+}
@@ -21,18 +21,34 @@
 package heronarts.lx;
 
 import heronarts.lx.model.LXModel;
+import heronarts.lx.model.LXModelRemap;
 
 public class ModelBuffer implements LXBuffer {
 
   private int[] array;
 
+  private int[] prepared = null;
+
+  private final LX lx;
+  private final LX.ModelSwapListener modelSwapListener;
+
   public ModelBuffer(LX lx) {
+    this.lx = lx;
     initArray(lx.model);
 
-    lx.addListener(new LX.Listener() {
-      @Override
-      public void modelChanged(LX lx, LXModel model) {
-        initArray(model);
+    lx.addModelSwapListener(this.modelSwapListener = new LX.ModelSwapListener() {
+      public void prepareModel(LX lx, LXModelRemap remap) {
+        prepared = new int[remap.size];
+      }
+
+      public void swapModel(LX lx, LXModelRemap remap) {
+        int[] next = prepared;
+        if (next == null || next.length != remap.size) {
+          next = new int[remap.size];
+        }
+        remap.remap(array, next, 0);
+        array = next;
+        prepared = null;
       }
     });
   }
@@ -48,4 +64,11 @@ public class ModelBuffer implements LXBuffer {
     return this.array;
   }
 
+  /**
+   * Stops tracking model changes. The buffer must not be used after this.
+   */
+  public void dispose() {
+    this.lx.removeModelSwapListener(this.modelSwapListener);
+  }
+
 }
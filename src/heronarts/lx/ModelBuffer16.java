@@ -0,0 +1,120 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * @author Mark C. Slee <mark@heronarts.com>
+ */
+
+package heronarts.lx;
+
+import heronarts.lx.color.LXColor16;
+import heronarts.lx.model.LXModel;
+import heronarts.lx.model.LXModelRemap;
+
+/**
+ * A model buffer that stores wide colors, 16 bits per channel packed into
+ * longs. The 8-bit array returned by getArray() is a narrowed copy for
+ * compatibility with code that only handles packed ints, and is refreshed
+ * by calling narrow().
+ */
+public class ModelBuffer16 implements LXBuffer {
+
+  private long[] array16;
+  private int[] array;
+
+  private long[] prepared16 = null;
+  private int[] prepared = null;
+
+  private final LX lx;
+  private final LX.ModelSwapListener modelSwapListener;
+
+  public ModelBuffer16(LX lx) {
+    this.lx = lx;
+    initArray(lx.model);
+
+    lx.addModelSwapListener(this.modelSwapListener = new LX.ModelSwapListener() {
+      public void prepareModel(LX lx, LXModelRemap remap) {
+        prepared16 = new long[remap.size];
+        prepared = new int[remap.size];
+      }
+
+      public void swapModel(LX lx, LXModelRemap remap) {
+        long[] next16 = prepared16;
+        int[] next = prepared;
+        if (next16 == null || next16.length != remap.size) {
+          next16 = new long[remap.size];
+          next = new int[remap.size];
+        }
+        remap.remap(array16, next16, 0);
+        remap.remap(array, next, 0);
+        array16 = next16;
+        array = next;
+        prepared16 = null;
+        prepared = null;
+      }
+    });
+  }
+
+  private void initArray(LXModel model) {
+    this.array16 = new long[model.size];
+    this.array = new int[model.size];
+  }
+
+  /**
+   * Returns the wide color array
+   *
+   * @return Array of 16-bit per channel colors
+   */
+  public long[] getArray16() {
+    return this.array16;
+  }
+
+  /**
+   * Returns the narrowed 8-bit array. Values are only current as of the
+   * last call to narrow().
+   */
+  public int[] getArray() {
+    return this.array;
+  }
+
+  /**
+   * Updates the 8-bit array from the wide values
+   *
+   * @return this
+   */
+  public ModelBuffer16 narrow() {
+    LXColor16.narrow(this.array16, this.array);
+    return this;
+  }
+
+  /**
+   * Updates the wide array from the 8-bit values
+   *
+   * @return this
+   */
+  public ModelBuffer16 widen() {
+    LXColor16.widen(this.array, this.array16);
+    return this;
+  }
+
+  /**
+   * Stops tracking model changes. The buffer must not be used after this.
+   */
+  public void dispose() {
+    this.lx.removeModelSwapListener(this.modelSwapListener);
+  }
+
+}
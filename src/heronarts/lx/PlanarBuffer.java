@@ -0,0 +1,202 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * @author Mark C. Slee <mark@heronarts.com>
+ */
+
+package heronarts.lx;
+
+import heronarts.lx.model.LXModelRemap;
+
+/**
+ * A buffer which may store its colors either as packed ARGB ints or as
+ * separate planar arrays of floating point red, green, blue and alpha values,
+ * normalized from 0-1. Components which process color channels independently
+ * can operate on the planes directly, without unpacking and repacking every
+ * pixel, and a chain of such components does no conversion at all.
+ *
+ * Only one representation is current at a time. Requesting the other
+ * converts lazily, and the requested representation then becomes current.
+ * Callers must not hold onto arrays across a request for the other form.
+ */
+public class PlanarBuffer implements LXBuffer {
+
+  private static final float INV_255 = 1 / 255.f;
+
+  private int[] array;
+  private float[] red;
+  private float[] green;
+  private float[] blue;
+  private float[] alpha;
+
+  private boolean isPlanar = false;
+
+  private PlanarBuffer prepared = null;
+
+  private LX lx = null;
+  private LX.ModelSwapListener modelSwapListener = null;
+
+  public PlanarBuffer(LX lx) {
+    this.lx = lx;
+    initArray(lx.model.size);
+
+    lx.addModelSwapListener(this.modelSwapListener = new LX.ModelSwapListener() {
+      public void prepareModel(LX lx, LXModelRemap remap) {
+        PlanarBuffer next = new PlanarBuffer();
+        next.initArray(remap.size);
+        prepared = next;
+      }
+
+      public void swapModel(LX lx, LXModelRemap remap) {
+        PlanarBuffer next = prepared;
+        if (next == null || next.array.length != remap.size) {
+          next = new PlanarBuffer();
+          next.initArray(remap.size);
+        }
+        remap.remap(getArray(), next.array, 0);
+        array = next.array;
+        red = next.red;
+        green = next.green;
+        blue = next.blue;
+        alpha = next.alpha;
+        isPlanar = false;
+        prepared = null;
+      }
+    });
+  }
+
+  /**
+   * Holder for arrays prepared for a model swap
+   */
+  private PlanarBuffer() {}
+
+  private void initArray(int size) {
+    this.array = new int[size];
+    this.red = new float[size];
+    this.green = new float[size];
+    this.blue = new float[size];
+    this.alpha = new float[size];
+    this.isPlanar = false;
+  }
+
+  /**
+   * Whether the planar arrays currently hold the authoritative colors
+   *
+   * @return True if planar data is current
+   */
+  public boolean isPlanar() {
+    return this.isPlanar;
+  }
+
+  /**
+   * Returns the packed color array, converting from planar data if needed.
+   * The packed array becomes authoritative.
+   */
+  public int[] getArray() {
+    if (this.isPlanar) {
+      pack();
+    }
+    return this.array;
+  }
+
+  /**
+   * Red values, 0-1. The planar arrays become authoritative.
+   *
+   * @return Red plane
+   */
+  public float[] getRed() {
+    if (!this.isPlanar) {
+      unpack();
+    }
+    return this.red;
+  }
+
+  /**
+   * Green values, 0-1. The planar arrays become authoritative.
+   *
+   * @return Green plane
+   */
+  public float[] getGreen() {
+    if (!this.isPlanar) {
+      unpack();
+    }
+    return this.green;
+  }
+
+  /**
+   * Blue values, 0-1. The planar arrays become authoritative.
+   *
+   * @return Blue plane
+   */
+  public float[] getBlue() {
+    if (!this.isPlanar) {
+      unpack();
+    }
+    return this.blue;
+  }
+
+  /**
+   * Alpha values, 0-1. The planar arrays become authoritative.
+   *
+   * @return Alpha plane
+   */
+  public float[] getAlpha() {
+    if (!this.isPlanar) {
+      unpack();
+    }
+    return this.alpha;
+  }
+
+  /**
+   * Stops tracking model changes. The buffer must not be used after this.
+   */
+  public void dispose() {
+    this.lx.removeModelSwapListener(this.modelSwapListener);
+  }
+
+  private void unpack() {
+    int[] array = this.array;
+    float[] red = this.red, green = this.green, blue = this.blue, alpha = this.alpha;
+    for (int i = 0; i < array.length; ++i) {
+      int c = array[i];
+      alpha[i] = (c >>> 24) * INV_255;
+      red[i] = ((c >>> 16) & 0xff) * INV_255;
+      green[i] = ((c >>> 8) & 0xff) * INV_255;
+      blue[i] = (c & 0xff) * INV_255;
+    }
+    this.isPlanar = true;
+  }
+
+  private void pack() {
+    int[] array = this.array;
+    float[] red = this.red, green = this.green, blue = this.blue, alpha = this.alpha;
+    for (int i = 0; i < array.length; ++i) {
+      array[i] =
+        (channel(alpha[i]) << 24) |
+        (channel(red[i]) << 16) |
+        (channel(green[i]) << 8) |
+        channel(blue[i]);
+    }
+    this.isPlanar = false;
+  }
+
+  private static int channel(float v) {
+    int c = (int) (v * 255 + 0.5f);
+    return (c < 0) ? 0 : ((c > 0xff) ? 0xff : c);
+  }
+
+}
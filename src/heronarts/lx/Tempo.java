@@ -205,6 +205,20 @@ public class Tempo extends LXModulatorComponent implements LXOscComponent {
     return this.click.getBasis();
   }
 
+  /**
+   * Sets the beat count and phase directly, used to keep this tempo in
+   * lockstep with an external source. This does not fire any beat listeners.
+   *
+   * @param beatCount Beat count
+   * @param ramp Phase of the current beat, from 0-1
+   * @return this
+   */
+  public Tempo sync(int beatCount, double ramp) {
+    this.beatCount = beatCount;
+    this.click.setBasis(ramp);
+    return this;
+  }
+
   /**
    * Indicates beat phase in floating point
    *
@@ -30,8 +30,13 @@ public class DissolveBlend extends LXBlend {
 
   @Override
   public void blend(int[] dst, int[] src, double alpha, int[] output) {
+    blend(dst, src, alpha, output, 0, src.length);
+  }
+
+  @Override
+  public void blend(int[] dst, int[] src, double alpha, int[] output, int start, int end) {
     int srcAlpha = (int) (alpha * 0x80);
-    for (int i = 0; i < src.length; ++i) {
+    for (int i = start; i < end; ++i) {
       int dstAlpha = 0x100 - srcAlpha;
 
       output[i] = 0xff << ALPHA_SHIFT |
@@ -39,4 +44,17 @@ public class DissolveBlend extends LXBlend {
           ((dst[i] & G_MASK) * dstAlpha + (src[i] & G_MASK) * srcAlpha) >>> 8 & G_MASK;
     }
   }
+
+  @Override
+  public void blend(long[] dst, long[] src, double alpha, long[] output) {
+    int srcAlpha = (int) (alpha * 0x8000);
+    int dstAlpha = 0x10000 - srcAlpha;
+    for (int i = 0; i < src.length; ++i) {
+      long d = dst[i], s = src[i];
+      output[i] = argb16(C16_MAX,
+        mix16((int) (d >>> R16_SHIFT) & C16_MAX, (int) (s >>> R16_SHIFT) & C16_MAX, dstAlpha, srcAlpha),
+        mix16((int) (d >>> G16_SHIFT) & C16_MAX, (int) (s >>> G16_SHIFT) & C16_MAX, dstAlpha, srcAlpha),
+        mix16((int) d & C16_MAX, (int) s & C16_MAX, dstAlpha, srcAlpha));
+    }
+  }
 }
@@ -0,0 +1,68 @@
+/**
+ * Copyright 2016- Mark C. Slee, Heron Arts LLC
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * @author Mark C. Slee <mark@heronarts.com>
+ */
+
+package heronarts.lx.blend;
+
+import heronarts.lx.LX;
+import heronarts.lx.model.LXFixture;
+import heronarts.lx.model.LXModel;
+import heronarts.lx.model.LXPoint;
+import heronarts.lx.parameter.BooleanParameter;
+
+/**
+ * Wipes through the fixtures of the model one at a time, in the order they
+ * were added to the model. Models without fixtures are wiped point by point.
+ */
+public class FixtureWipeBlend extends LXWipeBlend {
+
+  public final BooleanParameter reverse =
+    new BooleanParameter("Reverse", false)
+    .setDescription("Wipe through fixtures in reverse order");
+
+  public FixtureWipeBlend(LX lx) {
+    super(lx);
+    addParameter("reverse", this.reverse);
+  }
+
+  @Override
+  protected void computeMask(LXModel model, float[] mask) {
+    boolean reverse = this.reverse.isOn();
+    int numFixtures = model.fixtures.size();
+    if (numFixtures > 0) {
+      float scale = (numFixtures > 1) ? 1.f / (numFixtures - 1) : 0;
+      int i = 0;
+      for (LXFixture fixture : model.fixtures) {
+        float m = i * scale;
+        for (LXPoint p : fixture.getPoints()) {
+          if (p.index < mask.length) {
+            mask[p.index] = reverse ? (1 - m) : m;
+          }
+        }
+        ++i;
+      }
+    } else {
+      float scale = (model.points.length > 1) ? 1.f / (model.points.length - 1) : 0;
+      for (int i = 0; i < model.points.length; ++i) {
+        float m = i * scale;
+        mask[model.points[i].index] = reverse ? (1 - m) : m;
+      }
+    }
+  }
+}
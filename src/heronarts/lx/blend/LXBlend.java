@@ -23,6 +23,9 @@ package heronarts.lx.blend;
 import heronarts.lx.LX;
 import heronarts.lx.LXBuffer;
 import heronarts.lx.LXModulatorComponent;
+import heronarts.lx.ModelBuffer16;
+import heronarts.lx.color.LXColor16;
+import heronarts.lx.model.LXIndexRanges;
 
 /**
  * An LXBlend is a loop-based implementation of a compositing algorithm.
@@ -41,6 +44,43 @@ public abstract class LXBlend extends LXModulatorComponent {
   protected static final int B_MASK = 0x000000ff;
   protected static final int RB_MASK = R_MASK | B_MASK;
 
+  protected static final int A16_SHIFT = LXColor16.ALPHA_SHIFT;
+  protected static final int R16_SHIFT = LXColor16.RED_SHIFT;
+  protected static final int G16_SHIFT = LXColor16.GREEN_SHIFT;
+  protected static final int C16_MAX = LXColor16.MAX;
+
+  /**
+   * Packs 16-bit channel values into a wide color
+   */
+  protected static long argb16(int a, int r, int g, int b) {
+    return ((long) a << A16_SHIFT) | ((long) r << R16_SHIFT) | ((long) g << G16_SHIFT) | b;
+  }
+
+  /**
+   * Weighted mix of two 16-bit channel values, weights sum to 0x10000
+   */
+  protected static int mix16(int dst, int src, int dstAlpha, int srcAlpha) {
+    return (int) (((long) dst * dstAlpha + (long) src * srcAlpha) >>> 16);
+  }
+
+  /**
+   * Computes the effective 16-bit source alpha of a wide color, scaled by
+   * the blend amount. The result ranges from 0-0x10000, so it may be used
+   * directly as a weight.
+   */
+  protected static int srcAlpha16(long src, int alphaAdjust) {
+    int a = (int) (((src >>> A16_SHIFT) * alphaAdjust) >>> 16);
+    return a + (a >= 0x7fff ? 1 : 0);
+  }
+
+  /**
+   * Output alpha of a wide blend, sum of the destination alpha and the
+   * effective source alpha.
+   */
+  protected static int outAlpha16(long dst, int srcAlpha) {
+    return min((int) (dst >>> A16_SHIFT) + srcAlpha, C16_MAX);
+  }
+
   protected static int min(int a, int b) {
     return (a < b) ? a : b;
   }
@@ -51,6 +91,12 @@ public abstract class LXBlend extends LXModulatorComponent {
 
   private String name;
 
+  /**
+   * Whether the subclass provides its own range blend, or relies upon the
+   * full-array fallback in this class
+   */
+  private final boolean hasRangeBlend;
+
   protected LXBlend(LX lx) {
     super(lx);
     String simple = this.getClass().getSimpleName();
@@ -58,6 +104,24 @@ public abstract class LXBlend extends LXModulatorComponent {
       simple = simple.substring(0, simple.length() - "Blend".length());
     }
     this.name = simple;
+    this.hasRangeBlend = overridesRangeBlend();
+  }
+
+  private boolean overridesRangeBlend() {
+    try {
+      Class<?> rangeClass = getClass().getMethod("blend",
+        int[].class, int[].class, double.class, int[].class, int.class, int.class)
+        .getDeclaringClass();
+      Class<?> fullClass = getClass().getMethod("blend",
+        int[].class, int[].class, double.class, int[].class)
+        .getDeclaringClass();
+      // The range loop is only trustworthy if it is declared at least as far
+      // down the hierarchy as the full-array blend. A subclass of a built-in
+      // blend that only overrides the full-array method must fall back to it.
+      return (rangeClass != LXBlend.class) && fullClass.isAssignableFrom(rangeClass);
+    } catch (NoSuchMethodException nsmx) {
+      return false;
+    }
   }
 
   /**
@@ -110,4 +174,174 @@ public abstract class LXBlend extends LXModulatorComponent {
    * @param output Output buffer, which may be the same as src or dst
    */
   public abstract void blend(int[] dst, int[] src, double alpha, int[] output);
+
+  private int[] rangeOutput = null;
+
+  /**
+   * Blends a range of points only, leaving the rest of the output untouched.
+   * Subclasses should override this with a loop over just the range. The
+   * default implementation blends the full arrays into scratch space and
+   * copies out the range.
+   *
+   * @param dst Destination buffer (lower layer)
+   * @param src Source buffer (top layer)
+   * @param alpha Alpha blend, from 0-1
+   * @param output Output buffer, which may be the same as src or dst
+   * @param start First index to blend
+   * @param end One past the last index to blend
+   */
+  public void blend(int[] dst, int[] src, double alpha, int[] output, int start, int end) {
+    blend(dst, src, alpha, getRangeOutput(src.length));
+    System.arraycopy(this.rangeOutput, start, output, start, end - start);
+  }
+
+  private int[] getRangeOutput(int length) {
+    if (this.rangeOutput == null || this.rangeOutput.length != length) {
+      this.rangeOutput = new int[length];
+    }
+    return this.rangeOutput;
+  }
+
+  /**
+   * Blends only the points in a set of index ranges. Points outside the
+   * ranges are treated as if the source were transparent, so the output
+   * takes the destination values there.
+   *
+   * @param dst Destination buffer (lower layer)
+   * @param src Source buffer (top layer)
+   * @param alpha Alpha blend, from 0-1
+   * @param output Output buffer, which may be the same as src or dst
+   * @param ranges Index ranges to blend
+   */
+  public void blend(int[] dst, int[] src, double alpha, int[] output, LXIndexRanges ranges) {
+    int numRanges = ranges.getNumRanges();
+    int[] fullOutput = null;
+    if (!this.hasRangeBlend && numRanges > 0) {
+      // No range loop available, blend the full arrays once up front rather
+      // than once per range, then copy each of the ranges out below
+      fullOutput = getRangeOutput(src.length);
+      blend(dst, src, alpha, fullOutput);
+    }
+    if (output != dst) {
+      int gapStart = 0;
+      for (int r = 0; r < numRanges; ++r) {
+        System.arraycopy(dst, gapStart, output, gapStart, ranges.start(r) - gapStart);
+        gapStart = ranges.end(r);
+      }
+      System.arraycopy(dst, gapStart, output, gapStart, dst.length - gapStart);
+    }
+    for (int r = 0; r < numRanges; ++r) {
+      int start = ranges.start(r);
+      int end = ranges.end(r);
+      if (fullOutput != null) {
+        System.arraycopy(fullOutput, start, output, start, end - start);
+      } else {
+        blend(dst, src, alpha, output, start, end);
+      }
+    }
+  }
+
+  /**
+   * Performs a transition from one buffer to another. Progress of 0 shows
+   * only the from buffer and 1 only the to buffer. By default, the blend is
+   * applied symmetrically: the to buffer is blended onto the from buffer for
+   * the first half of the transition, and the from buffer onto the to buffer
+   * for the second half. Exactly halfway, the to buffer is blended fully onto
+   * the from buffer. Blends that need to know the absolute direction of a
+   * transition, such as wipes, may override this.
+   *
+   * @param from Buffer being transitioned from
+   * @param to Buffer being transitioned to
+   * @param progress Progress of transition, from 0-1
+   * @param output Output buffer, which may be the same as from or to
+   */
+  public void transition(int[] from, int[] to, double progress, int[] output) {
+    if (progress <= 0.5) {
+      blend(from, to, Math.min(1, 2. * progress), output);
+    } else {
+      blend(to, from, Math.max(0, 2. * (1 - progress)), output);
+    }
+  }
+
+  public void blend(long[] dst, long[] src, double alpha, ModelBuffer16 buffer) {
+    blend(dst, src, alpha, buffer.getArray16());
+  }
+
+  private int[] narrowDst = null;
+  private int[] narrowSrc = null;
+
+  /**
+   * Blends two wide color buffers at the specified alpha amount. All of the
+   * built-in blends implement this at full 16-bit precision. The default
+   * implementation for other blend modes narrows to 8-bit, performs the
+   * regular blend and then widens the result.
+   *
+   * @param dst Destination buffer (lower layer)
+   * @param src Source buffer (top layer)
+   * @param alpha Alpha blend, from 0-1
+   * @param output Output buffer, which may be the same as src or dst
+   */
+  public void blend(long[] dst, long[] src, double alpha, long[] output) {
+    if (this.narrowDst == null || this.narrowDst.length != src.length) {
+      this.narrowDst = new int[src.length];
+      this.narrowSrc = new int[src.length];
+    }
+    LXColor16.narrow(dst, this.narrowDst);
+    LXColor16.narrow(src, this.narrowSrc);
+    blend(this.narrowDst, this.narrowSrc, alpha, this.narrowDst);
+    LXColor16.widen(this.narrowDst, output);
+  }
+
+  private long[] rangeOutput16 = null;
+
+  /**
+   * Blends only the points in a set of index ranges of two wide color
+   * buffers. The full arrays are blended once into scratch space and each
+   * range is copied out, points outside the ranges take the destination
+   * values.
+   *
+   * @param dst Destination buffer (lower layer)
+   * @param src Source buffer (top layer)
+   * @param alpha Alpha blend, from 0-1
+   * @param output Output buffer, which may be the same as src or dst
+   * @param ranges Index ranges to blend
+   */
+  public void blend(long[] dst, long[] src, double alpha, long[] output, LXIndexRanges ranges) {
+    if (this.rangeOutput16 == null || this.rangeOutput16.length != src.length) {
+      this.rangeOutput16 = new long[src.length];
+    }
+    int numRanges = ranges.getNumRanges();
+    if (numRanges > 0) {
+      blend(dst, src, alpha, this.rangeOutput16);
+    }
+    if (output != dst) {
+      int gapStart = 0;
+      for (int r = 0; r < numRanges; ++r) {
+        System.arraycopy(dst, gapStart, output, gapStart, ranges.start(r) - gapStart);
+        gapStart = ranges.end(r);
+      }
+      System.arraycopy(dst, gapStart, output, gapStart, dst.length - gapStart);
+    }
+    for (int r = 0; r < numRanges; ++r) {
+      int start = ranges.start(r);
+      System.arraycopy(this.rangeOutput16, start, output, start, ranges.end(r) - start);
+    }
+  }
+
+  /**
+   * Performs a transition between two wide color buffers, in the same
+   * manner as the 8-bit transition.
+   *
+   * @param from Buffer being transitioned from
+   * @param to Buffer being transitioned to
+   * @param progress Progress of transition, from 0-1
+   * @param output Output buffer, which may be the same as from or to
+   */
+  public void transition(long[] from, long[] to, double progress, long[] output) {
+    if (progress <= 0.5) {
+      blend(from, to, Math.min(1, 2. * progress), output);
+    } else {
+      blend(to, from, Math.max(0, 2. * (1 - progress)), output);
+    }
+  }
 }
@@ -0,0 +1,166 @@
+/**
+ * Copyright 2016- Mark C. Slee, Heron Arts LLC
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * @author Mark C. Slee <mark@heronarts.com>
+ */
+
+package heronarts.lx.blend;
+
+import heronarts.lx.LX;
+import heronarts.lx.model.LXModel;
+import heronarts.lx.parameter.CompoundParameter;
+import heronarts.lx.parameter.LXParameter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A wipe is a blend in which the source buffer is revealed over the
+ * destination buffer in some spatial order. Each point in the model is
+ * assigned a position from 0-1 in the wipe, which is precomputed from the
+ * model geometry into a mask. The mask is only recomputed when the model or
+ * the value of one of the parameters of the wipe changes, so blending
+ * per-frame costs about the same as a dissolve. Values are compared each
+ * frame rather than listened to, so modulated parameters are picked up.
+ *
+ * The alpha value of a wipe is its progress, from the destination fully
+ * shown at 0 to the source fully shown at 1.
+ */
+public abstract class LXWipeBlend extends LXBlend {
+
+  public final CompoundParameter softness =
+    new CompoundParameter("Softness", 0.1)
+    .setDescription("Width of the soft edge of the wipe");
+
+  /**
+   * Wipe position of each point, indexed by point index
+   */
+  private float[] mask = new float[0];
+
+  private LXModel maskModel = null;
+
+  private boolean maskDirty = true;
+
+  /**
+   * Parameters that affect the mask, and their values as of the last time it
+   * was computed
+   */
+  private LXParameter[] maskParameters = new LXParameter[0];
+  private double[] maskValues = new double[0];
+  private int numParameters = -1;
+
+  protected LXWipeBlend(LX lx) {
+    super(lx);
+    addParameter("softness", this.softness);
+    lx.addListener(new LX.Listener() {
+      @Override
+      public void modelChanged(LX lx, LXModel model) {
+        maskDirty = true;
+      }
+    });
+  }
+
+  /**
+   * Marks the mask as needing recomputation. Subclasses may call this if the
+   * mask depends upon state other than the model and their parameters.
+   */
+  protected void invalidateMask() {
+    this.maskDirty = true;
+  }
+
+  /**
+   * Subclasses implement this to compute the position of every point in the
+   * wipe, from 0 to 1. The mask is indexed by point index.
+   *
+   * @param model Model to compute the mask for
+   * @param mask Array to fill with wipe positions
+   */
+  protected abstract void computeMask(LXModel model, float[] mask);
+
+  private boolean maskParametersChanged() {
+    if (this.numParameters != getParameters().size()) {
+      // Softness and label are not part of the mask
+      List<LXParameter> maskParameters = new ArrayList<LXParameter>();
+      for (LXParameter parameter : getParameters()) {
+        if (parameter != this.softness && parameter != this.label) {
+          maskParameters.add(parameter);
+        }
+      }
+      this.maskParameters = maskParameters.toArray(new LXParameter[maskParameters.size()]);
+      this.maskValues = new double[this.maskParameters.length];
+      this.numParameters = getParameters().size();
+      return true;
+    }
+    for (int i = 0; i < this.maskParameters.length; ++i) {
+      if (this.maskParameters[i].getValue() != this.maskValues[i]) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private float[] getMask() {
+    LXModel model = getLX().model;
+    if (maskParametersChanged() || this.maskDirty || (this.maskModel != model)) {
+      for (int i = 0; i < this.maskParameters.length; ++i) {
+        this.maskValues[i] = this.maskParameters[i].getValue();
+      }
+      if (this.mask.length != model.size) {
+        this.mask = new float[model.size];
+      }
+      computeMask(model, this.mask);
+      this.maskModel = model;
+      this.maskDirty = false;
+    }
+    return this.mask;
+  }
+
+  @Override
+  public void blend(int[] dst, int[] src, double alpha, int[] output) {
+    blend(dst, src, alpha, output, 0, src.length);
+  }
+
+  @Override
+  public void blend(int[] dst, int[] src, double alpha, int[] output, int start, int end) {
+    float[] mask = getMask();
+    float softness = Math.max(0.001f, this.softness.getValuef());
+    float k = 1 / softness;
+    float a = (float) alpha * (1 + softness) * k;
+    for (int i = start; i < end; ++i) {
+      float w = a - k * mask[i];
+      int srcAlpha = (w <= 0) ? 0 : ((w >= 1) ? 0x100 : (int) (w * 0x100));
+      int dstAlpha = 0x100 - srcAlpha;
+      output[i] = 0xff << ALPHA_SHIFT |
+        ((dst[i] & RB_MASK) * dstAlpha + (src[i] & RB_MASK) * srcAlpha) >>> 8 & RB_MASK |
+        ((dst[i] & G_MASK) * dstAlpha + (src[i] & G_MASK) * srcAlpha) >>> 8 & G_MASK;
+    }
+  }
+
+  /**
+   * Wipes run in one direction over the whole transition
+   */
+  @Override
+  public void transition(int[] from, int[] to, double progress, int[] output) {
+    blend(from, to, Math.max(0, Math.min(1, progress)), output);
+  }
+
+  @Override
+  public void transition(long[] from, long[] to, double progress, long[] output) {
+    blend(from, to, Math.max(0, Math.min(1, progress)), output);
+  }
+
+}
@@ -0,0 +1,59 @@
+/**
+ * Copyright 2016- Mark C. Slee, Heron Arts LLC
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * @author Mark C. Slee <mark@heronarts.com>
+ */
+
+package heronarts.lx.blend;
+
+import heronarts.lx.LX;
+import heronarts.lx.model.LXModel;
+import heronarts.lx.model.LXPoint;
+import heronarts.lx.parameter.CompoundParameter;
+
+/**
+ * Wipes across the model in a straight line, in the XY plane
+ */
+public class LinearWipeBlend extends LXWipeBlend {
+
+  public final CompoundParameter angle =
+    new CompoundParameter("Angle", 0, 0, 360)
+    .setDescription("Direction of the wipe, in degrees from the X axis");
+
+  public LinearWipeBlend(LX lx) {
+    super(lx);
+    addParameter("angle", this.angle);
+  }
+
+  @Override
+  protected void computeMask(LXModel model, float[] mask) {
+    double theta = Math.toRadians(this.angle.getValue());
+    float cos = (float) Math.cos(theta);
+    float sin = (float) Math.sin(theta);
+    float min = Float.MAX_VALUE;
+    float max = -Float.MAX_VALUE;
+    for (LXPoint p : model.points) {
+      float d = p.x * cos + p.y * sin;
+      min = Math.min(min, d);
+      max = Math.max(max, d);
+    }
+    float range = (max > min) ? (max - min) : 1;
+    for (LXPoint p : model.points) {
+      mask[p.index] = (p.x * cos + p.y * sin - min) / range;
+    }
+  }
+}
@@ -30,12 +30,21 @@ public class MultiplyBlend extends LXBlend {
 
   @Override
   public void blend(int[] dst, int[] src, double alpha, int[] output) {
-    multiply(dst, src, alpha, output);
+    multiply(dst, src, alpha, output, 0, src.length);
+  }
+
+  @Override
+  public void blend(int[] dst, int[] src, double alpha, int[] output, int start, int end) {
+    multiply(dst, src, alpha, output, start, end);
   }
 
   public static void multiply(int[] dst, int[] src, double alpha, int[] output) {
+    multiply(dst, src, alpha, output, 0, src.length);
+  }
+
+  public static void multiply(int[] dst, int[] src, double alpha, int[] output, int start, int end) {
     int alphaAdjust = (int) (alpha * 0x100);
-    for (int i = 0; i < src.length; ++i) {
+    for (int i = start; i < end; ++i) {
       int a = (((src[i] >>> ALPHA_SHIFT) * alphaAdjust) >> 8) & 0xff;
 
       int srcAlpha = a + (a >= 0x7F ? 1 : 0);
@@ -53,4 +62,25 @@ public class MultiplyBlend extends LXBlend {
           (dstG * dstAlpha + g * srcAlpha) >>> 8 & G_MASK;
     }
   }
+
+  @Override
+  public void blend(long[] dst, long[] src, double alpha, long[] output) {
+    multiply(dst, src, alpha, output);
+  }
+
+  public static void multiply(long[] dst, long[] src, double alpha, long[] output) {
+    int alphaAdjust = (int) (alpha * 0x10000);
+    for (int i = 0; i < src.length; ++i) {
+      long d = dst[i], s = src[i];
+      int srcAlpha = srcAlpha16(s, alphaAdjust);
+      int dstAlpha = 0x10000 - srcAlpha;
+      int dr = (int) (d >>> R16_SHIFT) & C16_MAX, sr = (int) (s >>> R16_SHIFT) & C16_MAX;
+      int dg = (int) (d >>> G16_SHIFT) & C16_MAX, sg = (int) (s >>> G16_SHIFT) & C16_MAX;
+      int db = (int) d & C16_MAX, sb = (int) s & C16_MAX;
+      output[i] = argb16(outAlpha16(d, srcAlpha),
+        mix16(dr, (int) ((long) sr * (dr + 1) >>> 16), dstAlpha, srcAlpha),
+        mix16(dg, (int) ((long) sg * (dg + 1) >>> 16), dstAlpha, srcAlpha),
+        mix16(db, (int) ((long) sb * (db + 1) >>> 16), dstAlpha, srcAlpha));
+    }
+  }
 }
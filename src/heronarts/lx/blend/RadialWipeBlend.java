@@ -0,0 +1,64 @@
+/**
+ * Copyright 2016- Mark C. Slee, Heron Arts LLC
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * @author Mark C. Slee <mark@heronarts.com>
+ */
+
+package heronarts.lx.blend;
+
+import heronarts.lx.LX;
+import heronarts.lx.model.LXModel;
+import heronarts.lx.model.LXPoint;
+import heronarts.lx.parameter.BooleanParameter;
+
+/**
+ * Wipes outwards from the center of the model, or inwards if inverted
+ */
+public class RadialWipeBlend extends LXWipeBlend {
+
+  public final BooleanParameter invert =
+    new BooleanParameter("Invert", false)
+    .setDescription("Wipe inwards from the edges of the model");
+
+  public RadialWipeBlend(LX lx) {
+    super(lx);
+    addParameter("invert", this.invert);
+  }
+
+  @Override
+  protected void computeMask(LXModel model, float[] mask) {
+    float max = 0;
+    for (LXPoint p : model.points) {
+      max = Math.max(max, dist(model, p));
+    }
+    if (max == 0) {
+      max = 1;
+    }
+    boolean invert = this.invert.isOn();
+    for (LXPoint p : model.points) {
+      float m = dist(model, p) / max;
+      mask[p.index] = invert ? (1 - m) : m;
+    }
+  }
+
+  private static float dist(LXModel model, LXPoint p) {
+    float dx = p.x - model.cx;
+    float dy = p.y - model.cy;
+    float dz = p.z - model.cz;
+    return (float) Math.sqrt(dx*dx + dy*dy + dz*dz);
+  }
+}
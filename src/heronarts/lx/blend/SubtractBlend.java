@@ -30,8 +30,13 @@ public class SubtractBlend extends LXBlend {
 
   @Override
   public void blend(int[] dst, int[] src, double alpha, int[] output) {
+    blend(dst, src, alpha, output, 0, src.length);
+  }
+
+  @Override
+  public void blend(int[] dst, int[] src, double alpha, int[] output, int start, int end) {
     int alphaAdjust = (int) (alpha * 0x100);
-    for (int i = 0; i < src.length; ++i) {
+    for (int i = start; i < end; ++i) {
       int a = (((src[i] >>> ALPHA_SHIFT) * alphaAdjust) >> 8) & 0xff;
 
       int srcAlpha = a + (a >= 0x7F ? 1 : 0);
@@ -45,4 +50,17 @@ public class SubtractBlend extends LXBlend {
         max((dst[i] & B_MASK) - (rb & B_MASK), 0);
     }
   }
+
+  @Override
+  public void blend(long[] dst, long[] src, double alpha, long[] output) {
+    int alphaAdjust = (int) (alpha * 0x10000);
+    for (int i = 0; i < src.length; ++i) {
+      long d = dst[i], s = src[i];
+      int srcAlpha = srcAlpha16(s, alphaAdjust);
+      output[i] = argb16(outAlpha16(d, srcAlpha),
+        max(((int) (d >>> R16_SHIFT) & C16_MAX) - (int) ((((s >>> R16_SHIFT) & C16_MAX) * srcAlpha) >>> 16), 0),
+        max(((int) (d >>> G16_SHIFT) & C16_MAX) - (int) ((((s >>> G16_SHIFT) & C16_MAX) * srcAlpha) >>> 16), 0),
+        max(((int) d & C16_MAX) - (int) (((s & C16_MAX) * srcAlpha) >>> 16), 0));
+    }
+  }
 }
@@ -0,0 +1,386 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * @author Mark C. Slee <mark@heronarts.com>
+ */
+
+package heronarts.lx.cluster;
+
+import heronarts.lx.LX;
+import heronarts.lx.LXChannel;
+import heronarts.lx.LXEngine;
+import heronarts.lx.model.LXFixture;
+import heronarts.lx.modulator.LXModulator;
+import heronarts.lx.modulator.LXPeriodicModulator;
+import heronarts.lx.osc.LXOscEngine;
+import heronarts.lx.osc.OscBundle;
+import heronarts.lx.osc.OscException;
+import heronarts.lx.osc.OscInt;
+import heronarts.lx.osc.OscLong;
+import heronarts.lx.osc.OscMessage;
+import heronarts.lx.osc.OscPacket;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A follower node of a rendering cluster. The follower's engine is not run
+ * on its own thread, instead one frame is rendered for each frame message
+ * received from the {@link LXClusterLeader}, using the leader's frame time.
+ * Parameter changes from the leader are applied before the frame, and the
+ * tempo and modulators are snapped to the leader's state after it.
+ *
+ * A follower is typically given a shard of the model's fixtures, in which
+ * case all of its channels and the master bus are focused on those fixtures,
+ * see {@link heronarts.lx.LXBus#setFocus(LXFixture...)}. Patterns and effects
+ * are then given a view of the model holding only the shard's points, and
+ * only that portion of the model is rendered and blended. Outputs are set up
+ * as usual, and should only address the shard.
+ *
+ * Since views keep the bounds of the full model, anything computed per point
+ * renders the same as on the leader. Effects that read neighboring points,
+ * such as glow or spatial blur, only see neighbors within the shard, so they
+ * may differ from the leader along the edges of a shard.
+ *
+ * Parameter changes are sequenced by the leader. When a follower sees a gap,
+ * or joins a new session, it applies what it has and asks the leader for a
+ * full snapshot on the leader's request port, until one arrives.
+ */
+public class LXClusterFollower {
+
+  private static final int BUFFER_SIZE = 8192;
+
+  // Frames to wait for a requested snapshot before asking again
+  private static final int REQUEST_INTERVAL = 30;
+
+  private final LX lx;
+  private final LXFixture[] shard;
+
+  public final int port;
+  private final DatagramSocket socket;
+  private final DatagramPacket packet;
+  private final FollowerThread thread;
+
+  private final List<OscMessage> pending = new ArrayList<OscMessage>();
+  private final List<OscMessage> modulators = new ArrayList<OscMessage>();
+
+  private boolean hasSession = false;
+  private int session = 0;
+  private int frame = 0;
+  private int droppedFrames = 0;
+
+  // Sequencing of state bundles, which are only ever sent once
+  private boolean inSync = false;
+  private boolean hasStateSession = false;
+  private int stateSession = 0;
+  private int sequence = 0;
+  private boolean discardBundle = false;
+  private int missedStates = 0;
+
+  private int leaderPort = LXClusterLeader.DEFAULT_REQUEST_PORT;
+  private InetAddress leaderAddress = null;
+  private LXOscEngine.Transmitter requestTransmitter = null;
+  private final OscMessage requestMessage = new OscMessage(LXClusterLeader.SNAPSHOT_ADDRESS);
+  private final OscInt requestSession = new OscInt(0);
+  private int requestFrame = 0;
+  private boolean hasRequested = false;
+
+  /**
+   * Creates a follower listening on the given port, rendering the whole model
+   * or just a shard of it.
+   *
+   * @param lx LX instance, which must not be running its engine thread
+   * @param port Port to listen for the leader on
+   * @param shard Fixtures to render, or none to render the whole model
+   * @throws SocketException if the port could not be bound
+   */
+  public LXClusterFollower(LX lx, int port, LXFixture ... shard) throws SocketException {
+    this.lx = lx;
+    this.shard = shard;
+    this.port = port;
+    this.socket = new DatagramSocket(port);
+    this.packet = new DatagramPacket(new byte[BUFFER_SIZE], BUFFER_SIZE);
+    this.thread = new FollowerThread();
+    this.requestMessage.add(this.requestSession);
+    if (shard.length > 0) {
+      lx.engine.masterChannel.setFocus(shard);
+      for (LXChannel channel : lx.engine.getChannels()) {
+        channel.setFocus(shard);
+      }
+      lx.engine.addListener(new LXEngine.Listener() {
+        public void channelAdded(LXEngine engine, LXChannel channel) {
+          channel.setFocus(LXClusterFollower.this.shard);
+        }
+        public void channelRemoved(LXEngine engine, LXChannel channel) {}
+        public void channelMoved(LXEngine engine, LXChannel channel) {}
+      });
+    }
+  }
+
+  /**
+   * Sets the port that the leader listens for snapshot requests on
+   *
+   * @param port Leader's request port
+   * @return this
+   */
+  public LXClusterFollower setLeaderPort(int port) {
+    this.leaderPort = port;
+    this.requestTransmitter = null;
+    return this;
+  }
+
+  /**
+   * Starts receiving and rendering frames
+   *
+   * @return this
+   */
+  public LXClusterFollower start() {
+    if (this.lx.engine.isThreaded()) {
+      throw new IllegalStateException("LXClusterFollower cannot be used with a threaded engine");
+    }
+    this.thread.start();
+    return this;
+  }
+
+  /**
+   * Stops rendering frames and closes the socket
+   */
+  public void stop() {
+    this.thread.interrupt();
+    this.socket.close();
+  }
+
+  /**
+   * Gets the number of the most recently rendered frame
+   *
+   * @return Frame number
+   */
+  public int getFrame() {
+    return this.frame;
+  }
+
+  /**
+   * Gets the number of leader frames that were never received
+   *
+   * @return Count of dropped frames
+   */
+  public int getDroppedFrames() {
+    return this.droppedFrames;
+  }
+
+  /**
+   * Gets the number of times a gap in the leader's state updates was seen
+   *
+   * @return Count of gaps in state updates
+   */
+  public int getMissedStates() {
+    return this.missedStates;
+  }
+
+  /**
+   * Whether every state update since the last snapshot has been received
+   *
+   * @return true if parameter state is known to match the leader
+   */
+  public boolean isInSync() {
+    return this.inSync;
+  }
+
+  private class FollowerThread extends Thread {
+
+    private FollowerThread() {
+      super("LX Cluster Follower");
+    }
+
+    @Override
+    public void run() {
+      System.out.println("LX Cluster Follower started on port " + port);
+      while (!isInterrupted()) {
+        try {
+          socket.receive(packet);
+          try {
+            OscPacket oscPacket = OscPacket.parse(packet);
+            leaderAddress = packet.getAddress();
+            discardBundle = false;
+            OscMessage frameMessage = null;
+            if (oscPacket instanceof OscMessage) {
+              frameMessage = receive((OscMessage) oscPacket);
+            } else if (oscPacket instanceof OscBundle) {
+              for (OscMessage message : (OscBundle) oscPacket) {
+                OscMessage received = receive(message);
+                if (received != null) {
+                  frameMessage = received;
+                }
+              }
+            }
+            // Frames are rendered once the whole bundle has been received
+            if (frameMessage != null) {
+              frame(frameMessage);
+            }
+          } catch (OscException oscx) {
+            System.err.println("[Cluster] Error parsing packet: " + oscx.getLocalizedMessage());
+          }
+        } catch (IOException iox) {
+          if (!isInterrupted()) {
+            System.err.println("[Cluster] Exception in follower thread: " + iox.getLocalizedMessage());
+          }
+        }
+      }
+      System.out.println("LX Cluster Follower stopped");
+    }
+  }
+
+  private OscMessage receive(OscMessage message) {
+    if (message.matches(LXClusterLeader.FRAME_ADDRESS)) {
+      return message;
+    } else if (message.matches(LXClusterLeader.MODULATOR_ADDRESS)) {
+      this.modulators.add(message);
+    } else if (message.matches(LXClusterLeader.STATE_ADDRESS)) {
+      state(message.getInt(0), message.getInt(1), message.getInt(2) != 0);
+    } else if (!this.discardBundle) {
+      this.pending.add(message);
+    }
+    return null;
+  }
+
+  private void state(int session, int sequence, boolean snapshot) {
+    boolean sameSession = this.hasStateSession && (session == this.stateSession);
+    if (snapshot) {
+      this.inSync = true;
+      this.hasRequested = false;
+    } else if (sameSession && (sequence - this.sequence <= 0)) {
+      // Late or duplicate bundle, its values are already stale
+      this.discardBundle = true;
+      return;
+    } else if (!sameSession || (sequence != this.sequence + 1)) {
+      // Newer values are still applied, a snapshot will fill in the rest
+      gap();
+    }
+    this.hasStateSession = true;
+    this.stateSession = session;
+    this.sequence = sequence;
+  }
+
+  private void gap() {
+    if (this.inSync) {
+      ++this.missedStates;
+      this.inSync = false;
+      this.hasRequested = false;
+    }
+  }
+
+  private void frame(OscMessage message) {
+    int session = message.getInt(0);
+    int frame = message.getInt(1);
+    if (this.hasSession && (session == this.session)) {
+      if (frame <= this.frame) {
+        // Late or duplicate frame, parameter changes still apply next frame
+        this.modulators.clear();
+        return;
+      }
+      this.droppedFrames += frame - this.frame - 1;
+    }
+    this.hasSession = true;
+    this.session = session;
+    this.frame = frame;
+
+    // The leader's last state bundle must have arrived by now
+    int sequence = message.getInt(5);
+    if (!this.hasStateSession || (session != this.stateSession)) {
+      if (sequence != 0 || this.hasStateSession) {
+        gap();
+        this.hasStateSession = true;
+        this.stateSession = session;
+        this.sequence = sequence;
+      } else {
+        this.hasStateSession = true;
+        this.stateSession = session;
+        this.inSync = true;
+      }
+    } else if (sequence - this.sequence > 0) {
+      gap();
+      this.sequence = sequence;
+    }
+    if (!this.inSync) {
+      requestSnapshot();
+    }
+
+    for (OscMessage change : this.pending) {
+      if (change.matches(LXClusterLeader.PATTERN_ADDRESS)) {
+        pattern(change.getInt(0), change.getInt(1));
+      } else {
+        this.lx.engine.osc.route(change);
+      }
+    }
+    this.pending.clear();
+
+    this.lx.engine.run(((OscLong) message.get(2)).getValue());
+
+    // Snap to the leader's state after this frame
+    this.lx.tempo.sync(message.getInt(3), message.getDouble(4));
+    List<LXModulator> modulators = this.lx.engine.modulation.modulators;
+    for (OscMessage modulator : this.modulators) {
+      int index = modulator.getInt(0);
+      if (index >= 0 && index < modulators.size()) {
+        LXModulator m = modulators.get(index);
+        if (m instanceof LXPeriodicModulator) {
+          ((LXPeriodicModulator) m).setBasis(modulator.getDouble(1));
+        }
+      }
+    }
+    this.modulators.clear();
+  }
+
+  private void pattern(int channelIndex, int patternIndex) {
+    List<LXChannel> channels = this.lx.engine.getChannels();
+    if (channelIndex >= 0 && channelIndex < channels.size()) {
+      LXChannel channel = channels.get(channelIndex);
+      // Only a mismatch is corrected, so a running transition isn't restarted
+      if (channel.getNextPatternIndex() != patternIndex) {
+        channel.goIndex(patternIndex);
+      }
+    }
+  }
+
+  private void requestSnapshot() {
+    if (this.leaderAddress == null) {
+      return;
+    }
+    if (this.hasRequested && (this.frame - this.requestFrame < REQUEST_INTERVAL)) {
+      return;
+    }
+    try {
+      if (this.requestTransmitter == null) {
+        this.requestTransmitter = this.lx.engine.osc.transmitter(this.leaderAddress, this.leaderPort);
+      } else {
+        this.requestTransmitter.setHost(this.leaderAddress.getHostAddress());
+      }
+      this.requestSession.setValue(this.session);
+      this.requestTransmitter.send(this.requestMessage);
+      this.hasRequested = true;
+      this.requestFrame = this.frame;
+    } catch (IOException iox) {
+      System.err.println("[Cluster] Failed to request snapshot: " + iox.getLocalizedMessage());
+    }
+  }
+
+}
@@ -0,0 +1,461 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * @author Mark C. Slee <mark@heronarts.com>
+ */
+
+package heronarts.lx.cluster;
+
+import heronarts.lx.LX;
+import heronarts.lx.LXBus;
+import heronarts.lx.LXChannel;
+import heronarts.lx.LXComponent;
+import heronarts.lx.LXEffect;
+import heronarts.lx.LXEngine;
+import heronarts.lx.LXLoopTask;
+import heronarts.lx.LXPattern;
+import heronarts.lx.color.ColorParameter;
+import heronarts.lx.modulator.LXModulator;
+import heronarts.lx.modulator.LXPeriodicModulator;
+import heronarts.lx.osc.LXOscEngine;
+import heronarts.lx.osc.LXOscListener;
+import heronarts.lx.osc.OscBundle;
+import heronarts.lx.osc.OscDouble;
+import heronarts.lx.osc.OscInt;
+import heronarts.lx.osc.OscLong;
+import heronarts.lx.osc.OscMessage;
+import heronarts.lx.parameter.BooleanParameter;
+import heronarts.lx.parameter.DiscreteParameter;
+import heronarts.lx.parameter.LXListenableParameter;
+import heronarts.lx.parameter.LXNormalizedParameter;
+import heronarts.lx.parameter.LXParameter;
+import heronarts.lx.parameter.LXParameterListener;
+import heronarts.lx.parameter.StringParameter;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * The leader of a rendering cluster. The leader runs a normal engine, and
+ * after each frame broadcasts the frame clock, tempo and modulator state,
+ * and any parameter changes to its followers over UDP. Each follower loads
+ * the same project and renders its own shard of the model in lockstep,
+ * see {@link LXClusterFollower}.
+ *
+ * Only parameter values and pattern changes are replicated. Structural
+ * changes, such as adding channels or patterns, must be made identically on
+ * every node.
+ *
+ * Parameter changes are only sent once, so every bundle of them carries a
+ * sequence number that lets followers notice a loss. A full snapshot of all
+ * parameter values and patterns is sent periodically, and immediately
+ * whenever a follower reports a gap to the port given to {@link #listen(int)}.
+ */
+public class LXClusterLeader implements LXLoopTask, LXParameterListener, LXEngine.Listener {
+
+  public static final int DEFAULT_PORT = 3040;
+
+  /**
+   * Default port the leader listens for snapshot requests on
+   */
+  public static final int DEFAULT_REQUEST_PORT = 3041;
+
+  /**
+   * Default number of frames between full state snapshots
+   */
+  public static final int DEFAULT_SNAPSHOT_INTERVAL = 300;
+
+  /**
+   * Frame message, with arguments: session, frame, nowMillis, beat count,
+   * beat ramp and the sequence number of the last state bundle. Tempo state
+   * is the leader's state after rendering the frame.
+   */
+  public static final String FRAME_ADDRESS = "/lx/cluster/frame";
+
+  /**
+   * State message, which begins every bundle of parameter changes, with
+   * arguments: session, sequence number, and 1 if the bundle begins a full
+   * snapshot or 0 otherwise.
+   */
+  public static final String STATE_ADDRESS = "/lx/cluster/state";
+
+  /**
+   * Pattern message, sent in snapshots, with arguments: channel index and
+   * the index of the pattern the channel is on or transitioning to.
+   */
+  public static final String PATTERN_ADDRESS = "/lx/cluster/pattern";
+
+  /**
+   * Modulator message, with arguments: index of the modulator in the
+   * modulation engine and its basis after rendering the frame.
+   */
+  public static final String MODULATOR_ADDRESS = "/lx/cluster/modulator";
+
+  /**
+   * Snapshot request, sent by a follower to the leader with the session
+   * it is following as the argument.
+   */
+  public static final String SNAPSHOT_ADDRESS = "/lx/cluster/snapshot";
+
+  private static final int MAX_MESSAGES_PER_BUNDLE = 32;
+
+  private final LX lx;
+
+  private final List<LXOscEngine.Transmitter> followers = new ArrayList<LXOscEngine.Transmitter>();
+
+  private final Set<LXComponent> components = new LinkedHashSet<LXComponent>();
+  private final Set<LXParameter> changedParameters = new LinkedHashSet<LXParameter>();
+  private final List<OscMessage> changedPatterns = new ArrayList<OscMessage>();
+
+  private final List<OscMessage> messages = new ArrayList<OscMessage>();
+  private final OscBundle bundle = new OscBundle();
+
+  private final OscMessage frameMessage = new OscMessage(FRAME_ADDRESS);
+  private final OscInt sessionArgument = new OscInt(new Random().nextInt());
+  private final OscInt frameArgument = new OscInt(0);
+  private final OscLong nowMillisArgument = new OscLong(0);
+  private final OscInt beatCountArgument = new OscInt(0);
+  private final OscDouble rampArgument = new OscDouble(0);
+  private final OscInt frameSequenceArgument = new OscInt(0);
+
+  private final OscMessage stateMessage = new OscMessage(STATE_ADDRESS);
+  private final OscInt sequenceArgument = new OscInt(0);
+  private final OscInt snapshotArgument = new OscInt(0);
+
+  private final List<OscMessage> modulatorMessages = new ArrayList<OscMessage>();
+
+  private LXOscEngine.Receiver receiver = null;
+
+  private int frame = 0;
+  private int sequence = 0;
+  private int snapshotInterval = DEFAULT_SNAPSHOT_INTERVAL;
+  private int lastSnapshot = 0;
+  private boolean snapshotRequested = false;
+
+  private final LXOscListener requestListener = new LXOscListener() {
+    @Override
+    public void oscMessage(OscMessage message) {
+      if (message.matches(SNAPSHOT_ADDRESS) && (message.getInt(0) == sessionArgument.getValue())) {
+        snapshotRequested = true;
+      }
+    }
+  };
+
+  private final LXChannel.Listener channelListener = new LXChannel.AbstractListener() {
+    @Override
+    public void patternWillChange(LXChannel channel, LXPattern pattern, LXPattern nextPattern) {
+      OscMessage message = new OscMessage(channel.getOscAddress() + "/nextPattern");
+      message.add(nextPattern.getIndex());
+      synchronized (changedParameters) {
+        changedPatterns.add(message);
+      }
+    }
+  };
+
+  public LXClusterLeader(LX lx) {
+    this.lx = lx;
+    this.frameMessage.add(this.sessionArgument);
+    this.frameMessage.add(this.frameArgument);
+    this.frameMessage.add(this.nowMillisArgument);
+    this.frameMessage.add(this.beatCountArgument);
+    this.frameMessage.add(this.rampArgument);
+    this.frameMessage.add(this.frameSequenceArgument);
+    this.stateMessage.add(this.sessionArgument);
+    this.stateMessage.add(this.sequenceArgument);
+    this.stateMessage.add(this.snapshotArgument);
+
+    registerComponent(lx.engine);
+    registerComponent(lx.palette);
+    registerComponent(lx.tempo);
+    registerComponent(lx.engine.audio);
+    registerComponent(lx.engine.output);
+    for (LXModulator modulator : lx.engine.modulation.modulators) {
+      registerComponent(modulator);
+    }
+    registerBus(lx.engine.masterChannel);
+    for (LXChannel channel : lx.engine.getChannels()) {
+      registerChannel(channel);
+    }
+    lx.engine.addListener(this);
+    lx.engine.addLoopTask(this);
+  }
+
+  /**
+   * Adds a follower node to the cluster
+   *
+   * @param host Host name or address of the follower
+   * @param port Port the follower is listening on
+   * @return this
+   * @throws SocketException if a socket could not be opened
+   * @throws UnknownHostException if the host is invalid
+   */
+  public LXClusterLeader addFollower(String host, int port) throws SocketException, UnknownHostException {
+    return addFollower(InetAddress.getByName(host), port);
+  }
+
+  /**
+   * Adds a follower node to the cluster
+   *
+   * @param address Address of the follower
+   * @param port Port the follower is listening on
+   * @return this
+   * @throws SocketException if a socket could not be opened
+   */
+  public LXClusterLeader addFollower(InetAddress address, int port) throws SocketException {
+    LXOscEngine.Transmitter transmitter = this.lx.engine.osc.transmitter(address, port);
+    synchronized (this.followers) {
+      this.followers.add(transmitter);
+    }
+    return this;
+  }
+
+  /**
+   * Listens for snapshot requests from followers that have missed state
+   *
+   * @param port Port to listen on, which followers must be configured with
+   * @return this
+   * @throws SocketException if the port could not be bound
+   */
+  public LXClusterLeader listen(int port) throws SocketException {
+    if (this.receiver != null) {
+      this.receiver.stop();
+    }
+    this.receiver = this.lx.engine.osc.receiver(port).addListener(this.requestListener);
+    return this;
+  }
+
+  /**
+   * Sets how often a full snapshot of state is sent, regardless of requests
+   *
+   * @param frames Number of frames between snapshots, or 0 to only send them on request
+   * @return this
+   */
+  public LXClusterLeader setSnapshotInterval(int frames) {
+    this.snapshotInterval = frames;
+    return this;
+  }
+
+  /**
+   * Stops sending frames to the cluster
+   */
+  public void dispose() {
+    this.lx.engine.removeLoopTask(this);
+    this.lx.engine.removeListener(this);
+    if (this.receiver != null) {
+      this.receiver.stop();
+      this.receiver = null;
+    }
+    synchronized (this.followers) {
+      this.followers.clear();
+    }
+  }
+
+  /**
+   * Gets the number of the most recently sent frame
+   *
+   * @return Frame number
+   */
+  public int getFrame() {
+    return this.frame;
+  }
+
+  private void registerBus(LXBus bus) {
+    registerComponent(bus);
+    for (LXEffect effect : bus.effects) {
+      registerComponent(effect);
+    }
+  }
+
+  private void registerChannel(LXChannel channel) {
+    registerBus(channel);
+    for (LXPattern pattern : channel.patterns) {
+      registerComponent(pattern);
+    }
+    channel.addListener(this.channelListener);
+  }
+
+  private void unregisterChannel(LXChannel channel) {
+    unregisterComponent(channel);
+    for (LXEffect effect : channel.effects) {
+      unregisterComponent(effect);
+    }
+    for (LXPattern pattern : channel.patterns) {
+      unregisterComponent(pattern);
+    }
+    channel.removeListener(this.channelListener);
+  }
+
+  private void registerComponent(LXComponent component) {
+    this.components.add(component);
+    for (LXParameter p : component.getParameters()) {
+      if (p instanceof LXListenableParameter) {
+        ((LXListenableParameter) p).addListener(this);
+      }
+    }
+  }
+
+  private void unregisterComponent(LXComponent component) {
+    this.components.remove(component);
+    for (LXParameter p : component.getParameters()) {
+      if (p instanceof LXListenableParameter) {
+        ((LXListenableParameter) p).removeListener(this);
+      }
+    }
+  }
+
+  @Override
+  public void onParameterChanged(LXParameter parameter) {
+    synchronized (this.changedParameters) {
+      this.changedParameters.add(parameter);
+    }
+  }
+
+  @Override
+  public void channelAdded(LXEngine engine, LXChannel channel) {
+    registerChannel(channel);
+  }
+
+  @Override
+  public void channelRemoved(LXEngine engine, LXChannel channel) {
+    unregisterChannel(channel);
+  }
+
+  @Override
+  public void channelMoved(LXEngine engine, LXChannel channel) {}
+
+  @Override
+  public void loop(double deltaMs) {
+    ++this.frame;
+
+    // Parameter changes, sent ahead of the frame in as many bundles as needed.
+    // A snapshot replaces them, as it includes every value.
+    boolean snapshot =
+      this.snapshotRequested ||
+      (this.snapshotInterval > 0 && this.frame - this.lastSnapshot >= this.snapshotInterval);
+    this.messages.clear();
+    synchronized (this.changedParameters) {
+      if (!snapshot) {
+        for (LXParameter parameter : this.changedParameters) {
+          OscMessage message = parameterMessage(parameter);
+          if (message != null) {
+            this.messages.add(message);
+          }
+        }
+      }
+      this.messages.addAll(this.changedPatterns);
+      this.changedParameters.clear();
+      this.changedPatterns.clear();
+    }
+    if (snapshot) {
+      for (LXComponent component : this.components) {
+        for (LXParameter parameter : component.getParameters()) {
+          OscMessage message = parameterMessage(parameter);
+          if (message != null) {
+            this.messages.add(message);
+          }
+        }
+      }
+      for (LXChannel channel : this.lx.engine.getChannels()) {
+        OscMessage message = new OscMessage(PATTERN_ADDRESS);
+        message.add(channel.getIndex());
+        message.add(channel.getNextPatternIndex());
+        this.messages.add(message);
+      }
+      this.snapshotRequested = false;
+      this.lastSnapshot = this.frame;
+    }
+    for (int i = 0; i < this.messages.size(); i += MAX_MESSAGES_PER_BUNDLE) {
+      this.sequenceArgument.setValue(++this.sequence);
+      this.snapshotArgument.setValue((snapshot && i == 0) ? 1 : 0);
+      this.bundle.getElements().clear();
+      this.bundle.addElement(this.stateMessage);
+      for (int j = i; j < Math.min(i + MAX_MESSAGES_PER_BUNDLE, this.messages.size()); ++j) {
+        this.bundle.addElement(this.messages.get(j));
+      }
+      send(this.bundle);
+    }
+
+    // Frame clock, followed by tempo and modulator state
+    this.frameArgument.setValue(this.frame);
+    this.nowMillisArgument.setValue(this.lx.engine.getNowMillis());
+    this.beatCountArgument.setValue(this.lx.tempo.beatCount());
+    this.rampArgument.setValue(this.lx.tempo.ramp());
+    this.frameSequenceArgument.setValue(this.sequence);
+    this.bundle.getElements().clear();
+    this.bundle.addElement(this.frameMessage);
+    List<LXModulator> modulators = this.lx.engine.modulation.modulators;
+    int numMessages = 0;
+    for (int i = 0; i < modulators.size(); ++i) {
+      LXModulator modulator = modulators.get(i);
+      if (modulator instanceof LXPeriodicModulator && modulator.isRunning()) {
+        if (numMessages == this.modulatorMessages.size()) {
+          OscMessage message = new OscMessage(MODULATOR_ADDRESS);
+          message.add(new OscInt(0));
+          message.add(new OscDouble(0));
+          this.modulatorMessages.add(message);
+        }
+        OscMessage message = this.modulatorMessages.get(numMessages++);
+        ((OscInt) message.get(0)).setValue(i);
+        ((OscDouble) message.get(1)).setValue(((LXPeriodicModulator) modulator).getBasis());
+        this.bundle.addElement(message);
+      }
+    }
+    send(this.bundle);
+  }
+
+  private void send(OscBundle bundle) {
+    synchronized (this.followers) {
+      for (LXOscEngine.Transmitter transmitter : this.followers) {
+        try {
+          transmitter.send(bundle);
+        } catch (IOException iox) {
+          System.err.println("[Cluster] Failed to send frame " + this.frame + ": " + iox.getLocalizedMessage());
+        }
+      }
+    }
+  }
+
+  private static OscMessage parameterMessage(LXParameter parameter) {
+    String address = LXOscEngine.getOscAddress(parameter);
+    if (address == null) {
+      return null;
+    }
+    OscMessage message = new OscMessage(address);
+    if (parameter instanceof BooleanParameter) {
+      message.add(((BooleanParameter) parameter).isOn() ? 1 : 0);
+    } else if (parameter instanceof StringParameter) {
+      message.add(((StringParameter) parameter).getString());
+    } else if (parameter instanceof ColorParameter) {
+      message.add(((ColorParameter) parameter).getColor());
+    } else if (parameter instanceof DiscreteParameter) {
+      message.add(((DiscreteParameter) parameter).getValuei());
+    } else if (parameter instanceof LXNormalizedParameter) {
+      message.add(((LXNormalizedParameter) parameter).getNormalized());
+    } else {
+      message.add(parameter.getValue());
+    }
+    return message;
+  }
+
+}
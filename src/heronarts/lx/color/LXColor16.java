@@ -0,0 +1,241 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * @author Mark C. Slee <mark@heronarts.com>
+ */
+
+package heronarts.lx.color;
+
+/**
+ * Utilities for wide color values, stored as 16 bits per channel packed
+ * into a long in ARGB order. These are the high-precision counterparts
+ * of the packed int values used by LXColor, and convert losslessly from
+ * 8-bit values.
+ */
+public class LXColor16 {
+
+  public static final long BLACK = 0xffff000000000000L;
+  public static final long WHITE = 0xffffffffffffffffL;
+
+  public static final long ALPHA_MASK = 0xffff000000000000L;
+  public static final long RED_MASK = 0x0000ffff00000000L;
+  public static final long GREEN_MASK = 0x00000000ffff0000L;
+  public static final long BLUE_MASK = 0x000000000000ffffL;
+
+  public static final int ALPHA_SHIFT = 48;
+  public static final int RED_SHIFT = 32;
+  public static final int GREEN_SHIFT = 16;
+
+  /**
+   * Maximum value of a single channel
+   */
+  public static final int MAX = 0xffff;
+
+  public static int alpha(long argb) {
+    return (int) (argb >>> ALPHA_SHIFT);
+  }
+
+  public static int red(long argb) {
+    return (int) ((argb >>> RED_SHIFT) & MAX);
+  }
+
+  public static int green(long argb) {
+    return (int) ((argb >>> GREEN_SHIFT) & MAX);
+  }
+
+  public static int blue(long argb) {
+    return (int) (argb & MAX);
+  }
+
+  /**
+   * Creates an opaque wide color from 16-bit channel values
+   *
+   * @param r Red from 0-65535
+   * @param g Green from 0-65535
+   * @param b Blue from 0-65535
+   * @return Wide color value
+   */
+  public static long rgb(int r, int g, int b) {
+    return rgba(r, g, b, MAX);
+  }
+
+  /**
+   * Creates a wide color from 16-bit channel values
+   *
+   * @param r Red from 0-65535
+   * @param g Green from 0-65535
+   * @param b Blue from 0-65535
+   * @param a Alpha from 0-65535
+   * @return Wide color value
+   */
+  public static long rgba(int r, int g, int b, int a) {
+    return
+      ((long) a << ALPHA_SHIFT) |
+      ((long) r << RED_SHIFT) |
+      ((long) g << GREEN_SHIFT) |
+      b;
+  }
+
+  /**
+   * Creates a wide color from normalized floating point values. Unlike
+   * the 8-bit path, this preserves fine gradations at low brightness.
+   *
+   * @param r Red from 0-1
+   * @param g Green from 0-1
+   * @param b Blue from 0-1
+   * @return Wide color value
+   */
+  public static long rgbf(float r, float g, float b) {
+    return rgb(
+      (int) (r * MAX + 0.5f),
+      (int) (g * MAX + 0.5f),
+      (int) (b * MAX + 0.5f)
+    );
+  }
+
+  /**
+   * Widens a packed 8-bit color. Each channel is scaled by 257, so that
+   * 0xff maps to 0xffff exactly.
+   *
+   * @param argb 8-bit color value
+   * @return Wide color value
+   */
+  public static long fromColor(int argb) {
+    return rgba(
+      ((argb >>> 16) & 0xff) * 257,
+      ((argb >>> 8) & 0xff) * 257,
+      (argb & 0xff) * 257,
+      (argb >>> 24) * 257
+    );
+  }
+
+  /**
+   * Narrows a wide color to packed 8-bit, with rounding
+   *
+   * @param argb Wide color value
+   * @return 8-bit color value
+   */
+  public static int toColor(long argb) {
+    return
+      (narrow(alpha(argb)) << 24) |
+      (narrow(red(argb)) << 16) |
+      (narrow(green(argb)) << 8) |
+      narrow(blue(argb));
+  }
+
+  /**
+   * Narrows a single 16-bit channel value to 8 bits, with rounding
+   *
+   * @param c Channel value from 0-65535
+   * @return Channel value from 0-255
+   */
+  public static int narrow(int c) {
+    return (c * 255 + 32895) >>> 16;
+  }
+
+  /**
+   * Widens an array of 8-bit colors into the wide array
+   *
+   * @param src 8-bit colors
+   * @param dst Wide colors
+   */
+  public static void widen(int[] src, long[] dst) {
+    for (int i = 0; i < src.length; ++i) {
+      dst[i] = fromColor(src[i]);
+    }
+  }
+
+  /**
+   * Narrows an array of wide colors into the 8-bit array
+   *
+   * @param src Wide colors
+   * @param dst 8-bit colors
+   */
+  public static void narrow(long[] src, int[] dst) {
+    for (int i = 0; i < src.length; ++i) {
+      dst[i] = toColor(src[i]);
+    }
+  }
+
+  /**
+   * Creates a wide color from HSB, at full 16-bit precision
+   *
+   * @param h Hue from 0-360
+   * @param s Saturation from 0-100
+   * @param b Brightness from 0-100
+   * @return Wide color value
+   */
+  public static long hsb(float h, float s, float b) {
+    float hue = h / 360.f;
+    float saturation = s / 100.f;
+    float brightness = b / 100.f;
+    if (saturation == 0) {
+      return rgbf(brightness, brightness, brightness);
+    }
+    float hh = (hue - (float) Math.floor(hue)) * 6.0f;
+    float f = hh - (float) Math.floor(hh);
+    float p = brightness * (1.0f - saturation);
+    float q = brightness * (1.0f - saturation * f);
+    float t = brightness * (1.0f - (saturation * (1.0f - f)));
+    switch ((int) hh) {
+    case 0: return rgbf(brightness, t, p);
+    case 1: return rgbf(q, brightness, p);
+    case 2: return rgbf(p, brightness, t);
+    case 3: return rgbf(p, q, brightness);
+    case 4: return rgbf(t, p, brightness);
+    default: return rgbf(brightness, p, q);
+    }
+  }
+
+  /**
+   * Linear interpolation between two wide colors
+   *
+   * @param c1 First color
+   * @param c2 Second color
+   * @param amount Amount of second color, from 0-1
+   * @return Interpolated color
+   */
+  public static long lerp(long c1, long c2, double amount) {
+    int a2 = (int) (amount * 0x10000);
+    int a1 = 0x10000 - a2;
+    return rgba(
+      (int) (((long) red(c1) * a1 + (long) red(c2) * a2) >>> 16),
+      (int) (((long) green(c1) * a1 + (long) green(c2) * a2) >>> 16),
+      (int) (((long) blue(c1) * a1 + (long) blue(c2) * a2) >>> 16),
+      (int) (((long) alpha(c1) * a1 + (long) alpha(c2) * a2) >>> 16)
+    );
+  }
+
+  /**
+   * Scales the brightness of a wide color by a uniform factor, which
+   * preserves hue and saturation just like scaling the HSB brightness.
+   *
+   * @param argb Wide color value
+   * @param scale Amount to scale by, from 0-1
+   * @return Scaled color
+   */
+  public static long scaleBrightness(long argb, double scale) {
+    int s = (int) (scale * 0x10000);
+    return rgba(
+      (int) (((long) red(argb) * s) >>> 16),
+      (int) (((long) green(argb) * s) >>> 16),
+      (int) (((long) blue(argb) * s) >>> 16),
+      alpha(argb)
+    );
+  }
+
+}
@@ -132,6 +132,34 @@ public class LXPalette extends LXModelComponent implements LXOscComponent {
   private double zMult;
   private double rMult;
 
+  /**
+   * Spatial hue offset of each point in the model, indexed by point index.
+   * The base hue is added to these when read.
+   */
+  private float[] hueOffsets = new float[0];
+
+  /**
+   * Parameter values that the hue offsets were computed with
+   */
+  private final double[] hueOffsetKeys = new double[8];
+
+  private LXModel hueOffsetsModel = null;
+
+  private boolean hueOffsetsValid = false;
+
+  /**
+   * Per-point color cache, only maintained once something has asked for
+   * per-point colors
+   */
+  private int[] colors = new int[0];
+
+  private volatile boolean colorsRequested = false;
+
+  private boolean colorsValid = false;
+  private boolean colorsRecomputed = false;
+  private double colorsHue;
+  private double colorsSaturation;
+
   public LXPalette(LX lx) {
     super(lx);
     computeMults(lx.model);
@@ -139,6 +167,8 @@ public class LXPalette extends LXModelComponent implements LXOscComponent {
       @Override
       public void modelChanged(LX lx, LXModel model) {
         computeMults(model);
+        hueOffsetsValid = false;
+        colorsValid = false;
       }
     });
 
@@ -205,6 +235,114 @@ public class LXPalette extends LXModelComponent implements LXOscComponent {
     }
   }
 
+  @Override
+  public void loop(double deltaMs) {
+    super.loop(deltaMs);
+    this.colorsRecomputed = computeHueOffsets();
+    if (this.colorsRequested) {
+      computeColors();
+    }
+  }
+
+  /**
+   * Updates the cached spatial hue offsets if any of the parameters they
+   * depend upon have changed. Values are compared rather than listened to,
+   * since modulation does not notify parameter listeners.
+   *
+   * @return Whether the offsets were recomputed
+   */
+  private boolean computeHueOffsets() {
+    double[] keys = this.hueOffsetKeys;
+    double sx = this.spreadX.getValue();
+    double sy = this.spreadY.getValue();
+    double sz = this.spreadZ.getValue();
+    double sr = this.spreadR.getValue();
+    double ox = this.offsetX.getValue();
+    double oy = this.offsetY.getValue();
+    double oz = this.offsetZ.getValue();
+    double mirror = this.mirror.isOn() ? 1 : 0;
+    if (this.hueOffsetsValid && (this.hueOffsetsModel == this.model) &&
+        (keys[0] == sx) && (keys[1] == sy) && (keys[2] == sz) && (keys[3] == sr) &&
+        (keys[4] == ox) && (keys[5] == oy) && (keys[6] == oz) && (keys[7] == mirror)) {
+      return false;
+    }
+    keys[0] = sx; keys[1] = sy; keys[2] = sz; keys[3] = sr;
+    keys[4] = ox; keys[5] = oy; keys[6] = oz; keys[7] = mirror;
+
+    LXModel model = this.model;
+    int size = 0;
+    for (LXPoint p : model.points) {
+      size = Math.max(size, p.index + 1);
+    }
+    if (this.hueOffsets.length != size) {
+      this.hueOffsets = new float[size];
+    }
+    double cx = model.cx + ox * model.xRange;
+    double cy = model.cy + oy * model.yRange;
+    double cz = model.cz + oz * model.zRange;
+    double kx = sx * this.xMult;
+    double ky = sy * this.yMult;
+    double kz = sz * this.zMult;
+    double kr = sr * this.rMult;
+    boolean isMirror = (mirror != 0);
+    float[] xs = model.getXs(), ys = model.getYs(), zs = model.getZs(), rs = model.getR();
+    for (int i = 0; i < xs.length; ++i) {
+      double dx = xs[i] - cx;
+      double dy = ys[i] - cy;
+      double dz = zs[i] - cz;
+      if (isMirror) {
+        dx = Math.abs(dx);
+        dy = Math.abs(dy);
+        dz = Math.abs(dz);
+      }
+      this.hueOffsets[model.points[i].index] = (float) (kx * dx + ky * dy + kz * dz + kr * (rs[i] - model.rMin));
+    }
+    this.hueOffsetsModel = model;
+    this.hueOffsetsValid = true;
+    return true;
+  }
+
+  /**
+   * Updates the cached per-point colors, only when the spatial offsets, base
+   * hue or saturation have changed.
+   */
+  private void computeColors() {
+    double hue = this.hue.getValue();
+    double saturation = getSaturation();
+    if (this.colorsValid && !this.colorsRecomputed &&
+        (hue == this.colorsHue) && (saturation == this.colorsSaturation)) {
+      return;
+    }
+    if (this.colors.length != this.hueOffsets.length) {
+      this.colors = new int[this.hueOffsets.length];
+    }
+    float h = (float) hue;
+    float s = (float) saturation;
+    for (LXPoint p : this.model.points) {
+      this.colors[p.index] = LXColor.hsb(h + this.hueOffsets[p.index], s, 100);
+    }
+    this.colorsHue = hue;
+    this.colorsSaturation = saturation;
+    this.colorsValid = true;
+  }
+
+  /**
+   * Returns an array of the palette color for every point in the model at
+   * full brightness, indexed by point index. The array is updated once per
+   * frame in the engine thread and must not be modified. Cached colors are
+   * only maintained after the first call to this method.
+   *
+   * @return Palette colors by point index
+   */
+  public int[] getColors() {
+    if (!this.colorsRequested || !this.colorsValid) {
+      this.colorsRequested = true;
+      computeHueOffsets();
+      computeColors();
+    }
+    return this.colors;
+  }
+
   public double getHue() {
     return this.hue.getValue();
   }
@@ -222,6 +360,13 @@ public class LXPalette extends LXModelComponent implements LXOscComponent {
   }
 
   public double getHue(LXPoint point) {
+    if (this.hueOffsetsValid && (point.index < this.hueOffsets.length)) {
+      return this.hue.getValue() + this.hueOffsets[point.index];
+    }
+    return computeHue(point);
+  }
+
+  private double computeHue(LXPoint point) {
     double dx = point.x - this.model.cx - this.offsetX.getValue() * model.xRange;
     double dy = point.y - this.model.cy - this.offsetY.getValue() * model.yRange;
     double dz = point.z - this.model.cz - this.offsetZ.getValue() * model.zRange;
@@ -235,7 +380,7 @@ public class LXPalette extends LXModelComponent implements LXOscComponent {
       this.spreadX.getValue() * this.xMult * dx +
       this.spreadY.getValue() * this.yMult * dy +
       this.spreadZ.getValue() * this.zMult * dz +
-      this.spreadR.getValue() * this.rMult * (point.r - model.rMin)
+      this.spreadR.getValue() * this.rMult * (point.r() - model.rMin)
      );
   }
 
@@ -270,6 +415,11 @@ public class LXPalette extends LXModelComponent implements LXOscComponent {
   }
 
   public int getColor(LXPoint point) {
+    if (!this.colorsRequested || !this.colorsValid) {
+      this.colorsRequested = true;
+    } else if (this.colorsValid && (point.index < this.colors.length)) {
+      return this.colors[point.index];
+    }
     return getColor(point, getSaturation(), 100);
   }
 
@@ -22,21 +22,23 @@ package heronarts.lx.effect;
 
 import heronarts.lx.LX;
 import heronarts.lx.LXEffect;
-import heronarts.lx.ModelBuffer;
+import heronarts.lx.LXLayeredComponent;
+import heronarts.lx.PlanarBuffer;
 import heronarts.lx.color.LXColor;
+import heronarts.lx.model.LXIndexRanges;
 import heronarts.lx.parameter.CompoundParameter;
 
-public class BlurEffect extends LXEffect {
+public class BlurEffect extends LXEffect implements LXLayeredComponent.Planar {
 
   public final CompoundParameter amount =
     new CompoundParameter("Amount", 0)
     .setDescription("Sets the amount of blur to apply");
 
-  private final ModelBuffer blurBuffer;
+  private final PlanarBuffer blurBuffer;
 
   public BlurEffect(LX lx) {
     super(lx);
-    this.blurBuffer = new ModelBuffer(lx);
+    this.blurBuffer = new PlanarBuffer(lx);
     int[] blurArray = blurBuffer.getArray();
     for (int i = 0; i < blurArray.length; ++i) {
       blurArray[i] = LXColor.BLACK;
@@ -57,13 +59,42 @@ public class BlurEffect extends LXEffect {
     float blurf = (float) (amount * this.amount.getValuef());
     if (blurf > 0) {
       blurf = 1 - (1 - blurf) * (1 - blurf) * (1 - blurf);
+      LXIndexRanges ranges = this.model.getRanges();
+      PlanarBuffer planar = getPlanarBuffer();
+      if (planar != null) {
+        // Screen against the blur buffer and lerp, on each plane
+        float[] alpha = planar.getAlpha();
+        for (int r = 0; r < ranges.getNumRanges(); ++r) {
+          int start = ranges.start(r), end = ranges.end(r);
+          runPlanar(planar.getRed(), this.blurBuffer.getRed(), blurf, start, end);
+          runPlanar(planar.getGreen(), this.blurBuffer.getGreen(), blurf, start, end);
+          runPlanar(planar.getBlue(), this.blurBuffer.getBlue(), blurf, start, end);
+          System.arraycopy(alpha, start, this.blurBuffer.getAlpha(), start, end - start);
+        }
+        return;
+      }
       int[] blurArray = this.blurBuffer.getArray();
-      for (int i = 0; i < this.colors.length; ++i) {
-        int blend = LXColor.screen(this.colors[i], blurArray[i]);
-        this.colors[i] = LXColor.lerp(this.colors[i], blend, blurf);
+      for (int r = 0; r < ranges.getNumRanges(); ++r) {
+        for (int i = ranges.start(r); i < ranges.end(r); ++i) {
+          int blend = LXColor.screen(this.colors[i], blurArray[i]);
+          this.colors[i] = blurArray[i] = LXColor.lerp(this.colors[i], blend, blurf);
+        }
       }
-      System.arraycopy(this.colors, 0, blurArray, 0, this.colors.length);
     }
 
   }
+
+  private static void runPlanar(float[] plane, float[] blurPlane, float blurf, int start, int end) {
+    for (int i = start; i < end; ++i) {
+      float c = plane[i];
+      float screen = c + blurPlane[i] * (1 - c);
+      plane[i] = blurPlane[i] = c + (screen - c) * blurf;
+    }
+  }
+
+  @Override
+  public void dispose() {
+    this.blurBuffer.dispose();
+    super.dispose();
+  }
 }
@@ -22,11 +22,14 @@ package heronarts.lx.effect;
 
 import heronarts.lx.LX;
 import heronarts.lx.LXEffect;
+import heronarts.lx.LXLayeredComponent;
+import heronarts.lx.PlanarBuffer;
 import heronarts.lx.color.LXColor;
+import heronarts.lx.model.LXIndexRanges;
 import heronarts.lx.parameter.CompoundParameter;
 import heronarts.lx.parameter.LXParameter;
 
-public class DesaturationEffect extends LXEffect {
+public class DesaturationEffect extends LXEffect implements LXLayeredComponent.Planar {
 
   private final CompoundParameter attack =
     new CompoundParameter("Attack", 100, 0, 1000)
@@ -62,12 +65,34 @@ public class DesaturationEffect extends LXEffect {
     double d = amount * this.amount.getValue();
     if (d > 0) {
       d = 1-d;
-      for (int i = 0; i < colors.length; ++i) {
-        this.colors[i] = LXColor.hsb(
-          LXColor.h(this.colors[i]),
-          Math.max(0, LXColor.s(colors[i]) * d),
-          LXColor.b(colors[i])
-        );
+      LXIndexRanges ranges = this.model.getRanges();
+      PlanarBuffer planar = getPlanarBuffer();
+      if (planar != null) {
+        // Scaling HSB saturation leaves the max channel and pulls the others
+        // towards it proportionally
+        float df = (float) d;
+        float[] red = planar.getRed();
+        float[] green = planar.getGreen();
+        float[] blue = planar.getBlue();
+        for (int n = 0; n < ranges.getNumRanges(); ++n) {
+          for (int i = ranges.start(n); i < ranges.end(n); ++i) {
+            float r = red[i], g = green[i], b = blue[i];
+            float max = Math.max(r, Math.max(g, b));
+            red[i] = max - (max - r) * df;
+            green[i] = max - (max - g) * df;
+            blue[i] = max - (max - b) * df;
+          }
+        }
+        return;
+      }
+      for (int n = 0; n < ranges.getNumRanges(); ++n) {
+        for (int i = ranges.start(n); i < ranges.end(n); ++i) {
+          this.colors[i] = LXColor.hsb(
+            LXColor.h(this.colors[i]),
+            Math.max(0, LXColor.s(colors[i]) * d),
+            LXColor.b(colors[i])
+          );
+        }
       }
     }
   }
@@ -0,0 +1,165 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * @author Mark C. Slee <mark@heronarts.com>
+ */
+
+package heronarts.lx.effect;
+
+import heronarts.lx.LX;
+import heronarts.lx.LXEffect;
+import heronarts.lx.LXParallel;
+import heronarts.lx.model.LXNeighborGraph;
+import heronarts.lx.parameter.CompoundParameter;
+import heronarts.lx.parameter.DiscreteParameter;
+import heronarts.lx.parameter.LXParameter;
+
+/**
+ * Light diffuses outwards from wherever it is drawn, spreading over the
+ * neighbor graph of the model from frame to frame and decaying over time.
+ * The output is the brighter of the input and the diffused light.
+ */
+public class DiffusionEffect extends LXEffect {
+
+  public final CompoundParameter rate =
+    new CompoundParameter("Rate", 0.5)
+    .setDescription("Sets how quickly light spreads to neighboring points");
+
+  public final CompoundParameter decay = (CompoundParameter)
+    new CompoundParameter("Decay", 500, 10, 5000)
+    .setDescription("Sets the time for diffused light to fall to half brightness")
+    .setUnits(LXParameter.Units.MILLISECONDS);
+
+  public final DiscreteParameter neighbors =
+    new DiscreteParameter("Neighbors", 6, 1, 17)
+    .setDescription("Sets the number of nearest points that light spreads to");
+
+  private LXNeighborGraph graph;
+  private int[] input;
+
+  /**
+   * Diffused light, indexed by point index, in two generations
+   */
+  private float[] red = new float[0], green = new float[0], blue = new float[0];
+  private float[] nextRed = new float[0], nextGreen = new float[0], nextBlue = new float[0];
+
+  private float spread;
+  private float retain;
+  private int mixAlpha;
+
+  private final LXParallel.Task task = new LXParallel.Task() {
+    public void run(int start, int end) {
+      diffuse(start, end);
+    }
+  };
+
+  public DiffusionEffect(LX lx) {
+    super(lx);
+    addParameter("rate", this.rate);
+    addParameter("decay", this.decay);
+    addParameter("neighbors", this.neighbors);
+  }
+
+  @Override
+  protected void onEnable() {
+    clear(this.red);
+    clear(this.green);
+    clear(this.blue);
+  }
+
+  private static void clear(float[] array) {
+    for (int i = 0; i < array.length; ++i) {
+      array[i] = 0;
+    }
+  }
+
+  @Override
+  protected void run(double deltaMs, double enabledAmount) {
+    if (enabledAmount <= 0) {
+      return;
+    }
+    if (this.red.length != this.colors.length) {
+      this.red = new float[this.colors.length];
+      this.green = new float[this.colors.length];
+      this.blue = new float[this.colors.length];
+      this.nextRed = new float[this.colors.length];
+      this.nextGreen = new float[this.colors.length];
+      this.nextBlue = new float[this.colors.length];
+    }
+    this.spread = (float) Math.min(1, this.rate.getValue() * deltaMs / 16.);
+    this.retain = (float) Math.pow(0.5, deltaMs / this.decay.getValue());
+    this.mixAlpha = (int) (enabledAmount * 0x100);
+    this.graph = this.model.requestNeighborGraph(this.neighbors.getValuei());
+    if (this.graph == null) {
+      // Still being built in the background
+      return;
+    }
+    this.input = this.colors;
+    LXParallel.get().run(this.task, this.graph.index.length);
+
+    float[] swap;
+    swap = this.red; this.red = this.nextRed; this.nextRed = swap;
+    swap = this.green; this.green = this.nextGreen; this.nextGreen = swap;
+    swap = this.blue; this.blue = this.nextBlue; this.nextBlue = swap;
+  }
+
+  private void diffuse(int start, int end) {
+    int[] index = this.graph.index;
+    int[] offsets = this.graph.offsets;
+    int[] neighbors = this.graph.neighbors;
+    float[] red = this.red, green = this.green, blue = this.blue;
+    float spread = this.spread;
+    float retain = this.retain;
+    int srcAlpha = this.mixAlpha;
+    int dstAlpha = 0x100 - srcAlpha;
+    for (int i = start; i < end; ++i) {
+      int idx = index[i];
+      float r = red[idx], g = green[idx], b = blue[idx];
+      int degree = offsets[i+1] - offsets[i];
+      if (degree > 0) {
+        float nr = 0, ng = 0, nb = 0;
+        for (int e = offsets[i]; e < offsets[i+1]; ++e) {
+          int n = neighbors[e];
+          nr += red[n];
+          ng += green[n];
+          nb += blue[n];
+        }
+        r += spread * (nr / degree - r);
+        g += spread * (ng / degree - g);
+        b += spread * (nb / degree - b);
+      }
+      r *= retain;
+      g *= retain;
+      b *= retain;
+
+      // Light drawn this frame is injected into the diffusion
+      int c = this.input[idx];
+      int cr = (c >>> 16) & 0xff, cg = (c >>> 8) & 0xff, cb = c & 0xff;
+      r = Math.max(r, cr);
+      g = Math.max(g, cg);
+      b = Math.max(b, cb);
+      this.nextRed[idx] = r;
+      this.nextGreen[idx] = g;
+      this.nextBlue[idx] = b;
+
+      this.input[idx] = (c & 0xff000000) |
+        ((cr * dstAlpha + (int) r * srcAlpha) >>> 8) << 16 |
+        ((cg * dstAlpha + (int) g * srcAlpha) >>> 8) << 8 |
+        ((cb * dstAlpha + (int) b * srcAlpha) >>> 8);
+    }
+  }
+}
@@ -23,6 +23,7 @@ package heronarts.lx.effect;
 import heronarts.lx.LX;
 import heronarts.lx.LXEffect;
 import heronarts.lx.color.LXColor;
+import heronarts.lx.model.LXIndexRanges;
 import heronarts.lx.parameter.BoundedParameter;
 import heronarts.lx.parameter.CompoundParameter;
 import heronarts.lx.parameter.LXParameter;
@@ -68,8 +69,12 @@ public class FlashEffect extends LXEffect {
     double satValue = this.sat.getValue() * 100.;
     double hueValue = this.lx.palette.getHue();
     if (flashValue > 0) {
-      for (int i = 0; i < this.colors.length; ++i) {
-        this.colors[i] = LXColor.lerp(this.colors[i], LXColor.hsb(hueValue, satValue, 100.), flashValue);
+      int flash = LXColor.hsb(hueValue, satValue, 100.);
+      LXIndexRanges ranges = this.model.getRanges();
+      for (int r = 0; r < ranges.getNumRanges(); ++r) {
+        for (int i = ranges.start(r); i < ranges.end(r); ++i) {
+          this.colors[i] = LXColor.lerp(this.colors[i], flash, flashValue);
+        }
       }
     }
   }
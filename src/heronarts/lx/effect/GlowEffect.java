@@ -0,0 +1,121 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * @author Mark C. Slee <mark@heronarts.com>
+ */
+
+package heronarts.lx.effect;
+
+import heronarts.lx.LX;
+import heronarts.lx.LXEffect;
+import heronarts.lx.LXParallel;
+import heronarts.lx.ModelBuffer;
+import heronarts.lx.model.LXNeighborGraph;
+import heronarts.lx.parameter.CompoundParameter;
+import heronarts.lx.parameter.DiscreteParameter;
+
+/**
+ * Adds light from neighboring points onto each point, so that bright areas
+ * bleed outwards into their surroundings. Nearer neighbors contribute more.
+ */
+public class GlowEffect extends LXEffect {
+
+  public final CompoundParameter gain =
+    new CompoundParameter("Gain", 0.5, 0, 2)
+    .setDescription("Sets the amount of light added from neighboring points");
+
+  public final DiscreteParameter neighbors =
+    new DiscreteParameter("Neighbors", 8, 1, 17)
+    .setDescription("Sets the number of nearest points that contribute glow");
+
+  private final ModelBuffer outputBuffer;
+
+  private LXNeighborGraph graph;
+  private int[] input;
+  private int[] output;
+  private float glowGain;
+
+  private final LXParallel.Task task = new LXParallel.Task() {
+    public void run(int start, int end) {
+      glow(start, end);
+    }
+  };
+
+  public GlowEffect(LX lx) {
+    super(lx);
+    this.outputBuffer = new ModelBuffer(lx);
+    addParameter("gain", this.gain);
+    addParameter("neighbors", this.neighbors);
+  }
+
+  @Override
+  protected void run(double deltaMs, double enabledAmount) {
+    float gain = (float) (enabledAmount * this.gain.getValue());
+    if (gain <= 0) {
+      return;
+    }
+    this.glowGain = gain;
+    this.graph = this.model.requestNeighborGraph(this.neighbors.getValuei());
+    if (this.graph == null) {
+      // Still being built in the background
+      return;
+    }
+    this.input = this.colors;
+    this.output = this.outputBuffer.getArray();
+    LXParallel.get().run(this.task, this.graph.index.length);
+    for (int idx : this.graph.index) {
+      this.colors[idx] = this.output[idx];
+    }
+  }
+
+  private void glow(int start, int end) {
+    int[] index = this.graph.index;
+    int[] offsets = this.graph.offsets;
+    int[] neighbors = this.graph.neighbors;
+    float[] distances = this.graph.distances;
+    int[] input = this.input;
+    for (int i = start; i < end; ++i) {
+      int c = input[index[i]];
+      float r = 0, g = 0, b = 0, total = 0;
+      float nearest = (offsets[i+1] > offsets[i]) ? distances[offsets[i]] : 0;
+      for (int e = offsets[i]; e < offsets[i+1]; ++e) {
+        // Weight falls off with distance relative to the nearest neighbor
+        float w = (nearest > 0) ? (nearest / distances[e]) : 1;
+        int n = input[neighbors[e]];
+        r += w * ((n >>> 16) & 0xff);
+        g += w * ((n >>> 8) & 0xff);
+        b += w * (n & 0xff);
+        total += w;
+      }
+      if (total == 0) {
+        this.output[index[i]] = c;
+        continue;
+      }
+      float k = this.glowGain / total;
+      this.output[index[i]] = (c & 0xff000000) |
+        Math.min(0xff, ((c >>> 16) & 0xff) + (int) (r * k)) << 16 |
+        Math.min(0xff, ((c >>> 8) & 0xff) + (int) (g * k)) << 8 |
+        Math.min(0xff, (c & 0xff) + (int) (b * k));
+    }
+  }
+
+  @Override
+  public void dispose() {
+    this.outputBuffer.dispose();
+    super.dispose();
+  }
+}
@@ -0,0 +1,121 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * @author Mark C. Slee <mark@heronarts.com>
+ */
+
+package heronarts.lx.effect;
+
+import heronarts.lx.LX;
+import heronarts.lx.LXEffect;
+import heronarts.lx.LXParallel;
+import heronarts.lx.ModelBuffer;
+import heronarts.lx.model.LXNeighborGraph;
+import heronarts.lx.parameter.CompoundParameter;
+import heronarts.lx.parameter.DiscreteParameter;
+
+/**
+ * Blurs each point with the average of its nearest neighbors in space. This
+ * works on any model geometry, using the neighbor graph of the model.
+ */
+public class SpatialBlurEffect extends LXEffect {
+
+  public final CompoundParameter amount =
+    new CompoundParameter("Amount", 0)
+    .setDescription("Sets the amount of spatial blur to apply");
+
+  public final DiscreteParameter neighbors =
+    new DiscreteParameter("Neighbors", 6, 1, 17)
+    .setDescription("Sets the number of nearest points each point is blurred with");
+
+  private final ModelBuffer outputBuffer;
+
+  private LXNeighborGraph graph;
+  private int[] input;
+  private int[] output;
+  private int blurAlpha;
+
+  private final LXParallel.Task task = new LXParallel.Task() {
+    public void run(int start, int end) {
+      blur(start, end);
+    }
+  };
+
+  public SpatialBlurEffect(LX lx) {
+    super(lx);
+    this.outputBuffer = new ModelBuffer(lx);
+    addParameter("amount", this.amount);
+    addParameter("neighbors", this.neighbors);
+  }
+
+  @Override
+  protected void run(double deltaMs, double enabledAmount) {
+    double blur = enabledAmount * this.amount.getValue();
+    if (blur <= 0) {
+      return;
+    }
+    this.blurAlpha = (int) (blur * 0x100);
+    this.graph = this.model.requestNeighborGraph(this.neighbors.getValuei());
+    if (this.graph == null) {
+      // Still being built in the background
+      return;
+    }
+    this.input = this.colors;
+    this.output = this.outputBuffer.getArray();
+    LXParallel.get().run(this.task, this.graph.index.length);
+    for (int idx : this.graph.index) {
+      this.colors[idx] = this.output[idx];
+    }
+  }
+
+  private void blur(int start, int end) {
+    int[] index = this.graph.index;
+    int[] offsets = this.graph.offsets;
+    int[] neighbors = this.graph.neighbors;
+    int[] input = this.input;
+    int srcAlpha = this.blurAlpha;
+    int dstAlpha = 0x100 - srcAlpha;
+    for (int i = start; i < end; ++i) {
+      int c = input[index[i]];
+      int degree = offsets[i+1] - offsets[i];
+      if (degree == 0) {
+        this.output[index[i]] = c;
+        continue;
+      }
+      int r = 0, g = 0, b = 0;
+      for (int e = offsets[i]; e < offsets[i+1]; ++e) {
+        int n = input[neighbors[e]];
+        r += (n >>> 16) & 0xff;
+        g += (n >>> 8) & 0xff;
+        b += n & 0xff;
+      }
+      r /= degree;
+      g /= degree;
+      b /= degree;
+      this.output[index[i]] = (c & 0xff000000) |
+        ((((c >>> 16) & 0xff) * dstAlpha + r * srcAlpha) >>> 8) << 16 |
+        ((((c >>> 8) & 0xff) * dstAlpha + g * srcAlpha) >>> 8) << 8 |
+        (((c & 0xff) * dstAlpha + b * srcAlpha) >>> 8);
+    }
+  }
+
+  @Override
+  public void dispose() {
+    this.outputBuffer.dispose();
+    super.dispose();
+  }
+}
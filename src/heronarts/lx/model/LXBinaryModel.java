@@ -0,0 +1,213 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * @author Mark C. Slee <mark@heronarts.com>
+ */
+
+package heronarts.lx.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads and writes models in a compact binary format, which stores all of
+ * the derived values of every point so that very large models can be loaded
+ * without any per-point parsing or trigonometry. Files are loaded by memory
+ * mapping, and the point data is read in bulk.
+ *
+ * The format is big-endian. After a header of magic number, version, point
+ * count and fixture count, it contains the number of points in each fixture,
+ * a table identifying points that appear more than once, then one float array
+ * per point field. Points are stored in the order of the model's points
+ * array, which is the concatenation of its fixtures. Fixture types are not
+ * preserved, fixtures are loaded as generic fixtures with the same points.
+ */
+public class LXBinaryModel {
+
+  private static final int MAGIC = 0x4c584d42; // "LXMB"
+
+  public static final int VERSION = 1;
+
+  private static final int HEADER_SIZE = 16;
+
+  private static final int NUM_FIELDS = 9;
+
+  private LXBinaryModel() {}
+
+  /**
+   * Writes a model to a file
+   *
+   * @param model Model to write
+   * @param file File to write to
+   * @throws IOException If the file could not be written
+   */
+  public static void save(LXModel model, File file) throws IOException {
+    int numPoints = model.points.length;
+    int numFixtures = model.fixtures.size();
+
+    // Identify repeated points by the position they first appear at
+    int[] pointRef = new int[numPoints];
+    Map<LXPoint, Integer> firstPosition = new IdentityHashMap<LXPoint, Integer>();
+    for (int i = 0; i < numPoints; ++i) {
+      Integer first = firstPosition.get(model.points[i]);
+      if (first == null) {
+        firstPosition.put(model.points[i], i);
+        pointRef[i] = i;
+      } else {
+        pointRef[i] = first;
+      }
+    }
+
+    int size = HEADER_SIZE + 4 * numFixtures + 4 * numPoints + 4 * NUM_FIELDS * numPoints;
+    ByteBuffer buffer = ByteBuffer.allocate(size);
+    buffer.putInt(MAGIC);
+    buffer.putInt(VERSION);
+    buffer.putInt(numPoints);
+    buffer.putInt(numFixtures);
+    for (LXFixture fixture : model.fixtures) {
+      buffer.putInt(fixture.getPoints().size());
+    }
+    for (int ref : pointRef) {
+      buffer.putInt(ref);
+    }
+    LXPoint[] points = model.points;
+    for (LXPoint p : points) buffer.putFloat(p.x);
+    for (LXPoint p : points) buffer.putFloat(p.y);
+    for (LXPoint p : points) buffer.putFloat(p.z);
+    for (LXPoint p : points) buffer.putFloat(p.r());
+    for (LXPoint p : points) buffer.putFloat(p.rxy());
+    for (LXPoint p : points) buffer.putFloat(p.rxz());
+    for (LXPoint p : points) buffer.putFloat(p.theta());
+    for (LXPoint p : points) buffer.putFloat(p.azimuth());
+    for (LXPoint p : points) buffer.putFloat(p.elevation());
+    buffer.flip();
+
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      raf.setLength(0);
+      FileChannel channel = raf.getChannel();
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+    } finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * Loads a model from a file. New points are created, with new indices.
+   *
+   * @param file File to load
+   * @return Model
+   * @throws IOException If the file could not be read or is not valid
+   */
+  public static LXModel load(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      return load(buffer, file.toString());
+    } finally {
+      raf.close();
+    }
+  }
+
+  private static LXModel load(ByteBuffer buffer, String name) throws IOException {
+    if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+      throw new IOException("Not an LX binary model file: " + name);
+    }
+    int version = buffer.getInt();
+    if (version != VERSION) {
+      throw new IOException("Unsupported LX binary model version " + version + ": " + name);
+    }
+    int numPoints = buffer.getInt();
+    int numFixtures = buffer.getInt();
+    long expected = 4L * numFixtures + 4L * numPoints + 4L * NUM_FIELDS * numPoints;
+    if (numPoints < 0 || numFixtures < 0 || buffer.remaining() < expected) {
+      throw new IOException("Truncated LX binary model file: " + name);
+    }
+
+    IntBuffer ints = buffer.asIntBuffer();
+    int[] fixtureSizes = new int[numFixtures];
+    ints.get(fixtureSizes);
+    int[] pointRef = new int[numPoints];
+    ints.get(pointRef);
+    buffer.position(buffer.position() + 4 * (numFixtures + numPoints));
+
+    FloatBuffer floats = buffer.asFloatBuffer();
+    float[][] fields = new float[NUM_FIELDS][numPoints];
+    for (float[] field : fields) {
+      floats.get(field);
+    }
+    float[] x = fields[0], y = fields[1], z = fields[2], r = fields[3], rxy = fields[4], rxz = fields[5];
+    float[] theta = fields[6], azimuth = fields[7], elevation = fields[8];
+
+    LXPoint[] points = new LXPoint[numPoints];
+    for (int i = 0; i < numPoints; ++i) {
+      int ref = pointRef[i];
+      if (ref < 0 || ref > i) {
+        throw new IOException("Invalid point reference in LX binary model file: " + name);
+      }
+      if (ref < i) {
+        points[i] = points[ref];
+      } else {
+        points[i] = new LXPoint(x[i], y[i], z[i], r[i], rxy[i], rxz[i], theta[i], azimuth[i], elevation[i]);
+      }
+    }
+
+    LXFixture[] fixtures = new LXFixture[numFixtures];
+    int position = 0;
+    for (int f = 0; f < numFixtures; ++f) {
+      int fixtureSize = fixtureSizes[f];
+      if (fixtureSize < 0 || position + fixtureSize > numPoints) {
+        throw new IOException("Invalid fixture table in LX binary model file: " + name);
+      }
+      List<LXPoint> fixturePoints = new ArrayList<LXPoint>(fixtureSize);
+      for (int i = 0; i < fixtureSize; ++i) {
+        fixturePoints.add(points[position++]);
+      }
+      fixtures[f] = new LoadedFixture(fixturePoints);
+    }
+    if (position != numPoints) {
+      throw new IOException("Fixture table does not cover all points in LX binary model file: " + name);
+    }
+    return new LXModel(fixtures);
+  }
+
+  private static class LoadedFixture implements LXFixture {
+    private final List<LXPoint> points;
+
+    private LoadedFixture(List<LXPoint> points) {
+      this.points = points;
+    }
+
+    public List<LXPoint> getPoints() {
+      return this.points;
+    }
+  }
+
+}
@@ -0,0 +1,209 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * @author Mark C. Slee <mark@heronarts.com>
+ */
+
+
+package heronarts.lx.model;
+
+import java.util.Arrays;
+
+/**
+ * A set of point indices stored as sorted, non-overlapping ranges. Fixtures
+ * are usually built from consecutive points, so the points of a few fixtures
+ * collapse into a handful of ranges that loops can walk without testing
+ * every point in the model. Ranges are immutable.
+ */
+public class LXIndexRanges {
+
+  /**
+   * First index of each range, inclusive
+   */
+  private final int[] starts;
+
+  /**
+   * Last index of each range, exclusive
+   */
+  private final int[] ends;
+
+  /**
+   * Total number of indices in all ranges
+   */
+  public final int size;
+
+  private int[] indices = null;
+
+  private LXIndexRanges(int[] starts, int[] ends) {
+    this.starts = starts;
+    this.ends = ends;
+    int size = 0;
+    for (int i = 0; i < starts.length; ++i) {
+      size += ends[i] - starts[i];
+    }
+    this.size = size;
+  }
+
+  /**
+   * Builds ranges covering the current indices of the points of some fixtures
+   *
+   * @param fixtures Fixtures
+   * @return Index ranges
+   */
+  public static LXIndexRanges fromFixtures(LXFixture ... fixtures) {
+    int count = 0;
+    for (LXFixture fixture : fixtures) {
+      count += fixture.getPoints().size();
+    }
+    int[] indices = new int[count];
+    int i = 0;
+    for (LXFixture fixture : fixtures) {
+      for (LXPoint p : fixture.getPoints()) {
+        indices[i++] = p.index;
+      }
+    }
+    return fromIndices(indices);
+  }
+
+  /**
+   * Builds ranges covering a list of point indices, in any order and with
+   * any repeats. The input array is not modified.
+   *
+   * @param indices Point indices
+   * @return Index ranges
+   */
+  public static LXIndexRanges fromIndices(int[] indices) {
+    int[] sorted = Arrays.copyOf(indices, indices.length);
+    Arrays.sort(sorted);
+    int numRanges = 0;
+    for (int i = 0; i < sorted.length; ++i) {
+      if (i == 0 || sorted[i] > sorted[i-1] + 1) {
+        ++numRanges;
+      }
+    }
+    int[] starts = new int[numRanges];
+    int[] ends = new int[numRanges];
+    int r = -1;
+    for (int i = 0; i < sorted.length; ++i) {
+      if (i == 0 || sorted[i] > sorted[i-1] + 1) {
+        starts[++r] = sorted[i];
+      }
+      ends[r] = sorted[i] + 1;
+    }
+    return new LXIndexRanges(starts, ends);
+  }
+
+  /**
+   * Builds the union of two sets of ranges
+   *
+   * @param that Other ranges
+   * @return Union of the ranges
+   */
+  public LXIndexRanges union(LXIndexRanges that) {
+    int[] starts = new int[this.starts.length + that.starts.length];
+    int[] ends = new int[starts.length];
+    int a = 0, b = 0, n = 0;
+    while (a < this.starts.length || b < that.starts.length) {
+      int start, end;
+      if (b == that.starts.length || (a < this.starts.length && this.starts[a] <= that.starts[b])) {
+        start = this.starts[a];
+        end = this.ends[a++];
+      } else {
+        start = that.starts[b];
+        end = that.ends[b++];
+      }
+      if (n > 0 && start <= ends[n-1]) {
+        ends[n-1] = Math.max(ends[n-1], end);
+      } else {
+        starts[n] = start;
+        ends[n++] = end;
+      }
+    }
+    return new LXIndexRanges(Arrays.copyOf(starts, n), Arrays.copyOf(ends, n));
+  }
+
+  /**
+   * Number of contiguous ranges
+   *
+   * @return Number of ranges
+   */
+  public int getNumRanges() {
+    return this.starts.length;
+  }
+
+  /**
+   * First index of a range
+   *
+   * @param range Range number
+   * @return First index, inclusive
+   */
+  public int start(int range) {
+    return this.starts[range];
+  }
+
+  /**
+   * Last index of a range
+   *
+   * @param range Range number
+   * @return Last index, exclusive
+   */
+  public int end(int range) {
+    return this.ends[range];
+  }
+
+  /**
+   * Whether an index is contained in these ranges
+   *
+   * @param index Point index
+   * @return True if the index is in one of the ranges
+   */
+  public boolean contains(int index) {
+    int lo = 0, hi = this.starts.length - 1;
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      if (index < this.starts[mid]) {
+        hi = mid - 1;
+      } else if (index >= this.ends[mid]) {
+        lo = mid + 1;
+      } else {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns every index in the ranges as a flat sorted list, built on first
+   * use. The array must not be modified.
+   *
+   * @return Sorted point indices
+   */
+  public synchronized int[] getIndices() {
+    if (this.indices == null) {
+      int[] indices = new int[this.size];
+      int i = 0;
+      for (int r = 0; r < this.starts.length; ++r) {
+        for (int index = this.starts[r]; index < this.ends[r]; ++index) {
+          indices[i++] = index;
+        }
+      }
+      this.indices = indices;
+    }
+    return this.indices;
+  }
+
+}
@@ -20,9 +20,13 @@
 
 package heronarts.lx.model;
 
+import heronarts.lx.LX;
+
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * An LXModel is a representation of a set of points in 3-d space. Each LXPoint
@@ -171,6 +175,21 @@ public class LXModel implements LXFixture {
    * @param fixtures Fixtures
    */
   public LXModel(LXFixture[] fixtures) {
+    this(null, fixtures);
+  }
+
+  /**
+   * Constructs a view of some of the fixtures of a parent model. The view
+   * contains only their points, but has exactly the bounds and center of the
+   * parent, so normalized positions and anything else relative to the model
+   * come out the same as they would for the parent. Components given a view
+   * render only its points. The points keep their indices in the parent, and
+   * a view must never be reindexed or given to LX as its model.
+   *
+   * @param parent Model whose geometry the view keeps
+   * @param fixtures Fixtures of the parent to include
+   */
+  public LXModel(LXModel parent, LXFixture ... fixtures) {
     List<LXFixture> _fixtures = new ArrayList<LXFixture>();
     List<LXPoint> _points = new ArrayList<LXPoint>();
     for (LXFixture fixture : fixtures) {
@@ -185,19 +204,45 @@ public class LXModel implements LXFixture {
     this.points = _points.toArray(new LXPoint[0]);
     this.fixtures = Collections.unmodifiableList(_fixtures);
 
+    if (parent != null) {
+      // A view keeps the geometry of its parent
+      this.ax = parent.ax;
+      this.ay = parent.ay;
+      this.az = parent.az;
+      this.xMin = parent.xMin;
+      this.xMax = parent.xMax;
+      this.xRange = parent.xRange;
+      this.yMin = parent.yMin;
+      this.yMax = parent.yMax;
+      this.yRange = parent.yRange;
+      this.zMin = parent.zMin;
+      this.zMax = parent.zMax;
+      this.zRange = parent.zRange;
+      this.rMin = parent.rMin;
+      this.rMax = parent.rMax;
+      this.rRange = parent.rRange;
+      this.cx = parent.cx;
+      this.cy = parent.cy;
+      this.cz = parent.cz;
+      return;
+    }
+
     float _ax = 0, _ay = 0, _az = 0;
     float _xMin = 0, _xMax = 0, _yMin = 0, _yMax = 0, _zMin = 0, _zMax = 0, _rMin = 0, _rMax = 0;
 
+    // Radius bounds are found on the squared radius, to avoid a square root
+    // per point
     boolean firstPoint = true;
     for (LXPoint p : this.points) {
       _ax += p.x;
       _ay += p.y;
       _az += p.z;
+      float r2 = p.x * p.x + p.y * p.y + p.z * p.z;
       if (firstPoint) {
         _xMin = _xMax = p.x;
         _yMin = _yMax = p.y;
         _zMin = _zMax = p.z;
-        _rMin = _rMax = p.r;
+        _rMin = _rMax = r2;
       } else {
         if (p.x < _xMin)
           _xMin = p.x;
@@ -211,10 +256,10 @@ public class LXModel implements LXFixture {
           _zMin = p.z;
         if (p.z > _zMax)
           _zMax = p.z;
-        if (p.r < _rMin)
-          _rMin = p.r;
-        if (p.r > _rMax)
-          _rMax = p.r;
+        if (r2 < _rMin)
+          _rMin = r2;
+        if (r2 > _rMax)
+          _rMax = r2;
       }
       firstPoint = false;
     }
@@ -230,9 +275,9 @@ public class LXModel implements LXFixture {
     this.zMin = _zMin;
     this.zMax = _zMax;
     this.zRange = _zMax - _zMin;
-    this.rMin = _rMin;
-    this.rMax = _rMax;
-    this.rRange = _rMax - _rMin;
+    this.rMin = (float) Math.sqrt(_rMin);
+    this.rMax = (float) Math.sqrt(_rMax);
+    this.rRange = this.rMax - this.rMin;
     this.cx = xMin + xRange / 2.f;
     this.cy = yMin + yRange / 2.f;
     this.cz = zMin + zRange / 2.f;
@@ -242,6 +287,410 @@ public class LXModel implements LXFixture {
     return this.pointList;
   }
 
+  private LXIndexRanges ranges = null;
+
+  /**
+   * Index ranges covering the points of this model at their current indices,
+   * built on first use. For the model driving LX this is a single range, and
+   * for a view it is usually a few. Loops over a color buffer can walk these
+   * to only touch the points of this model.
+   *
+   * @return Index ranges of the points of this model
+   */
+  public synchronized LXIndexRanges getRanges() {
+    if (this.ranges == null) {
+      int[] indices = new int[this.points.length];
+      for (int i = 0; i < indices.length; ++i) {
+        indices[i] = this.points[i].index;
+      }
+      this.ranges = LXIndexRanges.fromIndices(indices);
+    }
+    return this.ranges;
+  }
+
+  private static final int X = 0;
+  private static final int Y = 1;
+  private static final int Z = 2;
+  private static final int R = 3;
+  private static final int RXY = 4;
+  private static final int RXZ = 5;
+  private static final int THETA = 6;
+  private static final int AZIMUTH = 7;
+  private static final int ELEVATION = 8;
+  private static final int XN = 9;
+  private static final int YN = 10;
+  private static final int ZN = 11;
+  private static final int RN = 12;
+  private static final int NUM_DERIVED = 13;
+
+  private final float[][] derived = new float[NUM_DERIVED][];
+
+  /**
+   * X coordinate of each point, as a contiguous array parallel to the points
+   * array. Loops over geometry that read these instead of the LXPoint objects
+   * touch far less memory. For the top-level model, position in these arrays
+   * is the same as point index. Like the other derived arrays, this is
+   * computed on first access and then cached for the lifetime of the model,
+   * so building a model allocates none of them. Callers should hold on to
+   * the array rather than calling this per-point. These arrays must not be
+   * modified.
+   *
+   * @return X coordinate of each point
+   */
+  public float[] getXs() {
+    return derived(X);
+  }
+
+  /**
+   * Y coordinate of each point
+   *
+   * @return Y coordinate of each point
+   */
+  public float[] getYs() {
+    return derived(Y);
+  }
+
+  /**
+   * Z coordinate of each point
+   *
+   * @return Z coordinate of each point
+   */
+  public float[] getZs() {
+    return derived(Z);
+  }
+
+  /**
+   * Radius of each point from the origin in 3 dimensions
+   *
+   * @return Radius of each point
+   */
+  public float[] getR() {
+    return derived(R);
+  }
+
+  /**
+   * Radius of each point from the origin in the x-y plane
+   *
+   * @return Radius of each point in the x-y plane
+   */
+  public float[] getRxy() {
+    return derived(RXY);
+  }
+
+  /**
+   * Radius of each point from the origin in the x-z plane
+   *
+   * @return Radius of each point in the x-z plane
+   */
+  public float[] getRxz() {
+    return derived(RXZ);
+  }
+
+  /**
+   * Angle of each point about the origin in the x-y plane, from 0 to 2*PI
+   *
+   * @return Angle of each point in the x-y plane
+   */
+  public float[] getTheta() {
+    return derived(THETA);
+  }
+
+  /**
+   * Angle of each point about the origin in the x-z plane, from 0 to 2*PI
+   *
+   * @return Angle of each point in the x-z plane
+   */
+  public float[] getAzimuth() {
+    return derived(AZIMUTH);
+  }
+
+  /**
+   * Angle of each point between its y-value and the x-z plane
+   *
+   * @return Elevation angle of each point
+   */
+  public float[] getElevation() {
+    return derived(ELEVATION);
+  }
+
+  /**
+   * Position of each point in x-space, normalized from 0-1 over the bounds of
+   * this model. This is relative to this model even if it is a submodel
+   * sharing points with another model. An axis with no range is normalized
+   * to 0.
+   *
+   * @return Normalized x position of each point
+   */
+  public float[] getXn() {
+    return derived(XN);
+  }
+
+  /**
+   * Position of each point in y-space, normalized from 0-1 over the bounds of
+   * this model.
+   *
+   * @return Normalized y position of each point
+   */
+  public float[] getYn() {
+    return derived(YN);
+  }
+
+  /**
+   * Position of each point in z-space, normalized from 0-1 over the bounds of
+   * this model.
+   *
+   * @return Normalized z position of each point
+   */
+  public float[] getZn() {
+    return derived(ZN);
+  }
+
+  /**
+   * Radius of each point from the origin divided by the range of radii in
+   * this model. This is the normalization that the rn field of LXPoint used,
+   * so values may exceed 1 when the model does not surround the origin.
+   *
+   * @return Normalized radius of each point
+   */
+  public float[] getRn() {
+    return derived(RN);
+  }
+
+  private float[] derived(int field) {
+    synchronized (this.derived) {
+      float[] values = this.derived[field];
+      if (values == null) {
+        values = computeDerived(field);
+        this.derived[field] = values;
+      }
+      return values;
+    }
+  }
+
+  private float[] computeDerived(int field) {
+    float[] values = new float[this.size];
+    switch (field) {
+    case X:
+      for (int i = 0; i < values.length; ++i) {
+        values[i] = this.points[i].x;
+      }
+      return values;
+    case Y:
+      for (int i = 0; i < values.length; ++i) {
+        values[i] = this.points[i].y;
+      }
+      return values;
+    case Z:
+      for (int i = 0; i < values.length; ++i) {
+        values[i] = this.points[i].z;
+      }
+      return values;
+    }
+    float[] xs = getXs(), ys = getYs(), zs = getZs();
+    switch (field) {
+    case R:
+      for (int i = 0; i < values.length; ++i) {
+        values[i] = (float) Math.sqrt(xs[i] * xs[i] + ys[i] * ys[i] + zs[i] * zs[i]);
+      }
+      break;
+    case RXY:
+      for (int i = 0; i < values.length; ++i) {
+        values[i] = (float) Math.sqrt(xs[i] * xs[i] + ys[i] * ys[i]);
+      }
+      break;
+    case RXZ:
+      for (int i = 0; i < values.length; ++i) {
+        values[i] = (float) Math.sqrt(xs[i] * xs[i] + zs[i] * zs[i]);
+      }
+      break;
+    case THETA:
+      for (int i = 0; i < values.length; ++i) {
+        values[i] = angle(ys[i], xs[i]);
+      }
+      break;
+    case AZIMUTH:
+      for (int i = 0; i < values.length; ++i) {
+        values[i] = angle(zs[i], xs[i]);
+      }
+      break;
+    case ELEVATION:
+      float[] rxz = getRxz();
+      for (int i = 0; i < values.length; ++i) {
+        values[i] = angle(ys[i], rxz[i]);
+      }
+      break;
+    case XN:
+      normalize(xs, this.xMin, this.xRange, values);
+      break;
+    case YN:
+      normalize(ys, this.yMin, this.yRange, values);
+      break;
+    case ZN:
+      normalize(zs, this.zMin, this.zRange, values);
+      break;
+    case RN:
+      normalize(getR(), 0, this.rRange, values);
+      break;
+    }
+    return values;
+  }
+
+  private static float angle(float y, float x) {
+    return (float) ((LX.TWO_PI + Math.atan2(y, x)) % LX.TWO_PI);
+  }
+
+  private static void normalize(float[] src, float min, float range, float[] dst) {
+    float inv = (range == 0) ? 0 : 1 / range;
+    for (int i = 0; i < src.length; ++i) {
+      dst[i] = (src[i] - min) * inv;
+    }
+  }
+
+  private LXSpatialIndex spatialIndex = null;
+
+  /**
+   * Number of neighbors per point in the shared neighbor graph, which is the
+   * largest graph built unless a larger one is requested. Graphs with fewer
+   * neighbors are sliced from it.
+   */
+  public static final int MAX_NEIGHBORS = 16;
+
+  /**
+   * Number of sliced neighbor graphs kept around for recently used values
+   * of k
+   */
+  private static final int MAX_NEIGHBOR_SLICES = 4;
+
+  private LXNeighborGraph neighborGraph = null;
+  private int neighborGraphK = MAX_NEIGHBORS;
+  private Thread neighborGraphThread = null;
+  private RuntimeException neighborGraphError = null;
+
+  @SuppressWarnings("serial")
+  private final Map<Integer, LXNeighborGraph> neighborGraphs = new LinkedHashMap<Integer, LXNeighborGraph>(8, .75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Integer, LXNeighborGraph> eldest) {
+      return size() > MAX_NEIGHBOR_SLICES;
+    }
+  };
+
+  /**
+   * Returns a spatial index over the points of this model, which is built on
+   * first use and then cached for the lifetime of the model.
+   *
+   * @return Spatial index for this model
+   */
+  public synchronized LXSpatialIndex getSpatialIndex() {
+    if (this.spatialIndex == null) {
+      this.spatialIndex = new LXSpatialIndex(this);
+    }
+    return this.spatialIndex;
+  }
+
+  /**
+   * Returns a graph connecting each point in this model to its k nearest
+   * neighbors, waiting for it to be built if necessary. Code on the engine
+   * thread should use requestNeighborGraph() instead.
+   *
+   * @param k Number of neighbors per point
+   * @return Neighbor graph
+   */
+  public LXNeighborGraph getNeighborGraph(int k) {
+    synchronized (this.neighborGraphs) {
+      LXNeighborGraph graph;
+      boolean interrupted = false;
+      while ((graph = requestNeighborGraph(k)) == null) {
+        if (this.neighborGraphError != null) {
+          throw new IllegalStateException("Neighbor graph could not be built", this.neighborGraphError);
+        }
+        try {
+          this.neighborGraphs.wait();
+        } catch (InterruptedException ix) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+      return graph;
+    }
+  }
+
+  /**
+   * Returns a graph connecting each point in this model to its k nearest
+   * neighbors if it is ready, otherwise starts building it in the background
+   * and returns null. A single graph with MAX_NEIGHBORS neighbors per point
+   * (or k, if larger) is built off the calling thread, and graphs for smaller
+   * values of k are sliced from it, so sweeping k does not rebuild anything.
+   *
+   * @param k Number of neighbors per point
+   * @return Neighbor graph, or null if it is not built yet
+   */
+  public LXNeighborGraph requestNeighborGraph(int k) {
+    if (k < 1) {
+      throw new IllegalArgumentException("Neighbor graph must have at least 1 neighbor per point: " + k);
+    }
+    synchronized (this.neighborGraphs) {
+      if ((this.neighborGraph != null) && (this.neighborGraph.k >= k)) {
+        if (k == this.neighborGraph.k) {
+          return this.neighborGraph;
+        }
+        LXNeighborGraph slice = this.neighborGraphs.get(k);
+        if (slice == null) {
+          slice = this.neighborGraph.slice(k);
+          this.neighborGraphs.put(k, slice);
+        }
+        return slice;
+      }
+      if (this.neighborGraphError == null) {
+        this.neighborGraphK = Math.max(this.neighborGraphK, k);
+        if (this.neighborGraphThread == null) {
+          this.neighborGraphThread = new Thread("LXModel neighbor graph") {
+            @Override
+            public void run() {
+              buildNeighborGraph();
+            }
+          };
+          this.neighborGraphThread.setDaemon(true);
+          this.neighborGraphThread.start();
+        }
+      }
+      return null;
+    }
+  }
+
+  private void buildNeighborGraph() {
+    while (true) {
+      int k;
+      synchronized (this.neighborGraphs) {
+        if ((this.neighborGraph != null) && (this.neighborGraph.k >= this.neighborGraphK)) {
+          this.neighborGraphThread = null;
+          this.neighborGraphs.notifyAll();
+          return;
+        }
+        k = this.neighborGraphK;
+      }
+      try {
+        LXNeighborGraph graph = LXNeighborGraph.nearest(this, k);
+        synchronized (this.neighborGraphs) {
+          // The model may have been reindexed while building
+          graph.reindex();
+          this.neighborGraph = graph;
+          this.neighborGraphs.clear();
+        }
+      } catch (RuntimeException rx) {
+        System.err.println("Failed to build neighbor graph: " + rx.getLocalizedMessage());
+        rx.printStackTrace();
+        synchronized (this.neighborGraphs) {
+          this.neighborGraphError = rx;
+          this.neighborGraphThread = null;
+          this.neighborGraphs.notifyAll();
+        }
+        return;
+      }
+    }
+  }
+
   private final static class BasicFixture implements LXFixture {
     private final List<LXPoint> points;
 
@@ -254,9 +703,32 @@ public class LXModel implements LXFixture {
     }
   }
 
-  public void computeNormals() {
-    for (LXPoint p : this.points) {
-      p.computeNormals(this);
+  /**
+   * Assigns point indices so that the index of each point is its position in
+   * this model, as required of the model driving an LX instance. A point
+   * appearing more than once takes the index of its first position. Cached
+   * spatial indices and neighbor graphs are updated in place.
+   *
+   * This is invoked by LX when the model is swapped in, and should not be
+   * called while any other model sharing these points is being rendered.
+   */
+  public void reindex() {
+    for (int i = this.points.length - 1; i >= 0; --i) {
+      this.points[i].index = i;
+    }
+    synchronized (this) {
+      this.ranges = null;
+      if (this.spatialIndex != null) {
+        this.spatialIndex.reindex();
+      }
+    }
+    synchronized (this.neighborGraphs) {
+      if (this.neighborGraph != null) {
+        this.neighborGraph.reindex();
+      }
+      for (LXNeighborGraph graph : this.neighborGraphs.values()) {
+        graph.reindex();
+      }
     }
   }
 
@@ -0,0 +1,166 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * @author Mark C. Slee <mark@heronarts.com>
+ */
+
+
+package heronarts.lx.model;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Correspondence between the points of a model and the points of a model
+ * replacing it. A point persists across the change if the same LXPoint
+ * object appears in both models. Indices in the new model are those that
+ * LXModel.reindex() assigns, which is the position of each point, so the
+ * remap may be computed before the new model is reindexed.
+ */
+public class LXModelRemap {
+
+  /**
+   * The model being replaced
+   */
+  public final LXModel previous;
+
+  /**
+   * The replacement model
+   */
+  public final LXModel model;
+
+  /**
+   * Number of points in the replacement model
+   */
+  public final int size;
+
+  /**
+   * For each index in the new model, the index of the point in the previous
+   * model, or -1 if the point is new
+   */
+  public final int[] previousIndex;
+
+  /**
+   * For each index in the previous model, the index of the point in the new
+   * model, or -1 if the point has been removed
+   */
+  public final int[] newIndex;
+
+  /**
+   * Number of points present in both models
+   */
+  public final int persisting;
+
+  public LXModelRemap(LXModel previous, LXModel model) {
+    this.previous = previous;
+    this.model = model;
+    this.size = model.points.length;
+
+    int maxIndex = -1;
+    Map<LXPoint, Integer> previousPoints = new IdentityHashMap<LXPoint, Integer>(previous.points.length * 2);
+    for (LXPoint p : previous.points) {
+      previousPoints.put(p, p.index);
+      maxIndex = Math.max(maxIndex, p.index);
+    }
+    this.newIndex = new int[maxIndex + 1];
+    for (int i = 0; i < this.newIndex.length; ++i) {
+      this.newIndex[i] = -1;
+    }
+
+    // Walk backwards so that repeated points map to their first position
+    this.previousIndex = new int[this.size];
+    for (int i = this.size - 1; i >= 0; --i) {
+      Integer prev = previousPoints.get(model.points[i]);
+      if (prev == null) {
+        this.previousIndex[i] = -1;
+      } else {
+        this.previousIndex[i] = prev;
+        this.newIndex[prev] = i;
+      }
+    }
+    int count = 0;
+    for (int prev : this.previousIndex) {
+      if (prev >= 0) {
+        ++count;
+      }
+    }
+    this.persisting = count;
+  }
+
+  /**
+   * Copies values for persisting points from an array indexed by the
+   * previous model into one indexed by the new model.
+   *
+   * @param src Values indexed by the previous model
+   * @param dst Values indexed by the new model
+   * @param fill Value for points that are new
+   */
+  public void remap(int[] src, int[] dst, int fill) {
+    for (int i = 0; i < dst.length; ++i) {
+      int prev = (i < this.size) ? this.previousIndex[i] : -1;
+      dst[i] = (prev >= 0 && prev < src.length) ? src[prev] : fill;
+    }
+  }
+
+  /**
+   * Copies values for persisting points from an array indexed by the
+   * previous model into one indexed by the new model.
+   *
+   * @param src Values indexed by the previous model
+   * @param dst Values indexed by the new model
+   * @param fill Value for points that are new
+   */
+  public void remap(long[] src, long[] dst, long fill) {
+    for (int i = 0; i < dst.length; ++i) {
+      int prev = (i < this.size) ? this.previousIndex[i] : -1;
+      dst[i] = (prev >= 0 && prev < src.length) ? src[prev] : fill;
+    }
+  }
+
+  /**
+   * Copies values for persisting points from an array indexed by the
+   * previous model into one indexed by the new model.
+   *
+   * @param src Values indexed by the previous model
+   * @param dst Values indexed by the new model
+   * @param fill Value for points that are new
+   */
+  public void remap(float[] src, float[] dst, float fill) {
+    for (int i = 0; i < dst.length; ++i) {
+      int prev = (i < this.size) ? this.previousIndex[i] : -1;
+      dst[i] = (prev >= 0 && prev < src.length) ? src[prev] : fill;
+    }
+  }
+
+  /**
+   * Translates a list of point indices in the previous model, such as those
+   * sent by an output, into indices in the new model. Points that have been
+   * removed become -1. The input array is not modified.
+   *
+   * @param indices Point indices in the previous model
+   * @return Point indices in the new model
+   */
+  public int[] remapIndices(int[] indices) {
+    int[] remapped = new int[indices.length];
+    for (int i = 0; i < indices.length; ++i) {
+      int index = indices[i];
+      remapped[i] = (index >= 0 && index < this.newIndex.length) ? this.newIndex[index] : -1;
+    }
+    return remapped;
+  }
+
+}
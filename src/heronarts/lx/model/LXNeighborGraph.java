@@ -0,0 +1,218 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * @author Mark C. Slee <mark@heronarts.com>
+ */
+
+package heronarts.lx.model;
+
+import heronarts.lx.LXParallel;
+
+/**
+ * A graph connecting each point in a model to nearby points, stored in
+ * compressed sparse row form. Rows are parallel to the points array of the
+ * model. The neighbors of the point in row i are the entries of the
+ * neighbors array from offsets[i] to offsets[i+1], exclusive. Neighbors are
+ * given by point index, and are sorted nearest first.
+ *
+ * Graphs are typically obtained from LXModel.getNeighborGraph(), which
+ * caches them. The arrays must not be modified.
+ */
+public class LXNeighborGraph {
+
+  public final LXModel model;
+
+  /**
+   * Maximum number of neighbors of any point
+   */
+  public final int k;
+
+  /**
+   * Point index of the point in each row
+   */
+  public final int[] index;
+
+  /**
+   * Start of each row in the neighbors array, with a final entry holding the
+   * total number of edges
+   */
+  public final int[] offsets;
+
+  /**
+   * Point index of each neighbor
+   */
+  public final int[] neighbors;
+
+  /**
+   * Distance to each neighbor
+   */
+  public final float[] distances;
+
+  /**
+   * Row of each neighbor, which is unaffected by reindexing
+   */
+  private final int[] neighborRows;
+
+  private LXNeighborGraph(LXModel model, int k, int[] offsets, int[] neighborRows, float[] distances) {
+    this.model = model;
+    this.k = k;
+    this.offsets = offsets;
+    this.neighborRows = neighborRows;
+    this.neighbors = new int[neighborRows.length];
+    this.distances = distances;
+    this.index = new int[model.points.length];
+    reindex();
+  }
+
+  /**
+   * Refreshes the point indices after the model has been reindexed
+   */
+  void reindex() {
+    LXPoint[] points = this.model.points;
+    for (int i = 0; i < this.index.length; ++i) {
+      this.index[i] = points[i].index;
+    }
+    for (int e = 0; e < this.neighbors.length; ++e) {
+      this.neighbors[e] = points[this.neighborRows[e]].index;
+    }
+  }
+
+  /**
+   * Builds a graph connecting each point to its k nearest neighbors
+   *
+   * @param model Model
+   * @param k Number of neighbors per point
+   * @return Neighbor graph
+   */
+  public static LXNeighborGraph nearest(LXModel model, int k) {
+    return build(model, k, Float.MAX_VALUE);
+  }
+
+  /**
+   * Builds a graph connecting each point to all other points within a
+   * distance, up to a maximum number per point, keeping the nearest. This is
+   * not a full radius query: a point with more than maxNeighbors other points
+   * within the distance is only connected to the nearest maxNeighbors.
+   *
+   * @param model Model
+   * @param distance Maximum distance between neighbors
+   * @param maxNeighbors Maximum number of neighbors per point
+   * @return Neighbor graph
+   */
+  public static LXNeighborGraph withinDistance(LXModel model, float distance, int maxNeighbors) {
+    return build(model, maxNeighbors, distance);
+  }
+
+  private static LXNeighborGraph build(final LXModel model, final int k, final float maxDistance) {
+    if (k < 1) {
+      throw new IllegalArgumentException("Neighbor graph must have at least 1 neighbor per point: " + k);
+    }
+    final LXSpatialIndex spatialIndex = model.getSpatialIndex();
+    final float[] xs = model.getXs();
+    final float[] ys = model.getYs();
+    final float[] zs = model.getZs();
+    int numPoints = model.points.length;
+
+    // Rows are found in parallel into fixed-width slots, then compacted
+    final int[] rowNeighbors = new int[numPoints * k];
+    final float[] rowDistances = new float[numPoints * k];
+    final int[] degrees = new int[numPoints];
+    LXParallel.get().run(new LXParallel.Task() {
+      public void run(int start, int end) {
+        // Query one extra, since each point finds itself
+        int[] found = new int[k + 1];
+        float[] foundDistances = new float[k + 1];
+        for (int i = start; i < end; ++i) {
+          int n = spatialIndex.nearestPositions(xs[i], ys[i], zs[i], k + 1, found, foundDistances);
+          int added = 0;
+          for (int j = 0; j < n && added < k; ++j) {
+            if (found[j] != i && foundDistances[j] <= maxDistance) {
+              rowNeighbors[i * k + added] = found[j];
+              rowDistances[i * k + added] = foundDistances[j];
+              ++added;
+            }
+          }
+          degrees[i] = added;
+        }
+      }
+    }, numPoints);
+
+    int[] offsets = new int[numPoints + 1];
+    int edges = 0;
+    for (int i = 0; i < numPoints; ++i) {
+      offsets[i] = edges;
+      edges += degrees[i];
+    }
+    offsets[numPoints] = edges;
+    int[] neighbors = rowNeighbors;
+    float[] distances = rowDistances;
+    if (edges < rowNeighbors.length) {
+      neighbors = new int[edges];
+      distances = new float[edges];
+      for (int i = 0; i < numPoints; ++i) {
+        System.arraycopy(rowNeighbors, i * k, neighbors, offsets[i], degrees[i]);
+        System.arraycopy(rowDistances, i * k, distances, offsets[i], degrees[i]);
+      }
+    }
+    return new LXNeighborGraph(model, k, offsets, neighbors, distances);
+  }
+
+  /**
+   * Returns a graph keeping only the nearest k neighbors of each point in
+   * this graph. Since rows are sorted nearest first, slicing a nearest
+   * neighbor graph gives the same result as building one with the smaller
+   * k, without querying the spatial index again.
+   *
+   * @param k Number of neighbors per point
+   * @return Sliced graph, or this graph if it has no more than k neighbors
+   */
+  public LXNeighborGraph slice(int k) {
+    if (k < 1) {
+      throw new IllegalArgumentException("Neighbor graph must have at least 1 neighbor per point: " + k);
+    }
+    if (k >= this.k) {
+      return this;
+    }
+    int numRows = this.index.length;
+    int[] offsets = new int[numRows + 1];
+    int edges = 0;
+    for (int i = 0; i < numRows; ++i) {
+      offsets[i] = edges;
+      edges += Math.min(k, degree(i));
+    }
+    offsets[numRows] = edges;
+    int[] neighborRows = new int[edges];
+    float[] distances = new float[edges];
+    for (int i = 0; i < numRows; ++i) {
+      int degree = offsets[i+1] - offsets[i];
+      System.arraycopy(this.neighborRows, this.offsets[i], neighborRows, offsets[i], degree);
+      System.arraycopy(this.distances, this.offsets[i], distances, offsets[i], degree);
+    }
+    return new LXNeighborGraph(this.model, k, offsets, neighborRows, distances);
+  }
+
+  /**
+   * Number of neighbors of the point in a row
+   *
+   * @param row Row, position in the model's points array
+   * @return Number of neighbors
+   */
+  public int degree(int row) {
+    return this.offsets[row + 1] - this.offsets[row];
+  }
+
+}
@@ -45,61 +45,22 @@ public class LXPoint {
    */
   public final float z;
 
-  /**
-   * Radius of this point from origin in 3 dimensions
-   */
-  public final float r;
-
-  /**
-   * Radius of this point from origin in the x-y plane
-   */
-  public final float rxy;
-
-  /**
-   * Radius of this point from origin in the x-z plane
-   */
-  public final float rxz;
-
-  /**
-   * angle of this point about the origin in the x-y plane
-   */
-  public final float theta;
-
-  /**
-   * Angle of this point about the origin in the x-z plane
-   * (right-handed angle of rotation about the Y-axis)
-   */
-  public final float azimuth;
-
-  /**
-   * Angle of this point between the y-value and the x-z plane
-   */
-  public final float elevation;
+  // Derived values, computed together on first use. Most patterns only read
+  // coordinates, so points don't pay for the trigonometry up front.
+  private volatile boolean hasDerived = false;
+  private float r;
+  private float rxy;
+  private float rxz;
+  private float theta;
+  private float azimuth;
+  private float elevation;
 
   /**
-   * normalized position of point in x-space (0-1);
+   * Index of this point in the colors array. This is reassigned when a new
+   * model containing the point is swapped into a running LX instance, and
+   * must not be modified otherwise.
    */
-  public float xn = 0;
-
-  /**
-   * normalized position of point in y-space (0-1);
-   */
-  public float yn = 0;
-
-  /**
-   * normalized position of point in z-space (0-1);
-   */
-  public float zn = 0;
-
-  /**
-   * normalized position of point in radial space (0-1), 0 is origin, 1 is max radius
-   */
-  public float rn = 0;
-
-  /**
-   * Index of this point in the colors array
-   */
-  public final int index;
+  public int index;
 
   /**
    * Construct a point in 2-d space, z-val is 0
@@ -122,12 +83,24 @@ public class LXPoint {
     this.x = x;
     this.y = y;
     this.z = z;
-    this.r = (float) Math.sqrt(x * x + y * y + z * z);
-    this.rxy = (float) Math.sqrt(x * x + y * y);
-    this.rxz = (float) Math.sqrt(x * x + z * z);
-    this.theta = (float) ((LX.TWO_PI + Math.atan2(y, x)) % (LX.TWO_PI));
-    this.azimuth = (float) ((LX.TWO_PI + Math.atan2(z, x)) % (LX.TWO_PI));
-    this.elevation = (float) ((LX.TWO_PI + Math.atan2(y, rxz)) % (LX.TWO_PI));
+    this.index = counter++;
+  }
+
+  /**
+   * Construct a point with precomputed derived values, used when loading
+   * stored models to avoid recomputing them.
+   */
+  LXPoint(float x, float y, float z, float r, float rxy, float rxz, float theta, float azimuth, float elevation) {
+    this.x = x;
+    this.y = y;
+    this.z = z;
+    this.r = r;
+    this.rxy = rxy;
+    this.rxz = rxz;
+    this.theta = theta;
+    this.azimuth = azimuth;
+    this.elevation = elevation;
+    this.hasDerived = true;
     this.index = counter++;
   }
 
@@ -151,10 +124,90 @@ public class LXPoint {
     this(transform.x(), transform.y(), transform.z());
   }
 
-  void computeNormals(LXModel model) {
-    this.xn = (this.x - model.xMin) / model.xRange;
-    this.yn = (this.y - model.yMin) / model.yRange;
-    this.zn = (this.z - model.zMin) / model.zRange;
-    this.rn = this.r / model.rRange;
+  private void computeDerived() {
+    float x = this.x, y = this.y, z = this.z;
+    float rxz = (float) Math.sqrt(x * x + z * z);
+    this.r = (float) Math.sqrt(x * x + y * y + z * z);
+    this.rxy = (float) Math.sqrt(x * x + y * y);
+    this.rxz = rxz;
+    this.theta = (float) ((LX.TWO_PI + Math.atan2(y, x)) % (LX.TWO_PI));
+    this.azimuth = (float) ((LX.TWO_PI + Math.atan2(z, x)) % (LX.TWO_PI));
+    this.elevation = (float) ((LX.TWO_PI + Math.atan2(y, rxz)) % (LX.TWO_PI));
+    this.hasDerived = true;
+  }
+
+  /**
+   * Radius of this point from origin in 3 dimensions. This and the other
+   * derived values are computed on first use and then cached. Loops over a
+   * whole model should prefer the arrays from LXModel.getR() and friends.
+   *
+   * @return Radius from origin
+   */
+  public float r() {
+    if (!this.hasDerived) {
+      computeDerived();
+    }
+    return this.r;
+  }
+
+  /**
+   * Radius of this point from origin in the x-y plane
+   *
+   * @return Radius in the x-y plane
+   */
+  public float rxy() {
+    if (!this.hasDerived) {
+      computeDerived();
+    }
+    return this.rxy;
+  }
+
+  /**
+   * Radius of this point from origin in the x-z plane
+   *
+   * @return Radius in the x-z plane
+   */
+  public float rxz() {
+    if (!this.hasDerived) {
+      computeDerived();
+    }
+    return this.rxz;
+  }
+
+  /**
+   * Angle of this point about the origin in the x-y plane
+   *
+   * @return Angle from 0 to 2*PI
+   */
+  public float theta() {
+    if (!this.hasDerived) {
+      computeDerived();
+    }
+    return this.theta;
+  }
+
+  /**
+   * Angle of this point about the origin in the x-z plane
+   * (right-handed angle of rotation about the Y-axis)
+   *
+   * @return Angle from 0 to 2*PI
+   */
+  public float azimuth() {
+    if (!this.hasDerived) {
+      computeDerived();
+    }
+    return this.azimuth;
+  }
+
+  /**
+   * Angle of this point between the y-value and the x-z plane
+   *
+   * @return Angle from 0 to 2*PI
+   */
+  public float elevation() {
+    if (!this.hasDerived) {
+      computeDerived();
+    }
+    return this.elevation;
   }
 }
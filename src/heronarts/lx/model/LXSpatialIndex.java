@@ -0,0 +1,448 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * @author Mark C. Slee <mark@heronarts.com>
+ */
+
+package heronarts.lx.model;
+
+/**
+ * A spatial index over the points of a model, which allows patterns to find
+ * the points near a location without testing every point in the model. The
+ * index is a uniform grid of cubic cells, stored compactly as arrays with the
+ * points of each cell contiguous.
+ *
+ * All queries write the index values of matching points into an array
+ * supplied by the caller and return the number of points written, so they
+ * perform no allocation. If the output array fills up, the query stops
+ * early. Queries do not modify the index and are safe to run from multiple
+ * threads.
+ */
+public class LXSpatialIndex {
+
+  /**
+   * Target average number of points per cell
+   */
+  private static final int POINTS_PER_CELL = 2;
+
+  public final LXModel model;
+
+  /**
+   * Edge length of each cell
+   */
+  public final float cellSize;
+
+  private final float xMin, yMin, zMin;
+  private final int nx, ny, nz;
+
+  /**
+   * Offsets into the point arrays for each cell, with a final entry holding
+   * the total number of points
+   */
+  private final int[] cellStart;
+
+  /**
+   * Point index, position in the model and coordinates, grouped by cell
+   */
+  private final int[] cellIndex;
+  private final int[] cellPosition;
+  private final float[] cellX, cellY, cellZ;
+
+  public LXSpatialIndex(LXModel model) {
+    this.model = model;
+    this.xMin = model.xMin;
+    this.yMin = model.yMin;
+    this.zMin = model.zMin;
+
+    // Size the cells for a few points each, ignoring any flat axes
+    int numPoints = model.points.length;
+    double volume = 1;
+    int dimensions = 0;
+    float maxRange = Math.max(model.xRange, Math.max(model.yRange, model.zRange));
+    for (float range : new float[] { model.xRange, model.yRange, model.zRange }) {
+      if (range > 0) {
+        volume *= range;
+        ++dimensions;
+      }
+    }
+    float size = 1;
+    if (dimensions > 0) {
+      double targetCells = Math.max(1, numPoints / (double) POINTS_PER_CELL);
+      size = (float) Math.pow(volume / targetCells, 1. / dimensions);
+      size = Math.max(size, maxRange / 1024);
+      // Nearly flat axes can inflate the cell count, grow the cells until
+      // the grid is proportionate to the number of points
+      while ((long) cells(model.xRange, size) * cells(model.yRange, size) * cells(model.zRange, size) > 4L * targetCells + 8) {
+        size *= 1.25f;
+      }
+    }
+    this.cellSize = size;
+    this.nx = cells(model.xRange, size);
+    this.ny = cells(model.yRange, size);
+    this.nz = cells(model.zRange, size);
+
+    int numCells = this.nx * this.ny * this.nz;
+    this.cellStart = new int[numCells + 1];
+    this.cellIndex = new int[numPoints];
+    this.cellPosition = new int[numPoints];
+    this.cellX = new float[numPoints];
+    this.cellY = new float[numPoints];
+    this.cellZ = new float[numPoints];
+
+    float[] xs = model.getXs(), ys = model.getYs(), zs = model.getZs();
+    int[] pointCell = new int[numPoints];
+    for (int i = 0; i < numPoints; ++i) {
+      int c = cell(cellX(xs[i]), cellY(ys[i]), cellZ(zs[i]));
+      pointCell[i] = c;
+      ++this.cellStart[c + 1];
+    }
+    for (int c = 0; c < numCells; ++c) {
+      this.cellStart[c + 1] += this.cellStart[c];
+    }
+    int[] fill = new int[numCells];
+    for (int i = 0; i < numPoints; ++i) {
+      int c = pointCell[i];
+      int pos = this.cellStart[c] + fill[c]++;
+      this.cellIndex[pos] = model.points[i].index;
+      this.cellPosition[pos] = i;
+      this.cellX[pos] = xs[i];
+      this.cellY[pos] = ys[i];
+      this.cellZ[pos] = zs[i];
+    }
+  }
+
+  /**
+   * Refreshes the stored point indices after the model has been reindexed
+   */
+  void reindex() {
+    for (int i = 0; i < this.cellIndex.length; ++i) {
+      this.cellIndex[i] = this.model.points[this.cellPosition[i]].index;
+    }
+  }
+
+  private static int cells(float range, float size) {
+    return Math.max(1, (int) Math.floor(range / size) + 1);
+  }
+
+  private int cellX(float x) {
+    return clamp((int) Math.floor((x - this.xMin) / this.cellSize), this.nx);
+  }
+
+  private int cellY(float y) {
+    return clamp((int) Math.floor((y - this.yMin) / this.cellSize), this.ny);
+  }
+
+  private int cellZ(float z) {
+    return clamp((int) Math.floor((z - this.zMin) / this.cellSize), this.nz);
+  }
+
+  private static int clamp(int c, int n) {
+    return (c < 0) ? 0 : ((c >= n) ? n-1 : c);
+  }
+
+  private int cell(int cx, int cy, int cz) {
+    return (cz * this.ny + cy) * this.nx + cx;
+  }
+
+  /**
+   * Finds all points within a radius of a position
+   *
+   * @param x X position
+   * @param y Y position
+   * @param z Z position
+   * @param radius Radius
+   * @param out Array to write point indices into
+   * @return Number of points written
+   */
+  public int withinRadius(float x, float y, float z, float radius, int[] out) {
+    float r2 = radius * radius;
+    int cx0 = cellX(x - radius), cx1 = cellX(x + radius);
+    int cy0 = cellY(y - radius), cy1 = cellY(y + radius);
+    int cz0 = cellZ(z - radius), cz1 = cellZ(z + radius);
+    int n = 0;
+    for (int cz = cz0; cz <= cz1; ++cz) {
+      for (int cy = cy0; cy <= cy1; ++cy) {
+        int row = cell(0, cy, cz);
+        int start = this.cellStart[row + cx0];
+        int end = this.cellStart[row + cx1 + 1];
+        for (int i = start; i < end; ++i) {
+          float dx = this.cellX[i] - x;
+          float dy = this.cellY[i] - y;
+          float dz = this.cellZ[i] - z;
+          if (dx*dx + dy*dy + dz*dz <= r2) {
+            if (n == out.length) {
+              return n;
+            }
+            out[n++] = this.cellIndex[i];
+          }
+        }
+      }
+    }
+    return n;
+  }
+
+  /**
+   * Finds all points inside an axis-aligned box, inclusive of its bounds
+   *
+   * @param xMin Minimum x
+   * @param yMin Minimum y
+   * @param zMin Minimum z
+   * @param xMax Maximum x
+   * @param yMax Maximum y
+   * @param zMax Maximum z
+   * @param out Array to write point indices into
+   * @return Number of points written
+   */
+  public int inBox(float xMin, float yMin, float zMin, float xMax, float yMax, float zMax, int[] out) {
+    int cx0 = cellX(xMin), cx1 = cellX(xMax);
+    int cy0 = cellY(yMin), cy1 = cellY(yMax);
+    int cz0 = cellZ(zMin), cz1 = cellZ(zMax);
+    int n = 0;
+    for (int cz = cz0; cz <= cz1; ++cz) {
+      for (int cy = cy0; cy <= cy1; ++cy) {
+        int row = cell(0, cy, cz);
+        int start = this.cellStart[row + cx0];
+        int end = this.cellStart[row + cx1 + 1];
+        for (int i = start; i < end; ++i) {
+          float px = this.cellX[i], py = this.cellY[i], pz = this.cellZ[i];
+          if (px >= xMin && px <= xMax && py >= yMin && py <= yMax && pz >= zMin && pz <= zMax) {
+            if (n == out.length) {
+              return n;
+            }
+            out[n++] = this.cellIndex[i];
+          }
+        }
+      }
+    }
+    return n;
+  }
+
+  /**
+   * Finds the k points nearest to a position, in order of increasing
+   * distance. The number of points found is the smallest of k, the length
+   * of the output arrays, and the number of points in the model.
+   *
+   * @param x X position
+   * @param y Y position
+   * @param z Z position
+   * @param k Number of points to find
+   * @param out Array to write point indices into
+   * @param distances Array to write distances into, must be as long as out
+   * @return Number of points written
+   */
+  public int nearest(float x, float y, float z, int k, int[] out, float[] distances) {
+    return nearest(x, y, z, k, out, distances, this.cellIndex);
+  }
+
+  /**
+   * Finds the k points nearest to a position, writing their positions in
+   * the model's points array rather than their indices
+   */
+  int nearestPositions(float x, float y, float z, int k, int[] out, float[] distances) {
+    return nearest(x, y, z, k, out, distances, this.cellPosition);
+  }
+
+  private int nearest(float x, float y, float z, int k, int[] out, float[] distances, int[] values) {
+    k = Math.min(k, Math.min(out.length, distances.length));
+    if (k <= 0) {
+      return 0;
+    }
+
+    // Distance from the query to the bounds of the grid, used to bound
+    // the distance of points beyond each ring of cells that is searched
+    float ox = Math.max(0, Math.max(this.xMin - x, x - (this.xMin + this.nx * this.cellSize)));
+    float oy = Math.max(0, Math.max(this.yMin - y, y - (this.yMin + this.ny * this.cellSize)));
+    float oz = Math.max(0, Math.max(this.zMin - z, z - (this.zMin + this.nz * this.cellSize)));
+    float outside = (float) Math.sqrt(ox*ox + oy*oy + oz*oz);
+
+    int qx = cellX(x), qy = cellY(y), qz = cellZ(z);
+    int maxRing = Math.max(Math.max(this.nx, this.ny), this.nz);
+    int n = 0;
+    for (int ring = 0; ring <= maxRing; ++ring) {
+      for (int cz = Math.max(0, qz - ring); cz <= Math.min(this.nz - 1, qz + ring); ++cz) {
+        boolean zEdge = (cz == qz - ring) || (cz == qz + ring);
+        for (int cy = Math.max(0, qy - ring); cy <= Math.min(this.ny - 1, qy + ring); ++cy) {
+          boolean yEdge = zEdge || (cy == qy - ring) || (cy == qy + ring);
+          int step = yEdge ? 1 : 2 * ring;
+          for (int cx = qx - ring; cx <= qx + ring; cx += Math.max(1, step)) {
+            if (cx < 0 || cx >= this.nx) {
+              continue;
+            }
+            int c = cell(cx, cy, cz);
+            for (int i = this.cellStart[c]; i < this.cellStart[c+1]; ++i) {
+              float dx = this.cellX[i] - x;
+              float dy = this.cellY[i] - y;
+              float dz = this.cellZ[i] - z;
+              float d = (float) Math.sqrt(dx*dx + dy*dy + dz*dz);
+              if (n < k || d < distances[n-1]) {
+                // Insertion into the sorted results
+                int j = (n < k) ? n++ : n-1;
+                while (j > 0 && distances[j-1] > d) {
+                  distances[j] = distances[j-1];
+                  out[j] = out[j-1];
+                  --j;
+                }
+                distances[j] = d;
+                out[j] = values[i];
+              }
+            }
+          }
+        }
+      }
+      if (n == k && distances[n-1] <= ring * this.cellSize - outside) {
+        break;
+      }
+    }
+    return n;
+  }
+
+  /**
+   * Finds all points within a radius of a ray. Points are returned in
+   * approximate order along the ray.
+   *
+   * @param ox Ray origin x
+   * @param oy Ray origin y
+   * @param oz Ray origin z
+   * @param dx Ray direction x
+   * @param dy Ray direction y
+   * @param dz Ray direction z
+   * @param radius Maximum distance from the ray
+   * @param out Array to write point indices into
+   * @return Number of points written
+   */
+  public int alongRay(float ox, float oy, float oz, float dx, float dy, float dz, float radius, int[] out) {
+    float len = (float) Math.sqrt(dx*dx + dy*dy + dz*dz);
+    if (len == 0) {
+      return withinRadius(ox, oy, oz, radius, out);
+    }
+    dx /= len;
+    dy /= len;
+    dz /= len;
+
+    // The ray is walked cell by cell through the lattice extended by the
+    // ring of cells within the radius, so that every point within the radius
+    // of the ray is within ring cells of a lattice cell that the ray passes
+    // through.
+    int ring = (int) Math.ceil(radius / this.cellSize);
+    float cs = this.cellSize;
+    float bx0 = this.xMin - ring * cs, by0 = this.yMin - ring * cs, bz0 = this.zMin - ring * cs;
+    int ex = this.nx + 2 * ring, ey = this.ny + 2 * ring, ez = this.nz + 2 * ring;
+
+    // Clip the ray to the extended lattice
+    float tStart = Math.max(0, Math.max(entry(ox, dx, bx0, bx0 + ex * cs),
+      Math.max(entry(oy, dy, by0, by0 + ey * cs), entry(oz, dz, bz0, bz0 + ez * cs))));
+    float tEnd = Math.min(exit(ox, dx, bx0, bx0 + ex * cs),
+      Math.min(exit(oy, dy, by0, by0 + ey * cs), exit(oz, dz, bz0, bz0 + ez * cs)));
+    if (tStart > tEnd) {
+      return 0;
+    }
+
+    // Set up the walk from the entry cell
+    float sx = ox + dx * tStart, sy = oy + dy * tStart, sz = oz + dz * tStart;
+    int ix = clamp((int) Math.floor((sx - bx0) / cs), ex);
+    int iy = clamp((int) Math.floor((sy - by0) / cs), ey);
+    int iz = clamp((int) Math.floor((sz - bz0) / cs), ez);
+    int stepX = (dx > 0) ? 1 : -1, stepY = (dy > 0) ? 1 : -1, stepZ = (dz > 0) ? 1 : -1;
+    float tDeltaX = (dx != 0) ? Math.abs(cs / dx) : Float.MAX_VALUE;
+    float tDeltaY = (dy != 0) ? Math.abs(cs / dy) : Float.MAX_VALUE;
+    float tDeltaZ = (dz != 0) ? Math.abs(cs / dz) : Float.MAX_VALUE;
+    float tMaxX = (dx != 0) ? (bx0 + (ix + (dx > 0 ? 1 : 0)) * cs - ox) / dx : Float.MAX_VALUE;
+    float tMaxY = (dy != 0) ? (by0 + (iy + (dy > 0 ? 1 : 0)) * cs - oy) / dy : Float.MAX_VALUE;
+    float tMaxZ = (dz != 0) ? (bz0 + (iz + (dz > 0 ? 1 : 0)) * cs - oz) / dz : Float.MAX_VALUE;
+
+    float r2 = radius * radius;
+    float tEnter = tStart;
+    int n = 0;
+    while (true) {
+      float tExit = Math.min(tMaxX, Math.min(tMaxY, tMaxZ));
+      int axis = (tMaxX <= tMaxY && tMaxX <= tMaxZ) ? 0 : ((tMaxY <= tMaxZ) ? 1 : 2);
+      boolean last = (tExit >= tEnd) ||
+        ((axis == 0) && (ix + stepX < 0 || ix + stepX >= ex)) ||
+        ((axis == 1) && (iy + stepY < 0 || iy + stepY >= ey)) ||
+        ((axis == 2) && (iz + stepZ < 0 || iz + stepZ >= ez));
+
+      // Test the points in the neighborhood of this cell, each point is only
+      // accepted from the cell whose span contains its projection on the ray
+      int cx = ix - ring, cy = iy - ring, cz = iz - ring;
+      int x0 = Math.max(0, cx - ring), x1 = Math.min(this.nx - 1, cx + ring);
+      int y0 = Math.max(0, cy - ring), y1 = Math.min(this.ny - 1, cy + ring);
+      int z0 = Math.max(0, cz - ring), z1 = Math.min(this.nz - 1, cz + ring);
+      for (int zz = z0; zz <= z1; ++zz) {
+        for (int yy = y0; yy <= y1; ++yy) {
+          if (x0 > x1) {
+            continue;
+          }
+          int row = cell(0, yy, zz);
+          int start = this.cellStart[row + x0];
+          int end = this.cellStart[row + x1 + 1];
+          for (int i = start; i < end; ++i) {
+            float px = this.cellX[i] - ox, py = this.cellY[i] - oy, pz = this.cellZ[i] - oz;
+            float t = Math.max(tStart, px*dx + py*dy + pz*dz);
+            if ((t < tEnter) || (t >= tExit && !last)) {
+              continue;
+            }
+            float qx = px - t*dx, qy = py - t*dy, qz = pz - t*dz;
+            if (qx*qx + qy*qy + qz*qz <= r2) {
+              if (n == out.length) {
+                return n;
+              }
+              out[n++] = this.cellIndex[i];
+            }
+          }
+        }
+      }
+      if (last) {
+        break;
+      }
+
+      // Step to the next cell
+      if (axis == 0) {
+        ix += stepX;
+        tMaxX += tDeltaX;
+      } else if (axis == 1) {
+        iy += stepY;
+        tMaxY += tDeltaY;
+      } else {
+        iz += stepZ;
+        tMaxZ += tDeltaZ;
+      }
+      tEnter = tExit;
+    }
+    return n;
+  }
+
+  /**
+   * Parameter at which a ray enters the slab of a box on one axis
+   */
+  private static float entry(float o, float d, float min, float max) {
+    if (d == 0) {
+      return (o >= min && o <= max) ? -Float.MAX_VALUE : Float.MAX_VALUE;
+    }
+    return Math.min((min - o) / d, (max - o) / d);
+  }
+
+  /**
+   * Parameter at which a ray exits the slab of a box on one axis
+   */
+  private static float exit(float o, float d, float min, float max) {
+    if (d == 0) {
+      return (o >= min && o <= max) ? Float.MAX_VALUE : -Float.MAX_VALUE;
+    }
+    return Math.max((min - o) / d, (max - o) / d);
+  }
+
+}
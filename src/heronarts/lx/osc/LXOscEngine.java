@@ -272,6 +272,7 @@ public class LXOscEngine extends LXComponent {
     private void oscComponent(OscMessage message, LXComponent component, String[] parts, int index) {
       if (component instanceof LXModulationComponent && parts[index].equals(ROUTE_MODULATION)) {
         oscComponent(message, ((LXModulationComponent) component).getModulation().getModulator(parts[index+1]), parts, index+2);
+        return;
       }
 
       LXParameter parameter = component.getParameter(parts[index]);
@@ -284,7 +285,7 @@ public class LXOscEngine extends LXComponent {
       } else if (parameter instanceof StringParameter) {
         ((StringParameter) parameter).setValue(message.getString());
       } else if (parameter instanceof ColorParameter) {
-        if (parts.length >= index+1) {
+        if (parts.length > index+1) {
           if (parts[index+1].equals(ROUTE_HUE)) {
             ((ColorParameter) parameter).hue.setNormalized(message.getFloat());
           } else if (parts[index+1].equals(ROUTE_SATURATION)) {
@@ -303,9 +304,9 @@ public class LXOscEngine extends LXComponent {
           ((DiscreteParameter)parameter).setNormalized(arg.toFloat());
         }
       } else if (parameter instanceof LXNormalizedParameter) {
-        ((LXNormalizedParameter)parameter).setNormalized(message.getFloat());
+        ((LXNormalizedParameter)parameter).setNormalized(message.getDouble());
       } else {
-        parameter.setValue(message.getFloat());
+        parameter.setValue(message.getDouble());
       }
     }
   }
@@ -743,6 +744,17 @@ public class LXOscEngine extends LXComponent {
     return new Transmitter(address, port, bufferSize);
   }
 
+  /**
+   * Routes a message to the engine component or parameter at its address,
+   * exactly as if it had arrived on the engine's OSC receiver. This must be
+   * invoked on the engine thread.
+   *
+   * @param message OSC message
+   */
+  public void route(OscMessage message) {
+    this.engineListener.oscMessage(message);
+  }
+
   /**
    * Invoked by the main engine to dispatch all OSC messages on the
    * input queue.
@@ -29,7 +29,7 @@ public class ArtNetDatagram extends LXDatagram {
   private final static int ARTNET_PORT = 6454;
   private final static int SEQUENCE_INDEX = 12;
 
-  private final int[] pointIndices;
+  private final int universeNumber;
 
   private boolean sequenceEnabled = false;
 
@@ -55,10 +55,33 @@ public class ArtNetDatagram extends LXDatagram {
     this(LXOutput.fixtureToIndices(fixture), dataLength, universeNumber);
   }
 
+  /**
+   * Creates an Art-Net datagram with the given pixel format. Wide data is
+   * used by 16-bit formats when the output is sent wide colors.
+   *
+   * @param fixture Fixture
+   * @param universeNumber Universe
+   * @param pixelFormat Pixel format
+   */
+  public ArtNetDatagram(LXFixture fixture, int universeNumber, LXPixelFormat pixelFormat) {
+    this(LXOutput.fixtureToIndices(fixture), universeNumber, pixelFormat);
+  }
+
+  public ArtNetDatagram(int[] indices, int universeNumber, LXPixelFormat pixelFormat) {
+    this(indices, pixelFormat.bytesPerPixel * indices.length, universeNumber);
+    this.pixelFormat = pixelFormat;
+    if (pixelFormat != LXPixelFormat.RGB) {
+      this.dataOffset = -1;
+    }
+  }
+
   public ArtNetDatagram(int[] indices, int dataLength, int universeNumber) {
     super(ARTNET_HEADER_LENGTH + dataLength + (dataLength % 2));
 
     this.pointIndices = indices;
+    this.universeNumber = universeNumber;
+    this.sequenceIndex = SEQUENCE_INDEX;
+    this.dataOffset = ARTNET_HEADER_LENGTH;
     setPort(ARTNET_PORT);
 
     this.buffer[0] = 'A';
@@ -86,6 +109,15 @@ public class ArtNetDatagram extends LXDatagram {
     }
   }
 
+  /**
+   * Universe number for datagram.
+   *
+   * @return Universe number
+   */
+  public int getUniverseNumber() {
+    return this.universeNumber;
+  }
+
   /**
    * Set whether to increment and send sequence numbers
    *
@@ -100,7 +132,21 @@ public class ArtNetDatagram extends LXDatagram {
   @Override
   public void onSend(int[] colors) {
     copyPoints(colors, this.pointIndices, ARTNET_HEADER_LENGTH);
+    onPacked();
+  }
 
+  @Override
+  public void onSend(long[] colors16, int[] colors) {
+    if (this.pixelFormat.is16Bit()) {
+      copyPoints16(colors16, this.pointIndices, ARTNET_HEADER_LENGTH);
+      onPacked();
+    } else {
+      onSend(colors);
+    }
+  }
+
+  @Override
+  protected void onPacked() {
     if (this.sequenceEnabled) {
       if (++this.sequence == 0) {
         ++this.sequence;
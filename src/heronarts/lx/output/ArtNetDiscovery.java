@@ -0,0 +1,430 @@
+/**
+ * Copyright 2016- Mark C. Slee, Heron Arts LLC
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * @author Mark C. Slee <mark@heronarts.com>
+ */
+
+package heronarts.lx.output;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Discovers Art-Net nodes by periodically broadcasting ArtPoll and listening
+ * for ArtPollReply. Each reply maps the node's output universes to its
+ * address. ArtNetDatagrams may be bound by universe, in which case they are
+ * addressed to whichever node reports that universe, rather than being set
+ * up by hand with setAddress().
+ *
+ * Nodes reply to port 6454 of the controller, so by default this binds that
+ * port, which may not be shared with other Art-Net software on the same
+ * machine.
+ */
+public class ArtNetDiscovery {
+
+  public static final int ARTNET_PORT = 6454;
+
+  /**
+   * Interval at which ArtPoll is sent, the Art-Net specification requires
+   * controllers to poll at least every 3 seconds
+   */
+  public static final int DEFAULT_POLL_INTERVAL_MILLIS = 2500;
+
+  private static final int ARTPOLL_LENGTH = 14;
+  private static final int ARTPOLLREPLY_MIN_LENGTH = 207;
+  private static final int BUFFER_SIZE = 1024;
+
+  private static final int OPCODE_POLL_REPLY = 0x2100;
+
+  /**
+   * A node that has replied to ArtPoll
+   */
+  public static class Node {
+
+    public final InetAddress address;
+
+    private String shortName = "";
+    private String longName = "";
+    private final List<Integer> universes = new ArrayList<Integer>();
+    private volatile long lastSeen = 0;
+
+    private Node(InetAddress address) {
+      this.address = address;
+    }
+
+    public String getShortName() {
+      return this.shortName;
+    }
+
+    public String getLongName() {
+      return this.longName;
+    }
+
+    /**
+     * Gets the output universes reported by this node
+     *
+     * @return Universe numbers, in order of discovery
+     */
+    public List<Integer> getUniverses() {
+      synchronized (this.universes) {
+        return Collections.unmodifiableList(new ArrayList<Integer>(this.universes));
+      }
+    }
+
+    /**
+     * Gets the time this node last replied
+     *
+     * @return Time in milliseconds
+     */
+    public long getLastSeen() {
+      return this.lastSeen;
+    }
+
+    @Override
+    public String toString() {
+      return this.address.getHostAddress() + " " + this.shortName + " " + getUniverses();
+    }
+  }
+
+  /**
+   * Listener notified when a node replies for the first time
+   */
+  public interface Listener {
+    public void nodeDiscovered(ArtNetDiscovery discovery, Node node);
+  }
+
+  private final DatagramSocket socket;
+  private final DatagramPacket pollPacket;
+  private final DatagramPacket replyPacket;
+  private final DiscoveryThread thread;
+
+  private int pollIntervalMillis = DEFAULT_POLL_INTERVAL_MILLIS;
+
+  private final Map<InetAddress, Node> nodes = new LinkedHashMap<InetAddress, Node>();
+  private final Map<Integer, Node> universes = new TreeMap<Integer, Node>();
+  private final List<ArtNetDatagram> bound = new ArrayList<ArtNetDatagram>();
+  private final List<Listener> listeners = new ArrayList<Listener>();
+
+  /**
+   * Creates a discovery service that listens on the Art-Net port and
+   * broadcasts ArtPoll to the limited broadcast address.
+   *
+   * @throws SocketException if the Art-Net port could not be bound
+   */
+  public ArtNetDiscovery() throws SocketException {
+    this(ARTNET_PORT, broadcastAddress(), ARTNET_PORT);
+  }
+
+  /**
+   * Creates a discovery service that listens on the given port, and sends
+   * ArtPoll to the given address and port. Useful for directed broadcast, or
+   * for testing against nodes on a loopback interface.
+   *
+   * @param localPort Port to receive replies on
+   * @param pollAddress Address to send ArtPoll to
+   * @param pollPort Port to send ArtPoll to
+   * @throws SocketException if the local port could not be bound
+   */
+  public ArtNetDiscovery(int localPort, InetAddress pollAddress, int pollPort) throws SocketException {
+    this.socket = new DatagramSocket(localPort);
+    this.socket.setBroadcast(true);
+
+    byte[] poll = new byte[ARTPOLL_LENGTH];
+    poll[0] = 'A';
+    poll[1] = 'r';
+    poll[2] = 't';
+    poll[3] = '-';
+    poll[4] = 'N';
+    poll[5] = 'e';
+    poll[6] = 't';
+    poll[7] = 0;
+    poll[8] = 0x00; // ArtPoll opcode
+    poll[9] = 0x20; // ArtPoll opcode
+    poll[10] = 0; // Protocol version
+    poll[11] = 14; // Protocol version
+    poll[12] = 0x02; // Flags, reply whenever node conditions change
+    poll[13] = 0; // Diagnostics priority
+    this.pollPacket = new DatagramPacket(poll, poll.length, pollAddress, pollPort);
+    this.replyPacket = new DatagramPacket(new byte[BUFFER_SIZE], BUFFER_SIZE);
+    this.thread = new DiscoveryThread();
+  }
+
+  private static InetAddress broadcastAddress() {
+    try {
+      return InetAddress.getByAddress(new byte[] { (byte) 255, (byte) 255, (byte) 255, (byte) 255 });
+    } catch (UnknownHostException uhx) {
+      // Not possible with a 4-byte address
+      throw new IllegalStateException(uhx);
+    }
+  }
+
+  /**
+   * Sets the interval at which ArtPoll is sent
+   *
+   * @param pollIntervalMillis Interval in milliseconds
+   * @return this
+   */
+  public ArtNetDiscovery setPollInterval(int pollIntervalMillis) {
+    if (pollIntervalMillis <= 0) {
+      throw new IllegalArgumentException("ArtNetDiscovery poll interval must be positive: " + pollIntervalMillis);
+    }
+    this.pollIntervalMillis = pollIntervalMillis;
+    return this;
+  }
+
+  public ArtNetDiscovery addListener(Listener listener) {
+    synchronized (this.listeners) {
+      this.listeners.add(listener);
+    }
+    return this;
+  }
+
+  public ArtNetDiscovery removeListener(Listener listener) {
+    synchronized (this.listeners) {
+      this.listeners.remove(listener);
+    }
+    return this;
+  }
+
+  /**
+   * Starts polling for nodes
+   *
+   * @return this
+   */
+  public ArtNetDiscovery start() {
+    this.thread.start();
+    return this;
+  }
+
+  /**
+   * Stops polling and closes the socket
+   */
+  public void stop() {
+    this.thread.interrupt();
+    this.socket.close();
+  }
+
+  /**
+   * Binds a datagram to the node that reports its universe. The datagram's
+   * address is set as soon as such a node is known, and follows the universe
+   * if it moves to a different node.
+   *
+   * @param datagram Datagram to address by universe
+   * @return this
+   */
+  public ArtNetDiscovery bind(ArtNetDatagram datagram) {
+    synchronized (this.universes) {
+      this.bound.add(datagram);
+      Node node = this.universes.get(datagram.getUniverseNumber());
+      if (node != null) {
+        datagram.setAddress(node.address);
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Binds a set of datagrams by universe
+   *
+   * @param datagrams Datagrams to address by universe
+   * @return this
+   */
+  public ArtNetDiscovery bind(ArtNetDatagram[] datagrams) {
+    for (ArtNetDatagram datagram : datagrams) {
+      bind(datagram);
+    }
+    return this;
+  }
+
+  /**
+   * Gets all the nodes that have replied
+   *
+   * @return Nodes, in order of discovery
+   */
+  public List<Node> getNodes() {
+    synchronized (this.universes) {
+      return Collections.unmodifiableList(new ArrayList<Node>(this.nodes.values()));
+    }
+  }
+
+  /**
+   * Gets the node that most recently reported an output universe
+   *
+   * @param universeNumber Universe number
+   * @return Node, or null if no node has reported the universe
+   */
+  public Node getNode(int universeNumber) {
+    synchronized (this.universes) {
+      return this.universes.get(universeNumber);
+    }
+  }
+
+  /**
+   * Gets the address of the node for an output universe
+   *
+   * @param universeNumber Universe number
+   * @return Address, or null if no node has reported the universe
+   */
+  public InetAddress getAddress(int universeNumber) {
+    Node node = getNode(universeNumber);
+    return (node == null) ? null : node.address;
+  }
+
+  /**
+   * Sends an ArtPoll immediately
+   */
+  public void poll() {
+    try {
+      this.socket.send(this.pollPacket);
+    } catch (IOException iox) {
+      System.err.println("[ArtNet] Failed to send ArtPoll: " + iox.getLocalizedMessage());
+    }
+  }
+
+  private class DiscoveryThread extends Thread {
+
+    private DiscoveryThread() {
+      super("ArtNetDiscovery");
+      setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+      long lastPoll = 0;
+      while (!isInterrupted()) {
+        long now = System.currentTimeMillis();
+        if (now - lastPoll >= pollIntervalMillis) {
+          poll();
+          lastPoll = now;
+        }
+        try {
+          socket.setSoTimeout((int) Math.max(1, pollIntervalMillis - (now - lastPoll)));
+          socket.receive(replyPacket);
+          receive(replyPacket);
+        } catch (SocketTimeoutException stx) {
+          // Time to poll again
+        } catch (IOException iox) {
+          if (!isInterrupted() && !socket.isClosed()) {
+            System.err.println("[ArtNet] Exception in discovery thread: " + iox.getLocalizedMessage());
+          }
+          if (socket.isClosed()) {
+            break;
+          }
+        }
+      }
+    }
+  }
+
+  private void receive(DatagramPacket packet) {
+    byte[] data = packet.getData();
+    int length = packet.getLength();
+    if ((length < ARTPOLLREPLY_MIN_LENGTH) ||
+        (data[0] != 'A') || (data[1] != 'r') || (data[2] != 't') || (data[3] != '-') ||
+        (data[4] != 'N') || (data[5] != 'e') || (data[6] != 't') || (data[7] != 0)) {
+      return;
+    }
+    int opcode = (data[8] & 0xff) | ((data[9] & 0xff) << 8);
+    if (opcode != OPCODE_POLL_REPLY) {
+      return;
+    }
+
+    // Nodes report their own IP, which may differ from the packet source
+    // when replies are relayed or the node has several interfaces
+    InetAddress address = packet.getAddress();
+    if ((data[10] | data[11] | data[12] | data[13]) != 0) {
+      try {
+        address = InetAddress.getByAddress(new byte[] { data[10], data[11], data[12], data[13] });
+      } catch (UnknownHostException uhx) {
+        // Not possible with a 4-byte address
+      }
+    }
+
+    int net = data[18] & 0x7f;
+    int subnet = data[19] & 0x0f;
+    int numPorts = Math.min(4, data[173] & 0xff);
+
+    Node discovered = null;
+    synchronized (this.universes) {
+      Node node = this.nodes.get(address);
+      if (node == null) {
+        node = discovered = new Node(address);
+        this.nodes.put(address, node);
+      }
+      node.shortName = string(data, 26, 18);
+      node.longName = string(data, 44, 64);
+      node.lastSeen = System.currentTimeMillis();
+      for (int i = 0; i < numPorts; ++i) {
+        // Only ports that can output DMX from Art-Net
+        if ((data[174 + i] & 0x80) != 0) {
+          int universe = (net << 8) | (subnet << 4) | (data[190 + i] & 0x0f);
+          synchronized (node.universes) {
+            if (!node.universes.contains(universe)) {
+              node.universes.add(universe);
+            }
+          }
+          Node previous = this.universes.get(universe);
+          if (previous != node) {
+            if (previous != null) {
+              synchronized (previous.universes) {
+                previous.universes.remove(Integer.valueOf(universe));
+              }
+            }
+            this.universes.put(universe, node);
+            for (ArtNetDatagram datagram : this.bound) {
+              if (datagram.getUniverseNumber() == universe) {
+                datagram.setAddress(node.address);
+              }
+            }
+          }
+        }
+      }
+    }
+
+    if (discovered != null) {
+      synchronized (this.listeners) {
+        for (Listener listener : this.listeners) {
+          listener.nodeDiscovered(this, discovered);
+        }
+      }
+    }
+  }
+
+  private static String string(byte[] data, int offset, int maxLength) {
+    int length = 0;
+    while ((length < maxLength) && (data[offset + length] != 0)) {
+      ++length;
+    }
+    try {
+      return new String(data, offset, length, "US-ASCII");
+    } catch (UnsupportedEncodingException uex) {
+      return new String(data, offset, length);
+    }
+  }
+
+}
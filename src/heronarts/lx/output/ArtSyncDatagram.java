@@ -0,0 +1,71 @@
+/**
+ * Copyright 2016- Mark C. Slee, Heron Arts LLC
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * @author Mark C. Slee <mark@heronarts.com>
+ */
+
+package heronarts.lx.output;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * An Art-Net ArtSync packet. Nodes that have received an ArtSync hold the
+ * ArtDmx data for their universes until the next ArtSync arrives, so that all
+ * universes of a frame update together. Add it to the same output as the
+ * ArtNetDatagrams, and it is sent once after all of them every frame.
+ *
+ * The packet is broadcast by default, as the Art-Net specification requires,
+ * but may be given a directed broadcast or unicast address instead.
+ */
+public class ArtSyncDatagram extends LXDatagram {
+
+  private final static int ARTSYNC_LENGTH = 14;
+  private final static int ARTNET_PORT = 6454;
+
+  public ArtSyncDatagram() {
+    super(ARTSYNC_LENGTH);
+    this.isSync = true;
+    setPort(ARTNET_PORT);
+    try {
+      setAddress(InetAddress.getByAddress(new byte[] { (byte) 255, (byte) 255, (byte) 255, (byte) 255 }));
+    } catch (UnknownHostException uhx) {
+      // Not possible with a 4-byte address
+      throw new IllegalStateException(uhx);
+    }
+
+    this.buffer[0] = 'A';
+    this.buffer[1] = 'r';
+    this.buffer[2] = 't';
+    this.buffer[3] = '-';
+    this.buffer[4] = 'N';
+    this.buffer[5] = 'e';
+    this.buffer[6] = 't';
+    this.buffer[7] = 0;
+    this.buffer[8] = 0x00; // ArtSync opcode
+    this.buffer[9] = 0x52; // ArtSync opcode
+    this.buffer[10] = 0; // Protcol version
+    this.buffer[11] = 14; // Protcol version
+    this.buffer[12] = 0; // Aux1
+    this.buffer[13] = 0; // Aux2
+  }
+
+  @Override
+  public void onSend(int[] colors) {
+    // Packet contents never change
+  }
+}
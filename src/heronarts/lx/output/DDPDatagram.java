@@ -33,17 +33,56 @@ public class DDPDatagram extends LXDatagram {
   private static final int HEADER_LENGTH = 10;
   private static final int DEFAULT_PORT = 4048;
 
-  private final int[] pointIndices;
+  // Data type: C R TTT SSS, where TTT is 1 for RGB and 3 for RGBW, and SSS
+  // is 3 for 8-bit and 4 for 16-bit. Plain RGB is sent as undefined, which
+  // receivers treat as 8-bit RGB. The channel order is not described.
+  private static final int DATA_TYPE_RGB = 0x00;
+  private static final int DATA_TYPE_RGB16 = 0x0C;
+  private static final int DATA_TYPE_RGBW = 0x1B;
+  private static final int DATA_TYPE_RGBW16 = 0x1C;
 
   public DDPDatagram(LXFixture fixture) {
     this(LXOutput.fixtureToIndices(fixture));
   }
 
   public DDPDatagram(int[] pointIndices) {
-    super(HEADER_LENGTH + pointIndices.length * 3);
+    this(pointIndices, LXPixelFormat.RGB);
+  }
+
+  /**
+   * Creates a DDP datagram, optionally sending 16 bits per channel. The wide
+   * data is only used when the output is sent wide colors, otherwise 8-bit
+   * values are expanded.
+   *
+   * @param fixture Fixture
+   * @param is16Bit Whether to send 16-bit RGB data
+   */
+  public DDPDatagram(LXFixture fixture, boolean is16Bit) {
+    this(LXOutput.fixtureToIndices(fixture), is16Bit);
+  }
+
+  public DDPDatagram(int[] pointIndices, boolean is16Bit) {
+    this(pointIndices, is16Bit ? LXPixelFormat.RGB16 : LXPixelFormat.RGB);
+  }
+
+  /**
+   * Creates a DDP datagram with the given pixel format. Wide data is used by
+   * 16-bit formats when the output is sent wide colors.
+   *
+   * @param fixture Fixture
+   * @param pixelFormat Pixel format
+   */
+  public DDPDatagram(LXFixture fixture, LXPixelFormat pixelFormat) {
+    this(LXOutput.fixtureToIndices(fixture), pixelFormat);
+  }
+
+  public DDPDatagram(int[] pointIndices, LXPixelFormat pixelFormat) {
+    super(HEADER_LENGTH + pointIndices.length * pixelFormat.bytesPerPixel);
     setPort(DEFAULT_PORT);
-    int dataLen = pointIndices.length * 3;
+    int dataLen = pointIndices.length * pixelFormat.bytesPerPixel;
     this.pointIndices = pointIndices;
+    this.pixelFormat = pixelFormat;
+    this.dataOffset = (pixelFormat == LXPixelFormat.RGB) ? HEADER_LENGTH : -1;
 
     // Flags: V V x T S R Q P
     this.buffer[0] = 0x41;
@@ -52,7 +91,24 @@ public class DDPDatagram extends LXDatagram {
     this.buffer[1] = 0x00;
 
     // Data type
-    this.buffer[2] = 0x00;
+    int dataType;
+    switch (pixelFormat) {
+    case RGB16:
+      dataType = DATA_TYPE_RGB16;
+      break;
+    case RGBW:
+    case GRBW:
+      dataType = DATA_TYPE_RGBW;
+      break;
+    case RGBW16:
+      dataType = DATA_TYPE_RGBW16;
+      break;
+    default:
+    case RGB:
+      dataType = DATA_TYPE_RGB;
+      break;
+    }
+    this.buffer[2] = (byte) dataType;
 
     // Destination ID, default
     this.buffer[3] = 0x01;
@@ -72,4 +128,13 @@ public class DDPDatagram extends LXDatagram {
   public void onSend(int[] colors) {
     copyPoints(colors, this.pointIndices, HEADER_LENGTH);
   }
+
+  @Override
+  public void onSend(long[] colors16, int[] colors) {
+    if (this.pixelFormat.is16Bit()) {
+      copyPoints16(colors16, this.pointIndices, HEADER_LENGTH);
+    } else {
+      onSend(colors);
+    }
+  }
 }
@@ -37,8 +37,6 @@ public class KinetDatagram extends LXDatagram {
 
   private final static int KINET_PORT = 6038;
 
-  private final int[] pointIndices;
-
   public enum Version {
     DMXOUT,
     PORTOUT
@@ -83,6 +81,7 @@ public class KinetDatagram extends LXDatagram {
 
     this.pointIndices = indices;
     this.version = version;
+    this.dataOffset = (version == Version.DMXOUT) ? DMXOUT_HEADER_LENGTH : HEADER_LENGTH;
 
     // Kinet Header
     this.buffer[0] = (byte) 0x04;
@@ -20,6 +20,8 @@
 
 package heronarts.lx.output;
 
+import heronarts.lx.color.LXColor16;
+import heronarts.lx.model.LXModelRemap;
 import heronarts.lx.parameter.BooleanParameter;
 
 import java.net.DatagramPacket;
@@ -28,6 +30,18 @@ import java.net.UnknownHostException;
 
 public abstract class LXDatagram {
 
+  /**
+   * Default interval at which unchanged data is resent, when suppressing
+   * unchanged datagrams. Receivers typically time out after 2.5 seconds.
+   */
+  public static final int DEFAULT_KEEP_ALIVE_MILLIS = 1000;
+
+  /**
+   * Number of identical packets sent after a change before suppressing, so
+   * that a single lost packet does not leave a receiver with stale data
+   */
+  private static final int NUM_REPEATS = 3;
+
   long sendAfter = 0;
 
   int failureCount = 0;
@@ -54,8 +68,75 @@ public abstract class LXDatagram {
 
   protected ByteOrder byteOrder = ByteOrder.RGB;
 
+  /**
+   * Layout of each pixel in the buffer, set by subclasses which support
+   * formats other than RGB. Datagrams with any other format must pack their
+   * own data, with a dataOffset of -1.
+   */
+  protected LXPixelFormat pixelFormat = LXPixelFormat.RGB;
+
+  protected WhiteExtraction whiteExtraction = WhiteExtraction.DEFAULT;
+
   protected final byte[] buffer;
 
+  /**
+   * Indices of the points sent by this datagram, for subclasses that send a
+   * list of points. These are remapped when the model is swapped, with
+   * removed points becoming -1, which is sent as black.
+   */
+  protected int[] pointIndices = null;
+
+  /**
+   * Offset in the buffer of the RGB data for pointIndices, for datagrams
+   * whose onSend() does nothing more than copyPoints() at this offset and
+   * onPacked(). Outputs may then pack the data themselves, from a compiled
+   * plan covering all their datagrams. This is -1 for datagrams that must
+   * pack their own data. Subclasses outside this library that override
+   * onSend() are always sent through it, whatever this is set to.
+   */
+  protected int dataOffset = -1;
+
+  /**
+   * Whether both onSend() methods are this library's own, rather than
+   * overridden by a user subclass
+   */
+  private final boolean hasLibraryOnSend;
+
+  /**
+   * Incremented whenever the packing of this datagram changes
+   */
+  int revision = 0;
+
+  private int[] preparedIndices = null;
+
+  /**
+   * Position in the buffer of a sequence number, which changes with every
+   * packet and is ignored when detecting unchanged data, or -1 if none
+   */
+  protected int sequenceIndex = -1;
+
+  /**
+   * Whether this is a synchronization datagram, telling receivers to apply
+   * the data already sent. Outputs send these after every other datagram of
+   * the frame, whatever order they were added in.
+   */
+  protected boolean isSync = false;
+
+  private boolean suppressUnchanged = false;
+  private int keepAliveMillis = DEFAULT_KEEP_ALIVE_MILLIS;
+
+  private final byte[] lastSent;
+  private InetAddress lastAddress = null;
+  private int lastPort = -1;
+  private int lastLength = -1;
+  private long lastChangeMillis = 0;
+  private int numRepeats = 0;
+
+  private volatile long sentPackets = 0;
+  private volatile long sentBytes = 0;
+  private volatile long suppressedPackets = 0;
+  private volatile long suppressedBytes = 0;
+
   final DatagramPacket packet;
 
   /**
@@ -69,6 +150,141 @@ public abstract class LXDatagram {
       this.buffer[i] = 0;
     }
     this.packet = new DatagramPacket(this.buffer, bufferSize);
+    this.lastSent = new byte[bufferSize];
+    this.hasLibraryOnSend = declaresLibraryOnSend();
+  }
+
+  private boolean declaresLibraryOnSend() {
+    Package library = LXDatagram.class.getPackage();
+    try {
+      return
+        (getClass().getMethod("onSend", int[].class).getDeclaringClass().getPackage() == library) &&
+        (getClass().getMethod("onSend", long[].class, int[].class).getDeclaringClass().getPackage() == library);
+    } catch (NoSuchMethodException nsmx) {
+      return false;
+    }
+  }
+
+  /**
+   * Whether an output may pack this datagram from a compiled plan, in place
+   * of calling onSend()
+   *
+   * @return True if the data is just pointIndices at dataOffset
+   */
+  boolean isPlannable() {
+    return this.hasLibraryOnSend && (this.dataOffset >= 0) && (this.pointIndices != null);
+  }
+
+  /**
+   * Sets whether to skip sending this datagram when its data has not changed
+   * since it was last sent. Unchanged data is still resent at the keep-alive
+   * interval.
+   *
+   * @param suppressUnchanged Whether to suppress unchanged datagrams
+   * @return this
+   */
+  public LXDatagram setSuppressUnchanged(boolean suppressUnchanged) {
+    this.suppressUnchanged = suppressUnchanged;
+    return this;
+  }
+
+  /**
+   * Sets the interval at which unchanged data is resent, when suppressing
+   * unchanged datagrams
+   *
+   * @param keepAliveMillis Keep-alive interval in milliseconds
+   * @return this
+   */
+  public LXDatagram setKeepAlive(int keepAliveMillis) {
+    this.keepAliveMillis = keepAliveMillis;
+    return this;
+  }
+
+  /**
+   * Gets the number of times this datagram has been sent
+   *
+   * @return Packets sent
+   */
+  public long getSentPackets() {
+    return this.sentPackets;
+  }
+
+  /**
+   * Gets the number of bytes sent by this datagram
+   *
+   * @return Bytes sent
+   */
+  public long getSentBytes() {
+    return this.sentBytes;
+  }
+
+  /**
+   * Gets the number of times this datagram was skipped because its data
+   * had not changed
+   *
+   * @return Packets suppressed
+   */
+  public long getSuppressedPackets() {
+    return this.suppressedPackets;
+  }
+
+  /**
+   * Gets the number of bytes saved by suppressing unchanged data
+   *
+   * @return Bytes suppressed
+   */
+  public long getSuppressedBytes() {
+    return this.suppressedBytes;
+  }
+
+  /**
+   * Invoked by outputs after the datagram has been packed, to determine
+   * whether it should be skipped this frame.
+   *
+   * @param now Current time in milliseconds
+   * @return True if the datagram is unchanged and should not be sent
+   */
+  boolean suppress(long now) {
+    int length = this.packet.getLength();
+    if (this.suppressUnchanged) {
+      boolean unchanged =
+        (this.failureCount == 0) &&
+        (length == this.lastLength) &&
+        (this.packet.getPort() == this.lastPort) &&
+        this.packet.getAddress().equals(this.lastAddress) &&
+        isUnchanged(length);
+      if (!unchanged) {
+        System.arraycopy(this.buffer, 0, this.lastSent, 0, length);
+        this.lastAddress = this.packet.getAddress();
+        this.lastPort = this.packet.getPort();
+        this.lastLength = length;
+        this.lastChangeMillis = now;
+        this.numRepeats = 0;
+      } else if (++this.numRepeats >= NUM_REPEATS) {
+        if (now - this.lastChangeMillis < this.keepAliveMillis) {
+          ++this.suppressedPackets;
+          this.suppressedBytes += length;
+          return true;
+        }
+        // Keep-alive, the next one is due an interval from now
+        this.lastChangeMillis = now;
+      }
+    }
+    ++this.sentPackets;
+    this.sentBytes += length;
+    return false;
+  }
+
+  private boolean isUnchanged(int length) {
+    byte[] buffer = this.buffer;
+    byte[] lastSent = this.lastSent;
+    int sequenceIndex = this.sequenceIndex;
+    for (int i = 0; i < length; ++i) {
+      if ((buffer[i] != lastSent[i]) && (i != sequenceIndex)) {
+        return false;
+      }
+    }
+    return true;
   }
 
   /**
@@ -79,6 +295,27 @@ public abstract class LXDatagram {
    */
   public LXDatagram setByteOrder(ByteOrder byteOrder) {
     this.byteOrder = byteOrder;
+    ++this.revision;
+    return this;
+  }
+
+  /**
+   * Gets the layout of each pixel in this datagram buffer
+   *
+   * @return Pixel format
+   */
+  public LXPixelFormat getPixelFormat() {
+    return this.pixelFormat;
+  }
+
+  /**
+   * Sets how the white channel is extracted, for pixel formats with white
+   *
+   * @param whiteExtraction White extraction
+   * @return this
+   */
+  public LXDatagram setWhiteExtraction(WhiteExtraction whiteExtraction) {
+    this.whiteExtraction = whiteExtraction;
     return this;
   }
 
@@ -125,10 +362,33 @@ public abstract class LXDatagram {
     return this;
   }
 
+  /**
+   * Computes remapped point indices for a new model, off the engine thread
+   */
+  void prepareModel(LXModelRemap remap) {
+    int[] pointIndices = this.pointIndices;
+    this.preparedIndices = (pointIndices == null) ? null : remap.remapIndices(pointIndices);
+  }
+
+  /**
+   * Switches over to the remapped point indices
+   */
+  void swapModel(LXModelRemap remap) {
+    if (this.pointIndices != null) {
+      if (this.preparedIndices == null) {
+        this.preparedIndices = remap.remapIndices(this.pointIndices);
+      }
+      this.pointIndices = this.preparedIndices;
+      ++this.revision;
+    }
+    this.preparedIndices = null;
+  }
+
   /**
    * Helper for subclasses to copy a list of points into the data buffer at a
    * specified offset. For many subclasses which wrap RGB buffers, onSend() will
-   * be a simple call to this method with the right parameters.
+   * be a simple call to this method with the right parameters. Points are
+   * written in the datagram's pixel format.
    *
    * @param colors Array of color values
    * @param pointIndices Array of point indices
@@ -136,6 +396,10 @@ public abstract class LXDatagram {
    * @return this
    */
   protected LXDatagram copyPoints(int[] colors, int[] pointIndices, int offset) {
+    if (this.pixelFormat != LXPixelFormat.RGB) {
+      this.pixelFormat.pack(this.buffer, offset, colors, pointIndices, this.byteOrder, this.whiteExtraction);
+      return this;
+    }
     int i = offset;
     int[] byteOffset = BYTE_ORDERING[this.byteOrder.ordinal()];
     for (int index : pointIndices) {
@@ -148,6 +412,46 @@ public abstract class LXDatagram {
     return this;
   }
 
+  /**
+   * Helper for subclasses to copy a list of points into the data buffer at
+   * 16 bits per channel, most significant byte first. Pixel formats with a
+   * white channel are written in that format.
+   *
+   * @param colors16 Array of wide color values
+   * @param pointIndices Array of point indices
+   * @param offset Offset in buffer to write
+   * @return this
+   */
+  protected LXDatagram copyPoints16(long[] colors16, int[] pointIndices, int offset) {
+    if (this.pixelFormat.hasWhite()) {
+      this.pixelFormat.pack16(this.buffer, offset, colors16, pointIndices, this.byteOrder, this.whiteExtraction);
+      return this;
+    }
+    int i = offset;
+    int[] byteOffset = BYTE_ORDERING[this.byteOrder.ordinal()];
+    for (int index : pointIndices) {
+      long color = (index >= 0) ? colors16[index] : 0;
+      int r = LXColor16.red(color);
+      int g = LXColor16.green(color);
+      int b = LXColor16.blue(color);
+      this.buffer[i + 2*byteOffset[0]] = (byte) (r >>> 8);
+      this.buffer[i + 2*byteOffset[0] + 1] = (byte) r;
+      this.buffer[i + 2*byteOffset[1]] = (byte) (g >>> 8);
+      this.buffer[i + 2*byteOffset[1] + 1] = (byte) g;
+      this.buffer[i + 2*byteOffset[2]] = (byte) (b >>> 8);
+      this.buffer[i + 2*byteOffset[2] + 1] = (byte) b;
+      i += 6;
+    }
+    return this;
+  }
+
+  /**
+   * Invoked after an output has packed the data of this datagram itself,
+   * in place of onSend(). Subclasses should update any per-packet header
+   * fields here, such as sequence numbers.
+   */
+  protected /* abstract */ void onPacked() {}
+
   /**
    * Invoked by engine to send this packet when new color data is available. The
    * LXDatagram should update the packet object accordingly to contain the
@@ -156,4 +460,16 @@ public abstract class LXDatagram {
    * @param colors Color buffer
    */
   public abstract void onSend(int[] colors);
+
+  /**
+   * Invoked when wide color data is available. Datagrams which support more
+   * than 8 bits per channel may override, by default the 8-bit values are
+   * used.
+   *
+   * @param colors16 Wide color buffer
+   * @param colors Color buffer narrowed to 8-bit
+   */
+  public void onSend(long[] colors16, int[] colors) {
+    onSend(colors);
+  }
 }
@@ -0,0 +1,455 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * @author Mark C. Slee <mark@heronarts.com>
+ */
+
+package heronarts.lx.output;
+
+import heronarts.lx.LX;
+import heronarts.lx.model.LXModelRemap;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A datagram output that sends through NIO channels rather than a
+ * DatagramSocket. Each datagram is packed on the calling thread as usual,
+ * then copied into a direct buffer and sent. Destinations are spread over a
+ * number of worker threads, each with its own channel, so that sends to many
+ * controllers are made in parallel. All sends for a frame are complete when
+ * send() returns.
+ *
+ * The channels are left blocking, so that a send waits for room in the
+ * socket buffer rather than dropping the datagram, and their send buffers
+ * are enlarged to hold a full frame for many controllers.
+ *
+ * Any of the existing LXDatagram types may be used, including ones sent to a
+ * broadcast address. Statistics are kept for each destination address and
+ * port.
+ */
+public class LXDatagramChannelOutput extends LXOutput {
+
+  /**
+   * Counters for a single destination address and port
+   */
+  public static class Destination {
+
+    public final InetSocketAddress address;
+
+    private final int worker;
+
+    private volatile long packets = 0;
+    private volatile long bytes = 0;
+    private volatile long errors = 0;
+
+    private Destination(InetSocketAddress address, int worker) {
+      this.address = address;
+      this.worker = worker;
+    }
+
+    /**
+     * Gets the number of packets sent to this destination
+     *
+     * @return Packets sent
+     */
+    public long getPackets() {
+      return this.packets;
+    }
+
+    /**
+     * Gets the number of bytes sent to this destination
+     *
+     * @return Bytes sent
+     */
+    public long getBytes() {
+      return this.bytes;
+    }
+
+    /**
+     * Gets the number of packets that failed to send with an error
+     *
+     * @return Send errors
+     */
+    public long getErrors() {
+      return this.errors;
+    }
+
+    @Override
+    public String toString() {
+      return this.address + " packets:" + this.packets + " bytes:" + this.bytes
+        + " errors:" + this.errors;
+    }
+  }
+
+  private static class Entry {
+    private final LXDatagram datagram;
+    private final ByteBuffer buffer;
+    private Destination destination = null;
+
+    private Entry(LXDatagram datagram) {
+      this.datagram = datagram;
+      this.buffer = ByteBuffer.allocateDirect(datagram.buffer.length);
+    }
+  }
+
+  private static final int SEND_BUFFER_SIZE = 1 << 20;
+
+  private final List<Entry> entries = new ArrayList<Entry>();
+
+  private final List<LXDatagram> datagrams = new ArrayList<LXDatagram>();
+
+  private LXPackingPlan plan = null;
+
+  private final Map<InetSocketAddress, Destination> destinations =
+    new LinkedHashMap<InetSocketAddress, Destination>();
+
+  private final DatagramChannel[] channels;
+
+  private final Worker[] workers;
+
+  private final List<List<Entry>> queues = new ArrayList<List<Entry>>();
+
+  // Synchronization datagrams, sent on the calling thread after the workers
+  private final List<Entry> syncQueue = new ArrayList<Entry>();
+
+  private final Object lock = new Object();
+
+  private int pending = 0;
+
+  private final SimpleDateFormat date = new SimpleDateFormat("[HH:mm:ss]");
+
+  /**
+   * Creates an output that sends all datagrams through one channel on the
+   * calling thread.
+   *
+   * @param lx LX instance
+   * @throws IOException if a channel could not be opened
+   */
+  public LXDatagramChannelOutput(LX lx) throws IOException {
+    this(lx, 1);
+  }
+
+  /**
+   * Creates an output that spreads destinations over a number of worker
+   * threads, each with its own channel. A single thread sends on the calling
+   * thread without any workers.
+   *
+   * @param lx LX instance
+   * @param numThreads Number of sending threads
+   * @throws IOException if a channel could not be opened
+   */
+  public LXDatagramChannelOutput(LX lx, int numThreads) throws IOException {
+    super(lx);
+    if (numThreads < 1) {
+      throw new IllegalArgumentException("LXDatagramChannelOutput must have at least one thread: " + numThreads);
+    }
+    this.channels = new DatagramChannel[numThreads];
+    for (int i = 0; i < numThreads; ++i) {
+      this.channels[i] = DatagramChannel.open();
+      this.channels[i].setOption(StandardSocketOptions.SO_BROADCAST, true);
+      this.channels[i].setOption(StandardSocketOptions.SO_SNDBUF, SEND_BUFFER_SIZE);
+      this.queues.add(new ArrayList<Entry>());
+    }
+    if (numThreads > 1) {
+      this.workers = new Worker[numThreads];
+      for (int i = 0; i < numThreads; ++i) {
+        this.workers[i] = new Worker(i);
+        this.workers[i].start();
+      }
+    } else {
+      this.workers = null;
+    }
+  }
+
+  public LXDatagramChannelOutput addDatagram(LXDatagram datagram) {
+    this.entries.add(new Entry(datagram));
+    this.datagrams.add(datagram);
+    return this;
+  }
+
+  public LXDatagramChannelOutput addDatagrams(LXDatagram[] datagrams) {
+    for (LXDatagram datagram : datagrams) {
+      addDatagram(datagram);
+    }
+    return this;
+  }
+
+  /**
+   * Gets the counters for every destination that has been sent to
+   *
+   * @return Destinations, in order of first send
+   */
+  public List<Destination> getDestinations() {
+    synchronized (this.destinations) {
+      return Collections.unmodifiableList(new ArrayList<Destination>(this.destinations.values()));
+    }
+  }
+
+  @Override
+  protected void onPrepareModel(LXModelRemap remap) {
+    for (Entry entry : this.entries) {
+      entry.datagram.prepareModel(remap);
+    }
+  }
+
+  @Override
+  protected void onSwapModel(LXModelRemap remap) {
+    for (Entry entry : this.entries) {
+      entry.datagram.swapModel(remap);
+    }
+  }
+
+  /**
+   * Subclasses may override. Invoked before datagrams are sent.
+   *
+   * @param colors Color values
+   */
+  protected /* abstract */ void beforeSend(int[] colors) {}
+
+  /**
+   * Subclasses may override. Invoked after datagrams are sent.
+   *
+   * @param colors Color values
+   */
+  protected /* abstract */ void afterSend(int[] colors) {}
+
+  @Override
+  protected final void onSend(int[] colors) {
+    sendDatagrams(null, colors);
+  }
+
+  @Override
+  protected final void onSend(long[] colors16, int[] colors) {
+    sendDatagrams(colors16, colors);
+  }
+
+  private void sendDatagrams(long[] colors16, int[] colors) {
+    long now = System.currentTimeMillis();
+    beforeSend(colors);
+
+    // Pack every datagram and queue it for the worker owning its destination
+    this.plan = LXPackingPlan.compile(this.plan, this.datagrams);
+    for (int d = 0; d < this.entries.size(); ++d) {
+      Entry entry = this.entries.get(d);
+      LXDatagram datagram = entry.datagram;
+      if (datagram.enabled.isOn() && (now > datagram.sendAfter)) {
+        if (this.plan.isPlanned(d)) {
+          this.plan.pack(d, colors);
+          datagram.onPacked();
+        } else if (colors16 != null) {
+          datagram.onSend(colors16, colors);
+        } else {
+          datagram.onSend(colors);
+        }
+        if (datagram.suppress(now)) {
+          continue;
+        }
+        entry.buffer.clear();
+        entry.buffer.put(datagram.buffer, 0, datagram.packet.getLength());
+        entry.buffer.flip();
+        entry.destination = getDestination(entry);
+        if (datagram.isSync) {
+          this.syncQueue.add(entry);
+        } else {
+          this.queues.get(entry.destination.worker).add(entry);
+        }
+      }
+    }
+
+    if (this.workers == null) {
+      send(this.channels[0], this.queues.get(0), now);
+    } else {
+      synchronized (this.lock) {
+        for (Worker worker : this.workers) {
+          if (worker.isAlive() && !this.queues.get(worker.index).isEmpty()) {
+            worker.now = now;
+            worker.ready = true;
+            ++this.pending;
+          }
+        }
+        this.lock.notifyAll();
+        while (this.pending > 0) {
+          try {
+            this.lock.wait();
+          } catch (InterruptedException ix) {
+            Thread.currentThread().interrupt();
+            break;
+          }
+        }
+      }
+      // A worker that died on an error leaves its queue to the calling thread
+      for (Worker worker : this.workers) {
+        if (!worker.isAlive()) {
+          send(this.channels[worker.index], this.queues.get(worker.index), now);
+        }
+      }
+    }
+    if (!this.syncQueue.isEmpty()) {
+      send(this.channels[0], this.syncQueue, now);
+    }
+
+    afterSend(colors);
+  }
+
+  private Destination getDestination(Entry entry) {
+    // Datagram addresses may be changed at any time, so check for a change
+    InetAddress address = entry.datagram.packet.getAddress();
+    int port = entry.datagram.packet.getPort();
+    Destination destination = entry.destination;
+    if ((destination != null) && (destination.address.getPort() == port) && destination.address.getAddress().equals(address)) {
+      return destination;
+    }
+    InetSocketAddress socketAddress = new InetSocketAddress(address, port);
+    synchronized (this.destinations) {
+      destination = this.destinations.get(socketAddress);
+      if (destination == null) {
+        int worker = (socketAddress.hashCode() & 0x7fffffff) % this.channels.length;
+        destination = new Destination(socketAddress, worker);
+        this.destinations.put(socketAddress, destination);
+      }
+    }
+    return destination;
+  }
+
+  /**
+   * Sends all the datagrams in a queue on a channel
+   */
+  private void send(DatagramChannel channel, List<Entry> queue, long now) {
+    try {
+      for (Entry entry : queue) {
+        LXDatagram datagram = entry.datagram;
+        Destination destination = entry.destination;
+        try {
+          int length = entry.buffer.remaining();
+          channel.send(entry.buffer, destination.address);
+          ++destination.packets;
+          destination.bytes += length;
+          if (datagram.failureCount > 0) {
+            log(now, "Recovered connectivity to " + destination.address);
+          }
+          datagram.failureCount = 0;
+          datagram.sendAfter = 0;
+        } catch (IOException iox) {
+          failed(entry, now, iox);
+        } catch (RuntimeException rx) {
+          // Unchecked failures, such as an unresolved or unsupported address
+          failed(entry, now, rx);
+        }
+      }
+    } finally {
+      queue.clear();
+    }
+  }
+
+  private void failed(Entry entry, long now, Exception x) {
+    LXDatagram datagram = entry.datagram;
+    Destination destination = entry.destination;
+    ++destination.errors;
+    if (datagram.failureCount == 0) {
+      log(now, x.getClass().getSimpleName() + " sending to " + destination.address + " (" + x.getLocalizedMessage()
+          + "), will initiate backoff after 3 consecutive failures");
+    }
+    ++datagram.failureCount;
+    if (datagram.failureCount >= 3) {
+      int pow = Math.min(5, datagram.failureCount - 3);
+      long waitFor = (long) (50 * Math.pow(2, pow));
+      log(now, "Retrying " + destination.address + " in " + waitFor + "ms" + " ("
+          + datagram.failureCount + " consecutive failures)");
+      datagram.sendAfter = now + waitFor;
+    }
+  }
+
+  private void log(long now, String message) {
+    synchronized (this.date) {
+      System.out.println(this.date.format(now) + " " + message);
+    }
+  }
+
+  @Override
+  public void dispose() {
+    if (this.workers != null) {
+      for (Worker worker : this.workers) {
+        worker.interrupt();
+      }
+      synchronized (this.lock) {
+        this.pending = 0;
+        this.lock.notifyAll();
+      }
+    }
+    for (DatagramChannel channel : this.channels) {
+      try {
+        channel.close();
+      } catch (IOException iox) {
+        System.err.println("Error closing datagram channel: " + iox.getLocalizedMessage());
+      }
+    }
+    super.dispose();
+  }
+
+  private class Worker extends Thread {
+
+    private final int index;
+
+    private boolean ready = false;
+    private long now = 0;
+
+    private Worker(int index) {
+      super("LXDatagramChannelOutput Worker " + index);
+      this.index = index;
+      setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+      while (!isInterrupted()) {
+        long now;
+        synchronized (lock) {
+          while (!this.ready) {
+            try {
+              lock.wait();
+            } catch (InterruptedException ix) {
+              return;
+            }
+          }
+          this.ready = false;
+          now = this.now;
+        }
+        try {
+          send(channels[this.index], queues.get(this.index), now);
+        } finally {
+          synchronized (lock) {
+            if (--pending == 0) {
+              lock.notifyAll();
+            }
+          }
+        }
+      }
+    }
+  }
+
+}
@@ -21,6 +21,7 @@
 package heronarts.lx.output;
 
 import heronarts.lx.LX;
+import heronarts.lx.model.LXModelRemap;
 
 import java.io.IOException;
 import java.net.DatagramSocket;
@@ -38,6 +39,8 @@ public class LXDatagramOutput extends LXOutput {
 
   private final List<LXDatagram> datagrams = new ArrayList<LXDatagram>();
 
+  private LXPackingPlan plan = null;
+
   private final SimpleDateFormat date = new SimpleDateFormat("[HH:mm:ss]");
 
   public LXDatagramOutput(LX lx) throws SocketException {
@@ -61,6 +64,20 @@ public class LXDatagramOutput extends LXOutput {
     return this;
   }
 
+  @Override
+  protected void onPrepareModel(LXModelRemap remap) {
+    for (LXDatagram datagram : this.datagrams) {
+      datagram.prepareModel(remap);
+    }
+  }
+
+  @Override
+  protected void onSwapModel(LXModelRemap remap) {
+    for (LXDatagram datagram : this.datagrams) {
+      datagram.swapModel(remap);
+    }
+  }
+
   /**
    * Subclasses may override. Invoked before datagrams are sent.
    *
@@ -80,36 +97,72 @@ public class LXDatagramOutput extends LXOutput {
    */
   @Override
   protected final void onSend(int[] colors) {
+    sendDatagrams(null, colors);
+  }
+
+  /**
+   * Sends the datagrams with wide color data available.
+   */
+  @Override
+  protected final void onSend(long[] colors16, int[] colors) {
+    sendDatagrams(colors16, colors);
+  }
+
+  private void sendDatagrams(long[] colors16, int[] colors) {
     long now = System.currentTimeMillis();
     beforeSend(colors);
-    for (LXDatagram datagram : this.datagrams) {
-      if (datagram.enabled.isOn() && (now > datagram.sendAfter)) {
+    this.plan = LXPackingPlan.compile(this.plan, this.datagrams);
+    for (int d = 0; d < this.datagrams.size(); ++d) {
+      if (!this.datagrams.get(d).isSync) {
+        sendDatagram(d, colors16, colors, now);
+      }
+    }
+    // Synchronization datagrams go out once all the data has been sent
+    for (int d = 0; d < this.datagrams.size(); ++d) {
+      if (this.datagrams.get(d).isSync) {
+        sendDatagram(d, colors16, colors, now);
+      }
+    }
+    afterSend(colors);
+  }
+
+  private void sendDatagram(int d, long[] colors16, int[] colors, long now) {
+    LXDatagram datagram = this.datagrams.get(d);
+    if (datagram.enabled.isOn() && (now > datagram.sendAfter)) {
+      if (this.plan.isPlanned(d)) {
+        this.plan.pack(d, colors);
+        datagram.onPacked();
+      } else if (colors16 != null) {
+        datagram.onSend(colors16, colors);
+      } else {
         datagram.onSend(colors);
-        try {
-          this.socket.send(datagram.packet);
-          if (datagram.failureCount > 0) {
-            System.out.println(this.date.format(now) + " Recovered connectivity to " + datagram.packet.getAddress());
-          }
-          datagram.failureCount = 0;
-          datagram.sendAfter = 0;
-        } catch (IOException iox) {
-          if (datagram.failureCount == 0) {
-            System.out.println(this.date.format(now) + " IOException sending to "
-                + datagram.packet.getAddress() + " (" + iox.getLocalizedMessage()
-                + "), will initiate backoff after 3 consecutive failures");
-          }
-          ++datagram.failureCount;
-          if (datagram.failureCount >= 3) {
-            int pow = Math.min(5, datagram.failureCount - 3);
-            long waitFor = (long) (50 * Math.pow(2, pow));
-            System.out.println(this.date.format(now) + " Retrying " + datagram.packet.getAddress()
-                + " in " + waitFor + "ms" + " (" + datagram.failureCount
-                + " consecutive failures)");
-            datagram.sendAfter = now + waitFor;
-          }
+      }
+      if (datagram.suppress(now)) {
+        return;
+      }
+      try {
+        this.socket.send(datagram.packet);
+        if (datagram.failureCount > 0) {
+          System.out.println(this.date.format(now) + " Recovered connectivity to " + datagram.packet.getAddress());
+        }
+        datagram.failureCount = 0;
+        datagram.sendAfter = 0;
+      } catch (IOException iox) {
+        if (datagram.failureCount == 0) {
+          System.out.println(this.date.format(now) + " IOException sending to "
+              + datagram.packet.getAddress() + " (" + iox.getLocalizedMessage()
+              + "), will initiate backoff after 3 consecutive failures");
+        }
+        ++datagram.failureCount;
+        if (datagram.failureCount >= 3) {
+          int pow = Math.min(5, datagram.failureCount - 3);
+          long waitFor = (long) (50 * Math.pow(2, pow));
+          System.out.println(this.date.format(now) + " Retrying " + datagram.packet.getAddress()
+              + " in " + waitFor + "ms" + " (" + datagram.failureCount
+              + " consecutive failures)");
+          datagram.sendAfter = now + waitFor;
         }
       }
     }
-    afterSend(colors);
   }
 }
@@ -0,0 +1,573 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * @author Mark C. Slee <mark@heronarts.com>
+ */
+
+package heronarts.lx.output;
+
+import heronarts.lx.LXEngine;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A stand-in for real controllers, for testing output throughput and
+ * latency on a single machine. The receiver binds local ports, decodes
+ * incoming Art-Net, E1.31, DDP and OPC packets back into pixel colors, and
+ * keeps statistics for every universe or channel: packet rate, loss and
+ * reordering from sequence numbers, and latency from the start of the
+ * engine frame that produced the packet.
+ *
+ * Outputs are pointed at the receiver by setting their address to the
+ * loopback address and their port to the port the receiver is listening on.
+ * Latency is measured against the most recently started engine frame, so it
+ * is only meaningful while packets arrive within the frame that sent them.
+ */
+public class LXLoopbackReceiver {
+
+  public enum Protocol {
+    ARTNET("Art-Net"),
+    SACN("E1.31"),
+    DDP("DDP"),
+    OPC("OPC");
+
+    public final String label;
+
+    private Protocol(String label) {
+      this.label = label;
+    }
+  };
+
+  private static final int MAX_KEYS = 0x10000;
+  private static final int BUFFER_SIZE = 65536;
+
+  /**
+   * Statistics and decoded colors for a single universe, DDP destination or
+   * OPC channel
+   */
+  public static class Stream {
+
+    public final Protocol protocol;
+    public final int key;
+
+    private int[] colors = new int[0];
+    private int numPixels = 0;
+
+    private long packets = 0;
+    private long bytes = 0;
+    private long lost = 0;
+    private long reordered = 0;
+    private long duplicates = 0;
+    private int lastSequence = -1;
+
+    private long firstNanos = 0;
+    private long lastNanos = 0;
+
+    private long latencyCount = 0;
+    private long latencyTotalNanos = 0;
+    private long latencyMinNanos = Long.MAX_VALUE;
+    private long latencyMaxNanos = 0;
+
+    private Stream(Protocol protocol, int key) {
+      this.protocol = protocol;
+      this.key = key;
+    }
+
+    public synchronized long getPackets() {
+      return this.packets;
+    }
+
+    public synchronized long getBytes() {
+      return this.bytes;
+    }
+
+    /**
+     * Gets the number of packets missing from the sequence
+     *
+     * @return Packets lost
+     */
+    public synchronized long getLost() {
+      return this.lost;
+    }
+
+    /**
+     * Gets the number of packets that arrived after a later one
+     *
+     * @return Packets out of order
+     */
+    public synchronized long getReordered() {
+      return this.reordered;
+    }
+
+    /**
+     * Gets the number of packets that repeated the previous sequence number
+     *
+     * @return Duplicate packets
+     */
+    public synchronized long getDuplicates() {
+      return this.duplicates;
+    }
+
+    /**
+     * Gets the average packet rate between the first and last packet
+     *
+     * @return Packets per second
+     */
+    public synchronized double getPacketRate() {
+      if (this.packets < 2) {
+        return 0;
+      }
+      return (this.packets - 1) * 1e9 / (this.lastNanos - this.firstNanos);
+    }
+
+    public synchronized double getLatencyMeanMillis() {
+      return (this.latencyCount == 0) ? 0 : this.latencyTotalNanos / 1e6 / this.latencyCount;
+    }
+
+    public synchronized double getLatencyMinMillis() {
+      return (this.latencyCount == 0) ? 0 : this.latencyMinNanos / 1e6;
+    }
+
+    public synchronized double getLatencyMaxMillis() {
+      return this.latencyMaxNanos / 1e6;
+    }
+
+    /**
+     * Gets the number of pixels received so far
+     *
+     * @return Number of pixels
+     */
+    public synchronized int size() {
+      return this.numPixels;
+    }
+
+    /**
+     * Copies the most recently received colors
+     *
+     * @param colors Array to copy into, must hold at least size() colors
+     * @return Number of colors copied
+     */
+    public synchronized int getColors(int[] colors) {
+      int n = Math.min(colors.length, this.numPixels);
+      System.arraycopy(this.colors, 0, colors, 0, n);
+      return n;
+    }
+
+    private void ensurePixels(int numPixels) {
+      if (this.colors.length < numPixels) {
+        int[] colors = new int[numPixels];
+        System.arraycopy(this.colors, 0, colors, 0, this.numPixels);
+        this.colors = colors;
+      }
+      this.numPixels = Math.max(this.numPixels, numPixels);
+    }
+
+    /**
+     * Tracks a sequence number, 0 meaning none for every protocol here
+     */
+    private void sequence(int sequence, int modulus) {
+      if (sequence == 0) {
+        return;
+      }
+      if (this.lastSequence > 0) {
+        // Sequences skip 0, so work in the range 1..modulus-1
+        int range = modulus - 1;
+        int diff = ((sequence - this.lastSequence) % range + range) % range;
+        if (diff == 0) {
+          ++this.duplicates;
+        } else if (diff < range / 2) {
+          this.lost += diff - 1;
+        } else {
+          ++this.reordered;
+          if (this.lost > 0) {
+            --this.lost;
+          }
+          return;
+        }
+      }
+      this.lastSequence = sequence;
+    }
+
+    private void arrived(int length, long nanos, LXEngine engine) {
+      if (this.packets == 0) {
+        this.firstNanos = nanos;
+      }
+      this.lastNanos = nanos;
+      ++this.packets;
+      this.bytes += length;
+      if (engine != null) {
+        long frameStart = engine.getFrameStartNanos();
+        if ((frameStart != 0) && (nanos > frameStart)) {
+          long latency = nanos - frameStart;
+          ++this.latencyCount;
+          this.latencyTotalNanos += latency;
+          this.latencyMinNanos = Math.min(this.latencyMinNanos, latency);
+          this.latencyMaxNanos = Math.max(this.latencyMaxNanos, latency);
+        }
+      }
+    }
+
+    @Override
+    public synchronized String toString() {
+      return String.format("%s %d: %d packets, %.1f/s, %d lost, %d reordered, %d duplicate, latency %.3f/%.3f/%.3fms",
+        this.protocol.label, this.key, this.packets, getPacketRate(), this.lost, this.reordered, this.duplicates,
+        getLatencyMinMillis(), getLatencyMeanMillis(), getLatencyMaxMillis());
+    }
+  }
+
+  private final LXEngine engine;
+
+  private final Stream[][] streams = new Stream[Protocol.values().length][];
+
+  private final List<Stream> streamList = new ArrayList<Stream>();
+
+  private final List<ReceiverThread> threads = new ArrayList<ReceiverThread>();
+
+  private abstract class ReceiverThread extends Thread {
+
+    private ReceiverThread(String name) {
+      super(name);
+      setDaemon(true);
+    }
+
+    protected abstract void close() throws IOException;
+  }
+
+  /**
+   * Creates a receiver with no latency measurement
+   */
+  public LXLoopbackReceiver() {
+    this(null);
+  }
+
+  /**
+   * Creates a receiver that measures latency from the start of the engine's
+   * most recent frame
+   *
+   * @param engine Engine whose frames are being sent, may be null
+   */
+  public LXLoopbackReceiver(LXEngine engine) {
+    this.engine = engine;
+    for (Protocol protocol : Protocol.values()) {
+      this.streams[protocol.ordinal()] = new Stream[MAX_KEYS];
+    }
+  }
+
+  /**
+   * Listens for UDP packets of a protocol on the loopback interface
+   *
+   * @param protocol Protocol to decode
+   * @param port Local port
+   * @return this
+   * @throws SocketException if the port could not be bound
+   */
+  public LXLoopbackReceiver listen(final Protocol protocol, int port) throws SocketException {
+    final DatagramSocket socket = new DatagramSocket(port, loopbackAddress());
+    startThread(new ReceiverThread("LXLoopbackReceiver " + protocol.label + " " + port) {
+      @Override
+      protected void close() {
+        socket.close();
+      }
+
+      @Override
+      public void run() {
+        DatagramPacket packet = new DatagramPacket(new byte[BUFFER_SIZE], BUFFER_SIZE);
+        while (!isInterrupted()) {
+          try {
+            socket.receive(packet);
+            long nanos = System.nanoTime();
+            receive(protocol, packet.getData(), packet.getLength(), nanos);
+          } catch (IOException iox) {
+            if (socket.isClosed()) {
+              break;
+            }
+            System.err.println("[Loopback] Error receiving " + protocol.label + ": " + iox.getLocalizedMessage());
+          }
+        }
+      }
+    });
+    return this;
+  }
+
+  /**
+   * Listens for OPC connections over TCP on the loopback interface, as used
+   * by OPCOutput and FadecandyOutput
+   *
+   * @param port Local port
+   * @return this
+   * @throws IOException if the port could not be bound
+   */
+  public LXLoopbackReceiver listenOPC(int port) throws IOException {
+    final ServerSocket server = new ServerSocket(port, 8, loopbackAddress());
+    startThread(new ReceiverThread("LXLoopbackReceiver OPC TCP " + port) {
+      @Override
+      protected void close() throws IOException {
+        server.close();
+      }
+
+      @Override
+      public void run() {
+        while (!isInterrupted()) {
+          try {
+            final Socket socket = server.accept();
+            startThread(new ReceiverThread("LXLoopbackReceiver OPC " + socket.getRemoteSocketAddress()) {
+              @Override
+              protected void close() throws IOException {
+                socket.close();
+              }
+
+              @Override
+              public void run() {
+                receiveOPC(socket);
+              }
+            });
+          } catch (IOException iox) {
+            if (server.isClosed()) {
+              break;
+            }
+            System.err.println("[Loopback] Error accepting OPC connection: " + iox.getLocalizedMessage());
+          }
+        }
+      }
+    });
+    return this;
+  }
+
+  private static InetAddress loopbackAddress() {
+    try {
+      return InetAddress.getByAddress(new byte[] { 127, 0, 0, 1 });
+    } catch (UnknownHostException uhx) {
+      // Not possible with a 4-byte address
+      throw new IllegalStateException(uhx);
+    }
+  }
+
+  private void startThread(ReceiverThread thread) {
+    synchronized (this.threads) {
+      this.threads.add(thread);
+    }
+    thread.start();
+  }
+
+  private void receiveOPC(Socket socket) {
+    byte[] buffer = new byte[BUFFER_SIZE + OPCConstants.HEADER_LEN];
+    try {
+      DataInputStream input = new DataInputStream(socket.getInputStream());
+      while (true) {
+        input.readFully(buffer, 0, OPCConstants.HEADER_LEN);
+        int length = ((buffer[OPCConstants.INDEX_DATA_LEN_MSB] & 0xff) << 8) | (buffer[OPCConstants.INDEX_DATA_LEN_LSB] & 0xff);
+        input.readFully(buffer, OPCConstants.HEADER_LEN, length);
+        receive(Protocol.OPC, buffer, OPCConstants.HEADER_LEN + length, System.nanoTime());
+      }
+    } catch (IOException iox) {
+      // Connection closed
+    } finally {
+      try {
+        socket.close();
+      } catch (IOException iox) {
+        // Already closed
+      }
+    }
+  }
+
+  /**
+   * Stops listening and closes all sockets
+   */
+  public void stop() {
+    synchronized (this.threads) {
+      for (ReceiverThread thread : this.threads) {
+        thread.interrupt();
+        try {
+          thread.close();
+        } catch (IOException iox) {
+          // Already closed
+        }
+      }
+      this.threads.clear();
+    }
+  }
+
+  /**
+   * Gets every stream that has received packets
+   *
+   * @return Streams, in order of first packet
+   */
+  public List<Stream> getStreams() {
+    synchronized (this.streamList) {
+      return Collections.unmodifiableList(new ArrayList<Stream>(this.streamList));
+    }
+  }
+
+  /**
+   * Gets the stream for a universe, DDP destination or OPC channel
+   *
+   * @param protocol Protocol
+   * @param key Universe, destination or channel number
+   * @return Stream, or null if no packets have been received for it
+   */
+  public Stream getStream(Protocol protocol, int key) {
+    synchronized (this.streamList) {
+      return this.streams[protocol.ordinal()][key & 0xffff];
+    }
+  }
+
+  /**
+   * Gets the total number of packets received on all streams
+   *
+   * @return Packets received
+   */
+  public long getPackets() {
+    long packets = 0;
+    for (Stream stream : getStreams()) {
+      packets += stream.getPackets();
+    }
+    return packets;
+  }
+
+  private Stream stream(Protocol protocol, int key) {
+    Stream[] streams = this.streams[protocol.ordinal()];
+    Stream stream = streams[key];
+    if (stream == null) {
+      synchronized (this.streamList) {
+        // Another receiver thread may have created it since the check above
+        stream = streams[key];
+        if (stream == null) {
+          stream = streams[key] = new Stream(protocol, key);
+          this.streamList.add(stream);
+        }
+      }
+    }
+    return stream;
+  }
+
+  private void receive(Protocol protocol, byte[] data, int length, long nanos) {
+    switch (protocol) {
+    case ARTNET:
+      receiveArtNet(data, length, nanos);
+      break;
+    case SACN:
+      receiveStreamingACN(data, length, nanos);
+      break;
+    case DDP:
+      receiveDDP(data, length, nanos);
+      break;
+    case OPC:
+      receiveOPC(data, length, nanos);
+      break;
+    }
+  }
+
+  private void receiveArtNet(byte[] data, int length, long nanos) {
+    if ((length < 18) || (data[0] != 'A') || (data[1] != 'r') || (data[2] != 't') ||
+        (data[8] != 0x00) || (data[9] != 0x50)) {
+      // Only ArtDmx carries pixel data
+      return;
+    }
+    int universe = (data[14] & 0xff) | ((data[15] & 0x7f) << 8);
+    int dataLength = Math.min(length - 18, ((data[16] & 0xff) << 8) | (data[17] & 0xff));
+    Stream stream = stream(Protocol.ARTNET, universe);
+    synchronized (stream) {
+      stream.arrived(length, nanos, this.engine);
+      stream.sequence(data[12] & 0xff, 256);
+      decodeRGB(stream, data, 18, dataLength, 0);
+    }
+  }
+
+  private void receiveStreamingACN(byte[] data, int length, long nanos) {
+    if ((length < 126) || (data[4] != 'A') || (data[5] != 'S') || (data[6] != 'C') || (data[21] != 0x04)) {
+      // Only data packets carry pixel data
+      return;
+    }
+    int universe = ((data[113] & 0xff) << 8) | (data[114] & 0xff);
+    int count = (((data[123] & 0xff) << 8) | (data[124] & 0xff)) - 1;
+    Stream stream = stream(Protocol.SACN, universe);
+    synchronized (stream) {
+      stream.arrived(length, nanos, this.engine);
+      // E1.31 sequence numbers use the full 8-bit range, including 0
+      stream.sequence((data[111] & 0xff) + 1, 257);
+      decodeRGB(stream, data, 126, Math.min(length - 126, count), 0);
+    }
+  }
+
+  private void receiveDDP(byte[] data, int length, long nanos) {
+    if ((length < 10) || ((data[0] & 0xc0) != 0x40)) {
+      return;
+    }
+    int headerLength = ((data[0] & 0x10) != 0) ? 14 : 10;
+    int offset = ((data[4] & 0xff) << 24) | ((data[5] & 0xff) << 16) | ((data[6] & 0xff) << 8) | (data[7] & 0xff);
+    int dataLength = Math.min(length - headerLength, ((data[8] & 0xff) << 8) | (data[9] & 0xff));
+    // Data type C R TTT SSS, with TTT 3 for RGBW and SSS 4 for 16-bit
+    boolean isRGBW = ((data[2] >> 3) & 0x07) == 3;
+    boolean is16Bit = (data[2] & 0x07) == 4;
+    int channels = isRGBW ? 4 : 3;
+    Stream stream = stream(Protocol.DDP, data[3] & 0xff);
+    synchronized (stream) {
+      stream.arrived(length, nanos, this.engine);
+      stream.sequence(data[1] & 0x0f, 16);
+      if (is16Bit || isRGBW) {
+        // Only the RGB channels are decoded, white is ignored
+        int stride = channels * (is16Bit ? 2 : 1);
+        int step = is16Bit ? 2 : 1;
+        int numPixels = dataLength / stride;
+        int first = offset / stride;
+        stream.ensurePixels(first + numPixels);
+        for (int i = 0, p = headerLength; i < numPixels; ++i, p += stride) {
+          stream.colors[first + i] = 0xff000000 |
+            ((data[p] & 0xff) << 16) |
+            ((data[p + step] & 0xff) << 8) |
+            (data[p + 2*step] & 0xff);
+        }
+      } else {
+        decodeRGB(stream, data, headerLength, dataLength, offset / 3);
+      }
+    }
+  }
+
+  private void receiveOPC(byte[] data, int length, long nanos) {
+    if ((length < OPCConstants.HEADER_LEN) || (data[OPCConstants.INDEX_COMMAND] != OPCConstants.COMMAND_SET_PIXEL_COLORS)) {
+      return;
+    }
+    int dataLength = Math.min(length - OPCConstants.HEADER_LEN,
+      ((data[OPCConstants.INDEX_DATA_LEN_MSB] & 0xff) << 8) | (data[OPCConstants.INDEX_DATA_LEN_LSB] & 0xff));
+    Stream stream = stream(Protocol.OPC, data[OPCConstants.INDEX_CHANNEL] & 0xff);
+    synchronized (stream) {
+      stream.arrived(length, nanos, this.engine);
+      decodeRGB(stream, data, OPCConstants.INDEX_DATA, dataLength, 0);
+    }
+  }
+
+  private static void decodeRGB(Stream stream, byte[] data, int offset, int length, int first) {
+    int numPixels = length / 3;
+    stream.ensurePixels(first + numPixels);
+    int[] colors = stream.colors;
+    for (int i = 0, p = offset; i < numPixels; ++i, p += 3) {
+      colors[first + i] = 0xff000000 | ((data[p] & 0xff) << 16) | ((data[p+1] & 0xff) << 8) | (data[p+2] & 0xff);
+    }
+  }
+
+}
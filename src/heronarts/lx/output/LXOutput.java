@@ -23,7 +23,9 @@ package heronarts.lx.output;
 import heronarts.lx.LX;
 import heronarts.lx.LXComponent;
 import heronarts.lx.color.LXColor;
+import heronarts.lx.color.LXColor16;
 import heronarts.lx.model.LXFixture;
+import heronarts.lx.model.LXModelRemap;
 import heronarts.lx.model.LXPoint;
 import heronarts.lx.parameter.BoundedParameter;
 import heronarts.lx.parameter.BooleanParameter;
@@ -56,7 +58,13 @@ public abstract class LXOutput extends LXComponent {
   /**
    * Buffer with colors for this output, gamma-corrected
    */
-  private final int[] outputColors;
+  private int[] outputColors;
+
+  /**
+   * Buffers for the wide color path, allocated on first use
+   */
+  private long[] outputColors16 = null;
+  private int[] narrowColors = null;
 
   /**
    * Local array for color-conversions
@@ -105,14 +113,37 @@ public abstract class LXOutput extends LXComponent {
     new BoundedParameter("Brightness", 1)
     .setDescription("Level of the output");
 
+  /**
+   * Temporal dithering applied when color correction produces values with
+   * more precision than 8 bits
+   */
+  public final EnumParameter<TemporalDither.Mode> dither =
+    new EnumParameter<TemporalDither.Mode>("Dither", TemporalDither.Mode.OFF)
+    .setDescription("Temporal dithering of corrected output values");
+
+  private final TemporalDither ditherer = new TemporalDither();
+
   /**
    * Time last frame was sent at.
    */
   private long lastFrameMillis = 0;
 
-  private final int[] allWhite;
+  private int[] allWhite;
+
+  private int[] allOff;
+
+  /**
+   * Size of the model after the last model swap, frames of any other size
+   * were rendered for the previous model and are dropped. This is -1 until
+   * a swap has happened.
+   */
+  private int modelSize = -1;
+
+  private int[] preparedOutputColors = null;
+  private int[] preparedAllWhite = null;
+  private int[] preparedAllOff = null;
 
-  private final int[] allOff;
+  private final LX.ModelSwapListener modelSwapListener;
 
   protected LXOutput(LX lx) {
     this(lx, "Output");
@@ -120,20 +151,71 @@ public abstract class LXOutput extends LXComponent {
 
   protected LXOutput(LX lx, String label) {
     super(lx, label);
-    this.outputColors = new int[lx.total];
-    this.allWhite = new int[lx.total];
-    this.allOff = new int[lx.total];
-    for (int i = 0; i < lx.total; ++i) {
-      this.allWhite[i] = LXColor.WHITE;
-      this.allOff[i] = LXColor.BLACK;
-    }
+    prepareArrays(lx.total);
+    swapArrays();
+    lx.addModelSwapListener(this.modelSwapListener = new LX.ModelSwapListener() {
+      public void prepareModel(LX lx, LXModelRemap remap) {
+        prepareArrays(remap.size);
+        onPrepareModel(remap);
+      }
+
+      public void swapModel(LX lx, LXModelRemap remap) {
+        synchronized (LXOutput.this) {
+          if (preparedOutputColors == null || preparedOutputColors.length != remap.size) {
+            prepareArrays(remap.size);
+          }
+          swapArrays();
+          modelSize = remap.size;
+          onSwapModel(remap);
+        }
+      }
+    });
     addParameter("enabled", this.enabled);
     addParameter("mode", this.mode);
     addParameter("fps", this.framesPerSecond);
     addParameter("gamma", this.gammaCorrection);
     addParameter("brightness", this.brightness);
+    addParameter("dither", this.dither);
+  }
+
+  private void prepareArrays(int size) {
+    int[] outputColors = new int[size];
+    int[] allWhite = new int[size];
+    int[] allOff = new int[size];
+    for (int i = 0; i < size; ++i) {
+      allWhite[i] = LXColor.WHITE;
+      allOff[i] = LXColor.BLACK;
+    }
+    this.preparedOutputColors = outputColors;
+    this.preparedAllWhite = allWhite;
+    this.preparedAllOff = allOff;
+  }
+
+  private void swapArrays() {
+    this.outputColors = this.preparedOutputColors;
+    this.allWhite = this.preparedAllWhite;
+    this.allOff = this.preparedAllOff;
+    this.preparedOutputColors = this.preparedAllWhite = this.preparedAllOff = null;
   }
 
+  /**
+   * Subclasses may override to prepare for a new model, invoked on a
+   * background thread while frames are still being sent for the previous
+   * model. Remapped point indices should be computed here.
+   *
+   * @param remap Correspondence between the previous and new models
+   */
+  protected /* abstract */ void onPrepareModel(LXModelRemap remap) {}
+
+  /**
+   * Subclasses may override to switch over to state prepared for a new
+   * model. This is invoked between frames on the engine thread, with no
+   * frame being sent.
+   *
+   * @param remap Correspondence between the previous and new models
+   */
+  protected /* abstract */ void onSwapModel(LXModelRemap remap) {}
+
   /**
    * Adds a child to this output, sent after color-correction
    *
@@ -157,14 +239,20 @@ public abstract class LXOutput extends LXComponent {
     return this;
   }
 
+  @Override
+  public void dispose() {
+    getLX().removeModelSwapListener(this.modelSwapListener);
+    super.dispose();
+  }
+
   /**
    * Sends data to this output, after applying throttle and color correction
    *
    * @param colors Array of color values
    * @return this
    */
-  public final LXOutput send(int[] colors) {
-    if (!this.enabled.isOn()) {
+  public final synchronized LXOutput send(int[] colors) {
+    if (!this.enabled.isOn() || ((this.modelSize >= 0) && (colors.length != this.modelSize))) {
       return this;
     }
     long now = System.currentTimeMillis();
@@ -194,7 +282,29 @@ public abstract class LXOutput extends LXComponent {
         colorsToSend = colors;
         int gamma = this.gammaCorrection.getValuei();
         double brt = this.brightness.getValuef();
-        if (gamma > 0 || brt < 1) {
+        TemporalDither.Mode ditherMode = this.dither.getEnum();
+        if ((gamma > 0 || brt < 1) && (ditherMode != TemporalDither.Mode.OFF)) {
+          // Compute the correction at 16-bit precision and dither down
+          this.ditherer.beginFrame(ditherMode, colorsToSend.length);
+          for (int i = 0; i < colorsToSend.length; ++i) {
+            int rgb = colorsToSend[i];
+            int r = (rgb >> 16) & 0xff;
+            int g = (rgb >> 8) & 0xff;
+            int b = rgb & 0xff;
+            float v = Math.max(r, Math.max(g, b)) / 255.f;
+            float scale = (float) brt * 257.f;
+            for (int x = 0; x < gamma; ++x) {
+              scale *= v;
+            }
+            this.outputColors[i] = this.ditherer.dither(i,
+              (int) (r * scale + 0.5f),
+              (int) (g * scale + 0.5f),
+              (int) (b * scale + 0.5f),
+              rgb >>> 24
+            );
+          }
+          colorsToSend = this.outputColors;
+        } else if (gamma > 0 || brt < 1) {
           int r, g, b, rgb;
           for (int i = 0; i < colorsToSend.length; ++i) {
             rgb = colorsToSend[i];
@@ -224,10 +334,116 @@ public abstract class LXOutput extends LXComponent {
     return this;
   }
 
+  /**
+   * Sends wide color data to this output, after applying throttle and color
+   * correction. Correction is performed at 16-bit precision, so dim values
+   * are not quantized before they reach outputs that can make use of them.
+   * Children are sent the wide data as well.
+   *
+   * @param colors16 Array of 16-bit per channel color values
+   * @return this
+   */
+  public final synchronized LXOutput send(long[] colors16) {
+    if (!this.enabled.isOn() || ((this.modelSize >= 0) && (colors16.length != this.modelSize))) {
+      return this;
+    }
+    long now = System.currentTimeMillis();
+    double fps = this.framesPerSecond.getValue();
+    if ((fps == 0) || ((now - this.lastFrameMillis) > (1000. / fps))) {
+      if ((this.outputColors16 == null) || (this.outputColors16.length != colors16.length)) {
+        this.outputColors16 = new long[colors16.length];
+        this.narrowColors = new int[colors16.length];
+      }
+      long[] colorsToSend = this.outputColors16;
+
+      switch (this.mode.getEnum()) {
+      case WHITE:
+        long white = LXColor16.scaleBrightness(LXColor16.WHITE, this.brightness.getValue());
+        for (int i = 0; i < colorsToSend.length; ++i) {
+          colorsToSend[i] = white;
+        }
+        break;
+
+      case OFF:
+        for (int i = 0; i < colorsToSend.length; ++i) {
+          colorsToSend[i] = LXColor16.BLACK;
+        }
+        break;
+
+      case RAW:
+        colorsToSend = colors16;
+        break;
+
+      default:
+      case NORMAL:
+        int gamma = this.gammaCorrection.getValuei();
+        float brt = this.brightness.getValuef();
+        if (gamma > 0 || brt < 1) {
+          // Equivalent to scaling HSB brightness by v^gamma, as in the 8-bit
+          // path, which scales every channel uniformly
+          for (int i = 0; i < colors16.length; ++i) {
+            long argb = colors16[i];
+            int r = LXColor16.red(argb);
+            int g = LXColor16.green(argb);
+            int b = LXColor16.blue(argb);
+            float v = Math.max(r, Math.max(g, b)) / (float) LXColor16.MAX;
+            float scale = brt;
+            for (int x = 0; x < gamma; ++x) {
+              scale *= v;
+            }
+            colorsToSend[i] = LXColor16.rgba(
+              (int) (r * scale + 0.5f),
+              (int) (g * scale + 0.5f),
+              (int) (b * scale + 0.5f),
+              LXColor16.alpha(argb)
+            );
+          }
+        } else {
+          colorsToSend = colors16;
+        }
+        break;
+      }
+
+      TemporalDither.Mode ditherMode = this.dither.getEnum();
+      if (ditherMode == TemporalDither.Mode.OFF) {
+        LXColor16.narrow(colorsToSend, this.narrowColors);
+      } else {
+        this.ditherer.beginFrame(ditherMode, colorsToSend.length);
+        for (int i = 0; i < colorsToSend.length; ++i) {
+          long argb = colorsToSend[i];
+          this.narrowColors[i] = this.ditherer.dither(i,
+            LXColor16.red(argb),
+            LXColor16.green(argb),
+            LXColor16.blue(argb),
+            LXColor16.narrow(LXColor16.alpha(argb))
+          );
+        }
+      }
+      this.onSend(colorsToSend, this.narrowColors);
+
+      for (LXOutput child : this.children) {
+        child.send(colorsToSend);
+      }
+      this.lastFrameMillis = now;
+    }
+    return this;
+  }
+
   /**
    * Subclasses implement this to send the data.
    *
    * @param colors Color values
    */
   protected abstract void onSend(int[] colors);
+
+  /**
+   * Subclasses may override to make use of wide color data. The default
+   * implementation sends the narrowed 8-bit values.
+   *
+   * @param colors16 Wide color values
+   * @param colors Color values narrowed to 8-bit
+   */
+  protected void onSend(long[] colors16, int[] colors) {
+    onSend(colors);
+  }
 }
\ No newline at end of file
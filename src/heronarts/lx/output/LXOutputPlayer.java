@@ -0,0 +1,345 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * @author Mark C. Slee <mark@heronarts.com>
+ */
+
+package heronarts.lx.output;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Replays a file written by {@link LXOutputRecorder} into an output, with the
+ * frame timing of the original recording. The file is memory-mapped and
+ * indexed when opened, and frames are decoded straight from the mapping on a
+ * playback thread, so no pattern engine is needed to drive the output.
+ *
+ * Recorded frames are already color-corrected, so the output they are played
+ * into should be left at its default brightness and gamma, or set to RAW
+ * mode.
+ */
+public class LXOutputPlayer {
+
+  public final File file;
+
+  private final LXOutput output;
+
+  private final MappedByteBuffer buffer;
+
+  // Position of the payload, timestamp and encoding of every frame
+  private final int[] offsets;
+  private final long[] timestamps;
+  private final boolean[] keyframes;
+
+  private final Object lock = new Object();
+
+  private int[] colors = new int[0];
+
+  // Next frame to send, and frame whose state is currently in colors
+  private int frame = 0;
+  private int decoded = -1;
+
+  private boolean playing = false;
+  private boolean looping = false;
+
+  // Playback clock, the time at which the recording's zero timestamp falls
+  private long startNanos = 0;
+
+  private final PlayerThread thread;
+
+  /**
+   * Opens a recording for playback into an output
+   *
+   * @param file Recording file
+   * @param output Output to send frames to
+   * @throws IOException if the file could not be read, or is not a recording
+   */
+  public LXOutputPlayer(File file, LXOutput output) throws IOException {
+    this.file = file;
+    this.output = output;
+
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        throw new IOException("Recording is too large to map: " + file);
+      }
+      this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    } finally {
+      raf.close();
+    }
+
+    if (this.buffer.limit() < LXOutputRecorder.FILE_HEADER_LENGTH) {
+      throw new IOException("Not an output recording: " + file);
+    }
+    for (int i = 0; i < LXOutputRecorder.MAGIC.length; ++i) {
+      if (this.buffer.get(i) != LXOutputRecorder.MAGIC[i]) {
+        throw new IOException("Not an output recording: " + file);
+      }
+    }
+    int version = this.buffer.getInt(LXOutputRecorder.MAGIC.length);
+    if (version != LXOutputRecorder.VERSION) {
+      throw new IOException("Unsupported output recording version " + version + ": " + file);
+    }
+
+    // Index every complete frame, a truncated frame at the end is ignored
+    int numFrames = 0;
+    int position = LXOutputRecorder.FILE_HEADER_LENGTH;
+    while (position + LXOutputRecorder.FRAME_HEADER_LENGTH <= this.buffer.limit()) {
+      int length = this.buffer.getInt(position + 13);
+      if (position + LXOutputRecorder.FRAME_HEADER_LENGTH + length > this.buffer.limit()) {
+        break;
+      }
+      position += LXOutputRecorder.FRAME_HEADER_LENGTH + length;
+      ++numFrames;
+    }
+    this.offsets = new int[numFrames];
+    this.timestamps = new long[numFrames];
+    this.keyframes = new boolean[numFrames];
+    position = LXOutputRecorder.FILE_HEADER_LENGTH;
+    for (int i = 0; i < numFrames; ++i) {
+      this.timestamps[i] = this.buffer.getLong(position);
+      this.keyframes[i] = (this.buffer.get(position + 12) == LXOutputRecorder.ENCODING_RAW);
+      this.offsets[i] = position;
+      position += LXOutputRecorder.FRAME_HEADER_LENGTH + this.buffer.getInt(position + 13);
+    }
+
+    this.thread = new PlayerThread();
+    this.thread.start();
+  }
+
+  /**
+   * Gets the number of frames in the recording
+   *
+   * @return Number of frames
+   */
+  public int getFrameCount() {
+    return this.offsets.length;
+  }
+
+  /**
+   * Gets the timestamp of the last frame in the recording
+   *
+   * @return Duration in milliseconds
+   */
+  public long getDurationMillis() {
+    return (this.offsets.length == 0) ? 0 : this.timestamps[this.offsets.length - 1] / 1000000;
+  }
+
+  /**
+   * Gets the index of the next frame to be sent
+   *
+   * @return Frame index
+   */
+  public int getFrame() {
+    synchronized (this.lock) {
+      return this.frame;
+    }
+  }
+
+  /**
+   * Sets whether playback returns to the start at the end of the recording
+   *
+   * @param looping Whether to loop
+   * @return this
+   */
+  public LXOutputPlayer setLooping(boolean looping) {
+    synchronized (this.lock) {
+      this.looping = looping;
+    }
+    return this;
+  }
+
+  /**
+   * Starts or resumes playback from the current frame
+   *
+   * @return this
+   */
+  public LXOutputPlayer play() {
+    synchronized (this.lock) {
+      if (!this.playing) {
+        this.playing = true;
+        resetClock();
+        this.lock.notify();
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Pauses playback, the current frame is kept
+   *
+   * @return this
+   */
+  public LXOutputPlayer pause() {
+    synchronized (this.lock) {
+      this.playing = false;
+      this.lock.notify();
+    }
+    return this;
+  }
+
+  /**
+   * Moves playback to the frame at or after a time in the recording
+   *
+   * @param millis Time in milliseconds from the start of the recording
+   * @return this
+   */
+  public LXOutputPlayer seekMillis(long millis) {
+    long nanos = millis * 1000000;
+    int low = 0;
+    int high = this.offsets.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (this.timestamps[mid] < nanos) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return seekFrame(low);
+  }
+
+  /**
+   * Moves playback to a frame
+   *
+   * @param frame Frame index
+   * @return this
+   */
+  public LXOutputPlayer seekFrame(int frame) {
+    synchronized (this.lock) {
+      this.frame = Math.max(0, Math.min(this.offsets.length, frame));
+      resetClock();
+      this.lock.notify();
+    }
+    return this;
+  }
+
+  /**
+   * Stops playback and releases the playback thread
+   */
+  public void dispose() {
+    this.thread.interrupt();
+  }
+
+  private void resetClock() {
+    if (this.frame < this.offsets.length) {
+      this.startNanos = System.nanoTime() - this.timestamps[this.frame];
+    }
+  }
+
+  /**
+   * Decodes a frame into the colors buffer, starting from the nearest
+   * keyframe unless the previous frame is already decoded
+   */
+  private void decode(int frame) {
+    int from = frame;
+    if (this.decoded != frame - 1) {
+      while ((from > 0) && !this.keyframes[from]) {
+        --from;
+      }
+    }
+    for (int f = from; f <= frame; ++f) {
+      int position = this.offsets[f];
+      int n = this.buffer.getInt(position + 8);
+      int length = this.buffer.getInt(position + 13);
+      int p = position + LXOutputRecorder.FRAME_HEADER_LENGTH;
+      int end = p + length;
+      if (this.colors.length != n) {
+        this.colors = new int[n];
+      }
+      int[] colors = this.colors;
+      if (this.keyframes[f]) {
+        for (int i = 0; i < n; ++i, p += 3) {
+          colors[i] = 0xff000000 |
+            ((this.buffer.get(p) & 0xff) << 16) |
+            ((this.buffer.get(p+1) & 0xff) << 8) |
+            (this.buffer.get(p+2) & 0xff);
+        }
+      } else {
+        int i = 0;
+        while (p < end) {
+          i += this.buffer.getShort(p) & 0xffff;
+          int count = this.buffer.getShort(p + 2) & 0xffff;
+          p += 4;
+          for (int j = 0; j < count; ++j, ++i, p += 3) {
+            colors[i] = 0xff000000 |
+              ((this.buffer.get(p) & 0xff) << 16) |
+              ((this.buffer.get(p+1) & 0xff) << 8) |
+              (this.buffer.get(p+2) & 0xff);
+          }
+        }
+      }
+    }
+    this.decoded = frame;
+  }
+
+  private class PlayerThread extends Thread {
+
+    private PlayerThread() {
+      super("LXOutputPlayer " + file.getName());
+      setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+      while (!isInterrupted()) {
+        int[] colors;
+        synchronized (lock) {
+          try {
+            if (!playing || (offsets.length == 0)) {
+              lock.wait();
+              continue;
+            }
+            if (frame >= offsets.length) {
+              if (looping) {
+                frame = 0;
+                resetClock();
+              } else {
+                playing = false;
+                continue;
+              }
+            }
+            long waitNanos = startNanos + timestamps[frame] - System.nanoTime();
+            if (waitNanos > 0) {
+              // Woken early by seek or pause, which change what is due
+              lock.wait(waitNanos / 1000000, (int) (waitNanos % 1000000));
+              continue;
+            }
+          } catch (InterruptedException ix) {
+            break;
+          }
+          decode(frame);
+          ++frame;
+          colors = LXOutputPlayer.this.colors;
+        }
+        try {
+          output.send(colors);
+        } catch (Exception x) {
+          System.err.println("Exception in output " + output.getLabel() + ": " + x.getLocalizedMessage());
+          x.printStackTrace();
+        }
+      }
+    }
+  }
+
+}
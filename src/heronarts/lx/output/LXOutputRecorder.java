@@ -0,0 +1,307 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * @author Mark C. Slee <mark@heronarts.com>
+ */
+
+package heronarts.lx.output;
+
+import heronarts.lx.LX;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Records every frame it is sent to a file, for later analysis or replay with
+ * {@link LXOutputPlayer}. Add the recorder as a child of the output to be
+ * captured, and it receives exactly the color-corrected frames that output
+ * sends. Frames are copied into a small pool of buffers and written to disk
+ * on a background thread, so the engine never waits on the disk. If the
+ * writer falls behind and the pool is exhausted, frames are dropped and
+ * counted.
+ *
+ * The file starts with the magic bytes "LXFR" and a 32-bit format version.
+ * Each frame then has a header of its timestamp in nanoseconds since the
+ * start of recording (64-bit), point count (32-bit), encoding (8-bit) and
+ * payload length (32-bit), all big-endian. A RAW payload is 3 bytes of RGB
+ * per point. A DELTA payload holds only the points changed since the
+ * previous frame, as a sequence of segments, each a 16-bit count of
+ * unchanged points to skip, a 16-bit count of changed points, and the RGB
+ * bytes of the changed points. A RAW keyframe is written at a regular
+ * interval so that replay can seek without decoding the whole file.
+ */
+public class LXOutputRecorder extends LXOutput {
+
+  static final byte[] MAGIC = { 'L', 'X', 'F', 'R' };
+  static final int VERSION = 1;
+
+  static final int FILE_HEADER_LENGTH = 8;
+  static final int FRAME_HEADER_LENGTH = 17;
+
+  static final byte ENCODING_RAW = 0;
+  static final byte ENCODING_DELTA = 1;
+
+  static final int MAX_SEGMENT = 0xffff;
+
+  public static final int DEFAULT_KEYFRAME_INTERVAL = 60;
+
+  private static final int POOL_SIZE = 8;
+
+  private static class Frame {
+    private int[] colors = new int[0];
+    private long nanos = 0;
+  }
+
+  public final File file;
+
+  private final DataOutputStream output;
+
+  private final BlockingQueue<Frame> free = new ArrayBlockingQueue<Frame>(POOL_SIZE);
+  private final BlockingQueue<Frame> queue = new ArrayBlockingQueue<Frame>(POOL_SIZE);
+
+  private final WriterThread thread;
+
+  private volatile int keyframeInterval = DEFAULT_KEYFRAME_INTERVAL;
+
+  private long startNanos = -1;
+
+  private volatile long recordedFrames = 0;
+  private volatile long droppedFrames = 0;
+
+  /**
+   * Creates a recorder writing to a new file, replacing any existing file
+   *
+   * @param lx LX instance
+   * @param file File to write
+   * @throws IOException if the file could not be created
+   */
+  public LXOutputRecorder(LX lx, File file) throws IOException {
+    super(lx, "Recorder");
+    this.file = file;
+    this.output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+    this.output.write(MAGIC);
+    this.output.writeInt(VERSION);
+    for (int i = 0; i < POOL_SIZE; ++i) {
+      this.free.add(new Frame());
+    }
+    this.thread = new WriterThread();
+    this.thread.start();
+  }
+
+  /**
+   * Sets the number of frames between RAW keyframes
+   *
+   * @param keyframeInterval Frames between keyframes
+   * @return this
+   */
+  public LXOutputRecorder setKeyframeInterval(int keyframeInterval) {
+    if (keyframeInterval < 1) {
+      throw new IllegalArgumentException("LXOutputRecorder keyframe interval must be positive: " + keyframeInterval);
+    }
+    this.keyframeInterval = keyframeInterval;
+    return this;
+  }
+
+  /**
+   * Gets the number of frames written to the file
+   *
+   * @return Frames recorded
+   */
+  public long getRecordedFrames() {
+    return this.recordedFrames;
+  }
+
+  /**
+   * Gets the number of frames dropped because the writer fell behind
+   *
+   * @return Frames dropped
+   */
+  public long getDroppedFrames() {
+    return this.droppedFrames;
+  }
+
+  @Override
+  protected void onSend(int[] colors) {
+    Frame frame = this.free.poll();
+    if (frame == null) {
+      ++this.droppedFrames;
+      return;
+    }
+    long now = System.nanoTime();
+    if (this.startNanos < 0) {
+      this.startNanos = now;
+    }
+    frame.nanos = now - this.startNanos;
+    if (frame.colors.length != colors.length) {
+      frame.colors = new int[colors.length];
+    }
+    System.arraycopy(colors, 0, frame.colors, 0, colors.length);
+    this.queue.add(frame);
+  }
+
+  /**
+   * Stops recording. Frames already handed to the writer are written, and
+   * the file is closed.
+   */
+  @Override
+  public void dispose() {
+    this.thread.interrupt();
+    try {
+      this.thread.join();
+    } catch (InterruptedException ix) {
+      Thread.currentThread().interrupt();
+    }
+    super.dispose();
+  }
+
+  private class WriterThread extends Thread {
+
+    private int[] previous = null;
+    private byte[] payload = new byte[0];
+    private int sinceKeyframe = 0;
+
+    private WriterThread() {
+      super("LXOutputRecorder " + file.getName());
+      setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          Frame frame;
+          try {
+            frame = queue.take();
+          } catch (InterruptedException ix) {
+            break;
+          }
+          write(frame);
+        }
+        // Finish off anything still queued
+        Frame frame;
+        while ((frame = queue.poll()) != null) {
+          write(frame);
+        }
+      } catch (IOException iox) {
+        System.err.println("Error writing output recording " + file + ": " + iox.getLocalizedMessage());
+        iox.printStackTrace();
+      } finally {
+        try {
+          output.close();
+        } catch (IOException iox) {
+          System.err.println("Error closing output recording " + file + ": " + iox.getLocalizedMessage());
+        }
+      }
+    }
+
+    private void write(Frame frame) throws IOException {
+      int[] colors = frame.colors;
+      int n = colors.length;
+      if (this.payload.length < 3*n + 4) {
+        this.payload = new byte[3*n + 4];
+      }
+
+      byte encoding = ENCODING_RAW;
+      int length = -1;
+      boolean keyframe = (this.previous == null) || (this.previous.length != n) ||
+        (++this.sinceKeyframe >= keyframeInterval);
+      if (!keyframe) {
+        length = encodeDelta(colors);
+        if (length >= 0) {
+          encoding = ENCODING_DELTA;
+        }
+      }
+      if (length < 0) {
+        length = encodeRaw(colors);
+        this.sinceKeyframe = 0;
+      }
+
+      output.writeLong(frame.nanos);
+      output.writeInt(n);
+      output.writeByte(encoding);
+      output.writeInt(length);
+      output.write(this.payload, 0, length);
+      ++recordedFrames;
+
+      if ((this.previous == null) || (this.previous.length != n)) {
+        this.previous = new int[n];
+      }
+      System.arraycopy(colors, 0, this.previous, 0, n);
+      free.add(frame);
+    }
+
+    private int encodeRaw(int[] colors) {
+      byte[] payload = this.payload;
+      int p = 0;
+      for (int color : colors) {
+        payload[p++] = (byte) (color >> 16);
+        payload[p++] = (byte) (color >> 8);
+        payload[p++] = (byte) color;
+      }
+      return p;
+    }
+
+    /**
+     * Encodes the points changed since the previous frame, returning the
+     * length of the payload, or -1 if it would be no smaller than RAW
+     */
+    private int encodeDelta(int[] colors) {
+      int[] previous = this.previous;
+      byte[] payload = this.payload;
+      int n = colors.length;
+      int limit = 3 * n;
+      int p = 0;
+      int i = 0;
+      while (i < n) {
+        int skip = 0;
+        while ((i < n) && (skip < MAX_SEGMENT) && ((colors[i] & 0xffffff) == (previous[i] & 0xffffff))) {
+          ++i;
+          ++skip;
+        }
+        int count = 0;
+        int start = i;
+        while ((i < n) && (count < MAX_SEGMENT) && ((colors[i] & 0xffffff) != (previous[i] & 0xffffff))) {
+          ++i;
+          ++count;
+        }
+        if ((count == 0) && (i == n)) {
+          break;
+        }
+        if (p + 4 + 3*count >= limit) {
+          return -1;
+        }
+        payload[p++] = (byte) (skip >> 8);
+        payload[p++] = (byte) skip;
+        payload[p++] = (byte) (count >> 8);
+        payload[p++] = (byte) count;
+        for (int j = start; j < i; ++j) {
+          int color = colors[j];
+          payload[p++] = (byte) (color >> 16);
+          payload[p++] = (byte) (color >> 8);
+          payload[p++] = (byte) color;
+        }
+      }
+      return p;
+    }
+  }
+
+}
@@ -0,0 +1,158 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * @author Mark C. Slee <mark@heronarts.com>
+ */
+
+package heronarts.lx.output;
+
+import java.util.List;
+
+/**
+ * A compiled plan for packing colors into the buffers of a set of datagrams.
+ * Every pixel of every plannable datagram is flattened into parallel arrays
+ * of source point index and destination byte offsets, with each datagram's
+ * byte order already applied, so that each datagram is packed in a single
+ * loop with no per-pixel lookups. Outputs pack a datagram in place of its
+ * onSend(), once they have decided to send it.
+ *
+ * A plan is invalidated when datagrams are added, or when any datagram's
+ * byte order or point indices change.
+ */
+final class LXPackingPlan {
+
+  private final LXDatagram[] datagrams;
+
+  private final int[] revisions;
+
+  /**
+   * Whether each datagram is packed by this plan
+   */
+  private final boolean[] planned;
+
+  /**
+   * First pixel of each datagram, with an extra entry for the end
+   */
+  private final int[] start;
+
+  /**
+   * Source point index of each pixel, -1 for black
+   */
+  private final int[] src;
+
+  /**
+   * Destination offsets of the red, green and blue bytes of each pixel
+   */
+  private final int[] dst;
+
+  private LXPackingPlan(List<LXDatagram> datagrams) {
+    int numDatagrams = datagrams.size();
+    this.datagrams = datagrams.toArray(new LXDatagram[numDatagrams]);
+    this.revisions = new int[numDatagrams];
+    this.planned = new boolean[numDatagrams];
+    this.start = new int[numDatagrams + 1];
+
+    int numPixels = 0;
+    for (int d = 0; d < numDatagrams; ++d) {
+      LXDatagram datagram = this.datagrams[d];
+      this.revisions[d] = datagram.revision;
+      this.planned[d] = datagram.isPlannable();
+      this.start[d] = numPixels;
+      if (this.planned[d]) {
+        numPixels += datagram.pointIndices.length;
+      }
+    }
+    this.start[numDatagrams] = numPixels;
+
+    this.src = new int[numPixels];
+    this.dst = new int[3 * numPixels];
+    for (int d = 0; d < numDatagrams; ++d) {
+      if (this.planned[d]) {
+        LXDatagram datagram = this.datagrams[d];
+        int[] byteOffset = LXDatagram.BYTE_ORDERING[datagram.byteOrder.ordinal()];
+        int offset = datagram.dataOffset;
+        int p = this.start[d];
+        for (int index : datagram.pointIndices) {
+          this.src[p] = index;
+          this.dst[3*p] = offset + byteOffset[0];
+          this.dst[3*p + 1] = offset + byteOffset[1];
+          this.dst[3*p + 2] = offset + byteOffset[2];
+          offset += 3;
+          ++p;
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns a plan for the datagrams, reusing the given plan if it is still
+   * valid
+   *
+   * @param plan Previously compiled plan, may be null
+   * @param datagrams Datagrams to pack
+   * @return Valid plan for these datagrams
+   */
+  static LXPackingPlan compile(LXPackingPlan plan, List<LXDatagram> datagrams) {
+    if ((plan == null) || !plan.isValid(datagrams)) {
+      plan = new LXPackingPlan(datagrams);
+    }
+    return plan;
+  }
+
+  private boolean isValid(List<LXDatagram> datagrams) {
+    if (datagrams.size() != this.datagrams.length) {
+      return false;
+    }
+    for (int d = 0; d < this.datagrams.length; ++d) {
+      LXDatagram datagram = datagrams.get(d);
+      if ((datagram != this.datagrams[d]) || (datagram.revision != this.revisions[d])) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Whether a datagram is packed by this plan, rather than by its onSend()
+   *
+   * @param d Position of datagram
+   * @return True if packed by this plan
+   */
+  boolean isPlanned(int d) {
+    return this.planned[d];
+  }
+
+  /**
+   * Packs the colors into a planned datagram
+   *
+   * @param d Position of datagram
+   * @param colors Color buffer
+   */
+  void pack(int d, int[] colors) {
+    int[] src = this.src;
+    int[] dst = this.dst;
+    byte[] buffer = this.datagrams[d].buffer;
+    for (int p = this.start[d], end = this.start[d+1]; p < end; ++p) {
+      int index = src[p];
+      int color = (index >= 0) ? colors[index] : 0;
+      buffer[dst[3*p]] = (byte) (color >> 16);
+      buffer[dst[3*p + 1]] = (byte) (color >> 8);
+      buffer[dst[3*p + 2]] = (byte) color;
+    }
+  }
+
+}
@@ -0,0 +1,217 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * @author Mark C. Slee <mark@heronarts.com>
+ */
+
+package heronarts.lx.output;
+
+import heronarts.lx.color.LXColor16;
+
+/**
+ * Layout of the data for a single pixel in an output buffer. Formats with a
+ * white channel extract it from the RGB color as they pack, using a
+ * precomputed {@link WhiteExtraction}, so no separate pass over the colors
+ * is needed. 16-bit formats are sent most significant byte first, and 8-bit
+ * colors are expanded to fill the full range.
+ *
+ * The channel order of the 3-channel formats may be changed with the
+ * datagram's byte order, the white formats have a fixed order.
+ */
+public enum LXPixelFormat {
+
+  RGB(1, 0, 1, 2, -1),
+  RGBW(1, 0, 1, 2, 3),
+  GRBW(1, 1, 0, 2, 3),
+  RGB16(2, 0, 1, 2, -1),
+  RGBW16(2, 0, 1, 2, 3);
+
+  /**
+   * Number of bytes in the buffer for each pixel
+   */
+  public final int bytesPerPixel;
+
+  /**
+   * Number of bytes for each channel, 1 or 2
+   */
+  public final int bytesPerChannel;
+
+  private final int[] order;
+  private final int white;
+
+  private LXPixelFormat(int bytesPerChannel, int red, int green, int blue, int white) {
+    this.bytesPerChannel = bytesPerChannel;
+    this.bytesPerPixel = bytesPerChannel * ((white >= 0) ? 4 : 3);
+    this.order = new int[] { red, green, blue };
+    this.white = white;
+  }
+
+  /**
+   * Whether this format has a white channel
+   *
+   * @return True if a white channel is sent
+   */
+  public boolean hasWhite() {
+    return this.white >= 0;
+  }
+
+  /**
+   * Whether this format has 16 bits per channel
+   *
+   * @return True if 16-bit
+   */
+  public boolean is16Bit() {
+    return this.bytesPerChannel == 2;
+  }
+
+  /**
+   * Packs colors into a buffer in this format
+   *
+   * @param buffer Output buffer
+   * @param offset Offset in the buffer of the first pixel
+   * @param colors Color values
+   * @param pointIndices Indices of the points to pack, -1 for black
+   * @param byteOrder Order of the RGB channels, used only by formats without white
+   * @param extraction White extraction, used only by formats with white
+   */
+  public void pack(byte[] buffer, int offset, int[] colors, int[] pointIndices, LXDatagram.ByteOrder byteOrder, WhiteExtraction extraction) {
+    int[] order = channelOrder(byteOrder);
+    int pr = offset + this.bytesPerChannel * order[0];
+    int pg = offset + this.bytesPerChannel * order[1];
+    int pb = offset + this.bytesPerChannel * order[2];
+    int pw = offset + this.bytesPerChannel * this.white;
+    int stride = this.bytesPerPixel;
+    boolean hasWhite = hasWhite();
+
+    if (!is16Bit()) {
+      int[] whiteR = extraction.whiteR, whiteG = extraction.whiteG, whiteB = extraction.whiteB;
+      int[] subtractR = extraction.subtractR, subtractG = extraction.subtractG, subtractB = extraction.subtractB;
+      for (int index : pointIndices) {
+        int color = (index >= 0) ? colors[index] : 0;
+        int r = (color >> 16) & 0xff;
+        int g = (color >> 8) & 0xff;
+        int b = color & 0xff;
+        if (hasWhite) {
+          int w = Math.min(whiteR[r], Math.min(whiteG[g], whiteB[b]));
+          r -= subtractR[w];
+          g -= subtractG[w];
+          b -= subtractB[w];
+          buffer[pw] = (byte) w;
+          pw += stride;
+        }
+        buffer[pr] = (byte) r;
+        buffer[pg] = (byte) g;
+        buffer[pb] = (byte) b;
+        pr += stride;
+        pg += stride;
+        pb += stride;
+      }
+    } else {
+      for (int index : pointIndices) {
+        int color = (index >= 0) ? colors[index] : 0;
+        int r = ((color >> 16) & 0xff) * 257;
+        int g = ((color >> 8) & 0xff) * 257;
+        int b = (color & 0xff) * 257;
+        if (hasWhite) {
+          int w = white16(r, g, b, extraction);
+          r -= (int) ((w * extraction.subtractR16) >> 16);
+          g -= (int) ((w * extraction.subtractG16) >> 16);
+          b -= (int) ((w * extraction.subtractB16) >> 16);
+          put16(buffer, pw, w);
+          pw += stride;
+        }
+        put16(buffer, pr, r);
+        put16(buffer, pg, g);
+        put16(buffer, pb, b);
+        pr += stride;
+        pg += stride;
+        pb += stride;
+      }
+    }
+  }
+
+  /**
+   * Packs wide colors into a buffer in this format. 8-bit formats are sent
+   * the most significant byte of each channel.
+   *
+   * @param buffer Output buffer
+   * @param offset Offset in the buffer of the first pixel
+   * @param colors16 Wide color values
+   * @param pointIndices Indices of the points to pack, -1 for black
+   * @param byteOrder Order of the RGB channels, used only by formats without white
+   * @param extraction White extraction, used only by formats with white
+   */
+  public void pack16(byte[] buffer, int offset, long[] colors16, int[] pointIndices, LXDatagram.ByteOrder byteOrder, WhiteExtraction extraction) {
+    int[] order = channelOrder(byteOrder);
+    int pr = offset + this.bytesPerChannel * order[0];
+    int pg = offset + this.bytesPerChannel * order[1];
+    int pb = offset + this.bytesPerChannel * order[2];
+    int pw = offset + this.bytesPerChannel * this.white;
+    int stride = this.bytesPerPixel;
+    boolean hasWhite = hasWhite();
+    boolean is16Bit = is16Bit();
+
+    for (int index : pointIndices) {
+      long color = (index >= 0) ? colors16[index] : 0;
+      int r = LXColor16.red(color);
+      int g = LXColor16.green(color);
+      int b = LXColor16.blue(color);
+      if (hasWhite) {
+        int w = white16(r, g, b, extraction);
+        r -= (int) ((w * extraction.subtractR16) >> 16);
+        g -= (int) ((w * extraction.subtractG16) >> 16);
+        b -= (int) ((w * extraction.subtractB16) >> 16);
+        if (is16Bit) {
+          put16(buffer, pw, w);
+        } else {
+          buffer[pw] = (byte) (w >>> 8);
+        }
+        pw += stride;
+      }
+      if (is16Bit) {
+        put16(buffer, pr, r);
+        put16(buffer, pg, g);
+        put16(buffer, pb, b);
+      } else {
+        buffer[pr] = (byte) (r >>> 8);
+        buffer[pg] = (byte) (g >>> 8);
+        buffer[pb] = (byte) (b >>> 8);
+      }
+      pr += stride;
+      pg += stride;
+      pb += stride;
+    }
+  }
+
+  private int[] channelOrder(LXDatagram.ByteOrder byteOrder) {
+    if (hasWhite() || (byteOrder == null)) {
+      return this.order;
+    }
+    return LXDatagram.BYTE_ORDERING[byteOrder.ordinal()];
+  }
+
+  private static int white16(int r, int g, int b, WhiteExtraction extraction) {
+    long w = Math.min((r * extraction.whiteR16) >> 16, Math.min((g * extraction.whiteG16) >> 16, (b * extraction.whiteB16) >> 16));
+    return (int) Math.min(LXColor16.MAX, w);
+  }
+
+  private static void put16(byte[] buffer, int position, int value) {
+    buffer[position] = (byte) (value >>> 8);
+    buffer[position + 1] = (byte) value;
+  }
+
+}
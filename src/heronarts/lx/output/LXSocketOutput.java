@@ -21,72 +21,265 @@
 package heronarts.lx.output;
 
 import java.io.IOException;
-import java.io.OutputStream;
-import java.net.ConnectException;
 import java.net.InetSocketAddress;
-import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
 
 import heronarts.lx.LX;
+import heronarts.lx.parameter.BooleanParameter;
+import heronarts.lx.parameter.EnumParameter;
 
+/**
+ * An output that streams packets over a TCP connection. The connection is
+ * made and written with a non-blocking channel, so a server that is down or
+ * slow never stalls the engine. Connection attempts are made from onSend(),
+ * backing off exponentially while the server is unreachable. If the previous
+ * frame has not been fully written when the next one is due, the new frame is
+ * dropped rather than queued.
+ */
 public abstract class LXSocketOutput extends LXOutput {
 
+  public enum State {
+    DISCONNECTED,
+    CONNECTING,
+    CONNECTED
+  };
+
+  private static final int CONNECT_TIMEOUT_MILLIS = 2000;
+  private static final int INITIAL_BACKOFF_MILLIS = 100;
+  private static final int MAX_BACKOFF_MILLIS = 5000;
+
   public final String host;
   public final int port;
 
-  protected Socket socket;
-  protected OutputStream output;
+  /**
+   * State of the connection to the server. This and the connected parameter
+   * only mirror the output's own state, writing them has no effect.
+   */
+  public final EnumParameter<State> state =
+    new EnumParameter<State>("State", State.DISCONNECTED)
+    .setDescription("State of the connection to the server");
+
+  /**
+   * Whether the output is connected to the server
+   */
+  public final BooleanParameter connected =
+    new BooleanParameter("Connected", false)
+    .setDescription("Whether the output is connected to the server");
+
+  private InetSocketAddress address = null;
+
+  private SocketChannel channel = null;
+
+  private boolean isConnected = false;
+
+  // Bytes waiting to be written, between position and limit
+  private ByteBuffer buffer = ByteBuffer.allocateDirect(0);
+
+  private long connectStarted = 0;
+  private long reconnectAt = 0;
+  private int backoffMillis = INITIAL_BACKOFF_MILLIS;
+
+  private volatile long sentFrames = 0;
+  private volatile long droppedFrames = 0;
 
   protected LXSocketOutput(LX lx, String host, int port) {
     super(lx);
     this.host = host;
     this.port = port;
+    addParameter("state", this.state);
+    addParameter("connected", this.connected);
   }
 
   public boolean isConnected() {
-    return (this.socket != null);
+    return (this.channel != null) && this.isConnected;
   }
 
-  private void connect() {
-    if (this.socket == null) {
-      try {
-        this.socket = new Socket();
-        this.socket.connect(new InetSocketAddress(this.host, this.port), 100);
-        this.socket.setTcpNoDelay(true);
-        this.output = this.socket.getOutputStream();
-        didConnect();
-      } catch (ConnectException cx) {
-        dispose(cx);
-      } catch (IOException iox) {
-        dispose(iox);
+  /**
+   * Gets the number of frames written to the server
+   *
+   * @return Frames sent
+   */
+  public long getSentFrames() {
+    return this.sentFrames;
+  }
+
+  /**
+   * Gets the number of frames dropped because the previous frame was still
+   * being written
+   *
+   * @return Frames dropped
+   */
+  public long getDroppedFrames() {
+    return this.droppedFrames;
+  }
+
+  private void connect(long now) {
+    try {
+      if (this.channel == null) {
+        if (now < this.reconnectAt) {
+          return;
+        }
+        if ((this.address == null) || this.address.isUnresolved()) {
+          this.address = new InetSocketAddress(this.host, this.port);
+          if (this.address.isUnresolved()) {
+            throw new IOException("Unknown host " + this.host);
+          }
+        }
+        this.channel = SocketChannel.open();
+        this.channel.configureBlocking(false);
+        this.channel.socket().setTcpNoDelay(true);
+        this.connectStarted = now;
+        this.state.setValue(State.CONNECTING);
+        if (this.channel.connect(this.address)) {
+          onConnect();
+        }
+      } else if (!this.isConnected) {
+        if (this.channel.finishConnect()) {
+          onConnect();
+        } else if (now - this.connectStarted > CONNECT_TIMEOUT_MILLIS) {
+          throw new IOException("Timed out connecting to " + this.address);
+        }
       }
+    } catch (IOException iox) {
+      dispose(iox);
     }
   }
 
+  private void onConnect() {
+    this.buffer.clear().flip();
+    this.backoffMillis = INITIAL_BACKOFF_MILLIS;
+    this.isConnected = true;
+    this.connected.setValue(true);
+    this.state.setValue(State.CONNECTED);
+    didConnect();
+  }
+
   protected void didConnect() {
 
   }
 
   protected void dispose(Exception x) {
-    this.socket = null;
-    this.output = null;
+    if (this.channel != null) {
+      try {
+        this.channel.close();
+      } catch (IOException iox) {
+        // Nothing more to be done with this channel
+      }
+      this.channel = null;
+    }
+    this.reconnectAt = System.currentTimeMillis() + this.backoffMillis;
+    this.backoffMillis = Math.min(MAX_BACKOFF_MILLIS, 2 * this.backoffMillis);
+    this.isConnected = false;
+    this.connected.setValue(false);
+    this.state.setValue(State.DISCONNECTED);
     didDispose(x);
   }
 
   protected void didDispose(Exception x) {
   }
 
+  /**
+   * Writes data to the server, after any data still waiting to be written.
+   * Data that cannot be written immediately is kept and written on later
+   * frames, so messages are never interleaved or lost while connected.
+   *
+   * @param data Data to write
+   */
+  protected void write(byte[] data) {
+    write(data, 0, data.length);
+  }
+
+  /**
+   * Writes data to the server, after any data still waiting to be written.
+   *
+   * @param data Data buffer
+   * @param offset Offset of data to write
+   * @param length Length of data to write
+   */
+  protected void write(byte[] data, int offset, int length) {
+    if (!isConnected()) {
+      return;
+    }
+    if (this.buffer.capacity() - this.buffer.remaining() < length) {
+      ByteBuffer grown = ByteBuffer.allocateDirect(this.buffer.remaining() + length);
+      grown.put(this.buffer);
+      this.buffer = grown;
+    } else {
+      this.buffer.compact();
+    }
+    this.buffer.put(data, offset, length);
+    this.buffer.flip();
+    flush();
+  }
+
+  private void flush() {
+    try {
+      if (this.buffer.hasRemaining()) {
+        this.channel.write(this.buffer);
+      }
+    } catch (IOException iox) {
+      dispose(iox);
+    }
+  }
+
   @Override
   protected void onSend(int[] colors) {
-    connect();
+    sendPacket(null, colors);
+  }
+
+  /**
+   * Sends wide color data, for outputs whose packets carry more than 8 bits
+   * per channel.
+   */
+  @Override
+  protected void onSend(long[] colors16, int[] colors) {
+    sendPacket(colors16, colors);
+  }
+
+  private void sendPacket(long[] colors16, int[] colors) {
+    connect(System.currentTimeMillis());
     if (isConnected()) {
+      // Drop the frame if the server has not taken all of the last one
+      flush();
+      if (!isConnected()) {
+        return;
+      }
+      if (this.buffer.hasRemaining()) {
+        ++this.droppedFrames;
+        return;
+      }
+      write((colors16 != null) ? getPacketData(colors16, colors) : getPacketData(colors));
+      ++this.sentFrames;
+    }
+  }
+
+  @Override
+  public void dispose() {
+    if (this.channel != null) {
       try {
-        this.output.write(getPacketData(colors));
+        this.channel.close();
       } catch (IOException iox) {
-        dispose(iox);
+        System.err.println("Error closing socket channel: " + iox.getLocalizedMessage());
       }
+      this.channel = null;
     }
+    this.isConnected = false;
+    super.dispose();
   }
 
   protected abstract byte[] getPacketData(int[] colors);
 
+  /**
+   * Subclasses may override to send wide color data. By default the 8-bit
+   * values are sent.
+   *
+   * @param colors16 Wide color values
+   * @param colors Color values narrowed to 8-bit
+   * @return Packet data
+   */
+  protected byte[] getPacketData(long[] colors16, int[] colors) {
+    return getPacketData(colors);
+  }
+
 }
@@ -0,0 +1,184 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * @author Mark C. Slee <mark@heronarts.com>
+ */
+
+package heronarts.lx.output;
+
+import heronarts.lx.LX;
+
+/**
+ * Wraps another output so that it is sent on its own thread. Frames are
+ * handed over through a single-slot mailbox: sending never blocks on the
+ * wrapped output, and if it is still busy with an earlier frame the waiting
+ * frame is replaced by the newer one rather than queued. A slow or
+ * unreachable controller then only delays itself.
+ *
+ * Wrap each controller's output separately and add the wrappers to the
+ * engine, rather than the outputs themselves. Color correction is applied
+ * by this output, the wrapped output should be left at its defaults.
+ */
+public class LXThreadedOutput extends LXOutput {
+
+  private static class Frame {
+    private int[] colors = new int[0];
+    private long[] colors16 = new long[0];
+    private boolean wide = false;
+    private long publishNanos = 0;
+  }
+
+  /**
+   * The wrapped output
+   */
+  public final LXOutput output;
+
+  private final Object lock = new Object();
+
+  // Frame being filled by the caller, frame waiting in the mailbox, and frame
+  // being sent by the wrapped output
+  private Frame back = new Frame();
+  private Frame latest = new Frame();
+  private Frame front = new Frame();
+
+  private boolean hasFrame = false;
+
+  private volatile long sentFrames = 0;
+  private volatile long droppedFrames = 0;
+  private volatile long lagNanos = 0;
+
+  private final SenderThread thread;
+
+  public LXThreadedOutput(LX lx, LXOutput output) {
+    super(lx, output.getLabel());
+    this.output = output;
+    this.thread = new SenderThread();
+    this.thread.start();
+  }
+
+  /**
+   * Gets the number of frames sent by the wrapped output
+   *
+   * @return Frames sent
+   */
+  public long getSentFrames() {
+    return this.sentFrames;
+  }
+
+  /**
+   * Gets the number of frames that were replaced by a newer frame before the
+   * wrapped output was ready for them
+   *
+   * @return Frames dropped
+   */
+  public long getDroppedFrames() {
+    return this.droppedFrames;
+  }
+
+  /**
+   * Gets the time from the most recently sent frame being handed over until
+   * the wrapped output finished sending it
+   *
+   * @return Lag in nanoseconds
+   */
+  public long getLagNanos() {
+    return this.lagNanos;
+  }
+
+  @Override
+  protected void onSend(int[] colors) {
+    Frame frame = this.back;
+    if (frame.colors.length != colors.length) {
+      frame.colors = new int[colors.length];
+    }
+    System.arraycopy(colors, 0, frame.colors, 0, colors.length);
+    frame.wide = false;
+    publish(frame);
+  }
+
+  @Override
+  protected void onSend(long[] colors16, int[] colors) {
+    Frame frame = this.back;
+    if (frame.colors16.length != colors16.length) {
+      frame.colors16 = new long[colors16.length];
+    }
+    System.arraycopy(colors16, 0, frame.colors16, 0, colors16.length);
+    frame.wide = true;
+    publish(frame);
+  }
+
+  private void publish(Frame frame) {
+    frame.publishNanos = System.nanoTime();
+    synchronized (this.lock) {
+      if (this.hasFrame) {
+        ++this.droppedFrames;
+      }
+      this.back = this.latest;
+      this.latest = frame;
+      this.hasFrame = true;
+      this.lock.notify();
+    }
+  }
+
+  @Override
+  public void dispose() {
+    this.thread.interrupt();
+    this.output.dispose();
+    super.dispose();
+  }
+
+  private class SenderThread extends Thread {
+
+    private SenderThread() {
+      super("LXThreadedOutput " + output.getLabel());
+      setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+      while (!isInterrupted()) {
+        Frame frame;
+        synchronized (lock) {
+          while (!hasFrame) {
+            try {
+              lock.wait();
+            } catch (InterruptedException ix) {
+              return;
+            }
+          }
+          frame = latest;
+          latest = front;
+          front = frame;
+          hasFrame = false;
+        }
+        try {
+          if (frame.wide) {
+            output.send(frame.colors16);
+          } else {
+            output.send(frame.colors);
+          }
+        } catch (Exception x) {
+          System.err.println("Exception in output " + output.getLabel() + ": " + x.getLocalizedMessage());
+          x.printStackTrace();
+        }
+        lagNanos = System.nanoTime() - frame.publishNanos;
+        ++sentFrames;
+      }
+    }
+  }
+
+}
@@ -27,8 +27,6 @@ import heronarts.lx.model.LXFixture;
  */
 public class OPCDatagram extends LXDatagram implements OPCConstants {
 
-  private final int[] indices;
-
   public OPCDatagram(LXFixture fixture) {
     this(fixture, CHANNEL_BROADCAST);
   }
@@ -42,9 +40,23 @@ public class OPCDatagram extends LXDatagram implements OPCConstants {
   }
 
   public OPCDatagram(int[] indices, byte channel) {
-    super(OPCOutput.HEADER_LEN + OPCOutput.BYTES_PER_PIXEL * indices.length);
-    this.indices = indices;
-    int dataLength = BYTES_PER_PIXEL * indices.length;
+    this(indices, channel, LXPixelFormat.RGB);
+  }
+
+  /**
+   * Creates an OPC datagram with the given pixel format, for servers which
+   * accept formats other than RGB
+   *
+   * @param indices Point indices
+   * @param channel OPC channel
+   * @param pixelFormat Pixel format
+   */
+  public OPCDatagram(int[] indices, byte channel, LXPixelFormat pixelFormat) {
+    super(OPCOutput.HEADER_LEN + pixelFormat.bytesPerPixel * indices.length);
+    this.pointIndices = indices;
+    this.pixelFormat = pixelFormat;
+    this.dataOffset = (pixelFormat == LXPixelFormat.RGB) ? INDEX_DATA : -1;
+    int dataLength = pixelFormat.bytesPerPixel * indices.length;
     this.buffer[INDEX_CHANNEL] = channel;
     this.buffer[INDEX_COMMAND] = COMMAND_SET_PIXEL_COLORS;
     this.buffer[INDEX_DATA_LEN_MSB] = (byte)(dataLength >>> 8);
@@ -62,7 +74,7 @@ public class OPCDatagram extends LXDatagram implements OPCConstants {
 
   @Override
   public void onSend(int[] colors) {
-    copyPoints(colors, this.indices, INDEX_DATA);
+    copyPoints(colors, this.pointIndices, INDEX_DATA);
   }
 
 }
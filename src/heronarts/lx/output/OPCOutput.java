@@ -22,6 +22,7 @@ package heronarts.lx.output;
 
 import heronarts.lx.LX;
 import heronarts.lx.model.LXFixture;
+import heronarts.lx.model.LXModelRemap;
 
 /**
  * TCP/IP streaming socket implementation of http://openpixelcontrol.org/
@@ -34,7 +35,13 @@ public class OPCOutput extends LXSocketOutput implements OPCConstants {
 
   private final byte[] packetData;
 
-  private final int[] pointIndices;
+  private int[] pointIndices;
+
+  private int[] preparedIndices = null;
+
+  private final LXPixelFormat pixelFormat;
+
+  private WhiteExtraction whiteExtraction = WhiteExtraction.DEFAULT;
 
   private static int[] allPoints(LX lx) {
     int[] points = new int[lx.total];
@@ -53,10 +60,25 @@ public class OPCOutput extends LXSocketOutput implements OPCConstants {
   }
 
   public OPCOutput(LX lx, String host, int port, int[] pointIndices) {
+    this(lx, host, port, pointIndices, LXPixelFormat.RGB);
+  }
+
+  /**
+   * Creates an OPC output with the given pixel format, for servers which
+   * accept formats other than RGB
+   *
+   * @param lx LX instance
+   * @param host Server host
+   * @param port Server port
+   * @param pointIndices Point indices
+   * @param pixelFormat Pixel format
+   */
+  public OPCOutput(LX lx, String host, int port, int[] pointIndices, LXPixelFormat pixelFormat) {
     super(lx, host, port);
     this.pointIndices = pointIndices;
+    this.pixelFormat = pixelFormat;
 
-    int dataLength = BYTES_PER_PIXEL * pointIndices.length;
+    int dataLength = pixelFormat.bytesPerPixel * pointIndices.length;
     this.packetData = new byte[HEADER_LEN + dataLength];
     this.packetData[INDEX_CHANNEL] = CHANNEL_BROADCAST;
     this.packetData[INDEX_COMMAND] = COMMAND_SET_PIXEL_COLORS;
@@ -66,9 +88,14 @@ public class OPCOutput extends LXSocketOutput implements OPCConstants {
 
   @Override
   protected byte[] getPacketData(int[] colors) {
+    if (this.pixelFormat != LXPixelFormat.RGB) {
+      this.pixelFormat.pack(this.packetData, INDEX_DATA, colors, this.pointIndices, null, this.whiteExtraction);
+      return this.packetData;
+    }
     for (int i = 0; i < this.pointIndices.length; ++i) {
       int dataOffset = INDEX_DATA + i * BYTES_PER_PIXEL;
-      int c = colors[this.pointIndices[i]];
+      int index = this.pointIndices[i];
+      int c = (index >= 0) ? colors[index] : 0;
       this.packetData[dataOffset + OFFSET_R] = (byte) (0xFF & (c >> 16));
       this.packetData[dataOffset + OFFSET_G] = (byte) (0xFF & (c >> 8));
       this.packetData[dataOffset + OFFSET_B] = (byte) (0xFF & c);
@@ -76,6 +103,37 @@ public class OPCOutput extends LXSocketOutput implements OPCConstants {
     return this.packetData;
   }
 
+  @Override
+  protected byte[] getPacketData(long[] colors16, int[] colors) {
+    if (this.pixelFormat.is16Bit()) {
+      this.pixelFormat.pack16(this.packetData, INDEX_DATA, colors16, this.pointIndices, null, this.whiteExtraction);
+      return this.packetData;
+    }
+    return getPacketData(colors);
+  }
+
+  @Override
+  protected void onPrepareModel(LXModelRemap remap) {
+    this.preparedIndices = remap.remapIndices(this.pointIndices);
+  }
+
+  @Override
+  protected void onSwapModel(LXModelRemap remap) {
+    this.pointIndices = (this.preparedIndices != null) ? this.preparedIndices : remap.remapIndices(this.pointIndices);
+    this.preparedIndices = null;
+  }
+
+  /**
+   * Sets how the white channel is extracted, for pixel formats with white
+   *
+   * @param whiteExtraction White extraction
+   * @return this
+   */
+  public OPCOutput setWhiteExtraction(WhiteExtraction whiteExtraction) {
+    this.whiteExtraction = whiteExtraction;
+    return this;
+  }
+
   public OPCOutput setChannel(byte channel) {
     this.packetData[INDEX_CHANNEL] = channel;
     return this;
@@ -22,26 +22,37 @@ package heronarts.lx.output;
 
 import heronarts.lx.model.LXFixture;
 
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
 /**
  * Streaming ACN, also referred to as E1.31, is a standardized protocol for
  * streaming DMX data over ACN protocol. It's a fairly simple UDP-based wrapper
  * on 512 bytes of data with a 16-bit universe number.
  *
+ * Universes may be sent unicast, or multicast to the standard address for
+ * their universe number. To update all universes on the same receiver tick,
+ * give each datagram a synchronization address and add a
+ * StreamingACNSyncDatagram for that address to the same output.
+ *
  * See: http://tsp.plasa.org/tsp/documents/docs/E1-31_2009.pdf
  */
 public class StreamingACNDatagram extends LXDatagram {
 
   private final static int DMX_DATA_POSITION = 126;
 
+  private final static int SYNC_ADDRESS_POSITION = 109;
+
   private final static int SEQUENCE_NUMBER_POSITION = 111;
 
   private final static int UNIVERSE_NUMBER_POSITION = 113;
 
-  private final static int DEFAULT_PORT = 5568;
+  final static int DEFAULT_PORT = 5568;
 
-  private final static int DEFAULT_UNIVERSE_NUMBER = 1;
+  final static int VECTOR_ROOT_E131_DATA = 0x00000004;
+  final static int VECTOR_ROOT_E131_EXTENDED = 0x00000008;
 
-  private final int[] pointIndices;
+  private final static int DEFAULT_UNIVERSE_NUMBER = 1;
 
   /**
    * The universe number that this packet sends to.
@@ -53,6 +64,10 @@ public class StreamingACNDatagram extends LXDatagram {
    */
   private byte sequenceNumber = 0;
 
+  private int syncAddress = 0;
+
+  private boolean multicast = false;
+
   public StreamingACNDatagram(LXFixture fixture) {
     this(DEFAULT_UNIVERSE_NUMBER, fixture);
   }
@@ -78,73 +93,57 @@ public class StreamingACNDatagram extends LXDatagram {
    * @param pointIndices List of point indices to encode in packet
    */
   public StreamingACNDatagram(int universeNumber, int[] pointIndices) {
-    super(DMX_DATA_POSITION + pointIndices.length * 3);
+    this(universeNumber, pointIndices, LXPixelFormat.RGB);
+  }
+
+  /**
+   * Constructs a datagram, sends the list of point indices on the given
+   * universe number in the given pixel format. Wide data is used by 16-bit
+   * formats when the output is sent wide colors.
+   *
+   * @param universeNumber Universe
+   * @param fixture Fixture
+   * @param pixelFormat Pixel format
+   */
+  public StreamingACNDatagram(int universeNumber, LXFixture fixture, LXPixelFormat pixelFormat) {
+    this(universeNumber, LXOutput.fixtureToIndices(fixture), pixelFormat);
+  }
+
+  public StreamingACNDatagram(int universeNumber, int[] pointIndices, LXPixelFormat pixelFormat) {
+    super(DMX_DATA_POSITION + pointIndices.length * pixelFormat.bytesPerPixel);
     setPort(DEFAULT_PORT);
     setUniverseNumber(universeNumber);
     this.pointIndices = pointIndices;
+    this.pixelFormat = pixelFormat;
+    this.sequenceIndex = SEQUENCE_NUMBER_POSITION;
+    this.dataOffset = (pixelFormat == LXPixelFormat.RGB) ? DMX_DATA_POSITION : -1;
 
     int flagLength;
 
-    // Preamble size
-    this.buffer[0] = (byte) 0x00;
-    this.buffer[1] = (byte) 0x10;
-
-    // Post-amble size
-    this.buffer[0] = (byte) 0x00;
-    this.buffer[1] = (byte) 0x10;
-
-    // ACN Packet Identifier
-    this.buffer[4] = (byte) 0x41;
-    this.buffer[5] = (byte) 0x53;
-    this.buffer[6] = (byte) 0x43;
-    this.buffer[7] = (byte) 0x2d;
-    this.buffer[8] = (byte) 0x45;
-    this.buffer[9] = (byte) 0x31;
-    this.buffer[10] = (byte) 0x2e;
-    this.buffer[11] = (byte) 0x31;
-    this.buffer[12] = (byte) 0x37;
-    this.buffer[13] = (byte) 0x00;
-    this.buffer[14] = (byte) 0x00;
-    this.buffer[15] = (byte) 0x00;
-
-    // Flags and length
-    flagLength = 0x00007000 | ((this.buffer.length - 16) & 0x0fffffff);
-    this.buffer[16] = (byte) ((flagLength >> 8) & 0xff);
-    this.buffer[17] = (byte) (flagLength & 0xff);
-
-    // RLP 1.31 Protocol PDU Identifier
-    this.buffer[18] = (byte) 0x00;
-    this.buffer[19] = (byte) 0x00;
-    this.buffer[20] = (byte) 0x00;
-    this.buffer[21] = (byte) 0x04;
-
-    // Sender's CID
-    for (int i = 22; i < 38; ++i) {
-      this.buffer[i] = (byte) i;
-    }
+    writeRootLayer(this.buffer, VECTOR_ROOT_E131_DATA);
 
     // Flags and length
     flagLength = 0x00007000 | ((this.buffer.length - 38) & 0x0fffffff);
     this.buffer[38] = (byte) ((flagLength >> 8) & 0xff);
     this.buffer[39] = (byte) (flagLength & 0xff);
 
-    // DMP Protocol PDU Identifier
+    // Framing Layer Vector, E1.31 data packet
     this.buffer[40] = (byte) 0x00;
     this.buffer[41] = (byte) 0x00;
     this.buffer[42] = (byte) 0x00;
     this.buffer[43] = (byte) 0x02;
 
     // Source name
-    this.buffer[44] = 'L';
-    this.buffer[45] = 'X';
     for (int i = 44; i < 108; ++i) {
       this.buffer[i] = 0;
     }
+    this.buffer[44] = 'L';
+    this.buffer[45] = 'X';
 
     // Priority
     this.buffer[108] = 100;
 
-    // Reserved
+    // Synchronization address
     this.buffer[109] = 0x00;
     this.buffer[110] = 0x00;
 
@@ -163,10 +162,10 @@ public class StreamingACNDatagram extends LXDatagram {
     this.buffer[116] = (byte) (flagLength & 0xff);
 
     // DMP Set Property Message PDU
-    this.buffer[116] = (byte) 0x02;
+    this.buffer[117] = (byte) 0x02;
 
     // Address Type & Data Type
-    this.buffer[117] = (byte) 0xa1;
+    this.buffer[118] = (byte) 0xa1;
 
     // First Property Address
     this.buffer[119] = 0x00;
@@ -177,7 +176,7 @@ public class StreamingACNDatagram extends LXDatagram {
     this.buffer[122] = 0x01;
 
     // Property value count
-    int numProperties = 1 + this.pointIndices.length * 3;
+    int numProperties = 1 + this.pointIndices.length * pixelFormat.bytesPerPixel;
     this.buffer[123] = (byte) ((numProperties >> 8) & 0xff);
     this.buffer[124] = (byte) (numProperties & 0xff);
 
@@ -195,9 +194,118 @@ public class StreamingACNDatagram extends LXDatagram {
     this.universeNumber = (universeNumber &= 0x0000ffff);
     this.buffer[UNIVERSE_NUMBER_POSITION] = (byte) ((universeNumber >> 8) & 0xff);
     this.buffer[UNIVERSE_NUMBER_POSITION + 1] = (byte) (universeNumber & 0xff);
+    if (this.multicast) {
+      setAddress(multicastAddress(universeNumber));
+    }
     return this;
   }
 
+  /**
+   * Sets whether to send to the standard multicast address for the universe
+   * number, 239.255.x.y, rather than the address set on this datagram. The
+   * address follows any later change of universe number.
+   *
+   * @param multicast Whether to send multicast
+   * @return this
+   */
+  public StreamingACNDatagram setMulticast(boolean multicast) {
+    this.multicast = multicast;
+    if (multicast) {
+      setAddress(multicastAddress(this.universeNumber));
+    }
+    return this;
+  }
+
+  /**
+   * Sets the synchronization address for this universe. Receivers hold data
+   * for a universe with a non-zero synchronization address until a sync
+   * packet for that address arrives, see StreamingACNSyncDatagram.
+   *
+   * @param syncAddress Synchronization universe, or 0 for none
+   * @return this
+   */
+  public StreamingACNDatagram setSyncAddress(int syncAddress) {
+    this.syncAddress = (syncAddress &= 0x0000ffff);
+    this.buffer[SYNC_ADDRESS_POSITION] = (byte) ((syncAddress >> 8) & 0xff);
+    this.buffer[SYNC_ADDRESS_POSITION + 1] = (byte) (syncAddress & 0xff);
+    return this;
+  }
+
+  /**
+   * Synchronization address for datagram, 0 if none.
+   *
+   * @return Synchronization universe
+   */
+  public int getSyncAddress() {
+    return this.syncAddress;
+  }
+
+  /**
+   * Gets the standard E1.31 multicast address for a universe
+   *
+   * @param universeNumber Universe number
+   * @return Multicast address 239.255.x.y
+   */
+  public static InetAddress multicastAddress(int universeNumber) {
+    try {
+      return InetAddress.getByAddress(new byte[] {
+        (byte) 239,
+        (byte) 255,
+        (byte) ((universeNumber >> 8) & 0xff),
+        (byte) (universeNumber & 0xff)
+      });
+    } catch (UnknownHostException uhx) {
+      // Not possible with a 4-byte address
+      throw new IllegalStateException(uhx);
+    }
+  }
+
+  /**
+   * Writes the ACN root layer common to all E1.31 packets
+   *
+   * @param buffer Packet buffer
+   * @param vector Root layer vector
+   */
+  static void writeRootLayer(byte[] buffer, int vector) {
+    // Preamble size
+    buffer[0] = (byte) 0x00;
+    buffer[1] = (byte) 0x10;
+
+    // Post-amble size
+    buffer[2] = (byte) 0x00;
+    buffer[3] = (byte) 0x00;
+
+    // ACN Packet Identifier
+    buffer[4] = (byte) 0x41;
+    buffer[5] = (byte) 0x53;
+    buffer[6] = (byte) 0x43;
+    buffer[7] = (byte) 0x2d;
+    buffer[8] = (byte) 0x45;
+    buffer[9] = (byte) 0x31;
+    buffer[10] = (byte) 0x2e;
+    buffer[11] = (byte) 0x31;
+    buffer[12] = (byte) 0x37;
+    buffer[13] = (byte) 0x00;
+    buffer[14] = (byte) 0x00;
+    buffer[15] = (byte) 0x00;
+
+    // Flags and length
+    int flagLength = 0x00007000 | ((buffer.length - 16) & 0x0fffffff);
+    buffer[16] = (byte) ((flagLength >> 8) & 0xff);
+    buffer[17] = (byte) (flagLength & 0xff);
+
+    // Root Layer Vector
+    buffer[18] = (byte) ((vector >> 24) & 0xff);
+    buffer[19] = (byte) ((vector >> 16) & 0xff);
+    buffer[20] = (byte) ((vector >> 8) & 0xff);
+    buffer[21] = (byte) (vector & 0xff);
+
+    // Sender's CID
+    for (int i = 22; i < 38; ++i) {
+      buffer[i] = (byte) i;
+    }
+  }
+
   /**
    * Universe number for datagram.
    *
@@ -209,8 +317,23 @@ public class StreamingACNDatagram extends LXDatagram {
 
   @Override
   public void onSend(int[] colors) {
+    copyPoints(colors, this.pointIndices, DMX_DATA_POSITION);
+    onPacked();
+  }
+
+  @Override
+  public void onSend(long[] colors16, int[] colors) {
+    if (this.pixelFormat.is16Bit()) {
+      copyPoints16(colors16, this.pointIndices, DMX_DATA_POSITION);
+      onPacked();
+    } else {
+      onSend(colors);
+    }
+  }
+
+  @Override
+  protected void onPacked() {
     ++this.sequenceNumber;
     this.buffer[SEQUENCE_NUMBER_POSITION] = this.sequenceNumber;
-    copyPoints(colors, this.pointIndices, DMX_DATA_POSITION);
   }
 }
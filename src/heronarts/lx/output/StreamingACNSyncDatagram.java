@@ -0,0 +1,129 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * @author Mark C. Slee <mark@heronarts.com>
+ */
+
+package heronarts.lx.output;
+
+/**
+ * An E1.31 universe synchronization packet. Universes whose datagrams have
+ * been given this synchronization address are held by receivers until this
+ * packet arrives, so that all of them update together. Add it to the same
+ * output as those universes, and it is sent once after all of them every
+ * frame.
+ *
+ * By default the packet is multicast to the standard address for the
+ * synchronization universe.
+ *
+ * See: ANSI E1.31-2016, section 6.3
+ */
+public class StreamingACNSyncDatagram extends LXDatagram {
+
+  private final static int SYNC_PACKET_LENGTH = 49;
+
+  private final static int SEQUENCE_NUMBER_POSITION = 44;
+
+  private final static int SYNC_ADDRESS_POSITION = 45;
+
+  private final static int VECTOR_E131_EXTENDED_SYNCHRONIZATION = 0x00000001;
+
+  private int syncAddress;
+
+  private boolean multicast = true;
+
+  private byte sequenceNumber = 0;
+
+  /**
+   * Constructs a synchronization datagram for the given address
+   *
+   * @param syncAddress Synchronization universe
+   */
+  public StreamingACNSyncDatagram(int syncAddress) {
+    super(SYNC_PACKET_LENGTH);
+    this.isSync = true;
+    setPort(StreamingACNDatagram.DEFAULT_PORT);
+
+    StreamingACNDatagram.writeRootLayer(this.buffer, StreamingACNDatagram.VECTOR_ROOT_E131_EXTENDED);
+
+    // Flags and length
+    int flagLength = 0x00007000 | ((this.buffer.length - 38) & 0x0fffffff);
+    this.buffer[38] = (byte) ((flagLength >> 8) & 0xff);
+    this.buffer[39] = (byte) (flagLength & 0xff);
+
+    // Framing Layer Vector, E1.31 synchronization packet
+    int vector = VECTOR_E131_EXTENDED_SYNCHRONIZATION;
+    this.buffer[40] = (byte) ((vector >> 24) & 0xff);
+    this.buffer[41] = (byte) ((vector >> 16) & 0xff);
+    this.buffer[42] = (byte) ((vector >> 8) & 0xff);
+    this.buffer[43] = (byte) (vector & 0xff);
+
+    // Reserved
+    this.buffer[47] = 0x00;
+    this.buffer[48] = 0x00;
+
+    this.sequenceIndex = SEQUENCE_NUMBER_POSITION;
+    setSyncAddress(syncAddress);
+  }
+
+  /**
+   * Sets the synchronization address of this packet
+   *
+   * @param syncAddress Synchronization universe
+   * @return this
+   */
+  public StreamingACNSyncDatagram setSyncAddress(int syncAddress) {
+    this.syncAddress = (syncAddress &= 0x0000ffff);
+    this.buffer[SYNC_ADDRESS_POSITION] = (byte) ((syncAddress >> 8) & 0xff);
+    this.buffer[SYNC_ADDRESS_POSITION + 1] = (byte) (syncAddress & 0xff);
+    if (this.multicast) {
+      setAddress(StreamingACNDatagram.multicastAddress(syncAddress));
+    }
+    return this;
+  }
+
+  /**
+   * Synchronization address of this packet
+   *
+   * @return Synchronization universe
+   */
+  public int getSyncAddress() {
+    return this.syncAddress;
+  }
+
+  /**
+   * Sets whether to send to the standard multicast address for the
+   * synchronization universe, on by default. Turn this off before setting
+   * a unicast address.
+   *
+   * @param multicast Whether to send multicast
+   * @return this
+   */
+  public StreamingACNSyncDatagram setMulticast(boolean multicast) {
+    this.multicast = multicast;
+    if (multicast) {
+      setAddress(StreamingACNDatagram.multicastAddress(this.syncAddress));
+    }
+    return this;
+  }
+
+  @Override
+  public void onSend(int[] colors) {
+    this.buffer[SEQUENCE_NUMBER_POSITION] = ++this.sequenceNumber;
+  }
+
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * @author Mark C. Slee <mark@heronarts.com>
+ */
+
+package heronarts.lx.output;
+
+/**
+ * Quantizes high-precision color values down to 8 bits per channel, varying
+ * the rounding from frame to frame so that the average over time recovers
+ * some of the lost precision. This is most effective at low brightness,
+ * where fades on 8-bit hardware otherwise visibly step.
+ *
+ * Values are supplied as 16-bit channels. A dither instance keeps a small
+ * amount of per-pixel state and should be used for only one output.
+ */
+public class TemporalDither {
+
+  public enum Mode {
+    /**
+     * Plain rounding, no dithering
+     */
+    OFF,
+
+    /**
+     * Carries the rounding error of each pixel forward into the next frame
+     */
+    ERROR_DIFFUSION,
+
+    /**
+     * Applies a threshold that cycles over frames, offset for neighboring
+     * pixels so that they do not flicker in unison
+     */
+    ORDERED
+  };
+
+  /**
+   * One-dimensional Bayer ordering, thresholds cycle through this sequence
+   * over 16 frames so that any run of frames is close to evenly spread
+   */
+  private static final int[] BAYER = {
+    0, 8, 4, 12, 2, 10, 6, 14, 1, 9, 5, 13, 3, 11, 7, 15
+  };
+
+  /**
+   * Quantization error per pixel channel, in 1/256ths of an 8-bit step
+   */
+  private byte[] error = new byte[0];
+
+  private int frame = 0;
+
+  private Mode mode = Mode.OFF;
+
+  /**
+   * Prepares to dither a new frame of the given size. Must be called once per
+   * frame before dither() is invoked for each pixel.
+   *
+   * @param mode Dithering mode
+   * @param size Number of pixels in the frame
+   * @return this
+   */
+  public TemporalDither beginFrame(Mode mode, int size) {
+    if (this.error.length != 3 * size) {
+      this.error = new byte[3 * size];
+    } else if (mode != this.mode) {
+      for (int i = 0; i < this.error.length; ++i) {
+        this.error[i] = 0;
+      }
+    }
+    this.mode = mode;
+    this.frame = (this.frame + 1) & 0xf;
+    return this;
+  }
+
+  /**
+   * Quantizes a 16-bit per channel pixel to packed 8-bit RGB
+   *
+   * @param i Pixel index
+   * @param r Red from 0-65535
+   * @param g Green from 0-65535
+   * @param b Blue from 0-65535
+   * @param a Alpha, already 8-bit
+   * @return Packed 8-bit color
+   */
+  public int dither(int i, int r, int g, int b, int a) {
+    return
+      (a << 24) |
+      (quantize(3*i, i, r) << 16) |
+      (quantize(3*i + 1, i, g) << 8) |
+      quantize(3*i + 2, i, b);
+  }
+
+  private int quantize(int e, int i, int c) {
+    // Target value in 8.8 fixed point, 0-0xff00
+    int t = (int) ((c * 0xff00L) / 0xffff);
+    int q;
+    switch (this.mode) {
+    case ERROR_DIFFUSION:
+      t += this.error[e];
+      q = (t + 0x80) >> 8;
+      if (q > 0xff) {
+        q = 0xff;
+      } else if (q < 0) {
+        q = 0;
+      }
+      int err = t - (q << 8);
+      this.error[e] = (byte) (err > 127 ? 127 : (err < -128 ? -128 : err));
+      return q;
+    case ORDERED:
+      q = (t + (BAYER[(this.frame + i) & 0xf] << 4) + 8) >> 8;
+      return (q > 0xff) ? 0xff : q;
+    default:
+    case OFF:
+      return (t + 0x80) >> 8;
+    }
+  }
+
+}
@@ -0,0 +1,163 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * @author Mark C. Slee <mark@heronarts.com>
+ */
+
+package heronarts.lx.output;
+
+/**
+ * Extracts a white channel from RGB colors, for pixels with a white LED. The
+ * white LED is described by its color in terms of the RGB LEDs, either given
+ * directly or derived from a color temperature. As much of that color as
+ * possible is taken out of the RGB channels and sent on the white channel
+ * instead, scaled by the amount of extraction.
+ *
+ * All of the arithmetic is precomputed when the extraction is constructed:
+ * lookup tables for 8-bit data, and fixed-point coefficients for 16-bit
+ * data. Instances are immutable and may be shared between outputs.
+ */
+public class WhiteExtraction {
+
+  /**
+   * Full extraction for a white LED that matches full RGB white
+   */
+  public static final WhiteExtraction DEFAULT = new WhiteExtraction(1, 1, 1, 1);
+
+  public final float whiteRed;
+  public final float whiteGreen;
+  public final float whiteBlue;
+  public final float amount;
+
+  // 8-bit channel value to white level, and white level to channel value
+  final int[] whiteR = new int[256];
+  final int[] whiteG = new int[256];
+  final int[] whiteB = new int[256];
+  final int[] subtractR = new int[256];
+  final int[] subtractG = new int[256];
+  final int[] subtractB = new int[256];
+
+  // 16.16 fixed-point equivalents for 16-bit data
+  final long whiteR16;
+  final long whiteG16;
+  final long whiteB16;
+  final long subtractR16;
+  final long subtractG16;
+  final long subtractB16;
+
+  /**
+   * Creates a full extraction for a white LED of the given color temperature
+   *
+   * @param kelvin Color temperature of the white LED
+   */
+  public WhiteExtraction(int kelvin) {
+    this(kelvin, 1);
+  }
+
+  /**
+   * Creates an extraction for a white LED of the given color temperature
+   *
+   * @param kelvin Color temperature of the white LED
+   * @param amount Amount of the white to extract, from 0 to 1
+   */
+  public WhiteExtraction(int kelvin, float amount) {
+    this(temperatureRed(kelvin), temperatureGreen(kelvin), temperatureBlue(kelvin), amount);
+  }
+
+  /**
+   * Creates an extraction for a white LED whose color is given in RGB
+   *
+   * @param whiteRed Red component of the white LED
+   * @param whiteGreen Green component of the white LED
+   * @param whiteBlue Blue component of the white LED
+   * @param amount Amount of the white to extract, from 0 to 1
+   */
+  public WhiteExtraction(float whiteRed, float whiteGreen, float whiteBlue, float amount) {
+    float max = Math.max(whiteRed, Math.max(whiteGreen, whiteBlue));
+    if (max <= 0 || whiteRed <= 0 || whiteGreen <= 0 || whiteBlue <= 0) {
+      throw new IllegalArgumentException("WhiteExtraction white point must have positive RGB components");
+    }
+    if (amount < 0 || amount > 1) {
+      throw new IllegalArgumentException("WhiteExtraction amount must be between 0 and 1: " + amount);
+    }
+    // Normalize so that the brightest component of the white LED is 1, the
+    // white level is then limited by that channel and never exceeds full
+    this.whiteRed = whiteRed / max;
+    this.whiteGreen = whiteGreen / max;
+    this.whiteBlue = whiteBlue / max;
+    this.amount = amount;
+
+    buildTables(this.whiteRed, this.whiteR, this.subtractR);
+    buildTables(this.whiteGreen, this.whiteG, this.subtractG);
+    buildTables(this.whiteBlue, this.whiteB, this.subtractB);
+
+    this.whiteR16 = (long) (65536. * amount / this.whiteRed);
+    this.whiteG16 = (long) (65536. * amount / this.whiteGreen);
+    this.whiteB16 = (long) (65536. * amount / this.whiteBlue);
+    this.subtractR16 = (long) (65536. * this.whiteRed);
+    this.subtractG16 = (long) (65536. * this.whiteGreen);
+    this.subtractB16 = (long) (65536. * this.whiteBlue);
+  }
+
+  private void buildTables(float component, int[] white, int[] subtract) {
+    for (int v = 0; v < 256; ++v) {
+      white[v] = Math.min(255, (int) (v * this.amount / component));
+      subtract[v] = (int) (v * component);
+    }
+  }
+
+  /**
+   * Red component of blackbody radiation at a color temperature, using
+   * Tanner Helland's approximation
+   */
+  private static float temperatureRed(int kelvin) {
+    double t = clampTemperature(kelvin);
+    if (t <= 66) {
+      return 1;
+    }
+    return (float) clamp(329.698727446 * Math.pow(t - 60, -0.1332047592) / 255.);
+  }
+
+  private static float temperatureGreen(int kelvin) {
+    double t = clampTemperature(kelvin);
+    if (t <= 66) {
+      return (float) clamp((99.4708025861 * Math.log(t) - 161.1195681661) / 255.);
+    }
+    return (float) clamp(288.1221695283 * Math.pow(t - 60, -0.0755148492) / 255.);
+  }
+
+  private static float temperatureBlue(int kelvin) {
+    double t = clampTemperature(kelvin);
+    if (t >= 66) {
+      return 1;
+    }
+    if (t <= 19) {
+      // Effectively no blue, but some is needed for a valid white point
+      return 1 / 255.f;
+    }
+    return (float) clamp((138.5177312231 * Math.log(t - 10) - 305.0447927307) / 255.);
+  }
+
+  private static double clampTemperature(int kelvin) {
+    return Math.max(1000, Math.min(40000, kelvin)) / 100.;
+  }
+
+  private static double clamp(double value) {
+    return Math.max(1 / 255., Math.min(1, value));
+  }
+
+}
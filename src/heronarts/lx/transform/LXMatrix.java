@@ -104,6 +104,74 @@ public class LXMatrix {
     m44 = m.m44;
   }
 
+  /**
+   * Sets the values of this matrix to those of another matrix, without
+   * allocating.
+   *
+   * @param m matrix
+   * @return this
+   */
+  public LXMatrix set(LXMatrix m) {
+    m11 = m.m11;
+    m12 = m.m12;
+    m13 = m.m13;
+    m14 = m.m14;
+    m21 = m.m21;
+    m22 = m.m22;
+    m23 = m.m23;
+    m24 = m.m24;
+    m31 = m.m31;
+    m32 = m.m32;
+    m33 = m.m33;
+    m34 = m.m34;
+    m41 = m.m41;
+    m42 = m.m42;
+    m43 = m.m43;
+    m44 = m.m44;
+    return this;
+  }
+
+  /**
+   * Resets this matrix to the identity
+   *
+   * @return this
+   */
+  public LXMatrix identity() {
+    m11 = 1; m12 = 0; m13 = 0; m14 = 0;
+    m21 = 0; m22 = 1; m23 = 0; m24 = 0;
+    m31 = 0; m32 = 0; m33 = 1; m34 = 0;
+    m41 = 0; m42 = 0; m43 = 0; m44 = 1;
+    return this;
+  }
+
+  /**
+   * Transforms a range of points stored as coordinate arrays by this matrix.
+   * The output arrays may be the same as the input arrays to transform in
+   * place. The bottom row of the matrix is assumed to be 0, 0, 0, 1, which
+   * holds for any combination of translation, rotation and scaling.
+   *
+   * @param x Input x coordinates
+   * @param y Input y coordinates
+   * @param z Input z coordinates
+   * @param outX Output x coordinates
+   * @param outY Output y coordinates
+   * @param outZ Output z coordinates
+   * @param start First point to transform
+   * @param end One past the last point to transform
+   */
+  public void transform(float[] x, float[] y, float[] z, float[] outX, float[] outY, float[] outZ, int start, int end) {
+    final float
+      m11 = this.m11, m12 = this.m12, m13 = this.m13, m14 = this.m14,
+      m21 = this.m21, m22 = this.m22, m23 = this.m23, m24 = this.m24,
+      m31 = this.m31, m32 = this.m32, m33 = this.m33, m34 = this.m34;
+    for (int i = start; i < end; ++i) {
+      float px = x[i], py = y[i], pz = z[i];
+      outX[i] = m11 * px + m12 * py + m13 * pz + m14;
+      outY[i] = m21 * px + m22 * py + m23 * pz + m24;
+      outZ[i] = m31 * px + m32 * py + m33 * pz + m34;
+    }
+  }
+
   /**
    * Multiplies the matrix by another matrix
    *
@@ -0,0 +1,343 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ * @author Mark C. Slee <mark@heronarts.com>
+ */
+
+
+package heronarts.lx.transform;
+
+import heronarts.lx.LXParallel;
+import heronarts.lx.model.LXModel;
+
+/**
+ * Projection of an entire model which is stored in flat coordinate arrays
+ * rather than as LXVector objects. Operations do not touch the points, they
+ * are composed into a single matrix, which is then applied to every point in
+ * one pass by project(). Large models may be projected across multiple cores.
+ *
+ * Operations apply in the order they are called, as with LXProjection, and
+ * are relative to the model's original coordinates until reset() is called.
+ * The projected coordinates are indexed by position in the model's points
+ * array, which is the same as point index for the top-level model.
+ *
+ * Projections may optionally be culled against a bounding box, in which case
+ * project() also marks which points fall inside it.
+ */
+public class LXMatrixProjection {
+
+  public final LXModel model;
+
+  /**
+   * Projected coordinates, valid after project() is called
+   */
+  public final float[] x;
+  public final float[] y;
+  public final float[] z;
+
+  /**
+   * Whether each projected point is inside the culling bounds, only updated
+   * when bounds have been set
+   */
+  public final boolean[] visible;
+
+  private final LXMatrix matrix = new LXMatrix();
+  private final LXMatrix operation = new LXMatrix();
+  private final LXMatrix product = new LXMatrix();
+
+  private boolean parallel = false;
+
+  private boolean culling = false;
+  private float xMin, yMin, zMin, xMax, yMax, zMax;
+
+  private int numVisible = 0;
+
+  private final LXParallel.Task task = new LXParallel.Task() {
+    public void run(int start, int end) {
+      projectRange(start, end);
+    }
+  };
+
+  /**
+   * Constructs a projection view of the given model
+   *
+   * @param model Model
+   */
+  public LXMatrixProjection(LXModel model) {
+    this.model = model;
+    this.x = new float[model.size];
+    this.y = new float[model.size];
+    this.z = new float[model.size];
+    this.visible = new boolean[model.size];
+  }
+
+  /**
+   * Sets whether project() may split its work across multiple threads. This
+   * only takes effect on large models.
+   *
+   * @param parallel Whether to project in parallel
+   * @return this, for method chaining
+   */
+  public LXMatrixProjection setParallel(boolean parallel) {
+    this.parallel = parallel;
+    return this;
+  }
+
+  /**
+   * Sets bounds to cull projected points against, inclusive
+   *
+   * @param xMin Minimum x
+   * @param yMin Minimum y
+   * @param zMin Minimum z
+   * @param xMax Maximum x
+   * @param yMax Maximum y
+   * @param zMax Maximum z
+   * @return this, for method chaining
+   */
+  public LXMatrixProjection setBounds(float xMin, float yMin, float zMin, float xMax, float yMax, float zMax) {
+    this.culling = true;
+    this.xMin = xMin;
+    this.yMin = yMin;
+    this.zMin = zMin;
+    this.xMax = xMax;
+    this.yMax = yMax;
+    this.zMax = zMax;
+    return this;
+  }
+
+  /**
+   * Stops culling, all points are treated as visible
+   *
+   * @return this, for method chaining
+   */
+  public LXMatrixProjection clearBounds() {
+    this.culling = false;
+    return this;
+  }
+
+  /**
+   * Number of points inside the culling bounds as of the last projection,
+   * or the size of the model if there are no bounds.
+   *
+   * @return Number of visible points
+   */
+  public int getNumVisible() {
+    return this.culling ? this.numVisible : this.model.size;
+  }
+
+  /**
+   * Gets the matrix composed from all operations since the last reset
+   *
+   * @return Composed matrix
+   */
+  public LXMatrix getMatrix() {
+    return this.matrix;
+  }
+
+  /**
+   * Resets the projection to the original model coordinates
+   *
+   * @return this, for method chaining
+   */
+  public LXMatrixProjection reset() {
+    this.matrix.identity();
+    return this;
+  }
+
+  /**
+   * Applies the composed operations to every point of the model, updating
+   * the coordinate arrays and visibility.
+   *
+   * @return this, for method chaining
+   */
+  public LXMatrixProjection project() {
+    if (this.parallel) {
+      LXParallel.get().run(this.task, this.model.size);
+    } else {
+      projectRange(0, this.model.size);
+    }
+    if (this.culling) {
+      int count = 0;
+      for (boolean v : this.visible) {
+        if (v) {
+          ++count;
+        }
+      }
+      this.numVisible = count;
+    }
+    return this;
+  }
+
+  private void projectRange(int start, int end) {
+    this.matrix.transform(this.model.getXs(), this.model.getYs(), this.model.getZs(), this.x, this.y, this.z, start, end);
+    if (this.culling) {
+      float xMin = this.xMin, yMin = this.yMin, zMin = this.zMin;
+      float xMax = this.xMax, yMax = this.yMax, zMax = this.zMax;
+      float[] x = this.x, y = this.y, z = this.z;
+      for (int i = start; i < end; ++i) {
+        this.visible[i] =
+          x[i] >= xMin && x[i] <= xMax &&
+          y[i] >= yMin && y[i] <= yMax &&
+          z[i] >= zMin && z[i] <= zMax;
+      }
+    }
+  }
+
+  /**
+   * Composes an operation after those already applied
+   */
+  private LXMatrixProjection apply(LXMatrix operation) {
+    this.product.set(operation).multiply(this.matrix);
+    this.matrix.set(this.product);
+    return this;
+  }
+
+  /**
+   * Scales the projection
+   *
+   * @param sx x-factor
+   * @param sy y-factor
+   * @param sz z-factor
+   * @return this, for method chaining
+   */
+  public LXMatrixProjection scale(float sx, float sy, float sz) {
+    return apply(this.operation.identity().scale(sx, sy, sz));
+  }
+
+  /**
+   * Translates the projection
+   *
+   * @param tx x-translation
+   * @param ty y-translation
+   * @param tz z-translation
+   * @return this, for method chaining
+   */
+  public LXMatrixProjection translate(float tx, float ty, float tz) {
+    return apply(this.operation.identity().translate(tx, ty, tz));
+  }
+
+  /**
+   * Centers the projection, by translating it such that the origin (0, 0, 0)
+   * becomes the center of the model
+   *
+   * @return this, for method chaining
+   */
+  public LXMatrixProjection center() {
+    return translate(-this.model.cx, -this.model.cy, -this.model.cz);
+  }
+
+  /**
+   * Translates the model from its center, so (0, 0, 0) becomes (tx, ty, tz)
+   *
+   * @param tx x-translation
+   * @param ty y-translation
+   * @param tz z-translation
+   * @return this, for method chaining
+   */
+  public LXMatrixProjection translateCenter(float tx, float ty, float tz) {
+    return translate(-this.model.cx + tx, -this.model.cy + ty, -this.model.cz + tz);
+  }
+
+  /**
+   * Reflects the projection about the x-axis
+   *
+   * @return this, for method chaining
+   */
+  public LXMatrixProjection reflectX() {
+    return scale(-1, 1, 1);
+  }
+
+  /**
+   * Reflects the projection about the y-axis
+   *
+   * @return this, for method chaining
+   */
+  public LXMatrixProjection reflectY() {
+    return scale(1, -1, 1);
+  }
+
+  /**
+   * Reflects the projection about the z-axis
+   *
+   * @return this, for method chaining
+   */
+  public LXMatrixProjection reflectZ() {
+    return scale(1, 1, -1);
+  }
+
+  /**
+   * Rotates the projection about a vector
+   *
+   * @param angle Angle to rotate by, in radians
+   * @param l vector x-value
+   * @param m vector y-value
+   * @param n vector z-value
+   * @return this, for method chaining
+   */
+  public LXMatrixProjection rotate(float angle, float l, float m, float n) {
+    float ss = l * l + m * m + n * n;
+    if (ss != 1) {
+      float sr = (float) Math.sqrt(ss);
+      l /= sr;
+      m /= sr;
+      n /= sr;
+    }
+    float sinv = (float) Math.sin(angle);
+    float cosv = (float) Math.cos(angle);
+    LXMatrix op = this.operation.identity();
+    op.m11 = l * l * (1 - cosv) + cosv;
+    op.m12 = l * m * (1 - cosv) - n * sinv;
+    op.m13 = l * n * (1 - cosv) + m * sinv;
+    op.m21 = l * m * (1 - cosv) + n * sinv;
+    op.m22 = m * m * (1 - cosv) + cosv;
+    op.m23 = m * n * (1 - cosv) - l * sinv;
+    op.m31 = l * n * (1 - cosv) - m * sinv;
+    op.m32 = m * n * (1 - cosv) + l * sinv;
+    op.m33 = n * n * (1 - cosv) + cosv;
+    return apply(op);
+  }
+
+  /**
+   * Rotate about the x-axis
+   *
+   * @param angle Angle in radians
+   * @return this
+   */
+  public LXMatrixProjection rotateX(float angle) {
+    return rotate(angle, 1, 0, 0);
+  }
+
+  /**
+   * Rotate about the y-axis
+   *
+   * @param angle Angle in radians
+   * @return this
+   */
+  public LXMatrixProjection rotateY(float angle) {
+    return rotate(angle, 0, 1, 0);
+  }
+
+  /**
+   * Rotate about the z-axis
+   *
+   * @param angle Angle in radians
+   * @return this
+   */
+  public LXMatrixProjection rotateZ(float angle) {
+    return rotate(angle, 0, 0, 1);
+  }
+}
@@ -61,12 +61,11 @@ public class LXProjection implements Iterable<LXVector> {
    * @return this, for method chaining
    */
   public LXProjection reset() {
-    int i = 0;
-    for (LXPoint point : this.model.points) {
-      this.vectors[i].x = point.x;
-      this.vectors[i].y = point.y;
-      this.vectors[i].z = point.z;
-      ++i;
+    float[] xs = this.model.getXs(), ys = this.model.getYs(), zs = this.model.getZs();
+    for (int i = 0; i < this.vectors.length; ++i) {
+      this.vectors[i].x = xs[i];
+      this.vectors[i].y = ys[i];
+      this.vectors[i].z = zs[i];
     }
     return this;
   }
@@ -20,16 +20,21 @@
 
 package heronarts.lx.transform;
 
-import java.util.Stack;
-
 /**
  * A transform is a matrix stack, quite similar to the OpenGL implementation.
  * This class can be used to push a point around in 3-d space. The matrix itself
  * is not directly exposed, but the x,y,z values are.
+ *
+ * Matrices on the stack are allocated once and reused, so pushing and popping
+ * does not create garbage. A transform is not thread-safe.
  */
 public class LXTransform {
 
-  private final Stack<LXMatrix> matrices = new Stack<LXMatrix>();
+  private static final int INITIAL_DEPTH = 8;
+
+  private LXMatrix[] matrices = new LXMatrix[INITIAL_DEPTH];
+
+  private int depth = 0;
 
   /**
    * Constructs a new transform
@@ -39,11 +44,11 @@ public class LXTransform {
   }
 
   public LXTransform(LXMatrix matrix) {
-    this.matrices.push(matrix);
+    this.matrices[0] = matrix;
   }
 
   public LXMatrix getMatrix() {
-    return this.matrices.peek();
+    return this.matrices[this.depth];
   }
 
   /**
@@ -56,6 +61,69 @@ public class LXTransform {
     return new LXVector(m.m14, m.m24, m.m34);
   }
 
+  /**
+   * Writes the current x, y, z of the transform into a vector, without
+   * allocating.
+   *
+   * @param vector Vector to write into
+   * @return The vector that was passed in
+   */
+  public LXVector vector(LXVector vector) {
+    LXMatrix m = getMatrix();
+    return vector.set(m.m14, m.m24, m.m34);
+  }
+
+  /**
+   * Transforms a range of points, given in the local coordinate space of the
+   * transform, into its parent space. The output arrays may be the same as
+   * the input arrays. This is equivalent to translating to each point and
+   * reading back x(), y() and z(), but is done in one pass with no
+   * allocation.
+   *
+   * @param x Input x coordinates
+   * @param y Input y coordinates
+   * @param z Input z coordinates
+   * @param outX Output x coordinates
+   * @param outY Output y coordinates
+   * @param outZ Output z coordinates
+   * @param start First point to transform
+   * @param end One past the last point to transform
+   * @return this
+   */
+  public LXTransform transform(float[] x, float[] y, float[] z, float[] outX, float[] outY, float[] outZ, int start, int end) {
+    getMatrix().transform(x, y, z, outX, outY, outZ, start, end);
+    return this;
+  }
+
+  /**
+   * Generates a run of evenly spaced points, as is common when building
+   * strips of LEDs. The first point is at the current position, each
+   * subsequent one is offset by the given step in local coordinates. The
+   * transform itself is left unchanged.
+   *
+   * @param count Number of points
+   * @param dx Step in local x
+   * @param dy Step in local y
+   * @param dz Step in local z
+   * @param outX Output x coordinates
+   * @param outY Output y coordinates
+   * @param outZ Output z coordinates
+   * @param offset Position in the output arrays to write the first point
+   * @return this
+   */
+  public LXTransform line(int count, float dx, float dy, float dz, float[] outX, float[] outY, float[] outZ, int offset) {
+    LXMatrix m = getMatrix();
+    float sx = m.m11 * dx + m.m12 * dy + m.m13 * dz;
+    float sy = m.m21 * dx + m.m22 * dy + m.m23 * dz;
+    float sz = m.m31 * dx + m.m32 * dy + m.m33 * dz;
+    for (int i = 0; i < count; ++i) {
+      outX[offset + i] = m.m14 + i * sx;
+      outY[offset + i] = m.m24 + i * sy;
+      outZ[offset + i] = m.m34 + i * sz;
+    }
+    return this;
+  }
+
   /**
    * Gets the x value of the transform
    *
@@ -179,7 +247,17 @@ public class LXTransform {
    * @return this, for method chaining
    */
   public LXTransform push() {
-    this.matrices.push(new LXMatrix(this.matrices.peek()));
+    LXMatrix current = this.matrices[this.depth];
+    if (++this.depth == this.matrices.length) {
+      LXMatrix[] grown = new LXMatrix[2 * this.matrices.length];
+      System.arraycopy(this.matrices, 0, grown, 0, this.matrices.length);
+      this.matrices = grown;
+    }
+    if (this.matrices[this.depth] == null) {
+      this.matrices[this.depth] = new LXMatrix(current);
+    } else {
+      this.matrices[this.depth].set(current);
+    }
     return this;
   }
 
@@ -189,7 +267,10 @@ public class LXTransform {
    * @return this, for method chaining
    */
   public LXTransform pop() {
-    this.matrices.pop();
+    if (this.depth == 0) {
+      throw new IllegalStateException("Cannot pop the base matrix of LXTransform");
+    }
+    --this.depth;
     return this;
   }
 